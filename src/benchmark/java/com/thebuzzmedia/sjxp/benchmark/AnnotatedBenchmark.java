@@ -0,0 +1,192 @@
+/**   
+ * Copyright 2011 The Buzz Media, LLC
+ * 
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *   http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.thebuzzmedia.sjxp.benchmark;
+
+import java.io.ByteArrayInputStream;
+import java.io.PrintStream;
+import java.util.concurrent.TimeUnit;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+import org.openjdk.jmh.infra.Blackhole;
+
+import com.thebuzzmedia.sjxp.XMLParser;
+import com.thebuzzmedia.sjxp.rule.AnnotatedRule;
+import com.thebuzzmedia.sjxp.rule.DefaultRule;
+import com.thebuzzmedia.sjxp.rule.IRule;
+import com.thebuzzmedia.sjxp.rule.IRule.Type;
+import com.thebuzzmedia.sjxp.rule.RuleMethod;
+
+/**
+ * JMH benchmark comparing hand-written {@link DefaultRule}s against the same
+ * rules created from {@link RuleMethod} annotated methods by
+ * {@link AnnotatedRule}, which calls them through reflection.
+ * <p/>
+ * Both variants do the same trivial work per match on a synthetic document
+ * of many small records, each with a tag, attribute and text match; the
+ * difference is the cost of the reflective call and its arguments. Run with
+ * <code>-prof gc</code> to see that the annotated rules allocate nothing more
+ * per match than the hand-written ones.
+ * <p/>
+ * Running this class directly (see the "benchmark-annotated" Ant target)
+ * instead times both variants outside of JMH and prints one CSV line per
+ * variant.
+ * 
+ * @author Riyad Kalla (software@thebuzzmedia.com)
+ */
+@State(Scope.Thread)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MILLISECONDS)
+@Warmup(iterations = 5)
+@Measurement(iterations = 5)
+@Fork(1)
+public class AnnotatedBenchmark {
+	private static final String RECORD = "/root/record";
+
+	@Param("size=4m,depth=1,textLength=4")
+	public String shape;
+
+	private byte[] document;
+	private XMLParser<Blackhole> directParser;
+	private XMLParser<Blackhole> annotatedParser;
+
+	@Setup
+	@SuppressWarnings("unchecked")
+	public void setup() {
+		SyntheticCorpus corpus = new SyntheticCorpus();
+		String[] settings = shape.split(",");
+
+		for (int i = 0; i < settings.length; i++)
+			corpus.apply(settings[i]);
+
+		document = corpus.generate();
+
+		directParser = new XMLParser<Blackhole>(new IRule[] { new TagRule(),
+				new AttributeRule(), new TextRule() });
+		annotatedParser = new XMLParser<Blackhole>(
+				AnnotatedRule.<Blackhole> createRules(new Handler()));
+	}
+
+	@Benchmark
+	public void direct(Blackhole blackhole) {
+		directParser.parse(new ByteArrayInputStream(document), blackhole);
+	}
+
+	@Benchmark
+	public void annotated(Blackhole blackhole) {
+		annotatedParser.parse(new ByteArrayInputStream(document), blackhole);
+	}
+
+	public static void main(String[] args) {
+		AnnotatedBenchmark benchmark = new AnnotatedBenchmark();
+		Blackhole blackhole = new Blackhole(
+				"Today's password is swordfish. I understand instantiating Blackholes directly is dangerous.");
+		PrintStream out = System.out;
+
+		benchmark.shape = "size=4m,depth=1,textLength=4";
+		benchmark.setup();
+
+		out.println("variant,bytes,millis,mbPerSecond");
+
+		for (int variant = 0; variant < 2; variant++) {
+			long elapsedTime = 0;
+
+			// Warm up, then keep the best of a few rounds
+			for (int round = 0; round < 30; round++) {
+				long startTime = System.nanoTime();
+
+				if (variant == 0)
+					benchmark.direct(blackhole);
+				else
+					benchmark.annotated(blackhole);
+
+				long time = System.nanoTime() - startTime;
+
+				if (round >= 20 && (elapsedTime == 0 || time < elapsedTime))
+					elapsedTime = time;
+			}
+
+			double millis = elapsedTime / 1000000d;
+
+			out.println((variant == 0 ? "direct" : "annotated") + ','
+					+ benchmark.document.length + ',' + millis + ','
+					+ ((benchmark.document.length / 1048576d) / (millis / 1000d)));
+		}
+	}
+
+	static class Handler {
+		@RuleMethod(type = Type.TAG, locationPath = RECORD)
+		void record(boolean isStartTag, Blackhole blackhole) {
+			blackhole.consume(isStartTag);
+		}
+
+		@RuleMethod(type = Type.ATTRIBUTE, locationPath = RECORD, attributeNames = {
+				"a0", "a1" })
+		void attribute(int index, String value, Blackhole blackhole) {
+			blackhole.consume(index + value.length());
+		}
+
+		@RuleMethod(type = Type.CHARACTER, locationPath = RECORD + "/leaf")
+		void text(String text, Blackhole blackhole) {
+			blackhole.consume(text.length());
+		}
+	}
+
+	static class TagRule extends DefaultRule<Blackhole> {
+		TagRule() {
+			super(Type.TAG, RECORD);
+		}
+
+		@Override
+		public void handleTag(XMLParser<Blackhole> parser, boolean isStartTag,
+				Blackhole blackhole) {
+			blackhole.consume(isStartTag);
+		}
+	}
+
+	static class AttributeRule extends DefaultRule<Blackhole> {
+		AttributeRule() {
+			super(Type.ATTRIBUTE, RECORD, "a0", "a1");
+		}
+
+		@Override
+		public void handleParsedAttribute(XMLParser<Blackhole> parser,
+				int index, String value, Blackhole blackhole) {
+			blackhole.consume(index + value.length());
+		}
+	}
+
+	static class TextRule extends DefaultRule<Blackhole> {
+		TextRule() {
+			super(Type.CHARACTER, RECORD + "/leaf");
+		}
+
+		@Override
+		public void handleParsedCharacters(XMLParser<Blackhole> parser,
+				String text, Blackhole blackhole) {
+			blackhole.consume(text.length());
+		}
+	}
+}
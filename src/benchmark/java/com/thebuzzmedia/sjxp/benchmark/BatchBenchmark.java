@@ -0,0 +1,264 @@
+/**   
+ * Copyright 2011 The Buzz Media, LLC
+ * 
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *   http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.thebuzzmedia.sjxp.benchmark;
+
+import java.io.ByteArrayInputStream;
+import java.io.PrintStream;
+import java.util.concurrent.TimeUnit;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+import org.openjdk.jmh.infra.Blackhole;
+
+import com.thebuzzmedia.sjxp.IMatchBatchHandler;
+import com.thebuzzmedia.sjxp.MatchBatch;
+import com.thebuzzmedia.sjxp.XMLParser;
+import com.thebuzzmedia.sjxp.rule.DefaultRule;
+import com.thebuzzmedia.sjxp.rule.IRule;
+
+/**
+ * JMH benchmark comparing matches delivered one <code>handleXXX</code> call at
+ * a time to eight different {@link IRule} classes (enough to make the parser's
+ * call sites megamorphic, like a real application with many rules) against the
+ * same matches delivered in batches to a single {@link IMatchBatchHandler}.
+ * <p/>
+ * Both variants do the same trivial work per value; the difference is the
+ * cost of dispatching every value to its rule and creating a {@link String}
+ * for it.
+ * <p/>
+ * Running this class directly (see the "benchmark-batch" Ant target) instead
+ * times both variants outside of JMH and prints one CSV line per variant.
+ * 
+ * @author Riyad Kalla (software@thebuzzmedia.com)
+ */
+@State(Scope.Thread)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MILLISECONDS)
+@Warmup(iterations = 5)
+@Measurement(iterations = 5)
+@Fork(1)
+public class BatchBenchmark {
+	private static final String RECORD = "/root/record";
+	private static final String E1 = RECORD + "/e1";
+	private static final String E2 = E1 + "/e2";
+	private static final String E3 = E2 + "/e3";
+
+	@Param({ "64", "1024" })
+	public int batchSize;
+
+	@Param("size=4m")
+	public String shape;
+
+	private byte[] document;
+	private XMLParser<Blackhole> ruleParser;
+	private XMLParser<Blackhole> batchParser;
+
+	@Setup
+	public void setup() {
+		SyntheticCorpus corpus = new SyntheticCorpus();
+		String[] settings = shape.split(",");
+
+		for (int i = 0; i < settings.length; i++)
+			corpus.apply(settings[i]);
+
+		document = corpus.generate();
+
+		ruleParser = new XMLParser<Blackhole>(createRules());
+		batchParser = new XMLParser<Blackhole>(createRules());
+		batchParser.setBatchHandler(new BatchHandler(), batchSize);
+	}
+
+	@Benchmark
+	public void rules(Blackhole blackhole) {
+		ruleParser.parse(new ByteArrayInputStream(document), blackhole);
+	}
+
+	@Benchmark
+	public void batch(Blackhole blackhole) {
+		batchParser.parse(new ByteArrayInputStream(document), blackhole);
+	}
+
+	public static void main(String[] args) {
+		BatchBenchmark benchmark = new BatchBenchmark();
+		Blackhole blackhole = new Blackhole(
+				"Today's password is swordfish. I understand instantiating Blackholes directly is dangerous.");
+		PrintStream out = System.out;
+
+		benchmark.batchSize = (args.length > 0 ? Integer.parseInt(args[0])
+				: 1024);
+		benchmark.shape = "size=4m";
+		benchmark.setup();
+
+		out.println("variant,batchSize,bytes,millis,mbPerSecond");
+
+		for (int variant = 0; variant < 2; variant++) {
+			long elapsedTime = 0;
+
+			// Warm up, then keep the best of a few rounds
+			for (int round = 0; round < 30; round++) {
+				long startTime = System.nanoTime();
+
+				if (variant == 0)
+					benchmark.rules(blackhole);
+				else
+					benchmark.batch(blackhole);
+
+				long time = System.nanoTime() - startTime;
+
+				if (round >= 20 && (elapsedTime == 0 || time < elapsedTime))
+					elapsedTime = time;
+			}
+
+			double millis = elapsedTime / 1000000d;
+
+			out.println((variant == 0 ? "rules" : "batch") + ','
+					+ benchmark.batchSize + ',' + benchmark.document.length
+					+ ',' + millis + ','
+					+ ((benchmark.document.length / 1048576d) / (millis / 1000d)));
+		}
+	}
+
+	/**
+	 * Used to create a rule for the text of every leaf and the attributes of
+	 * every element on a record's spine, each one a different class.
+	 */
+	@SuppressWarnings("unchecked")
+	static IRule<Blackhole>[] createRules() {
+		return new IRule[] { new LeafRule0(), new LeafRule1(),
+				new LeafRule2(), new LeafRule3(), new AttributeRule0(),
+				new AttributeRule1(), new AttributeRule2(),
+				new AttributeRule3() };
+	}
+
+	static class BatchHandler implements IMatchBatchHandler<Blackhole> {
+		public void handleBatch(XMLParser<Blackhole> parser, MatchBatch batch,
+				Blackhole blackhole) {
+			int[] ruleIds = batch.getRuleIds();
+			int[] lengths = batch.getLengths();
+			int total = 0;
+
+			for (int i = 0, size = batch.size(); i < size; i++)
+				total += ruleIds[i] + lengths[i];
+
+			blackhole.consume(total);
+		}
+	}
+
+	static class LeafRule0 extends DefaultRule<Blackhole> {
+		LeafRule0() {
+			super(Type.CHARACTER, RECORD + "/leaf");
+		}
+
+		@Override
+		public void handleParsedCharacters(XMLParser<Blackhole> parser,
+				String text, Blackhole blackhole) {
+			blackhole.consume(text.length());
+		}
+	}
+
+	static class LeafRule1 extends DefaultRule<Blackhole> {
+		LeafRule1() {
+			super(Type.CHARACTER, E1 + "/leaf");
+		}
+
+		@Override
+		public void handleParsedCharacters(XMLParser<Blackhole> parser,
+				String text, Blackhole blackhole) {
+			blackhole.consume(1 + text.length());
+		}
+	}
+
+	static class LeafRule2 extends DefaultRule<Blackhole> {
+		LeafRule2() {
+			super(Type.CHARACTER, E2 + "/leaf");
+		}
+
+		@Override
+		public void handleParsedCharacters(XMLParser<Blackhole> parser,
+				String text, Blackhole blackhole) {
+			blackhole.consume(2 + text.length());
+		}
+	}
+
+	static class LeafRule3 extends DefaultRule<Blackhole> {
+		LeafRule3() {
+			super(Type.CHARACTER, E3 + "/leaf");
+		}
+
+		@Override
+		public void handleParsedCharacters(XMLParser<Blackhole> parser,
+				String text, Blackhole blackhole) {
+			blackhole.consume(3 + text.length());
+		}
+	}
+
+	static class AttributeRule0 extends DefaultRule<Blackhole> {
+		AttributeRule0() {
+			super(Type.ATTRIBUTE, RECORD, "a0", "a1");
+		}
+
+		@Override
+		public void handleParsedAttribute(XMLParser<Blackhole> parser,
+				int index, String value, Blackhole blackhole) {
+			blackhole.consume(4 + value.length());
+		}
+	}
+
+	static class AttributeRule1 extends DefaultRule<Blackhole> {
+		AttributeRule1() {
+			super(Type.ATTRIBUTE, E1, "a0", "a1");
+		}
+
+		@Override
+		public void handleParsedAttribute(XMLParser<Blackhole> parser,
+				int index, String value, Blackhole blackhole) {
+			blackhole.consume(5 + value.length());
+		}
+	}
+
+	static class AttributeRule2 extends DefaultRule<Blackhole> {
+		AttributeRule2() {
+			super(Type.ATTRIBUTE, E2, "a0", "a1");
+		}
+
+		@Override
+		public void handleParsedAttribute(XMLParser<Blackhole> parser,
+				int index, String value, Blackhole blackhole) {
+			blackhole.consume(6 + value.length());
+		}
+	}
+
+	static class AttributeRule3 extends DefaultRule<Blackhole> {
+		AttributeRule3() {
+			super(Type.ATTRIBUTE, E3, "a0", "a1");
+		}
+
+		@Override
+		public void handleParsedAttribute(XMLParser<Blackhole> parser,
+				int index, String value, Blackhole blackhole) {
+			blackhole.consume(7 + value.length());
+		}
+	}
+}
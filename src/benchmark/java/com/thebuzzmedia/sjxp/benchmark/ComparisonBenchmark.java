@@ -0,0 +1,547 @@
+/**   
+ * Copyright 2011 The Buzz Media, LLC
+ * 
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *   http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.thebuzzmedia.sjxp.benchmark;
+
+import java.io.ByteArrayInputStream;
+import java.io.PrintStream;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Iterator;
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+
+import javax.xml.XMLConstants;
+import javax.xml.namespace.NamespaceContext;
+import javax.xml.parsers.DocumentBuilder;
+import javax.xml.parsers.DocumentBuilderFactory;
+import javax.xml.parsers.SAXParser;
+import javax.xml.parsers.SAXParserFactory;
+import javax.xml.stream.XMLInputFactory;
+import javax.xml.stream.XMLStreamConstants;
+import javax.xml.stream.XMLStreamReader;
+import javax.xml.xpath.XPath;
+import javax.xml.xpath.XPathConstants;
+import javax.xml.xpath.XPathExpression;
+import javax.xml.xpath.XPathFactory;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+import org.openjdk.jmh.infra.Blackhole;
+import org.w3c.dom.Document;
+import org.w3c.dom.Element;
+import org.w3c.dom.Node;
+import org.w3c.dom.NodeList;
+import org.xml.sax.Attributes;
+import org.xml.sax.InputSource;
+import org.xml.sax.helpers.DefaultHandler;
+import org.xmlpull.v1.XmlPullParser;
+
+import com.thebuzzmedia.sjxp.XMLParser;
+import com.thebuzzmedia.sjxp.benchmark.Corpus.Selector;
+import com.thebuzzmedia.sjxp.rule.IRule.Type;
+
+/**
+ * JMH benchmark performing the extraction of every bundled {@link Corpus} with
+ * SJXP and with equivalent hand-written code on top of the JDK's SAX, StAX and
+ * DOM + XPath APIs and the raw XML Pull Parser SJXP itself sits on.
+ * <p/>
+ * The hand-written extractions are driven by the same {@link Selector}s as the
+ * SJXP rules and track their location the way most hand-written parsing code
+ * does, so every variant produces the same values. <code>xmlPull</code> only
+ * tokenizes the document without extracting anything; it is the floor every
+ * other variant is measured against.
+ * <p/>
+ * Running this class directly (see the "benchmark-compare" Ant target) instead
+ * prints one CSV line per corpus and variant with the average time per
+ * document and its ratio to <code>xmlPull</code>, i.e. SJXP's overhead over
+ * bare tokenizing, outside of JMH.
+ * 
+ * @author Riyad Kalla (software@thebuzzmedia.com)
+ */
+@State(Scope.Thread)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 5, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+public class ComparisonBenchmark {
+	/**
+	 * Names of the variants in the order they are reported by
+	 * {@link #main(String[])}.
+	 */
+	public static final String[] VARIANTS = new String[] { "xmlPull",
+			"xmlPullExtract", "sjxp", "sax", "stax", "domXPath" };
+
+	private static final int ROUNDS = 5;
+
+	/**
+	 * Xerces feature that stops the SAX and DOM variants from going out to
+	 * the network for the DTD the Bugzilla document references.
+	 */
+	private static final String LOAD_EXTERNAL_DTD = "http://apache.org/xml/features/nonvalidating/load-external-dtd";
+
+	@Param
+	public Corpus corpus;
+
+	private Variants variants;
+
+	@Setup
+	public void setup() throws Exception {
+		variants = new Variants(corpus);
+	}
+
+	@Benchmark
+	public void xmlPull(Blackhole blackhole) throws Exception {
+		variants.xmlPull(blackhole);
+	}
+
+	@Benchmark
+	public void xmlPullExtract(Blackhole blackhole) throws Exception {
+		variants.xmlPullExtract(blackhole);
+	}
+
+	@Benchmark
+	public void sjxp(Blackhole blackhole) throws Exception {
+		variants.sjxp(blackhole);
+	}
+
+	@Benchmark
+	public void sax(Blackhole blackhole) throws Exception {
+		variants.sax(blackhole);
+	}
+
+	@Benchmark
+	public void stax(Blackhole blackhole) throws Exception {
+		variants.stax(blackhole);
+	}
+
+	@Benchmark
+	public void domXPath(Blackhole blackhole) throws Exception {
+		variants.domXPath(blackhole);
+	}
+
+	public static void main(String[] args) throws Exception {
+		int iterations = (args.length > 0 ? Integer.parseInt(args[0]) : 200);
+		PrintStream out = System.out;
+		Blackhole blackhole = new Blackhole(
+				"Today's password is swordfish. I understand instantiating Blackholes directly is dangerous.");
+		Corpus[] corpora = Corpus.values();
+
+		out.println("corpus,variant,microsPerDocument,ratioToXmlPull");
+
+		for (int i = 0; i < corpora.length; i++) {
+			Variants variants = new Variants(corpora[i]);
+			double[] micros = new double[VARIANTS.length];
+			Arrays.fill(micros, Double.MAX_VALUE);
+
+			// Interleave the variants and keep the best round of each
+			for (int round = 0; round < ROUNDS; round++) {
+				for (int j = 0; j < VARIANTS.length; j++) {
+					long startTime = System.nanoTime();
+
+					for (int k = 0; k < iterations; k++)
+						variants.run(j, blackhole);
+
+					micros[j] = Math.min(micros[j],
+							(System.nanoTime() - startTime) / 1000d
+									/ iterations);
+				}
+			}
+
+			for (int j = 0; j < VARIANTS.length; j++)
+				out.println(corpora[i] + "," + VARIANTS[j] + "," + micros[j]
+						+ "," + (micros[j] / micros[0]));
+		}
+	}
+
+	/**
+	 * All the variants for a single {@link Corpus} along with the parsers they
+	 * reuse between documents, the same way {@link XMLParser} is reused.
+	 */
+	static class Variants {
+		private byte[] document;
+		private Selector[] selectors;
+
+		private XmlPullParser xpp;
+		private XMLParser<Blackhole> parser;
+		private SAXParser saxParser;
+		private XMLInputFactory staxFactory;
+		private DocumentBuilder documentBuilder;
+		private XPathExpression[] expressions;
+
+		Variants(Corpus corpus) throws Exception {
+			document = corpus.load();
+			selectors = corpus.getSelectors();
+
+			xpp = XMLParser.XPP_FACTORY.newPullParser();
+			parser = new XMLParser<Blackhole>(corpus.createRules());
+
+			SAXParserFactory saxFactory = SAXParserFactory.newInstance();
+			saxFactory.setNamespaceAware(true);
+			saxFactory.setFeature(LOAD_EXTERNAL_DTD, false);
+			saxParser = saxFactory.newSAXParser();
+
+			staxFactory = XMLInputFactory.newInstance();
+			staxFactory.setProperty(XMLInputFactory.SUPPORT_DTD, Boolean.FALSE);
+
+			DocumentBuilderFactory domFactory = DocumentBuilderFactory
+					.newInstance();
+			domFactory.setNamespaceAware(true);
+			domFactory.setFeature(LOAD_EXTERNAL_DTD, false);
+			documentBuilder = domFactory.newDocumentBuilder();
+
+			expressions = compileXPath(selectors);
+		}
+
+		void run(int variant, Blackhole blackhole) throws Exception {
+			switch (variant) {
+			case 0:
+				xmlPull(blackhole);
+				break;
+			case 1:
+				xmlPullExtract(blackhole);
+				break;
+			case 2:
+				sjxp(blackhole);
+				break;
+			case 3:
+				sax(blackhole);
+				break;
+			case 4:
+				stax(blackhole);
+				break;
+			default:
+				domXPath(blackhole);
+				break;
+			}
+		}
+
+		void xmlPull(Blackhole blackhole) throws Exception {
+			xpp.setInput(new ByteArrayInputStream(document), null);
+
+			int type;
+
+			while ((type = xpp.next()) != XmlPullParser.END_DOCUMENT)
+				blackhole.consume(type);
+		}
+
+		void xmlPullExtract(Blackhole blackhole) throws Exception {
+			PathTracker tracker = new PathTracker(selectors);
+			xpp.setInput(new ByteArrayInputStream(document), null);
+
+			int type;
+
+			while ((type = xpp.next()) != XmlPullParser.END_DOCUMENT) {
+				switch (type) {
+				case XmlPullParser.START_TAG:
+					tracker.push(xpp.getNamespace(), xpp.getName());
+
+					for (int i = tracker.match(Type.ATTRIBUTE, 0); i != -1; i = tracker
+							.match(Type.ATTRIBUTE, i + 1)) {
+						for (int j = 0; j < tracker.localNames[i].length; j++)
+							blackhole.consume(xpp.getAttributeValue(
+									tracker.namespaceURIs[i][j],
+									tracker.localNames[i][j]));
+					}
+					break;
+
+				case XmlPullParser.TEXT:
+					if (tracker.match(Type.CHARACTER, 0) != -1)
+						blackhole.consume(xpp.getText());
+					break;
+
+				case XmlPullParser.END_TAG:
+					tracker.pop();
+					break;
+				}
+			}
+		}
+
+		void sjxp(Blackhole blackhole) {
+			parser.parse(new ByteArrayInputStream(document), blackhole);
+		}
+
+		void sax(final Blackhole blackhole) throws Exception {
+			final PathTracker tracker = new PathTracker(selectors);
+			final StringBuilder text = new StringBuilder();
+
+			saxParser.parse(new ByteArrayInputStream(document),
+					new DefaultHandler() {
+						@Override
+						public void startElement(String uri, String localName,
+								String qName, Attributes attributes) {
+							flush();
+							tracker.push(uri, localName);
+
+							for (int i = tracker.match(Type.ATTRIBUTE, 0); i != -1; i = tracker
+									.match(Type.ATTRIBUTE, i + 1)) {
+								for (int j = 0; j < tracker.localNames[i].length; j++) {
+									String namespaceURI = tracker.namespaceURIs[i][j];
+
+									blackhole.consume(attributes.getValue(
+											namespaceURI == null ? ""
+													: namespaceURI,
+											tracker.localNames[i][j]));
+								}
+							}
+						}
+
+						@Override
+						public void characters(char[] ch, int start, int length) {
+							// SAX may split a single run of text up
+							if (tracker.match(Type.CHARACTER, 0) != -1)
+								text.append(ch, start, length);
+						}
+
+						@Override
+						public void endElement(String uri, String localName,
+								String qName) {
+							flush();
+							tracker.pop();
+						}
+
+						private void flush() {
+							if (text.length() > 0) {
+								blackhole.consume(text.toString());
+								text.setLength(0);
+							}
+						}
+					});
+		}
+
+		void stax(Blackhole blackhole) throws Exception {
+			PathTracker tracker = new PathTracker(selectors);
+			XMLStreamReader reader = staxFactory
+					.createXMLStreamReader(new ByteArrayInputStream(document));
+
+			try {
+				while (reader.hasNext()) {
+					switch (reader.next()) {
+					case XMLStreamConstants.START_ELEMENT:
+						tracker.push(reader.getNamespaceURI(),
+								reader.getLocalName());
+
+						for (int i = tracker.match(Type.ATTRIBUTE, 0); i != -1; i = tracker
+								.match(Type.ATTRIBUTE, i + 1)) {
+							for (int j = 0; j < tracker.localNames[i].length; j++)
+								blackhole.consume(reader.getAttributeValue(
+										tracker.namespaceURIs[i][j],
+										tracker.localNames[i][j]));
+						}
+						break;
+
+					case XMLStreamConstants.CHARACTERS:
+					case XMLStreamConstants.CDATA:
+						if (tracker.match(Type.CHARACTER, 0) != -1)
+							blackhole.consume(reader.getText());
+						break;
+
+					case XMLStreamConstants.END_ELEMENT:
+						tracker.pop();
+						break;
+					}
+				}
+			} finally {
+				reader.close();
+			}
+		}
+
+		void domXPath(Blackhole blackhole) throws Exception {
+			Document dom = documentBuilder.parse(new InputSource(
+					new ByteArrayInputStream(document)));
+
+			for (int i = 0; i < expressions.length; i++) {
+				NodeList nodes = (NodeList) expressions[i].evaluate(dom,
+						XPathConstants.NODESET);
+
+				for (int j = 0, length = nodes.getLength(); j < length; j++) {
+					Node node = nodes.item(j);
+
+					if (node instanceof Element)
+						blackhole.consume(node.getTextContent());
+					else
+						blackhole.consume(node.getNodeValue());
+				}
+			}
+		}
+	}
+
+	/**
+	 * Used to translate the selectors into XPath expressions, e.g.
+	 * "/[uri]RDF/[uri]item" with the attribute "about" becomes
+	 * "/ns0:RDF/ns0:item/@about".
+	 */
+	static XPathExpression[] compileXPath(Selector[] selectors)
+			throws Exception {
+		final List<String> namespaceURIs = new ArrayList<String>();
+		List<String> paths = new ArrayList<String>();
+
+		for (int i = 0; i < selectors.length; i++) {
+			String path = toXPath(selectors[i].getLocationPath(),
+					namespaceURIs);
+
+			if (selectors[i].getType() == Type.ATTRIBUTE) {
+				String[] attrNames = selectors[i].getAttributeNames();
+
+				for (int j = 0; j < attrNames.length; j++)
+					paths.add(path + "/@"
+							+ toXPath(attrNames[j], namespaceURIs));
+			} else if (selectors[i].getType() == Type.CHARACTER)
+				paths.add(path);
+		}
+
+		XPath xpath = XPathFactory.newInstance().newXPath();
+		xpath.setNamespaceContext(new NamespaceContext() {
+			public String getNamespaceURI(String prefix) {
+				if (prefix.startsWith("ns"))
+					return namespaceURIs.get(Integer.parseInt(prefix
+							.substring(2)));
+
+				return XMLConstants.NULL_NS_URI;
+			}
+
+			public String getPrefix(String namespaceURI) {
+				throw new UnsupportedOperationException();
+			}
+
+			@SuppressWarnings("rawtypes")
+			public Iterator getPrefixes(String namespaceURI) {
+				throw new UnsupportedOperationException();
+			}
+		});
+
+		XPathExpression[] expressions = new XPathExpression[paths.size()];
+
+		for (int i = 0; i < expressions.length; i++)
+			expressions[i] = xpath.compile(paths.get(i));
+
+		return expressions;
+	}
+
+	private static String toXPath(String path, List<String> namespaceURIs) {
+		StringBuilder xpath = new StringBuilder();
+		int index = 0;
+
+		while (index < path.length()) {
+			if (path.charAt(index) == '/')
+				xpath.append(path.charAt(index++));
+
+			if (path.charAt(index) == '[') {
+				int endIndex = path.indexOf(']', index);
+				String namespaceURI = path.substring(index + 1, endIndex);
+
+				if (!namespaceURIs.contains(namespaceURI))
+					namespaceURIs.add(namespaceURI);
+
+				xpath.append("ns").append(namespaceURIs.indexOf(namespaceURI))
+						.append(':');
+				index = endIndex + 1;
+			}
+
+			int endIndex = path.indexOf('/', index);
+
+			if (endIndex == -1)
+				endIndex = path.length();
+
+			xpath.append(path, index, endIndex);
+			index = endIndex;
+		}
+
+		return xpath.toString();
+	}
+
+	/**
+	 * Simple location tracking the way it is typically hand-written: the path
+	 * is kept in a {@link StringBuilder} in the same format as SJXP location
+	 * paths and compared against every selector on each event.
+	 */
+	static class PathTracker {
+		private Selector[] selectors;
+		private String[][] localNames;
+		private String[][] namespaceURIs;
+
+		private StringBuilder path = new StringBuilder(256);
+		private int[] lengths = new int[64];
+		private int depth;
+
+		PathTracker(Selector[] selectors) {
+			this.selectors = selectors;
+
+			localNames = new String[selectors.length][];
+			namespaceURIs = new String[selectors.length][];
+
+			for (int i = 0; i < selectors.length; i++) {
+				String[] attrNames = selectors[i].getAttributeNames();
+
+				localNames[i] = new String[attrNames.length];
+				namespaceURIs[i] = new String[attrNames.length];
+
+				for (int j = 0; j < attrNames.length; j++) {
+					int endIndex = attrNames[j].indexOf(']');
+
+					localNames[i][j] = attrNames[j].substring(endIndex + 1);
+					namespaceURIs[i][j] = (endIndex == -1 ? null
+							: attrNames[j].substring(1, endIndex));
+				}
+			}
+		}
+
+		void push(String namespaceURI, String localName) {
+			if (depth == lengths.length) {
+				int[] newLengths = new int[lengths.length * 2];
+				System.arraycopy(lengths, 0, newLengths, 0, lengths.length);
+				lengths = newLengths;
+			}
+
+			lengths[depth++] = path.length();
+			path.append('/');
+
+			if (namespaceURI != null && namespaceURI.length() > 0)
+				path.append('[').append(namespaceURI).append(']');
+
+			path.append(localName);
+		}
+
+		void pop() {
+			path.setLength(lengths[--depth]);
+		}
+
+		/**
+		 * Used to find the index of the first selector of the given type
+		 * starting at <code>from</code> that matches the current path.
+		 * 
+		 * @return the index of the matching selector or <code>-1</code>.
+		 */
+		int match(Type type, int from) {
+			for (int i = from; i < selectors.length; i++) {
+				if (selectors[i].getType() == type
+						&& selectors[i].getLocationPath().contentEquals(path))
+					return i;
+			}
+
+			return -1;
+		}
+	}
+}
@@ -0,0 +1,194 @@
+/**   
+ * Copyright 2011 The Buzz Media, LLC
+ * 
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *   http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.thebuzzmedia.sjxp.benchmark;
+
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+
+import org.openjdk.jmh.infra.Blackhole;
+
+import com.thebuzzmedia.sjxp.XMLParser;
+import com.thebuzzmedia.sjxp.rule.DefaultRule;
+import com.thebuzzmedia.sjxp.rule.IRule;
+import com.thebuzzmedia.sjxp.rule.IRule.Type;
+
+/**
+ * The bundled benchmark documents along with the values extracted from each
+ * of them.
+ * <p/>
+ * The documents themselves live next to this class on the classpath (they are
+ * kept in <code>/src/test/java/com/thebuzzmedia/sjxp/benchmark</code> and
+ * copied over by the "compile-benchmark" Ant target).
+ * <p/>
+ * The values extracted are described by {@link Selector}s rather than concrete
+ * {@link IRule}s so the same extraction can be re-implemented on top of other
+ * parsers for comparison.
+ * 
+ * @author Riyad Kalla (software@thebuzzmedia.com)
+ */
+public enum Corpus {
+	HACKERNEWS("rss-news.ycombinator.com.xml", new Selector(Type.CHARACTER,
+			"/rss/channel/item/title"), new Selector(Type.CHARACTER,
+			"/rss/channel/item/link")),
+
+	BUGZILLA("bugzilla-bug-feed.xml", new Selector(Type.ATTRIBUTE,
+			"/bugzilla/bug/long_desc/who", "name"), new Selector(
+			Type.CHARACTER, "/bugzilla/bug/long_desc/thetext")),
+
+	CRAIGSLIST(
+			"rdf-newyork.craigslist.org.xml",
+			new Selector(
+					Type.ATTRIBUTE,
+					"/[http://www.w3.org/1999/02/22-rdf-syntax-ns#]RDF/[http://purl.org/rss/1.0/]item",
+					"[http://www.w3.org/1999/02/22-rdf-syntax-ns#]about"),
+			new Selector(
+					Type.CHARACTER,
+					"/[http://www.w3.org/1999/02/22-rdf-syntax-ns#]RDF/[http://purl.org/rss/1.0/]item/[http://purl.org/rss/1.0/]description")),
+
+	TECHCRUNCH("rss-techcrunch.com.xml", new Selector(Type.CHARACTER,
+			"/rss/channel/item/title"), new Selector(Type.CHARACTER,
+			"/rss/channel/item/link")),
+
+	SAMSUNG("rss-news.samsung.com.xml", new Selector(Type.CHARACTER,
+			"/rss/channel/item/title"), new Selector(Type.CHARACTER,
+			"/rss/channel/item/link"), new Selector(Type.CHARACTER,
+			"/rss/channel/item/description")),
+
+	ECLIPSE_XML_STRESS(
+			"eclipse-xml-stress-test.xml",
+			new Selector(
+					Type.CHARACTER,
+					"/motorcarrierfreightdetails/motorcarrierfreightdetail/additionallineitems/additionallineitem/quantityandweight"));
+
+	private String filename;
+	private Selector[] selectors;
+
+	private Corpus(String filename, Selector... selectors) {
+		this.filename = filename;
+		this.selectors = selectors;
+	}
+
+	public String getFilename() {
+		return filename;
+	}
+
+	public Selector[] getSelectors() {
+		return selectors;
+	}
+
+	/**
+	 * Used to load the document completely off-disk and into memory to avoid
+	 * introducing unpredictable (and unequal) I/O latency into the parse
+	 * timing.
+	 * 
+	 * @return the raw bytes of the document.
+	 * 
+	 * @throws IOException
+	 *             if the document cannot be found on the classpath or read.
+	 */
+	public byte[] load() throws IOException {
+		InputStream in = Corpus.class.getResourceAsStream(filename);
+
+		if (in == null)
+			throw new IOException("Benchmark document [" + filename
+					+ "] could not be found on the classpath.");
+
+		try {
+			int bytesRead = 0;
+			byte[] buffer = new byte[8192];
+			ByteArrayOutputStream out = new ByteArrayOutputStream(
+					in.available() > 0 ? in.available() : 8192);
+
+			while ((bytesRead = in.read(buffer)) > 0)
+				out.write(buffer, 0, bytesRead);
+
+			return out.toByteArray();
+		} finally {
+			in.close();
+		}
+	}
+
+	/**
+	 * Used to create the {@link IRule}s that perform this corpus's extraction
+	 * with SJXP. Every parsed value is handed to the {@link Blackhole} given
+	 * as the user object to the parse call so the JIT cannot eliminate it.
+	 * 
+	 * @return the rules performing this corpus's extraction.
+	 */
+	@SuppressWarnings("unchecked")
+	public IRule<Blackhole>[] createRules() {
+		IRule<Blackhole>[] rules = new IRule[selectors.length];
+
+		for (int i = 0; i < selectors.length; i++)
+			rules[i] = selectors[i].createRule();
+
+		return rules;
+	}
+
+	/**
+	 * Simple description of a single value extracted from a {@link Corpus};
+	 * the same triple of values that describes an {@link IRule}.
+	 */
+	public static class Selector {
+		private Type type;
+		private String locationPath;
+		private String[] attributeNames;
+
+		public Selector(Type type, String locationPath,
+				String... attributeNames) {
+			this.type = type;
+			this.locationPath = locationPath;
+			this.attributeNames = attributeNames;
+		}
+
+		public Type getType() {
+			return type;
+		}
+
+		public String getLocationPath() {
+			return locationPath;
+		}
+
+		public String[] getAttributeNames() {
+			return attributeNames;
+		}
+
+		/**
+		 * Used to create an {@link IRule} that performs this selection and
+		 * hands every parsed value to the {@link Blackhole} user object.
+		 * 
+		 * @return an {@link IRule} performing this selection.
+		 */
+		public IRule<Blackhole> createRule() {
+			return new DefaultRule<Blackhole>(type, locationPath,
+					attributeNames) {
+				@Override
+				public void handleParsedAttribute(XMLParser<Blackhole> parser,
+						int index, String value, Blackhole userObject) {
+					userObject.consume(value);
+				}
+
+				@Override
+				public void handleParsedCharacters(
+						XMLParser<Blackhole> parser, String text,
+						Blackhole userObject) {
+					userObject.consume(text);
+				}
+			};
+		}
+	}
+}
@@ -0,0 +1,218 @@
+/**   
+ * Copyright 2011 The Buzz Media, LLC
+ * 
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *   http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.thebuzzmedia.sjxp.benchmark;
+
+import java.io.ByteArrayInputStream;
+import java.io.IOException;
+import java.io.PrintStream;
+import java.util.concurrent.TimeUnit;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+import com.thebuzzmedia.sjxp.LatencyHistogram;
+import com.thebuzzmedia.sjxp.XMLParser;
+import com.thebuzzmedia.sjxp.benchmark.Corpus.Selector;
+import com.thebuzzmedia.sjxp.rule.DefaultRule;
+import com.thebuzzmedia.sjxp.rule.IRule;
+
+/**
+ * JMH benchmark measuring how soon the first {@link IRule} fires after a
+ * document starts arriving over a {@link ThrottledInputStream}, and how
+ * evenly the following matches are spread out, with and without
+ * {@link XMLParser#setReadChunkSize(int)}.
+ * <p/>
+ * Under JMH (sample time mode) every invocation stops parsing at the first
+ * match, so the reported percentiles are time-to-first-match. Running this
+ * class directly (see the "benchmark-latency" Ant target) instead parses
+ * every document completely several times and prints one CSV line per
+ * corpus, stream type and read chunk size with the p50/p99 time-to-first-match
+ * and inter-match latency.
+ * 
+ * @author Riyad Kalla (software@thebuzzmedia.com)
+ */
+@State(Scope.Thread)
+@BenchmarkMode(Mode.SampleTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 3, time = 2)
+@Measurement(iterations = 5, time = 2)
+@Fork(1)
+public class LatencyBenchmark {
+	/**
+	 * Default rate the documents arrive at; 1 MB per second.
+	 */
+	public static final long BYTES_PER_SECOND = 1024 * 1024;
+
+	/**
+	 * Read chunk sizes compared by {@link #main(String[])}.
+	 */
+	public static final int[] READ_CHUNK_SIZES = new int[] { 0, 512 };
+
+	@Param({ "HACKERNEWS", "BUGZILLA", "CRAIGSLIST", "TECHCRUNCH" })
+	public Corpus corpus;
+
+	@Param({ "0", "512" })
+	public int readChunkSize;
+
+	@Param({ "true", "false" })
+	public boolean fill;
+
+	private byte[] document;
+	private XMLParser<Recorder> parser;
+	private Recorder recorder;
+
+	@Setup
+	public void setup() throws IOException {
+		document = corpus.load();
+		parser = createParser(corpus, readChunkSize);
+		recorder = new Recorder(true);
+	}
+
+	@Benchmark
+	public long timeToFirstMatch() {
+		ThrottledInputStream in = new ThrottledInputStream(document,
+				BYTES_PER_SECOND, fill);
+
+		recorder.reset(in.getStartTime());
+		parser.parse(in, recorder);
+
+		return recorder.lastMatchTime;
+	}
+
+	public static void main(String[] args) throws IOException {
+		int runs = (args.length > 0 ? Integer.parseInt(args[0]) : 10);
+		long bytesPerSecond = (args.length > 1 ? Long.parseLong(args[1])
+				: BYTES_PER_SECOND);
+		PrintStream out = System.out;
+		Corpus[] corpora = Corpus.values();
+		boolean[] fills = new boolean[] { true, false };
+
+		out.println("corpus,fill,readChunkSize,ttfmP50Micros,ttfmP99Micros,interMatchP50Micros,interMatchP99Micros");
+
+		for (int i = 0; i < corpora.length; i++) {
+			byte[] document = corpora[i].load();
+
+			for (int j = 0; j < fills.length; j++) {
+				for (int k = 0; k < READ_CHUNK_SIZES.length; k++) {
+					XMLParser<Recorder> parser = createParser(corpora[i],
+							READ_CHUNK_SIZES[k]);
+					Recorder recorder = new Recorder(false);
+
+					// Warm up on the document without any throttling
+					parser.parse(new ByteArrayInputStream(document),
+							new Recorder(false));
+
+					for (int run = 0; run < runs; run++) {
+						ThrottledInputStream in = new ThrottledInputStream(
+								document, bytesPerSecond, fills[j]);
+
+						recorder.reset(in.getStartTime());
+						parser.parse(in, recorder);
+					}
+
+					out.println(corpora[i] + "," + fills[j] + ","
+							+ READ_CHUNK_SIZES[k] + ","
+							+ micros(recorder.firstMatch, 50) + ","
+							+ micros(recorder.firstMatch, 99) + ","
+							+ micros(recorder.interMatch, 50) + ","
+							+ micros(recorder.interMatch, 99));
+				}
+			}
+		}
+	}
+
+	private static double micros(LatencyHistogram histogram, double percentile) {
+		return histogram.getValueAtPercentile(percentile) / 1000d;
+	}
+
+	/**
+	 * Used to create a parser performing the corpus's extraction, recording
+	 * the time of every match into the {@link Recorder} user object.
+	 */
+	@SuppressWarnings("unchecked")
+	static XMLParser<Recorder> createParser(Corpus corpus, int readChunkSize) {
+		Selector[] selectors = corpus.getSelectors();
+		IRule<Recorder>[] rules = new IRule[selectors.length];
+
+		for (int i = 0; i < selectors.length; i++) {
+			rules[i] = new DefaultRule<Recorder>(selectors[i].getType(),
+					selectors[i].getLocationPath(),
+					selectors[i].getAttributeNames()) {
+				@Override
+				public void handleParsedAttribute(XMLParser<Recorder> parser,
+						int index, String value, Recorder userObject) {
+					userObject.match(parser);
+				}
+
+				@Override
+				public void handleParsedCharacters(XMLParser<Recorder> parser,
+						String text, Recorder userObject) {
+					userObject.match(parser);
+				}
+			};
+		}
+
+		XMLParser<Recorder> parser = new XMLParser<Recorder>(rules);
+		parser.setReadChunkSize(readChunkSize);
+
+		return parser;
+	}
+
+	/**
+	 * User object recording the time-to-first-match and the time between
+	 * every following match of each parse.
+	 */
+	static class Recorder {
+		private boolean stopOnFirstMatch;
+		private long startTime;
+		private long lastMatchTime;
+
+		private LatencyHistogram firstMatch = new LatencyHistogram();
+		private LatencyHistogram interMatch = new LatencyHistogram();
+
+		Recorder(boolean stopOnFirstMatch) {
+			this.stopOnFirstMatch = stopOnFirstMatch;
+		}
+
+		void reset(long startTime) {
+			this.startTime = startTime;
+			lastMatchTime = 0;
+		}
+
+		void match(XMLParser<Recorder> parser) {
+			long now = System.nanoTime();
+
+			if (lastMatchTime == 0) {
+				firstMatch.record(now - startTime);
+
+				if (stopOnFirstMatch)
+					parser.stop();
+			} else
+				interMatch.record(now - lastMatchTime);
+
+			lastMatchTime = now;
+		}
+	}
+}
@@ -0,0 +1,170 @@
+/**   
+ * Copyright 2011 The Buzz Media, LLC
+ * 
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *   http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.thebuzzmedia.sjxp.benchmark;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.io.PrintStream;
+import java.nio.ByteBuffer;
+import java.util.concurrent.TimeUnit;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OperationsPerInvocation;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+import org.openjdk.jmh.infra.Blackhole;
+
+import com.thebuzzmedia.sjxp.XMLParser;
+
+/**
+ * JMH benchmark parsing a batch of small (a few hundred bytes by default)
+ * {@link SyntheticCorpus} messages one after the other, the way a queue
+ * consumer does, so fixed per-document overhead dominates.
+ * <p/>
+ * Every message of the batch is held in one shared buffer. The
+ * <code>inputStream</code> variant wraps each message in a new
+ * {@link ByteArrayInputStream} like callers had to before; the others use the
+ * <code>byte[]</code> and direct {@link ByteBuffer} fast paths. Scores are
+ * messages per second and, with <code>-prof gc</code>, bytes allocated per
+ * message.
+ * <p/>
+ * Running this class directly (see the "benchmark-messages" Ant target)
+ * instead times every variant outside of JMH and prints one CSV line per
+ * variant with the number of messages parsed per second.
+ * 
+ * @author Riyad Kalla (software@thebuzzmedia.com)
+ */
+@State(Scope.Thread)
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.SECONDS)
+@Warmup(iterations = 5, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+@OperationsPerInvocation(MessageBenchmark.MESSAGE_COUNT)
+public class MessageBenchmark {
+	/**
+	 * Number of distinct messages in a batch.
+	 */
+	public static final int MESSAGE_COUNT = 1000;
+
+	private static final String[] VARIANTS = new String[] { "inputStream",
+			"byteArray", "byteBuffer" };
+
+	@Param({ "size=512,depth=2,fanOut=2,textLength=16" })
+	public String shape;
+
+	private byte[] messages;
+	private int[] offsets;
+	private ByteBuffer directMessages;
+	private XMLParser<Blackhole> parser;
+
+	@Setup
+	public void setup() throws IOException {
+		ByteArrayOutputStream out = new ByteArrayOutputStream();
+		offsets = new int[MESSAGE_COUNT + 1];
+
+		// Every message is different but shaped the same
+		for (int i = 0; i < MESSAGE_COUNT; i++) {
+			SyntheticCorpus corpus = new SyntheticCorpus();
+			String[] settings = shape.split(",");
+
+			for (int j = 0; j < settings.length; j++)
+				corpus.apply(settings[j]);
+
+			corpus.setSeed(i + 1);
+			corpus.write(out);
+			offsets[i + 1] = out.size();
+		}
+
+		messages = out.toByteArray();
+		directMessages = ByteBuffer.allocateDirect(messages.length);
+		directMessages.put(messages).flip();
+
+		parser = new XMLParser<Blackhole>(ScalingBenchmark.createRules());
+	}
+
+	public static void main(String[] args) throws IOException {
+		MessageBenchmark benchmark = new MessageBenchmark();
+		Blackhole blackhole = new Blackhole(
+				"Today's password is swordfish. I understand instantiating Blackholes directly is dangerous.");
+		PrintStream out = System.out;
+
+		benchmark.shape = (args.length > 0 ? args[0]
+				: "size=512,depth=2,fanOut=2,textLength=16");
+		benchmark.setup();
+
+		out.println("variant,messages,millis,messagesPerSecond");
+
+		for (int variant = 0; variant < 3; variant++) {
+			long elapsedTime = 0;
+
+			// Warm up, then keep the best of a few rounds
+			for (int round = 0; round < 50; round++) {
+				long startTime = System.nanoTime();
+				benchmark.run(variant, blackhole);
+				long time = System.nanoTime() - startTime;
+
+				if (round >= 40 && (elapsedTime == 0 || time < elapsedTime))
+					elapsedTime = time;
+			}
+
+			double millis = elapsedTime / 1000000d;
+
+			out.println(VARIANTS[variant] + ',' + MESSAGE_COUNT + ',' + millis
+					+ ',' + (MESSAGE_COUNT / (millis / 1000d)));
+		}
+	}
+
+	private void run(int variant, Blackhole blackhole) {
+		if (variant == 0)
+			inputStream(blackhole);
+		else if (variant == 1)
+			byteArray(blackhole);
+		else
+			byteBuffer(blackhole);
+	}
+
+	@Benchmark
+	public void inputStream(Blackhole blackhole) {
+		for (int i = 0; i < MESSAGE_COUNT; i++)
+			parser.parse(new ByteArrayInputStream(messages, offsets[i],
+					offsets[i + 1] - offsets[i]), blackhole);
+	}
+
+	@Benchmark
+	public void byteArray(Blackhole blackhole) {
+		for (int i = 0; i < MESSAGE_COUNT; i++)
+			parser.parse(messages, offsets[i], offsets[i + 1] - offsets[i],
+					blackhole);
+	}
+
+	@Benchmark
+	public void byteBuffer(Blackhole blackhole) {
+		for (int i = 0; i < MESSAGE_COUNT; i++) {
+			directMessages.limit(offsets[i + 1]).position(offsets[i]);
+			parser.parse(directMessages, blackhole);
+		}
+	}
+}
@@ -0,0 +1,169 @@
+/**   
+ * Copyright 2011 The Buzz Media, LLC
+ * 
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *   http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.thebuzzmedia.sjxp.benchmark;
+
+import java.io.PrintStream;
+import java.util.concurrent.TimeUnit;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+import org.openjdk.jmh.infra.Blackhole;
+
+import com.thebuzzmedia.sjxp.MultiplexParser;
+import com.thebuzzmedia.sjxp.Subscriber;
+import com.thebuzzmedia.sjxp.XMLParser;
+import com.thebuzzmedia.sjxp.rule.DefaultRule;
+import com.thebuzzmedia.sjxp.rule.IRule;
+
+/**
+ * JMH benchmark comparing several consumers of the same {@link SyntheticCorpus}
+ * document each parsing it with their own {@link XMLParser} against all of
+ * them subscribing to a single {@link MultiplexParser}.
+ * <p/>
+ * Every consumer extracts something different out of every
+ * <code>&lt;record&gt;</code>; the text of its leaves, an attribute or the
+ * text of the leaves one or two levels further down.
+ * <p/>
+ * Running this class directly (see the "benchmark-multiplex" Ant target)
+ * instead times both variants outside of JMH and prints one CSV line per
+ * variant and number of consumers.
+ * 
+ * @author Riyad Kalla (software@thebuzzmedia.com)
+ */
+@State(Scope.Thread)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MILLISECONDS)
+@Warmup(iterations = 5)
+@Measurement(iterations = 5)
+@Fork(1)
+public class MultiplexBenchmark {
+	private static final String[] PATHS = new String[] { "/root/record/leaf",
+			"/root/record", "/root/record/e1/leaf", "/root/record/e1/e2/leaf" };
+
+	@Param({ "2", "4" })
+	public int consumers;
+
+	private byte[] document;
+	private XMLParser<Blackhole>[] parsers;
+	private MultiplexParser multiplexer;
+
+	@SuppressWarnings("unchecked")
+	@Setup
+	public void setup() {
+		SyntheticCorpus corpus = new SyntheticCorpus();
+		corpus.apply("size=4m");
+		document = corpus.generate();
+
+		parsers = new XMLParser[consumers];
+		Subscriber<?>[] subscribers = new Subscriber[consumers];
+		Blackhole blackhole = new Blackhole(
+				"Today's password is swordfish. I understand instantiating Blackholes directly is dangerous.");
+
+		for (int i = 0; i < consumers; i++) {
+			parsers[i] = new XMLParser<Blackhole>(createRule(i));
+			subscribers[i] = new Subscriber<Blackhole>(blackhole,
+					createRule(i));
+		}
+
+		multiplexer = new MultiplexParser(subscribers);
+	}
+
+	@Benchmark
+	public void separate(Blackhole blackhole) {
+		for (int i = 0; i < parsers.length; i++)
+			parsers[i].parse(document, 0, document.length, blackhole);
+	}
+
+	@Benchmark
+	public void multiplexed() {
+		multiplexer.parse(document, 0, document.length, null);
+	}
+
+	public static void main(String[] args) {
+		Blackhole blackhole = new Blackhole(
+				"Today's password is swordfish. I understand instantiating Blackholes directly is dangerous.");
+		PrintStream out = System.out;
+
+		out.println("variant,consumers,bytes,millis,mbPerSecond");
+
+		for (int consumers = 1; consumers <= PATHS.length; consumers++) {
+			MultiplexBenchmark benchmark = new MultiplexBenchmark();
+
+			benchmark.consumers = consumers;
+			benchmark.setup();
+
+			for (int variant = 0; variant < 2; variant++) {
+				long elapsedTime = 0;
+
+				// Warm up, then keep the best of a few rounds
+				for (int round = 0; round < 20; round++) {
+					long startTime = System.nanoTime();
+
+					if (variant == 0)
+						benchmark.separate(blackhole);
+					else
+						benchmark.multiplexed();
+
+					long time = System.nanoTime() - startTime;
+
+					if (round >= 10
+							&& (elapsedTime == 0 || time < elapsedTime))
+						elapsedTime = time;
+				}
+
+				double millis = elapsedTime / 1000000d;
+
+				out.println((variant == 0 ? "separate" : "multiplexed")
+						+ ',' + consumers + ',' + benchmark.document.length
+						+ ',' + millis + ','
+						+ ((benchmark.document.length / 1048576d) / (millis / 1000d)));
+			}
+		}
+	}
+
+	/**
+	 * Used to create the rule of the consumer with the given index; the
+	 * second consumer wants an attribute, all others text.
+	 */
+	private static IRule<Blackhole> createRule(int consumer) {
+		if (consumer == 1)
+			return new DefaultRule<Blackhole>(IRule.Type.ATTRIBUTE,
+					PATHS[consumer], "a0") {
+				@Override
+				public void handleParsedAttribute(XMLParser<Blackhole> parser,
+						int index, String value, Blackhole blackhole) {
+					blackhole.consume(value.length());
+				}
+			};
+
+		return new DefaultRule<Blackhole>(IRule.Type.CHARACTER, PATHS[consumer]) {
+			@Override
+			public void handleParsedCharacters(XMLParser<Blackhole> parser,
+					String text, Blackhole blackhole) {
+				blackhole.consume(text.length());
+			}
+		};
+	}
+}
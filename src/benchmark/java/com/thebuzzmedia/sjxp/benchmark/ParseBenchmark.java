@@ -0,0 +1,113 @@
+/**   
+ * Copyright 2011 The Buzz Media, LLC
+ * 
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *   http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.thebuzzmedia.sjxp.benchmark;
+
+import java.io.ByteArrayInputStream;
+import java.io.IOException;
+import java.util.concurrent.TimeUnit;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+import org.openjdk.jmh.infra.Blackhole;
+import org.xmlpull.v1.XmlPullParser;
+import org.xmlpull.v1.XmlPullParserException;
+import org.xmlpull.v1.XmlPullParserFactory;
+
+import com.thebuzzmedia.sjxp.XMLParser;
+
+/**
+ * JMH benchmark parsing every bundled {@link Corpus} with {@link XMLParser}.
+ * <p/>
+ * Each invocation parses one complete document out of memory, so the
+ * throughput score is documents per second and, when run with
+ * <code>-prof gc</code>, <code>gc.alloc.rate.norm</code> is the number of
+ * bytes allocated per document.
+ * <p/>
+ * The underlying pull parser implementation and its namespace awareness are
+ * parameterized so their effect can be measured independently of SJXP. Run
+ * with <code>ant benchmark</code>.
+ * 
+ * @author Riyad Kalla (software@thebuzzmedia.com)
+ */
+@State(Scope.Thread)
+@BenchmarkMode({ Mode.Throughput, Mode.AverageTime })
+@OutputTimeUnit(TimeUnit.MILLISECONDS)
+@Warmup(iterations = 5, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(2)
+public class ParseBenchmark {
+	@Param
+	public Corpus corpus;
+
+	@Param({ "org.xmlpull.mxp1.MXParser",
+			"org.xmlpull.mxp1.MXParserCachingStrings" })
+	public String backend;
+
+	@Param({ "true", "false" })
+	public boolean namespaces;
+
+	private byte[] document;
+	private XMLParser<Blackhole> parser;
+
+	@Setup
+	public void setup() throws IOException, XmlPullParserException {
+		document = corpus.load();
+		parser = new XMLParser<Blackhole>(createPullParser(backend,
+				namespaces), corpus.createRules());
+	}
+
+	@Benchmark
+	public void parse(Blackhole blackhole) {
+		parser.parse(new ByteArrayInputStream(document), blackhole);
+	}
+
+	/**
+	 * Used to create a new pull parser of the given implementation class,
+	 * configured the same way {@link XMLParser#XPP_FACTORY} is.
+	 * 
+	 * @param className
+	 *            The fully qualified class name of the {@link XmlPullParser}
+	 *            implementation.
+	 * @param namespaces
+	 *            If the parser should be namespace-aware.
+	 * 
+	 * @return a new pull parser of the given implementation class.
+	 * 
+	 * @throws XmlPullParserException
+	 *             if the implementation cannot be created.
+	 */
+	static XmlPullParser createPullParser(String className, boolean namespaces)
+			throws XmlPullParserException {
+		XmlPullParserFactory factory = XmlPullParserFactory.newInstance(
+				className, ParseBenchmark.class);
+
+		factory.setFeature(XmlPullParser.FEATURE_PROCESS_NAMESPACES,
+				namespaces);
+		factory.setFeature(XmlPullParser.FEATURE_VALIDATION,
+				XMLParser.ENABLE_VALIDATION);
+
+		return factory.newPullParser();
+	}
+}
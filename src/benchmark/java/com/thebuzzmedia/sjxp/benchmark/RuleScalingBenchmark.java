@@ -0,0 +1,196 @@
+/**   
+ * Copyright 2011 The Buzz Media, LLC
+ * 
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *   http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.thebuzzmedia.sjxp.benchmark;
+
+import java.io.ByteArrayInputStream;
+import java.io.PrintStream;
+import java.util.concurrent.TimeUnit;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+import org.openjdk.jmh.infra.Blackhole;
+
+import com.thebuzzmedia.sjxp.XMLParser;
+import com.thebuzzmedia.sjxp.benchmark.Corpus.Selector;
+import com.thebuzzmedia.sjxp.rule.IRule;
+import com.thebuzzmedia.sjxp.rule.IRule.Type;
+
+/**
+ * JMH benchmark measuring how {@link XMLParser} construction and per-event
+ * rule dispatch scale with the number of rules, the way parsers generated from
+ * large mapping configurations carry thousands of them.
+ * <p/>
+ * Every parser has the same handful of rules that actually match the
+ * {@link SyntheticCorpus} document being parsed (see
+ * {@link ScalingBenchmark#createRules()}) plus <code>ruleCount</code> rules on
+ * paths that share the document's prefixes but never match, spread across all
+ * three {@link Type}s. The parse score should stay flat as the rule count
+ * grows; the construction score should grow linearly.
+ * <p/>
+ * The non-matching rules either each have a path of their own ("distinct")
+ * or all share the same few paths ("shared"), the case of many rules
+ * selecting different attributes of the same element. Construction must stay
+ * linear in both.
+ * <p/>
+ * Running this class directly (see the "benchmark-rules" Ant target) instead
+ * prints one CSV line per rule count and path variant with the construction
+ * time, the heap retained by the constructed parser and the parse time,
+ * outside of JMH.
+ * 
+ * @author Riyad Kalla (software@thebuzzmedia.com)
+ */
+@State(Scope.Thread)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 5, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+public class RuleScalingBenchmark {
+	/**
+	 * Default rule counts.
+	 */
+	public static final int[] RULE_COUNTS = new int[] { 10, 100, 1000, 10000,
+			100000 };
+
+	/**
+	 * Path variants of the non-matching rules.
+	 */
+	public static final String[] PATHS = new String[] { "distinct", "shared" };
+
+	@Param({ "10", "100", "1000", "10000", "100000" })
+	public int ruleCount;
+
+	@Param({ "distinct", "shared" })
+	public String paths;
+
+	private byte[] document;
+	private IRule<Blackhole>[] rules;
+	private XMLParser<Blackhole> parser;
+
+	@Setup
+	public void setup() {
+		document = createDocument();
+		rules = createRules(ruleCount, "shared".equals(paths));
+		parser = new XMLParser<Blackhole>(rules);
+	}
+
+	@Benchmark
+	public XMLParser<Blackhole> construct() {
+		return new XMLParser<Blackhole>(rules);
+	}
+
+	@Benchmark
+	public void parse(Blackhole blackhole) {
+		parser.parse(new ByteArrayInputStream(document), blackhole);
+	}
+
+	public static void main(String[] args) {
+		PrintStream out = System.out;
+		byte[] document = createDocument();
+		Blackhole blackhole = new Blackhole(
+				"Today's password is swordfish. I understand instantiating Blackholes directly is dangerous.");
+
+		out.println("ruleCount,paths,constructMillis,retainedBytes,parseMillis");
+
+		for (int i = 0; i < RULE_COUNTS.length * PATHS.length; i++) {
+			int ruleCount = RULE_COUNTS[i / PATHS.length];
+			String paths = PATHS[i % PATHS.length];
+			IRule<Blackhole>[] rules = createRules(ruleCount,
+					"shared".equals(paths));
+
+			// Warm up both construction and parsing
+			for (int j = 0; j < 5; j++)
+				new XMLParser<Blackhole>(rules).parse(new ByteArrayInputStream(
+						document), blackhole);
+
+			long before = getUsedHeap();
+			long startTime = System.nanoTime();
+			XMLParser<Blackhole> parser = new XMLParser<Blackhole>(rules);
+			double constructMillis = (System.nanoTime() - startTime) / 1000000d;
+			long retained = getUsedHeap() - before;
+
+			startTime = System.nanoTime();
+			parser.parse(new ByteArrayInputStream(document), blackhole);
+			double parseMillis = (System.nanoTime() - startTime) / 1000000d;
+
+			out.println(ruleCount + "," + paths + "," + constructMillis + ","
+					+ retained + "," + parseMillis);
+
+			// Keep the parser reachable until it has been measured
+			blackhole.consume(parser);
+		}
+	}
+
+	static byte[] createDocument() {
+		SyntheticCorpus corpus = new SyntheticCorpus();
+		corpus.apply("size=1m");
+		return corpus.generate();
+	}
+
+	/**
+	 * Used to create the rules matching the synthetic document followed by the
+	 * given number of rules that never match it, either on paths of their own
+	 * or all on the same few paths.
+	 */
+	@SuppressWarnings("unchecked")
+	static IRule<Blackhole>[] createRules(int ruleCount, boolean shared) {
+		IRule<Blackhole>[] matching = ScalingBenchmark.createRules();
+		IRule<Blackhole>[] rules = new IRule[matching.length + ruleCount];
+
+		System.arraycopy(matching, 0, rules, 0, matching.length);
+
+		for (int i = 0; i < ruleCount; i++) {
+			String path = "/root/record/m" + (shared ? "" : String.valueOf(i));
+
+			switch (i % 3) {
+			case 0:
+				rules[matching.length + i] = new Selector(Type.TAG, path)
+						.createRule();
+				break;
+
+			case 1:
+				rules[matching.length + i] = new Selector(Type.ATTRIBUTE, path
+						+ "/leaf", "a" + i).createRule();
+				break;
+
+			default:
+				rules[matching.length + i] = new Selector(Type.CHARACTER, path
+						+ "/leaf").createRule();
+				break;
+			}
+		}
+
+		return rules;
+	}
+
+	private static long getUsedHeap() {
+		Runtime runtime = Runtime.getRuntime();
+
+		for (int i = 0; i < 3; i++)
+			System.gc();
+
+		return runtime.totalMemory() - runtime.freeMemory();
+	}
+}
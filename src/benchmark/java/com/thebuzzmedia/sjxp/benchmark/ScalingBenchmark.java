@@ -0,0 +1,223 @@
+/**   
+ * Copyright 2011 The Buzz Media, LLC
+ * 
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *   http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.thebuzzmedia.sjxp.benchmark;
+
+import java.io.BufferedInputStream;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.PrintStream;
+import java.lang.management.ManagementFactory;
+import java.lang.management.MemoryPoolMXBean;
+import java.lang.management.MemoryType;
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.annotations.Warmup;
+import org.openjdk.jmh.infra.Blackhole;
+
+import com.thebuzzmedia.sjxp.XMLParser;
+import com.thebuzzmedia.sjxp.benchmark.Corpus.Selector;
+import com.thebuzzmedia.sjxp.rule.IRule;
+import com.thebuzzmedia.sjxp.rule.IRule.Type;
+
+/**
+ * JMH benchmark parsing {@link SyntheticCorpus} documents that grow along a
+ * single dimension (size, depth, attributes per element, text length,
+ * namespace or entity density) while everything else stays fixed.
+ * <p/>
+ * Every <code>shape</code> parameter is applied on top of the
+ * <code>base</code> settings, so each sweep only changes one thing. Documents
+ * are generated to a temporary file once per trial and parsed from disk, which
+ * lets the sizes go well beyond what fits in the heap.
+ * <p/>
+ * Running this class directly (see the "benchmark-scaling" Ant target) instead
+ * parses every shape once to warm up and once more measured, outside of JMH,
+ * and prints one CSV line per shape with the throughput and peak heap usage,
+ * ready to be charted.
+ * 
+ * @author Riyad Kalla (software@thebuzzmedia.com)
+ */
+@State(Scope.Thread)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MILLISECONDS)
+@Warmup(iterations = 3)
+@Measurement(iterations = 5)
+@Fork(1)
+public class ScalingBenchmark {
+	/**
+	 * Default shapes; each is a sweep of a single dimension.
+	 */
+	public static final String[] SHAPES = new String[] { "size=1m",
+			"size=16m", "size=128m", "size=1g", "depth=2", "depth=20",
+			"depth=50", "depth=200", "attributeCount=0", "attributeCount=100",
+			"attributeCount=1000", "attributeCount=10000", "textLength=16",
+			"textLength=1k", "textLength=50k", "namespaceDensity=0",
+			"namespaceDensity=0.5", "namespaceDensity=1", "entityDensity=0",
+			"entityDensity=0.1", "entityDensity=0.5" };
+
+	/**
+	 * Settings every shape is applied on top of.
+	 */
+	public static final String BASE = "size=16m";
+
+	@Param({ "size=1m", "size=16m", "size=128m", "size=1g", "depth=2",
+			"depth=20", "depth=50", "depth=200", "attributeCount=0",
+			"attributeCount=100", "attributeCount=1000",
+			"attributeCount=10000", "textLength=16", "textLength=1k",
+			"textLength=50k", "namespaceDensity=0", "namespaceDensity=0.5",
+			"namespaceDensity=1", "entityDensity=0", "entityDensity=0.1",
+			"entityDensity=0.5" })
+	public String shape;
+
+	@Param(BASE)
+	public String base;
+
+	private File file;
+	private XMLParser<Blackhole> parser;
+
+	@Setup
+	public void setup() throws IOException {
+		file = generate(base, shape);
+		parser = new XMLParser<Blackhole>(createRules());
+	}
+
+	@TearDown
+	public void tearDown() {
+		if (file != null)
+			file.delete();
+	}
+
+	@Benchmark
+	public void parse(Blackhole blackhole) throws IOException {
+		parse(parser, file, blackhole);
+	}
+
+	public static void main(String[] args) throws IOException {
+		String[] shapes = (args.length > 0 ? args : SHAPES);
+		PrintStream out = System.out;
+
+		out.println("dimension,value,bytes,millis,mbPerSecond,peakHeapBytes");
+
+		for (int i = 0; i < shapes.length; i++) {
+			File file = generate(BASE, shapes[i]);
+			XMLParser<Blackhole> parser = new XMLParser<Blackhole>(
+					createRules());
+			Blackhole blackhole = new Blackhole(
+					"Today's password is swordfish. I understand instantiating Blackholes directly is dangerous.");
+
+			try {
+				// Warm up once; one pass over a 1 GB document is plenty.
+				parse(parser, file, blackhole);
+
+				System.gc();
+				resetPeakHeap();
+
+				long startTime = System.nanoTime();
+				parse(parser, file, blackhole);
+				long elapsedTime = System.nanoTime() - startTime;
+
+				int index = shapes[i].indexOf('=');
+				double millis = elapsedTime / 1000000d;
+
+				out.println(shapes[i].substring(0, index) + ','
+						+ shapes[i].substring(index + 1) + ','
+						+ file.length() + ',' + millis + ','
+						+ ((file.length() / 1048576d) / (millis / 1000d))
+						+ ',' + getPeakHeap());
+			} finally {
+				file.delete();
+			}
+		}
+	}
+
+	static File generate(String base, String shape) throws IOException {
+		SyntheticCorpus corpus = new SyntheticCorpus();
+		String[] settings = base.split(",");
+
+		for (int i = 0; i < settings.length; i++)
+			corpus.apply(settings[i]);
+
+		corpus.apply(shape);
+
+		File file = File.createTempFile("sjxp-scaling-", ".xml");
+		file.deleteOnExit();
+		corpus.write(file);
+
+		return file;
+	}
+
+	/**
+	 * Used to create rules that match a leaf's text and every record, so the
+	 * parser's location tracking and rule dispatch are exercised along with
+	 * the tokenizing.
+	 */
+	@SuppressWarnings("unchecked")
+	static IRule<Blackhole>[] createRules() {
+		return new IRule[] {
+				new Selector(Type.TAG, "/root/record").createRule(),
+				new Selector(Type.CHARACTER, "/root/record/leaf").createRule(),
+				new Selector(Type.ATTRIBUTE, "/root/record/e1", "a0")
+						.createRule() };
+	}
+
+	static void parse(XMLParser<Blackhole> parser, File file,
+			Blackhole blackhole) throws IOException {
+		InputStream in = new BufferedInputStream(new FileInputStream(file),
+				65536);
+
+		try {
+			parser.parse(in, blackhole);
+		} finally {
+			in.close();
+		}
+	}
+
+	private static void resetPeakHeap() {
+		List<MemoryPoolMXBean> pools = ManagementFactory
+				.getMemoryPoolMXBeans();
+
+		for (int i = 0, size = pools.size(); i < size; i++) {
+			if (pools.get(i).getType() == MemoryType.HEAP)
+				pools.get(i).resetPeakUsage();
+		}
+	}
+
+	private static long getPeakHeap() {
+		long peak = 0;
+		List<MemoryPoolMXBean> pools = ManagementFactory
+				.getMemoryPoolMXBeans();
+
+		for (int i = 0, size = pools.size(); i < size; i++) {
+			if (pools.get(i).getType() == MemoryType.HEAP)
+				peak += pools.get(i).getPeakUsage().getUsed();
+		}
+
+		return peak;
+	}
+}
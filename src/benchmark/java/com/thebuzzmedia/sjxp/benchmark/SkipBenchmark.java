@@ -0,0 +1,139 @@
+/**   
+ * Copyright 2011 The Buzz Media, LLC
+ * 
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *   http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.thebuzzmedia.sjxp.benchmark;
+
+import java.io.PrintStream;
+import java.util.concurrent.TimeUnit;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+import org.openjdk.jmh.infra.Blackhole;
+
+import com.thebuzzmedia.sjxp.XMLParser;
+import com.thebuzzmedia.sjxp.rule.DefaultRule;
+
+/**
+ * JMH benchmark comparing a parse of a {@link SyntheticCorpus} document that
+ * tokenizes everything against one that skips the subtrees no rule can match
+ * (see {@link XMLParser#setSkipUnmatched(boolean)}).
+ * <p/>
+ * The only rule matches the text of the leaves directly under every
+ * <code>&lt;record&gt;</code>, so the nested <code>&lt;e1&gt;</code> spine
+ * (the bulk of every record) is never needed.
+ * <p/>
+ * Running this class directly (see the "benchmark-skip" Ant target) instead
+ * times both variants outside of JMH and prints one CSV line per variant.
+ * 
+ * @author Riyad Kalla (software@thebuzzmedia.com)
+ */
+@State(Scope.Thread)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MILLISECONDS)
+@Warmup(iterations = 5)
+@Measurement(iterations = 5)
+@Fork(1)
+public class SkipBenchmark {
+	@Param({ "size=4m", "size=4m,textLength=256" })
+	public String shape;
+
+	private byte[] document;
+	private XMLParser<Blackhole> fullParser;
+	private XMLParser<Blackhole> skipParser;
+
+	@Setup
+	public void setup() {
+		SyntheticCorpus corpus = new SyntheticCorpus();
+		String[] settings = shape.split(",");
+
+		for (int i = 0; i < settings.length; i++)
+			corpus.apply(settings[i]);
+
+		document = corpus.generate();
+
+		fullParser = new XMLParser<Blackhole>(new LeafRule());
+		skipParser = new XMLParser<Blackhole>(new LeafRule());
+		skipParser.setSkipUnmatched(true);
+	}
+
+	@Benchmark
+	public void full(Blackhole blackhole) {
+		fullParser.parse(document, 0, document.length, blackhole);
+	}
+
+	@Benchmark
+	public void skip(Blackhole blackhole) {
+		skipParser.parse(document, 0, document.length, blackhole);
+	}
+
+	public static void main(String[] args) {
+		SkipBenchmark benchmark = new SkipBenchmark();
+		Blackhole blackhole = new Blackhole(
+				"Today's password is swordfish. I understand instantiating Blackholes directly is dangerous.");
+		PrintStream out = System.out;
+
+		benchmark.shape = (args.length > 0 ? args[0] : "size=4m");
+		benchmark.setup();
+
+		out.println("variant,shape,bytes,millis,mbPerSecond");
+
+		for (int variant = 0; variant < 2; variant++) {
+			long elapsedTime = 0;
+
+			// Warm up, then keep the best of a few rounds
+			for (int round = 0; round < 30; round++) {
+				long startTime = System.nanoTime();
+
+				if (variant == 0)
+					benchmark.full(blackhole);
+				else
+					benchmark.skip(blackhole);
+
+				long time = System.nanoTime() - startTime;
+
+				if (round >= 20 && (elapsedTime == 0 || time < elapsedTime))
+					elapsedTime = time;
+			}
+
+			double millis = elapsedTime / 1000000d;
+
+			out.println((variant == 0 ? "full" : "skip") + ",\""
+					+ benchmark.shape + "\"," + benchmark.document.length
+					+ ',' + millis + ','
+					+ ((benchmark.document.length / 1048576d) / (millis / 1000d)));
+		}
+	}
+
+	static class LeafRule extends DefaultRule<Blackhole> {
+		LeafRule() {
+			super(Type.CHARACTER, "/root/record/leaf");
+		}
+
+		@Override
+		public void handleParsedCharacters(XMLParser<Blackhole> parser,
+				String text, Blackhole blackhole) {
+			blackhole.consume(text.length());
+		}
+	}
+}
@@ -0,0 +1,439 @@
+/**   
+ * Copyright 2011 The Buzz Media, LLC
+ * 
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *   http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.thebuzzmedia.sjxp.benchmark;
+
+import java.io.BufferedOutputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.OutputStream;
+
+/**
+ * Deterministic generator of synthetic XML documents used to find out how
+ * parsing scales along a single dimension of a document's shape.
+ * <p/>
+ * A generated document is a <code>&lt;root&gt;</code> element holding as many
+ * <code>&lt;record&gt;</code> elements as it takes to reach
+ * {@link #getSize()} bytes. Every record is a "spine" of nested
+ * <code>&lt;eN&gt;</code> elements {@link #getDepth()} levels deep, and every
+ * element on the spine has {@link #getFanOut()} leaf
+ * <code>&lt;leaf&gt;</code> children holding {@link #getTextLength()}
+ * characters of text. Every element carries {@link #getAttributeCount()}
+ * attributes.
+ * <p/>
+ * {@link #getNamespaceDensity()} is the fraction of elements that are
+ * namespace-qualified (using one of {@link #NAMESPACE_COUNT} prefixes declared
+ * on the root) and {@link #getEntityDensity()} is the fraction of text
+ * characters written as an entity or character reference instead.
+ * <p/>
+ * The same settings and seed always produce the exact same bytes. Every byte
+ * is ASCII and records are only added while the document is smaller than
+ * {@link #getSize()}, so the result overshoots the requested size by at most
+ * one record.
+ * 
+ * @author Riyad Kalla (software@thebuzzmedia.com)
+ */
+public class SyntheticCorpus {
+	/**
+	 * Number of namespace prefixes declared on the root element.
+	 */
+	public static final int NAMESPACE_COUNT = 4;
+
+	/**
+	 * Namespace URI prefix; the URI of namespace <code>N</code> is this value
+	 * followed by <code>N</code>.
+	 */
+	public static final String NAMESPACE_URI = "urn:sjxp:synthetic:";
+
+	private static final String[] ENTITIES = new String[] { "&amp;", "&lt;",
+			"&gt;", "&quot;", "&apos;", "&#169;", "&#x20AC;" };
+
+	private long size = 1024 * 1024;
+	private int depth = 4;
+	private int fanOut = 4;
+	private int attributeCount = 2;
+	private int textLength = 32;
+	private double namespaceDensity = 0;
+	private double entityDensity = 0;
+	private long seed = 1;
+
+	private long random;
+	private long written;
+	private byte[] buffer = new byte[8192];
+	private int bufferLength;
+	private OutputStream out;
+
+	/**
+	 * Overridden to provide a nicely formatted representation of the corpus
+	 * settings, handy as a label for benchmark results.
+	 * 
+	 * @return a nicely formatted representation of the corpus settings.
+	 */
+	@Override
+	public String toString() {
+		return "size=" + size + ", depth=" + depth + ", fanOut=" + fanOut
+				+ ", attributeCount=" + attributeCount + ", textLength="
+				+ textLength + ", namespaceDensity=" + namespaceDensity
+				+ ", entityDensity=" + entityDensity + ", seed=" + seed;
+	}
+
+	/**
+	 * Used to apply a single <code>name=value</code> setting to this corpus,
+	 * e.g. "depth=200" or "size=1g". Sizes accept a "k", "m" or "g" suffix.
+	 * 
+	 * @param setting
+	 *            The setting to apply.
+	 * 
+	 * @throws IllegalArgumentException
+	 *             if <code>setting</code> is not in the format
+	 *             <code>name=value</code> or names an unknown setting.
+	 */
+	public void apply(String setting) throws IllegalArgumentException {
+		int index = (setting == null ? -1 : setting.indexOf('='));
+
+		if (index <= 0)
+			throw new IllegalArgumentException("setting [" + setting
+					+ "] must be in the format name=value");
+
+		String name = setting.substring(0, index).trim();
+		String value = setting.substring(index + 1).trim();
+
+		if ("size".equals(name))
+			setSize(parseSize(value));
+		else if ("depth".equals(name))
+			setDepth((int) parseSize(value));
+		else if ("fanOut".equals(name))
+			setFanOut((int) parseSize(value));
+		else if ("attributeCount".equals(name))
+			setAttributeCount((int) parseSize(value));
+		else if ("textLength".equals(name))
+			setTextLength((int) parseSize(value));
+		else if ("namespaceDensity".equals(name))
+			setNamespaceDensity(Double.parseDouble(value));
+		else if ("entityDensity".equals(name))
+			setEntityDensity(Double.parseDouble(value));
+		else if ("seed".equals(name))
+			setSeed(Long.parseLong(value));
+		else
+			throw new IllegalArgumentException("Unknown setting [" + name
+					+ "]");
+	}
+
+	/**
+	 * Used to generate the document into memory.
+	 * 
+	 * @return the bytes of the generated document.
+	 */
+	public byte[] generate() {
+		ByteArrayOutputStream out = new ByteArrayOutputStream(
+				(int) Math.min(size + 1024, Integer.MAX_VALUE - 8));
+
+		try {
+			write(out);
+		} catch (IOException e) {
+			// no-op, this should never happen with a ByteArrayOutputStream.
+		}
+
+		return out.toByteArray();
+	}
+
+	/**
+	 * Used to generate the document into the given file, this is the way to
+	 * generate documents too big to hold in memory.
+	 * 
+	 * @param file
+	 *            The file to write the document to.
+	 * 
+	 * @throws IOException
+	 *             if an error occurs writing to the file.
+	 */
+	public void write(File file) throws IOException {
+		OutputStream out = new BufferedOutputStream(new FileOutputStream(file),
+				65536);
+
+		try {
+			write(out);
+		} finally {
+			out.close();
+		}
+	}
+
+	/**
+	 * Used to generate the document into the given stream. The stream is
+	 * flushed but not closed.
+	 * 
+	 * @param out
+	 *            The stream to write the document to.
+	 * 
+	 * @throws IOException
+	 *             if an error occurs writing to the stream.
+	 */
+	public synchronized void write(OutputStream out) throws IOException {
+		this.out = out;
+
+		random = (seed == 0 ? 0x9E3779B97F4A7C15L : seed);
+		written = 0;
+		bufferLength = 0;
+
+		append("<?xml version=\"1.0\" encoding=\"UTF-8\"?>\n<root");
+
+		if (namespaceDensity > 0) {
+			for (int i = 0; i < NAMESPACE_COUNT; i++) {
+				append(" xmlns:n").append(i).append("=\"")
+						.append(NAMESPACE_URI).append(i).append('"');
+			}
+		}
+
+		append(">\n");
+
+		// Reserve room for the closing root tag so the size is honored
+		long limit = size - "</root>\n".length();
+
+		do {
+			writeRecord();
+		} while (written + bufferLength < limit);
+
+		append("</root>\n");
+
+		flush();
+		out.flush();
+		this.out = null;
+	}
+
+	/**
+	 * Used to write a single record; the spine of nested elements with their
+	 * leaf children.
+	 */
+	private void writeRecord() throws IOException {
+		String[] names = new String[depth + 1];
+
+		names[0] = qualify("record");
+		startTag(names[0]);
+
+		for (int level = 1; level <= depth; level++) {
+			for (int i = 0; i < fanOut; i++) {
+				String leaf = qualify("leaf");
+
+				startTag(leaf);
+				writeText();
+				endTag(leaf);
+			}
+
+			if (level < depth) {
+				names[level] = qualify("e" + level);
+				startTag(names[level]);
+			}
+		}
+
+		for (int level = depth - 1; level >= 0; level--)
+			endTag(names[level]);
+
+		append('\n');
+	}
+
+	private String qualify(String localName) {
+		if (namespaceDensity > 0 && nextDouble() < namespaceDensity)
+			return "n" + nextInt(NAMESPACE_COUNT) + ':' + localName;
+
+		return localName;
+	}
+
+	private void startTag(String name) throws IOException {
+		append('<').append(name);
+
+		for (int i = 0; i < attributeCount; i++) {
+			append(" a").append(i).append("=\"");
+			writeChars(8, false);
+			append('"');
+		}
+
+		append('>');
+	}
+
+	private void endTag(String name) throws IOException {
+		append("</").append(name).append('>');
+	}
+
+	private void writeText() throws IOException {
+		writeChars(textLength, entityDensity > 0);
+	}
+
+	/**
+	 * Used to write the given number of pseudo-random characters (words of
+	 * lower-case letters separated by spaces), optionally replacing some of
+	 * them with entity or character references.
+	 */
+	private void writeChars(int length, boolean entities) throws IOException {
+		for (int i = 0; i < length; i++) {
+			if (entities && nextDouble() < entityDensity)
+				append(ENTITIES[nextInt(ENTITIES.length)]);
+			else {
+				int value = nextInt(32);
+				append((char) (value < 26 ? 'a' + value : ' '));
+			}
+		}
+	}
+
+	/**
+	 * Simple xorshift generator; {@link java.util.Random} would work as well
+	 * but this keeps the output independent of the JDK implementation.
+	 */
+	private long nextLong() {
+		random ^= (random << 13);
+		random ^= (random >>> 7);
+		random ^= (random << 17);
+		return random;
+	}
+
+	private int nextInt(int bound) {
+		return (int) ((nextLong() >>> 1) % bound);
+	}
+
+	private double nextDouble() {
+		return (nextLong() >>> 11) * (1.0 / (1L << 53));
+	}
+
+	private SyntheticCorpus append(String value) throws IOException {
+		for (int i = 0, length = value.length(); i < length; i++)
+			append(value.charAt(i));
+
+		return this;
+	}
+
+	private SyntheticCorpus append(int value) throws IOException {
+		return append(Integer.toString(value));
+	}
+
+	private SyntheticCorpus append(char c) throws IOException {
+		if (bufferLength == buffer.length)
+			flush();
+
+		buffer[bufferLength++] = (byte) c;
+		return this;
+	}
+
+	private void flush() throws IOException {
+		out.write(buffer, 0, bufferLength);
+		written += bufferLength;
+		bufferLength = 0;
+	}
+
+	private static long parseSize(String value) {
+		long multiplier = 1;
+		char suffix = Character.toLowerCase(value.charAt(value.length() - 1));
+
+		if (suffix == 'k')
+			multiplier = 1024;
+		else if (suffix == 'm')
+			multiplier = 1024 * 1024;
+		else if (suffix == 'g')
+			multiplier = 1024 * 1024 * 1024;
+
+		if (multiplier > 1)
+			value = value.substring(0, value.length() - 1);
+
+		return Long.parseLong(value) * multiplier;
+	}
+
+	public long getSize() {
+		return size;
+	}
+
+	public void setSize(long size) {
+		this.size = size;
+	}
+
+	public int getDepth() {
+		return depth;
+	}
+
+	public void setDepth(int depth) {
+		if (depth < 1)
+			throw new IllegalArgumentException("depth [" + depth
+					+ "] must be >= 1");
+
+		this.depth = depth;
+	}
+
+	public int getFanOut() {
+		return fanOut;
+	}
+
+	public void setFanOut(int fanOut) {
+		if (fanOut < 0)
+			throw new IllegalArgumentException("fanOut [" + fanOut
+					+ "] must be >= 0");
+
+		this.fanOut = fanOut;
+	}
+
+	public int getAttributeCount() {
+		return attributeCount;
+	}
+
+	public void setAttributeCount(int attributeCount) {
+		if (attributeCount < 0)
+			throw new IllegalArgumentException("attributeCount ["
+					+ attributeCount + "] must be >= 0");
+
+		this.attributeCount = attributeCount;
+	}
+
+	public int getTextLength() {
+		return textLength;
+	}
+
+	public void setTextLength(int textLength) {
+		if (textLength < 0)
+			throw new IllegalArgumentException("textLength [" + textLength
+					+ "] must be >= 0");
+
+		this.textLength = textLength;
+	}
+
+	public double getNamespaceDensity() {
+		return namespaceDensity;
+	}
+
+	public void setNamespaceDensity(double namespaceDensity) {
+		if (namespaceDensity < 0 || namespaceDensity > 1)
+			throw new IllegalArgumentException("namespaceDensity ["
+					+ namespaceDensity + "] must be between 0 and 1");
+
+		this.namespaceDensity = namespaceDensity;
+	}
+
+	public double getEntityDensity() {
+		return entityDensity;
+	}
+
+	public void setEntityDensity(double entityDensity) {
+		if (entityDensity < 0 || entityDensity > 1)
+			throw new IllegalArgumentException("entityDensity ["
+					+ entityDensity + "] must be between 0 and 1");
+
+		this.entityDensity = entityDensity;
+	}
+
+	public long getSeed() {
+		return seed;
+	}
+
+	public void setSeed(long seed) {
+		this.seed = seed;
+	}
+}
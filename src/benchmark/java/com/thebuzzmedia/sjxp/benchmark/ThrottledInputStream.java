@@ -0,0 +1,160 @@
+/**   
+ * Copyright 2011 The Buzz Media, LLC
+ * 
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *   http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.thebuzzmedia.sjxp.benchmark;
+
+import java.io.InputStream;
+import java.util.concurrent.locks.LockSupport;
+
+/**
+ * Stream used to simulate a document arriving over a slow network; the bytes
+ * become available one packet at a time at a fixed rate, starting when the
+ * stream is created.
+ * <p/>
+ * A stream in "fill" mode only returns from a read once the requested number
+ * of bytes has arrived (or the end of the document is reached), the way some
+ * decrypting or decompressing streams and hand-rolled read loops behave.
+ * Otherwise every read returns as soon as at least one packet is there, like a
+ * socket stream does.
+ * 
+ * @author Riyad Kalla (software@thebuzzmedia.com)
+ */
+public class ThrottledInputStream extends InputStream {
+	/**
+	 * Default packet size; a typical TCP segment payload.
+	 */
+	public static final int PACKET_SIZE = 1460;
+
+	private byte[] data;
+	private int position;
+	private long startTime;
+	private double nanosPerPacket;
+	private int packetSize;
+	private boolean fill;
+
+	/**
+	 * Creates a new stream delivering the given data at the given rate in
+	 * packets of {@link #PACKET_SIZE} bytes.
+	 * 
+	 * @param data
+	 *            The data to deliver.
+	 * @param bytesPerSecond
+	 *            The rate the data arrives at.
+	 * @param fill
+	 *            If reads should block until they are completely filled.
+	 */
+	public ThrottledInputStream(byte[] data, long bytesPerSecond, boolean fill) {
+		this(data, bytesPerSecond, PACKET_SIZE, fill);
+	}
+
+	/**
+	 * Creates a new stream delivering the given data at the given rate in
+	 * packets of the given size.
+	 * 
+	 * @param data
+	 *            The data to deliver.
+	 * @param bytesPerSecond
+	 *            The rate the data arrives at.
+	 * @param packetSize
+	 *            The number of bytes that arrive at once.
+	 * @param fill
+	 *            If reads should block until they are completely filled.
+	 * 
+	 * @throws IllegalArgumentException
+	 *             if <code>data</code> is <code>null</code> or if
+	 *             <code>bytesPerSecond</code> or <code>packetSize</code> are
+	 *             &lt;= 0.
+	 */
+	public ThrottledInputStream(byte[] data, long bytesPerSecond,
+			int packetSize, boolean fill) throws IllegalArgumentException {
+		if (data == null)
+			throw new IllegalArgumentException("data cannot be null");
+		if (bytesPerSecond <= 0)
+			throw new IllegalArgumentException("bytesPerSecond ["
+					+ bytesPerSecond + "] must be > 0");
+		if (packetSize <= 0)
+			throw new IllegalArgumentException("packetSize [" + packetSize
+					+ "] must be > 0");
+
+		this.data = data;
+		this.packetSize = packetSize;
+		this.fill = fill;
+
+		nanosPerPacket = packetSize * 1000000000d / bytesPerSecond;
+		startTime = System.nanoTime();
+	}
+
+	@Override
+	public int read() {
+		if (position == data.length)
+			return -1;
+
+		waitFor(position + 1);
+		return data[position++] & 0xFF;
+	}
+
+	@Override
+	public int read(byte[] b, int off, int len) {
+		if (len == 0)
+			return 0;
+		if (position == data.length)
+			return -1;
+
+		int end = Math.min(position + len, data.length);
+		int arrived = waitFor(fill ? end : position + 1);
+		int length = Math.min(end, arrived) - position;
+
+		System.arraycopy(data, position, b, off, length);
+		position += length;
+
+		return length;
+	}
+
+	@Override
+	public int available() {
+		return Math.max(0, arrived(System.nanoTime()) - position);
+	}
+
+	/**
+	 * Used to get the time (from {@link System#nanoTime()}) the first packet
+	 * arrived at, i.e. when the stream was created.
+	 * 
+	 * @return the time the first packet arrived at.
+	 */
+	public long getStartTime() {
+		return startTime;
+	}
+
+	/**
+	 * Used to wait until at least <code>length</code> bytes have arrived.
+	 * 
+	 * @return the number of bytes that have arrived.
+	 */
+	private int waitFor(int length) {
+		int packets = (length + packetSize - 1) / packetSize - 1;
+		long arrivalTime = startTime + (long) (packets * nanosPerPacket);
+		long now;
+
+		while ((now = System.nanoTime()) < arrivalTime)
+			LockSupport.parkNanos(arrivalTime - now);
+
+		return arrived(now);
+	}
+
+	private int arrived(long now) {
+		long packets = (long) ((now - startTime) / nanosPerPacket) + 1;
+		return (int) Math.min(packets * packetSize, data.length);
+	}
+}
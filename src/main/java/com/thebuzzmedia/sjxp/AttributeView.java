@@ -0,0 +1,237 @@
+/**   
+ * Copyright 2011 The Buzz Media, LLC
+ * 
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *   http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.thebuzzmedia.sjxp;
+
+import java.util.Arrays;
+
+import org.xmlpull.v1.XmlPullParser;
+
+import com.thebuzzmedia.sjxp.rule.IAttributesRule;
+
+/**
+ * Class used to give {@link IAttributesRule}s (and any other rule, see
+ * {@link XMLParser#getAttributes()}) access to the attributes of the element
+ * the {@link XMLParser} is currently at, by index or by name.
+ * <p/>
+ * A view reads straight out of the underlying pull parser; nothing is copied
+ * and no {@link String}s are created for it. Looking up an attribute by name
+ * is a linear scan for elements with only a few attributes; for elements with
+ * more than {@value #LINEAR_SCAN_LIMIT}, a hash table of the element's
+ * attributes is built on the first lookup and shared by every lookup (from
+ * every rule) that follows, so asking for 10 of 30 attributes costs one pass
+ * over them instead of 10.
+ * <h3>Namespaces</h3>
+ * Namespace URIs are given like they are everywhere else in SJXP; as the full
+ * URI (not the prefix) or <code>null</code> for an attribute that isn't
+ * namespace-qualified.
+ * <h3>Re-use</h3>
+ * A single view is re-used by the parser for every element and is only valid
+ * while the START_TAG of the element is being processed; copy any values that
+ * need to be kept.
+ * 
+ * @author Riyad Kalla (software@thebuzzmedia.com)
+ */
+public class AttributeView {
+	/**
+	 * Number of attributes up to which a lookup by name simply scans all of
+	 * them instead of building a hash table first.
+	 */
+	public static final int LINEAR_SCAN_LIMIT = 8;
+
+	private XmlPullParser xpp;
+	private int count;
+
+	private boolean indexed;
+	private int mask;
+	private int[] table = new int[64];
+	private int[] hashes = new int[64];
+
+	/**
+	 * Creates a new view over the attributes of the current element of the
+	 * given parser.
+	 * 
+	 * @param xpp
+	 *            The pull parser the attributes are read out of.
+	 */
+	AttributeView(XmlPullParser xpp) {
+		this.xpp = xpp;
+	}
+
+	/**
+	 * Overridden to provide a nicely formatted representation of the view for
+	 * easy debugging.
+	 * 
+	 * @return a nicely formatted representation of the view.
+	 */
+	@Override
+	public String toString() {
+		return this.getClass().getName() + "[count=" + count + ", indexed="
+				+ indexed + "]";
+	}
+
+	/**
+	 * Used to point the view at the element the pull parser is currently at.
+	 */
+	void reset() {
+		count = Math.max(xpp.getAttributeCount(), 0);
+		indexed = false;
+	}
+
+	public int getCount() {
+		return count;
+	}
+
+	public String getLocalName(int index) {
+		return xpp.getAttributeName(index);
+	}
+
+	public String getNamespaceURI(int index) {
+		String namespaceURI = xpp.getAttributeNamespace(index);
+		return (namespaceURI == null || namespaceURI.length() == 0 ? null
+				: namespaceURI);
+	}
+
+	public String getPrefix(int index) {
+		return xpp.getAttributePrefix(index);
+	}
+
+	public String getValue(int index) {
+		return xpp.getAttributeValue(index);
+	}
+
+	/**
+	 * Convenience method for {@link #getValue(String, String)} with no
+	 * namespace URI.
+	 */
+	public String getValue(String localName) {
+		return getValue(null, localName);
+	}
+
+	/**
+	 * Used to get the value of the attribute with the given name.
+	 * 
+	 * @param namespaceURI
+	 *            The namespace URI of the attribute, or <code>null</code> if
+	 *            it isn't namespace-qualified.
+	 * @param localName
+	 *            The local name of the attribute.
+	 * 
+	 * @return the value of the attribute or <code>null</code> if the element
+	 *         has no such attribute.
+	 */
+	public String getValue(String namespaceURI, String localName) {
+		int index = indexOf(namespaceURI, localName);
+		return (index == -1 ? null : xpp.getAttributeValue(index));
+	}
+
+	/**
+	 * Used to get the index of the attribute with the given name.
+	 * 
+	 * @param namespaceURI
+	 *            The namespace URI of the attribute, or <code>null</code> if
+	 *            it isn't namespace-qualified.
+	 * @param localName
+	 *            The local name of the attribute.
+	 * 
+	 * @return the index of the attribute or <code>-1</code> if the element has
+	 *         no such attribute.
+	 */
+	public int indexOf(String namespaceURI, String localName) {
+		if (localName == null)
+			return -1;
+
+		if (namespaceURI != null && namespaceURI.length() == 0)
+			namespaceURI = null;
+
+		if (count <= LINEAR_SCAN_LIMIT) {
+			for (int i = 0; i < count; i++) {
+				if (matches(i, namespaceURI, localName))
+					return i;
+			}
+
+			return -1;
+		}
+
+		if (!indexed)
+			index();
+
+		int hash = hash(namespaceURI, localName);
+
+		for (int slot = hash & mask; table[slot] != 0; slot = (slot + 1)
+				& mask) {
+			int index = table[slot] - 1;
+
+			if (hashes[slot] == hash
+					&& matches(index, namespaceURI, localName))
+				return index;
+		}
+
+		return -1;
+	}
+
+	/**
+	 * Used to build the hash table of the current element's attributes, keyed
+	 * by namespace URI and local name. Slots hold the attribute index plus one
+	 * so <code>0</code> marks an empty slot.
+	 */
+	private void index() {
+		int size = table.length;
+
+		while (size < count * 2)
+			size *= 2;
+
+		if (size > table.length) {
+			table = new int[size];
+			hashes = new int[size];
+		} else
+			Arrays.fill(table, 0);
+
+		mask = table.length - 1;
+
+		for (int i = 0; i < count; i++) {
+			int hash = hash(getNamespaceURI(i), xpp.getAttributeName(i));
+			int slot = hash & mask;
+
+			while (table[slot] != 0)
+				slot = (slot + 1) & mask;
+
+			table[slot] = i + 1;
+			hashes[slot] = hash;
+		}
+
+		indexed = true;
+	}
+
+	private boolean matches(int index, String namespaceURI, String localName) {
+		if (!localName.equals(xpp.getAttributeName(index)))
+			return false;
+
+		String uri = xpp.getAttributeNamespace(index);
+
+		if (namespaceURI == null)
+			return (uri == null || uri.length() == 0);
+
+		return namespaceURI.equals(uri);
+	}
+
+	private static int hash(String namespaceURI, String localName) {
+		int hash = localName.hashCode() * 31
+				+ (namespaceURI == null ? 0 : namespaceURI.hashCode());
+
+		// Spread the bits since only the low ones pick the slot
+		return hash ^ (hash >>> 16);
+	}
+}
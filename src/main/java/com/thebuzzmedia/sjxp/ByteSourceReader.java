@@ -0,0 +1,416 @@
+/**   
+ * Copyright 2011 The Buzz Media, LLC
+ * 
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *   http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.thebuzzmedia.sjxp;
+
+import java.io.Reader;
+import java.io.UnsupportedEncodingException;
+import java.nio.ByteBuffer;
+import java.nio.CharBuffer;
+import java.nio.charset.Charset;
+import java.nio.charset.CharsetDecoder;
+import java.nio.charset.CodingErrorAction;
+
+/**
+ * {@link Reader} used to decode XML held in a <code>byte[]</code> or
+ * {@link ByteBuffer} so the same instance can be handed to the pull parser
+ * for every document in a stream of small messages.
+ * <p/>
+ * UTF-8 (the default), US-ASCII and ISO-8859-1 are decoded by hand straight
+ * out of the source bytes; parsing a message then allocates nothing at all
+ * here, unlike wrapping it in a new {@link java.io.InputStreamReader} (and its
+ * 8 KB buffer) every time. Any other encoding falls back to a
+ * {@link CharsetDecoder} that is cached for as long as the encoding doesn't
+ * change.
+ * <p/>
+ * Malformed input is replaced with U+FFFD instead of failing the parse, the
+ * same thing {@link java.io.InputStreamReader} does.
+ * <p/>
+ * When given a {@link MarkupSkipper} (and decoding UTF-8, US-ASCII or
+ * ISO-8859-1) the bytes are handed out one region at a time as found by
+ * {@link MarkupSkipper#scan(int, int)}; the start tag of every element whose
+ * subtree can be skipped is turned into an empty-element tag and decoding
+ * carries on after the element's end tag, so the pull parser never sees the
+ * skipped content at all.
+ * 
+ * @author Riyad Kalla (software@thebuzzmedia.com)
+ */
+class ByteSourceReader extends Reader {
+	private static final int UTF_8 = 0;
+	private static final int LATIN_1 = 1;
+	private static final int DECODER = 2;
+
+	private static final char REPLACEMENT = '\uFFFD';
+
+	private static final String EMPTY_TAG_END = "/>";
+
+	private byte[] array;
+	private byte[] scratch;
+	private int position;
+	private int limit;
+
+	private int pendingChar = -1;
+
+	private MarkupSkipper skipper;
+	private boolean skipping;
+	private boolean skipStopped;
+	private int regionLimit;
+	private int tagEndIndex = -1;
+
+	private String encoding;
+	private int decoding = UTF_8;
+
+	private CharsetDecoder decoder;
+	private ByteBuffer decoderIn;
+	private CharBuffer decoderOut;
+	private boolean flushed;
+
+	@Override
+	public int read(char[] cbuf, int off, int len) {
+		if (len == 0)
+			return 0;
+
+		int count;
+
+		if (skipping)
+			count = readRegions(cbuf, off, len);
+		else
+			switch (decoding) {
+			case LATIN_1:
+				count = readLatin1(cbuf, off, len);
+				break;
+
+			case DECODER:
+				count = readDecoder(cbuf, off, len);
+				break;
+
+			default:
+				count = readUTF8(cbuf, off, len);
+				break;
+			}
+
+		return (count == 0 ? -1 : count);
+	}
+
+	/**
+	 * Overridden to release the source bytes; the reader can still be
+	 * re-used by calling one of the <code>setInput</code> methods again.
+	 */
+	@Override
+	public void close() {
+		array = null;
+		position = limit = regionLimit = 0;
+		pendingChar = -1;
+
+		if (skipper != null)
+			skipper.release();
+	}
+
+	/**
+	 * Used to point this reader at the given bytes.
+	 * 
+	 * @param source
+	 *            The bytes to decode.
+	 * @param offset
+	 *            The index of the first byte to decode.
+	 * @param length
+	 *            The number of bytes to decode.
+	 */
+	void setInput(byte[] source, int offset, int length) {
+		array = source;
+		position = offset;
+		limit = offset + length;
+
+		start();
+	}
+
+	/**
+	 * Used to point this reader at the bytes remaining in the given buffer,
+	 * between its position and limit. The buffer's position is not changed;
+	 * heap buffers are read in place and direct buffers are bulk-copied into a
+	 * scratch array that is re-used from one message to the next.
+	 * 
+	 * @param source
+	 *            The bytes to decode.
+	 */
+	void setInput(ByteBuffer source) {
+		if (source.hasArray()) {
+			setInput(source.array(), source.arrayOffset() + source.position(),
+					source.remaining());
+		} else {
+			int position = source.position();
+			int length = source.remaining();
+
+			if (scratch == null || scratch.length < length)
+				scratch = new byte[Math.max(length, 1024)];
+
+			source.get(scratch, 0, length);
+			source.position(position);
+
+			setInput(scratch, 0, length);
+		}
+	}
+
+	/**
+	 * Used to set the skipper used to leave out the subtrees of the next
+	 * documents that no rule can match. Skipping only happens for UTF-8,
+	 * US-ASCII and ISO-8859-1 documents.
+	 * 
+	 * @param skipper
+	 *            The skipper, or <code>null</code> to decode every byte.
+	 */
+	void setSkipper(MarkupSkipper skipper) {
+		this.skipper = skipper;
+	}
+
+	/**
+	 * Used to decode everything that follows the subtree being skipped (if
+	 * any) for the rest of the current input, for example because the rules
+	 * changed and the skipper can no longer tell what they need.
+	 */
+	void stopSkipping() {
+		skipStopped = true;
+	}
+
+	/**
+	 * Used to set the encoding of the bytes that will be decoded. The encoding
+	 * is only looked up (and validated) when it changes.
+	 * 
+	 * @param encoding
+	 *            The encoding of the bytes, or <code>null</code> for UTF-8.
+	 * 
+	 * @throws UnsupportedEncodingException
+	 *             if <code>encoding</code> is not recognized by
+	 *             {@link Charset#isSupported(String)}.
+	 */
+	void setEncoding(String encoding) throws UnsupportedEncodingException {
+		if (encoding != null && encoding.trim().length() == 0)
+			encoding = null;
+
+		if (encoding == null ? this.encoding == null : encoding
+				.equals(this.encoding))
+			return;
+
+		int decoding = DECODER;
+		CharsetDecoder decoder = null;
+
+		if (encoding == null || "UTF-8".equalsIgnoreCase(encoding)
+				|| "UTF8".equalsIgnoreCase(encoding))
+			decoding = UTF_8;
+		else if ("ISO-8859-1".equalsIgnoreCase(encoding)
+				|| "US-ASCII".equalsIgnoreCase(encoding)
+				|| "ASCII".equalsIgnoreCase(encoding))
+			decoding = LATIN_1;
+		else {
+			if (!Charset.isSupported(encoding))
+				throw new UnsupportedEncodingException(
+						"Encoding ["
+								+ encoding
+								+ "] is not a valid charset encoding in this runtime according to Charset.isSupported(encoding).");
+
+			decoder = Charset.forName(encoding).newDecoder()
+					.onMalformedInput(CodingErrorAction.REPLACE)
+					.onUnmappableCharacter(CodingErrorAction.REPLACE);
+		}
+
+		this.encoding = encoding;
+		this.decoding = decoding;
+		this.decoder = decoder;
+		decoderIn = null;
+		decoderOut = null;
+		flushed = false;
+	}
+
+	private int byteAt(int index) {
+		return array[index] & 0xFF;
+	}
+
+	/**
+	 * Used to reset the decoding state for new input, skipping a UTF-8 byte
+	 * order mark if there is one.
+	 */
+	private void start() {
+		pendingChar = -1;
+
+		if (decoding == UTF_8 && limit - position >= 3
+				&& byteAt(position) == 0xEF && byteAt(position + 1) == 0xBB
+				&& byteAt(position + 2) == 0xBF)
+			position += 3;
+
+		if (decoder != null) {
+			decoder.reset();
+			decoderIn = null;
+			flushed = false;
+		}
+
+		skipping = (skipper != null && decoding != DECODER);
+		skipStopped = false;
+		tagEndIndex = -1;
+
+		if (skipping) {
+			skipper.reset(array);
+			regionLimit = position;
+		} else
+			regionLimit = limit;
+	}
+
+	/**
+	 * Used to decode the bytes one region (see
+	 * {@link MarkupSkipper#scan(int, int)}) at a time, jumping over the
+	 * content of skipped elements.
+	 */
+	private int readRegions(char[] cbuf, int off, int len) {
+		int count = 0;
+
+		// Finish a surrogate pair split by the last read
+		if (pendingChar != -1) {
+			cbuf[off + count++] = (char) pendingChar;
+			pendingChar = -1;
+		}
+
+		while (count < len) {
+			if (position < regionLimit) {
+				if (decoding == LATIN_1)
+					count += readLatin1(cbuf, off + count, len - count);
+				else
+					count += readUTF8(cbuf, off + count, len - count);
+			} else if (tagEndIndex != -1) {
+				// Close the start tag of a skipped element as an empty one
+				cbuf[off + count++] = EMPTY_TAG_END.charAt(tagEndIndex++);
+
+				if (tagEndIndex == EMPTY_TAG_END.length()) {
+					tagEndIndex = -1;
+					position = regionLimit = skipper.getSkipTo();
+				}
+			} else if (skipStopped && position < limit)
+				regionLimit = limit;
+			else if (position < limit) {
+				regionLimit = skipper.scan(position, limit);
+
+				if (skipper.getSkipTo() != -1)
+					tagEndIndex = 0;
+			} else
+				break;
+		}
+
+		return count;
+	}
+
+	private int readLatin1(char[] cbuf, int off, int len) {
+		int count = Math.min(len, regionLimit - position);
+
+		for (int i = 0; i < count; i++)
+			cbuf[off + i] = (char) byteAt(position++);
+
+		return count;
+	}
+
+	private int readUTF8(char[] cbuf, int off, int len) {
+		int count = 0;
+
+		// Finish a surrogate pair split by the last read
+		if (pendingChar != -1) {
+			cbuf[off + count++] = (char) pendingChar;
+			pendingChar = -1;
+		}
+
+		while (count < len && position < regionLimit) {
+			int b = byteAt(position);
+
+			// Plain ASCII is by far the most common case
+			if (b < 0x80) {
+				cbuf[off + count++] = (char) b;
+				position++;
+				continue;
+			}
+
+			int needed;
+			int codePoint;
+
+			if ((b & 0xE0) == 0xC0) {
+				needed = 1;
+				codePoint = b & 0x1F;
+			} else if ((b & 0xF0) == 0xE0) {
+				needed = 2;
+				codePoint = b & 0x0F;
+			} else if ((b & 0xF8) == 0xF0) {
+				needed = 3;
+				codePoint = b & 0x07;
+			} else {
+				cbuf[off + count++] = REPLACEMENT;
+				position++;
+				continue;
+			}
+
+			int i = 1;
+
+			for (; i <= needed && position + i < regionLimit; i++) {
+				int next = byteAt(position + i);
+
+				if ((next & 0xC0) != 0x80)
+					break;
+
+				codePoint = (codePoint << 6) | (next & 0x3F);
+			}
+
+			if (i <= needed) {
+				// Truncated or malformed sequence, skip what was read of it
+				cbuf[off + count++] = REPLACEMENT;
+				position += i;
+				continue;
+			}
+
+			position += i;
+
+			if (codePoint < 0x10000)
+				cbuf[off + count++] = (char) codePoint;
+			else {
+				codePoint -= 0x10000;
+				cbuf[off + count++] = (char) (0xD800 + (codePoint >> 10));
+
+				char low = (char) (0xDC00 + (codePoint & 0x3FF));
+
+				if (count < len)
+					cbuf[off + count++] = low;
+				else
+					pendingChar = low;
+			}
+		}
+
+		return count;
+	}
+
+	private int readDecoder(char[] cbuf, int off, int len) {
+		if (flushed)
+			return 0;
+
+		if (decoderIn == null)
+			decoderIn = ByteBuffer.wrap(array, position, limit - position);
+
+		if (decoderOut == null || decoderOut.array() != cbuf)
+			decoderOut = CharBuffer.wrap(cbuf);
+
+		decoderOut.limit(off + len).position(off);
+		decoder.decode(decoderIn, decoderOut, true);
+
+		if (!decoderIn.hasRemaining() && decoderOut.hasRemaining()) {
+			decoder.flush(decoderOut);
+			flushed = true;
+		}
+
+		position = decoderIn.position();
+		return decoderOut.position() - off;
+	}
+}
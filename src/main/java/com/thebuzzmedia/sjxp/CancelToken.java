@@ -0,0 +1,94 @@
+/**   
+ * Copyright 2011 The Buzz Media, LLC
+ * 
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *   http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.thebuzzmedia.sjxp;
+
+/**
+ * Class used to cancel the parses of an {@link XMLParser} from any thread,
+ * e.g. a watchdog cancelling every parse of a request that timed out.
+ * <p/>
+ * A token is handed to a parser with
+ * {@link XMLParser#setCancelToken(CancelToken)}. Once cancelled, the parse
+ * running on that parser fails with an {@link XMLParserCancelledException}
+ * and so does every parse started afterwards, so cancelling before a parse
+ * gets going is never lost. A cancelled token stays cancelled; use a new
+ * token for new work.
+ * <p/>
+ * Like {@link java.util.concurrent.Future#cancel(boolean)}, cancelling can
+ * also interrupt the thread running the parse, which is the only way to
+ * break out of a read blocked on an interruptible channel (e.g. a stream
+ * created with {@link java.nio.channels.Channels#newInputStream}).
+ * 
+ * @author Riyad Kalla (software@thebuzzmedia.com)
+ */
+public class CancelToken {
+	private volatile boolean cancelled;
+	private Thread thread;
+
+	/**
+	 * Overridden to provide a nicely formatted representation of the token
+	 * for easy debugging.
+	 * 
+	 * @return a nicely formatted representation of the token.
+	 */
+	@Override
+	public String toString() {
+		return this.getClass().getName() + "[cancelled=" + cancelled + "]";
+	}
+
+	/**
+	 * Used to cancel any parse using this token without interrupting the
+	 * thread running it; parsing fails at the next check, which the parser
+	 * makes every few events.
+	 */
+	public void cancel() {
+		cancel(false);
+	}
+
+	/**
+	 * Used to cancel any parse using this token.
+	 * 
+	 * @param mayInterruptIfRunning
+	 *            <code>true</code> to also interrupt the thread running a
+	 *            parse with this token, if there is one.
+	 */
+	public synchronized void cancel(boolean mayInterruptIfRunning) {
+		cancelled = true;
+
+		if (mayInterruptIfRunning && thread != null)
+			thread.interrupt();
+	}
+
+	public boolean isCancelled() {
+		return cancelled;
+	}
+
+	/**
+	 * Used to record the current thread as the one running a parse with this
+	 * token.
+	 */
+	synchronized void enter() {
+		thread = Thread.currentThread();
+	}
+
+	/**
+	 * Used to forget the current thread once its parse is done, so it can no
+	 * longer be interrupted by {@link #cancel(boolean)}.
+	 */
+	synchronized void exit() {
+		if (thread == Thread.currentThread())
+			thread = null;
+	}
+}
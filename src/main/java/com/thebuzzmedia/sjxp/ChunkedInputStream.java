@@ -0,0 +1,73 @@
+/**   
+ * Copyright 2011 The Buzz Media, LLC
+ * 
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *   http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.thebuzzmedia.sjxp;
+
+import java.io.FilterInputStream;
+import java.io.IOException;
+import java.io.InputStream;
+
+/**
+ * Stream used to cap the number of bytes requested from the wrapped stream by
+ * any single read.
+ * <p/>
+ * The pull parser (by way of its {@link java.io.Reader}) asks for up to 8 KB
+ * at a time. Streams that block until a read is completely filled (e.g. some
+ * decrypting or decompressing streams, or a caller's own stream that loops
+ * until it has <code>len</code> bytes) would then hold back the first events
+ * of a slowly arriving document until 8 KB of it had been downloaded. Asking
+ * for smaller reads hands every chunk to the parser as soon as it arrives.
+ * <p/>
+ * Instances are re-used between calls to <code>parse</code> by
+ * {@link XMLParser} with {@link #setInput(InputStream)}.
+ * 
+ * @author Riyad Kalla (software@thebuzzmedia.com)
+ */
+class ChunkedInputStream extends FilterInputStream {
+	private int chunkSize;
+
+	/**
+	 * Creates a new stream reading at most <code>chunkSize</code> bytes at a
+	 * time from the given stream.
+	 * 
+	 * @param in
+	 *            The stream to read from.
+	 * @param chunkSize
+	 *            The maximum number of bytes requested by any single read.
+	 */
+	ChunkedInputStream(InputStream in, int chunkSize) {
+		super(in);
+		this.chunkSize = chunkSize;
+	}
+
+	@Override
+	public int read(byte[] b, int off, int len) throws IOException {
+		return in.read(b, off, (len > chunkSize ? chunkSize : len));
+	}
+
+	/**
+	 * Used to point this stream at a new stream to read from.
+	 * 
+	 * @param in
+	 *            The stream to read from.
+	 */
+	void setInput(InputStream in) {
+		this.in = in;
+	}
+
+	int getChunkSize() {
+		return chunkSize;
+	}
+}
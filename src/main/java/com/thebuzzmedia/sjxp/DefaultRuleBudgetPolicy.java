@@ -0,0 +1,87 @@
+/**   
+ * Copyright 2011 The Buzz Media, LLC
+ * 
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *   http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.thebuzzmedia.sjxp;
+
+import com.thebuzzmedia.sjxp.rule.IRule;
+
+/**
+ * Class used to provide a default implementation of {@link IRuleBudgetPolicy}
+ * that logs the offending rule and then applies a fixed
+ * {@link IRuleBudgetPolicy.Action}.
+ * <p/>
+ * The warning is part of the debug output of {@link XMLParser}, so it is only
+ * written when the "sjxp.debug" system property is set (see
+ * {@link XMLParser#DEBUG}).
+ * <p/>
+ * If you need anything more involved (e.g. offloading the remaining work for a
+ * rule to a queue) simply extend this class and override
+ * {@link #budgetExceeded(XMLParser, IRule, long, Object)}.
+ * 
+ * @param <T>
+ *            The class type of any user-supplied object that the caller wishes
+ *            to be passed through from one of the {@link XMLParser}'s
+ *            <code>parse</code> methods directly to the handler when an
+ *            {@link IRule} matches.
+ * 
+ * @author Riyad Kalla (software@thebuzzmedia.com)
+ */
+public class DefaultRuleBudgetPolicy<T> implements IRuleBudgetPolicy<T> {
+	private Action action;
+
+	/**
+	 * Create a new policy that logs and then lets the rule continue.
+	 */
+	public DefaultRuleBudgetPolicy() {
+		this(Action.CONTINUE);
+	}
+
+	/**
+	 * Create a new policy that logs and then applies the given action.
+	 * 
+	 * @param action
+	 *            The action to apply to every rule that exceeds its budget.
+	 * 
+	 * @throws IllegalArgumentException
+	 *             if <code>action</code> is <code>null</code>.
+	 */
+	public DefaultRuleBudgetPolicy(Action action)
+			throws IllegalArgumentException {
+		if (action == null)
+			throw new IllegalArgumentException("action cannot be null");
+
+		this.action = action;
+	}
+
+	public Action getAction() {
+		return action;
+	}
+
+	/**
+	 * Default implementation that logs the rule that exceeded its budget and
+	 * returns the action this policy was created with.
+	 * 
+	 * @see IRuleBudgetPolicy#budgetExceeded(XMLParser, IRule, long, Object)
+	 */
+	public Action budgetExceeded(XMLParser<T> parser, IRule<T> rule,
+			long elapsedTime, T userObject) {
+		if (XMLParser.DEBUG)
+			XMLParser.log(
+					"Rule exceeded its time budget [elapsed=%dns, action=%s]: %s",
+					elapsedTime, action, rule);
+
+		return action;
+	}
+}
@@ -0,0 +1,232 @@
+/**   
+ * Copyright 2011 The Buzz Media, LLC
+ * 
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *   http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.thebuzzmedia.sjxp;
+
+import java.io.IOException;
+import java.io.Reader;
+
+/**
+ * {@link Reader} used to present a stream of concatenated XML documents to the
+ * pull parser as a single, well-formed document.
+ * <p/>
+ * The content of the underlying reader is wrapped in a synthetic
+ * <code>&lt;{@value #ROOT}&gt;</code> element, making every document's root
+ * element a child of it. XML declarations (<code>&lt;?xml ...?&gt;</code>) and
+ * byte order marks are dropped, since neither is allowed anywhere but at the
+ * very start of a document. Comments, CDATA sections and processing
+ * instructions are passed through untouched, including anything inside of them
+ * that looks like an XML declaration.
+ * <p/>
+ * Document type declarations are not removed and will be reported as an error
+ * by the pull parser.
+ * 
+ * @author Riyad Kalla (software@thebuzzmedia.com)
+ */
+class DocumentStreamReader extends Reader {
+	/**
+	 * Name of the synthetic element every document is wrapped in.
+	 */
+	static final String ROOT = "sjxp-documents";
+
+	private static final String PREFIX = '<' + ROOT + '>';
+	private static final String SUFFIX = "</" + ROOT + '>';
+
+	/**
+	 * Longest markup opening that has to be recognized; "&lt;![CDATA[".
+	 */
+	private static final int LOOKAHEAD = 9;
+
+	private static final int CONTENT = 0;
+	private static final int COMMENT = 1;
+	private static final int CDATA = 2;
+	private static final int INSTRUCTION = 3;
+	private static final int DECLARATION = 4;
+
+	private Reader in;
+	private char[] buffer = new char[8192];
+	private int position;
+	private int limit;
+	private boolean eof;
+
+	private int state;
+	private int prefixIndex;
+	private int suffixIndex;
+
+	@Override
+	public int read(char[] cbuf, int off, int len) throws IOException {
+		if (len == 0)
+			return 0;
+
+		int count = 0;
+
+		while (count < len && prefixIndex < PREFIX.length())
+			cbuf[off + count++] = PREFIX.charAt(prefixIndex++);
+
+		while (count < len && fill(1)) {
+			char c = buffer[position];
+
+			switch (state) {
+			case CONTENT:
+				if (c == '\uFEFF') {
+					position++;
+					continue;
+				}
+
+				if (c == '<') {
+					fill(LOOKAHEAD);
+
+					if (isDeclaration()) {
+						state = DECLARATION;
+						position += 5;
+						continue;
+					} else if (startsWith("<!--"))
+						state = COMMENT;
+					else if (startsWith("<![CDATA["))
+						state = CDATA;
+					else if (startsWith("<?"))
+						state = INSTRUCTION;
+				}
+				break;
+
+			case COMMENT:
+				if (c == '-' && fill(3) && startsWith("-->"))
+					state = CONTENT;
+				break;
+
+			case CDATA:
+				if (c == ']' && fill(3) && startsWith("]]>"))
+					state = CONTENT;
+				break;
+
+			case INSTRUCTION:
+				if (c == '?' && fill(2) && startsWith("?>"))
+					state = CONTENT;
+				break;
+
+			case DECLARATION:
+				// Drop everything up to and including the closing "?>"
+				if (c == '?' && fill(2) && startsWith("?>")) {
+					state = CONTENT;
+					position += 2;
+				} else
+					position++;
+				continue;
+			}
+
+			/*
+			 * Copy the character; the end markers ("-->", "]]>" and "?>") are
+			 * copied one character at a time like any other content once the
+			 * state has been switched back.
+			 */
+			cbuf[off + count++] = c;
+			position++;
+		}
+
+		if (eof && position == limit) {
+			while (count < len && suffixIndex < SUFFIX.length())
+				cbuf[off + count++] = SUFFIX.charAt(suffixIndex++);
+		}
+
+		return (count == 0 ? -1 : count);
+	}
+
+	/**
+	 * Overridden to release (but not close) the underlying reader; the reader
+	 * can still be re-used by calling {@link #setInput(Reader)} again.
+	 */
+	@Override
+	public void close() {
+		in = null;
+	}
+
+	/**
+	 * Used to point this reader at a new stream of documents.
+	 * 
+	 * @param in
+	 *            The reader the documents are read out of.
+	 */
+	void setInput(Reader in) {
+		this.in = in;
+
+		position = limit = 0;
+		eof = false;
+
+		state = CONTENT;
+		prefixIndex = suffixIndex = 0;
+	}
+
+	/**
+	 * Used to make sure at least the given number of characters are buffered,
+	 * unless the end of the underlying reader is reached first.
+	 * 
+	 * @return <code>true</code> if the given number of characters are
+	 *         available.
+	 */
+	private boolean fill(int count) throws IOException {
+		if (limit - position >= count)
+			return true;
+
+		if (eof)
+			return (limit - position >= count);
+
+		// Compact what is left to the front of the buffer
+		if (position > 0) {
+			System.arraycopy(buffer, position, buffer, 0, limit - position);
+			limit -= position;
+			position = 0;
+		}
+
+		while (limit < count) {
+			int read = in.read(buffer, limit, buffer.length - limit);
+
+			if (read == -1) {
+				eof = true;
+				break;
+			}
+
+			limit += read;
+		}
+
+		return (limit - position >= count);
+	}
+
+	private boolean startsWith(String value) {
+		int length = value.length();
+
+		if (limit - position < length)
+			return false;
+
+		for (int i = 0; i < length; i++) {
+			if (buffer[position + i] != value.charAt(i))
+				return false;
+		}
+
+		return true;
+	}
+
+	/**
+	 * Used to determine if the buffer is positioned at an XML declaration;
+	 * "&lt;?xml" followed by whitespace or "?&gt;", as opposed to a processing
+	 * instruction whose target merely starts with "xml".
+	 */
+	private boolean isDeclaration() {
+		if (!startsWith("<?xml") || limit - position < 6)
+			return false;
+
+		char c = buffer[position + 5];
+		return (c == ' ' || c == '\t' || c == '\r' || c == '\n' || c == '?');
+	}
+}
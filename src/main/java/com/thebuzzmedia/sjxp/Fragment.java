@@ -0,0 +1,561 @@
+/**   
+ * Copyright 2011 The Buzz Media, LLC
+ * 
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *   http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.thebuzzmedia.sjxp;
+
+import java.util.Arrays;
+
+import org.xmlpull.v1.XmlPullParser;
+
+import com.thebuzzmedia.sjxp.rule.IRule;
+import com.thebuzzmedia.sjxp.rule.IRule.Type;
+
+/**
+ * Class used to give {@link Type#FRAGMENT} rules random access to the
+ * elements, attributes and text of a matching element, like a small DOM of
+ * just that element.
+ * <p/>
+ * Nodes are identified by <code>int</code> ids instead of objects; every
+ * method takes the id of the node it is asked about and methods navigating
+ * the tree return {@link #NONE} when there is no such node. Walking the
+ * children of an element looks like this:
+ * 
+ * <pre>
+ * for (int child = fragment.getFirstChild(fragment.getRoot(), &quot;author&quot;); child != Fragment.NONE; child = fragment
+ * 		.getNextSibling(child, &quot;author&quot;))
+ * 	authors.add(fragment.getText(child));
+ * </pre>
+ * 
+ * There are two kinds of nodes: elements and the text between them (with
+ * entity references resolved and CDATA sections unwrapped). Comments and
+ * processing instructions are not kept.
+ * <h3>Memory</h3>
+ * The nodes live in a handful of arrays owned by the parser, the arena, and
+ * the text of all of them in a single <code>char[]</code>. The arena is
+ * emptied once the outermost element being built has been handed to its
+ * rules and re-used for the next one, only ever growing as far as the largest
+ * element seen so far, so building fragments allocates nothing once it has
+ * warmed up. Names and attribute values are the {@link String}s the pull
+ * parser already created; text is only turned into a {@link String} when
+ * {@link #getText(int)} is called.
+ * <p/>
+ * A fragment is therefore only valid until the rule it was handed to returns;
+ * copy any values that need to be kept.
+ * <h3>Namespaces</h3>
+ * Namespace URIs are given like they are everywhere else in SJXP; as the full
+ * URI (not the prefix) or <code>null</code> for names that aren't
+ * namespace-qualified.
+ * 
+ * @author Riyad Kalla (software@thebuzzmedia.com)
+ * 
+ * @see IFragmentRule#handleFragment(XMLParser, Fragment, Object)
+ */
+public class Fragment {
+	/**
+	 * Node id returned when there is no node to return.
+	 */
+	public static final int NONE = -1;
+
+	private static final int INITIAL_CAPACITY = 64;
+
+	private int root;
+	private int nodeCount;
+
+	private int[] parents = new int[INITIAL_CAPACITY];
+	private int[] firstChildren = new int[INITIAL_CAPACITY];
+	private int[] lastChildren = new int[INITIAL_CAPACITY];
+	private int[] nextSiblings = new int[INITIAL_CAPACITY];
+
+	/**
+	 * Local names and namespace URIs of the nodes; text nodes have no local
+	 * name.
+	 */
+	private String[] localNames = new String[INITIAL_CAPACITY];
+	private String[] namespaceURIs = new String[INITIAL_CAPACITY];
+
+	/**
+	 * For element nodes the index of their first attribute and their number
+	 * of attributes, for text nodes the index of their first character and
+	 * their number of characters.
+	 */
+	private int[] offsets = new int[INITIAL_CAPACITY];
+	private int[] lengths = new int[INITIAL_CAPACITY];
+
+	private int attrCount;
+	private String[] attrLocalNames = new String[INITIAL_CAPACITY];
+	private String[] attrNamespaceURIs = new String[INITIAL_CAPACITY];
+	private String[] attrValues = new String[INITIAL_CAPACITY];
+
+	private int charCount;
+	private char[] chars = new char[INITIAL_CAPACITY * 16];
+
+	/**
+	 * Elements that have been started but not ended yet, outermost first.
+	 */
+	private int openCount;
+	private int[] openElements = new int[16];
+
+	/**
+	 * Overridden to provide a nicely formatted representation of the fragment
+	 * for easy debugging.
+	 * 
+	 * @return a nicely formatted representation of the fragment.
+	 */
+	@Override
+	public String toString() {
+		return this.getClass().getName() + "[root=" + root + ", nodes="
+				+ nodeCount + ", attributes=" + attrCount + ", characters="
+				+ charCount + "]";
+	}
+
+	/**
+	 * Used to empty the arena so it can be filled with the next element.
+	 * References to the pull parser's {@link String}s are dropped so they
+	 * don't outlive the element.
+	 */
+	void clear() {
+		Arrays.fill(localNames, 0, nodeCount, null);
+		Arrays.fill(namespaceURIs, 0, nodeCount, null);
+		Arrays.fill(attrLocalNames, 0, attrCount, null);
+		Arrays.fill(attrNamespaceURIs, 0, attrCount, null);
+		Arrays.fill(attrValues, 0, attrCount, null);
+
+		root = 0;
+		nodeCount = attrCount = charCount = openCount = 0;
+	}
+
+	/**
+	 * Used to add a node for the element the pull parser is currently at (on
+	 * its START_TAG), including all of its attributes, as the last child of
+	 * the innermost open element.
+	 * 
+	 * @return the id of the new node.
+	 */
+	int startElement(XmlPullParser xpp) {
+		int node = addNode(xpp.getName(), normalize(xpp.getNamespace()));
+		int count = Math.max(xpp.getAttributeCount(), 0);
+
+		if (attrCount + count > attrValues.length) {
+			int capacity = Math.max(attrCount + count, attrValues.length * 2);
+
+			attrLocalNames = grow(attrLocalNames, capacity);
+			attrNamespaceURIs = grow(attrNamespaceURIs, capacity);
+			attrValues = grow(attrValues, capacity);
+		}
+
+		offsets[node] = attrCount;
+		lengths[node] = count;
+
+		for (int i = 0; i < count; i++, attrCount++) {
+			attrLocalNames[attrCount] = xpp.getAttributeName(i);
+			attrNamespaceURIs[attrCount] = normalize(xpp
+					.getAttributeNamespace(i));
+			attrValues[attrCount] = xpp.getAttributeValue(i);
+		}
+
+		if (openCount == openElements.length)
+			openElements = grow(openElements, openCount * 2);
+
+		openElements[openCount++] = node;
+		return node;
+	}
+
+	/**
+	 * Used to add the given text to the innermost open element, extending its
+	 * last child if that is text as well.
+	 */
+	void appendText(char[] text, int start, int length) {
+		if (openCount == 0 || length == 0)
+			return;
+
+		if (charCount + length > chars.length) {
+			char[] newChars = new char[Math.max(charCount + length,
+					chars.length * 2)];
+			System.arraycopy(chars, 0, newChars, 0, charCount);
+			chars = newChars;
+		}
+
+		System.arraycopy(text, start, chars, charCount, length);
+
+		int last = lastChildren[openElements[openCount - 1]];
+
+		// Adjacent text (e.g. around a comment) becomes a single node
+		if (last != NONE && localNames[last] == null
+				&& offsets[last] + lengths[last] == charCount)
+			lengths[last] += length;
+		else {
+			int node = addNode(null, null);
+			offsets[node] = charCount;
+			lengths[node] = length;
+		}
+
+		charCount += length;
+	}
+
+	/**
+	 * Used to close the innermost open element.
+	 */
+	void endElement() {
+		if (openCount > 0)
+			openCount--;
+	}
+
+	/**
+	 * Used to set the node handed to the fragment's rules as its root.
+	 */
+	void setRoot(int root) {
+		this.root = root;
+	}
+
+	/**
+	 * Used to get the id of the element the rule matched. Its descendants
+	 * have the ids following it, in document order.
+	 * 
+	 * @return the id of the element the rule matched.
+	 */
+	public int getRoot() {
+		return root;
+	}
+
+	/**
+	 * Used to get the number of nodes (elements and text) of the fragment,
+	 * including its root; their ids are {@link #getRoot()} up to
+	 * <code>getRoot() + getNodeCount() - 1</code>.
+	 * 
+	 * @return the number of nodes of the fragment.
+	 */
+	public int getNodeCount() {
+		return nodeCount - root;
+	}
+
+	/**
+	 * Used to determine if the given node is an element (<code>true</code>)
+	 * or text.
+	 */
+	public boolean isElement(int node) {
+		return (localNames[node] != null);
+	}
+
+	public String getLocalName(int node) {
+		return localNames[node];
+	}
+
+	public String getNamespaceURI(int node) {
+		return namespaceURIs[node];
+	}
+
+	/**
+	 * Used to get the parent element of the given node.
+	 * 
+	 * @return the id of the parent element or {@link #NONE} if the node is
+	 *         the root.
+	 */
+	public int getParent(int node) {
+		return (node == root ? NONE : parents[node]);
+	}
+
+	/**
+	 * Used to get the first child (element or text) of the given node.
+	 * 
+	 * @return the id of the first child or {@link #NONE} if the node has no
+	 *         children.
+	 */
+	public int getFirstChild(int node) {
+		return firstChildren[node];
+	}
+
+	/**
+	 * Used to get the node following the given one under the same parent.
+	 * 
+	 * @return the id of the next sibling or {@link #NONE} if the node is the
+	 *         last child of its parent or the root.
+	 */
+	public int getNextSibling(int node) {
+		return (node == root ? NONE : nextSiblings[node]);
+	}
+
+	/**
+	 * Convenience method for {@link #getFirstChild(int, String, String)} with
+	 * no namespace URI.
+	 */
+	public int getFirstChild(int node, String localName) {
+		return getFirstChild(node, null, localName);
+	}
+
+	/**
+	 * Used to get the first child element of the given node with the given
+	 * name.
+	 * 
+	 * @param node
+	 *            The id of the parent node.
+	 * @param namespaceURI
+	 *            The namespace URI of the child, or <code>null</code> if it
+	 *            isn't namespace-qualified.
+	 * @param localName
+	 *            The local name of the child.
+	 * 
+	 * @return the id of the first matching child or {@link #NONE} if there is
+	 *         none.
+	 */
+	public int getFirstChild(int node, String namespaceURI, String localName) {
+		int child = firstChildren[node];
+
+		while (child != NONE && !matches(child, namespaceURI, localName))
+			child = nextSiblings[child];
+
+		return child;
+	}
+
+	/**
+	 * Convenience method for {@link #getNextSibling(int, String, String)} with
+	 * no namespace URI.
+	 */
+	public int getNextSibling(int node, String localName) {
+		return getNextSibling(node, null, localName);
+	}
+
+	/**
+	 * Used to get the next sibling element of the given node with the given
+	 * name.
+	 * 
+	 * @param node
+	 *            The id of the node to start after.
+	 * @param namespaceURI
+	 *            The namespace URI of the sibling, or <code>null</code> if it
+	 *            isn't namespace-qualified.
+	 * @param localName
+	 *            The local name of the sibling.
+	 * 
+	 * @return the id of the next matching sibling or {@link #NONE} if there is
+	 *         none.
+	 */
+	public int getNextSibling(int node, String namespaceURI, String localName) {
+		int sibling = getNextSibling(node);
+
+		while (sibling != NONE && !matches(sibling, namespaceURI, localName))
+			sibling = nextSiblings[sibling];
+
+		return sibling;
+	}
+
+	public int getAttributeCount(int node) {
+		return (localNames[node] == null ? 0 : lengths[node]);
+	}
+
+	public String getAttributeLocalName(int node, int index) {
+		return attrLocalNames[attributeOffset(node, index)];
+	}
+
+	public String getAttributeNamespaceURI(int node, int index) {
+		return attrNamespaceURIs[attributeOffset(node, index)];
+	}
+
+	public String getAttributeValue(int node, int index) {
+		return attrValues[attributeOffset(node, index)];
+	}
+
+	/**
+	 * Convenience method for {@link #getAttributeValue(int, String, String)}
+	 * with no namespace URI.
+	 */
+	public String getAttributeValue(int node, String localName) {
+		return getAttributeValue(node, null, localName);
+	}
+
+	/**
+	 * Used to get the value of the attribute of the given element with the
+	 * given name.
+	 * 
+	 * @param node
+	 *            The id of the element.
+	 * @param namespaceURI
+	 *            The namespace URI of the attribute, or <code>null</code> if
+	 *            it isn't namespace-qualified.
+	 * @param localName
+	 *            The local name of the attribute.
+	 * 
+	 * @return the value of the attribute or <code>null</code> if the element
+	 *         has no such attribute (or <code>node</code> is text).
+	 */
+	public String getAttributeValue(int node, String namespaceURI,
+			String localName) {
+		if (localNames[node] == null || localName == null)
+			return null;
+
+		for (int i = offsets[node], end = i + lengths[node]; i < end; i++) {
+			if (localName.equals(attrLocalNames[i])
+					&& equals(namespaceURI, attrNamespaceURIs[i]))
+				return attrValues[i];
+		}
+
+		return null;
+	}
+
+	/**
+	 * Used to get the text of the given node; for an element that is the text
+	 * directly inside of it (not that of its child elements), for a text node
+	 * the text itself.
+	 * 
+	 * @return the text of the given node, which is empty if it has none.
+	 */
+	public String getText(int node) {
+		if (localNames[node] == null)
+			return new String(chars, offsets[node], lengths[node]);
+
+		int first = NONE;
+		int count = 0;
+
+		for (int child = firstChildren[node]; child != NONE; child = nextSiblings[child]) {
+			if (localNames[child] == null) {
+				if (count++ == 0)
+					first = child;
+			}
+		}
+
+		if (count == 0)
+			return "";
+		if (count == 1)
+			return new String(chars, offsets[first], lengths[first]);
+
+		StringBuilder text = new StringBuilder();
+
+		for (int child = first; child != NONE; child = nextSiblings[child]) {
+			if (localNames[child] == null)
+				text.append(chars, offsets[child], lengths[child]);
+		}
+
+		return text.toString();
+	}
+
+	/**
+	 * Convenience method used to get the text (see {@link #getText(int)}) of
+	 * the first child element of the given node with the given name.
+	 * 
+	 * @return the text of the child or <code>null</code> if there is no such
+	 *         child.
+	 */
+	public String getChildText(int node, String localName) {
+		int child = getFirstChild(node, null, localName);
+		return (child == NONE ? null : getText(child));
+	}
+
+	/**
+	 * Used to get the buffer holding the text of every text node, to read it
+	 * without creating a {@link String}; see {@link #getTextOffset(int)} and
+	 * {@link #getTextLength(int)}.
+	 * 
+	 * @return the buffer holding the text of every text node.
+	 */
+	public char[] getTextBuffer() {
+		return chars;
+	}
+
+	/**
+	 * Used to get the index in {@link #getTextBuffer()} of the first character
+	 * of the given text node.
+	 * 
+	 * @return the index of the first character or <code>-1</code> if
+	 *         <code>node</code> is an element.
+	 */
+	public int getTextOffset(int node) {
+		return (localNames[node] == null ? offsets[node] : -1);
+	}
+
+	/**
+	 * Used to get the number of characters of the given text node.
+	 * 
+	 * @return the number of characters or <code>0</code> if <code>node</code>
+	 *         is an element.
+	 */
+	public int getTextLength(int node) {
+		return (localNames[node] == null ? lengths[node] : 0);
+	}
+
+	/**
+	 * Used to append a node with the given name (<code>null</code> for text)
+	 * as the last child of the innermost open element.
+	 */
+	private int addNode(String localName, String namespaceURI) {
+		if (nodeCount == parents.length) {
+			int capacity = nodeCount * 2;
+
+			parents = grow(parents, capacity);
+			firstChildren = grow(firstChildren, capacity);
+			lastChildren = grow(lastChildren, capacity);
+			nextSiblings = grow(nextSiblings, capacity);
+			offsets = grow(offsets, capacity);
+			lengths = grow(lengths, capacity);
+			localNames = grow(localNames, capacity);
+			namespaceURIs = grow(namespaceURIs, capacity);
+		}
+
+		int node = nodeCount++;
+		int parent = (openCount == 0 ? NONE : openElements[openCount - 1]);
+
+		parents[node] = parent;
+		firstChildren[node] = lastChildren[node] = nextSiblings[node] = NONE;
+		localNames[node] = localName;
+		namespaceURIs[node] = namespaceURI;
+
+		if (parent != NONE) {
+			if (firstChildren[parent] == NONE)
+				firstChildren[parent] = node;
+			else
+				nextSiblings[lastChildren[parent]] = node;
+
+			lastChildren[parent] = node;
+		}
+
+		return node;
+	}
+
+	private int attributeOffset(int node, int index) {
+		if (index < 0 || index >= getAttributeCount(node))
+			throw new IndexOutOfBoundsException("index [" + index
+					+ "] must be >= 0 and < " + getAttributeCount(node));
+
+		return offsets[node] + index;
+	}
+
+	private boolean matches(int node, String namespaceURI, String localName) {
+		return (localNames[node] != null
+				&& localNames[node].equals(localName) && equals(namespaceURI,
+					namespaceURIs[node]));
+	}
+
+	private static boolean equals(String namespaceURI, String other) {
+		if (namespaceURI == null || namespaceURI.length() == 0)
+			return (other == null);
+
+		return namespaceURI.equals(other);
+	}
+
+	private static String normalize(String namespaceURI) {
+		return (namespaceURI == null || namespaceURI.length() == 0 ? null
+				: namespaceURI);
+	}
+
+	private static int[] grow(int[] array, int capacity) {
+		int[] newArray = new int[capacity];
+		System.arraycopy(array, 0, newArray, 0, array.length);
+		return newArray;
+	}
+
+	private static String[] grow(String[] array, int capacity) {
+		String[] newArray = new String[capacity];
+		System.arraycopy(array, 0, newArray, 0, array.length);
+		return newArray;
+	}
+}
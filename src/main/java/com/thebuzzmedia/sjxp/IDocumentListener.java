@@ -0,0 +1,63 @@
+/**   
+ * Copyright 2011 The Buzz Media, LLC
+ * 
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *   http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.thebuzzmedia.sjxp;
+
+import java.io.InputStream;
+
+import com.thebuzzmedia.sjxp.rule.IRule;
+
+/**
+ * Interface used to describe a listener notified at the boundaries of every
+ * document when an {@link XMLParser} parses a stream of many documents with
+ * {@link XMLParser#parseDocuments(InputStream, String, IDocumentListener, Object)}
+ * or
+ * {@link XMLParser#parseFrames(InputStream, String, IDocumentListener, Object)}
+ * .
+ * <p/>
+ * This is typically where a caller collects whatever the {@link IRule}s
+ * gathered from the previous document (e.g. flushing one record to a DAO) and
+ * resets it for the next one. Calling {@link XMLParser#stop()} from either
+ * callback stops parsing the stream.
+ * 
+ * @param <T>
+ *            The class type of any user-supplied object that the caller wishes
+ *            to be passed through from one of the {@link XMLParser}'s
+ *            <code>parse</code> methods directly to the handler when an
+ *            {@link IRule} matches.
+ * 
+ * @author Riyad Kalla (software@thebuzzmedia.com)
+ */
+public interface IDocumentListener<T> {
+	/**
+	 * Called by the {@link XMLParser} right before the first event of a
+	 * document is processed (with the parser's location already reset) and
+	 * right after the last one, when its root element has been closed.
+	 * 
+	 * @param parser
+	 *            The source {@link XMLParser} currently parsing the stream.
+	 * @param isStartDocument
+	 *            Used to indicate if this is the start of the document (
+	 *            <code>true</code>) or the end of it (<code>false</code>).
+	 * @param index
+	 *            The zero-based index of the document within the stream.
+	 * @param userObject
+	 *            The user-supplied object passed through from the
+	 *            {@link XMLParser}'s <code>parse</code> method, or
+	 *            <code>null</code> if there isn't one.
+	 */
+	public void handleDocument(XMLParser<T> parser, boolean isStartDocument,
+			int index, T userObject);
+}
@@ -0,0 +1,47 @@
+/**   
+ * Copyright 2011 The Buzz Media, LLC
+ * 
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *   http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.thebuzzmedia.sjxp;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+
+/**
+ * Interface used to describe where a {@link RecordExporter} writes the
+ * records it exports when rotating its output every so many records with
+ * {@link RecordExporter#export(InputStream, IExportTarget, long)}.
+ * <p/>
+ * A typical implementation opens a new file for every index (e.g.
+ * <code>part-00000.csv</code>, <code>part-00001.csv</code>, ...). The
+ * exporter closes every stream it opens once it is done with it.
+ * 
+ * @author Riyad Kalla (software@thebuzzmedia.com)
+ */
+public interface IExportTarget {
+	/**
+	 * Called by the {@link RecordExporter} to open the output the next
+	 * records are written to.
+	 * 
+	 * @param index
+	 *            The zero-based index of the output within the export.
+	 * 
+	 * @return the stream to write the records to.
+	 * 
+	 * @throws IOException
+	 *             if the output cannot be opened.
+	 */
+	public OutputStream openOutput(int index) throws IOException;
+}
@@ -0,0 +1,57 @@
+/**   
+ * Copyright 2011 The Buzz Media, LLC
+ * 
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *   http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.thebuzzmedia.sjxp;
+
+import com.thebuzzmedia.sjxp.rule.IRule;
+import com.thebuzzmedia.sjxp.rule.IRule.Type;
+
+/**
+ * Interface used to describe a handler that receives the
+ * {@link Type#ATTRIBUTE} and {@link Type#CHARACTER} matches of an
+ * {@link XMLParser} in batches instead of one <code>handleXXX</code> call on
+ * the matching {@link IRule} per value.
+ * <p/>
+ * With many different {@link IRule} classes the parser's calls into their
+ * handlers stop being inlined by the JVM and every value pays for a virtual
+ * call. A batch handler is called once per
+ * {@link XMLParser#setBatchHandler(IMatchBatchHandler, int)} matches (and
+ * whenever the parser is told to flush), letting it process many values in a
+ * tight loop over the primitive arrays of a {@link MatchBatch}.
+ * 
+ * @param <T>
+ *            The class type of any user-supplied object that the caller wishes
+ *            to be passed through from one of the {@link XMLParser}'s
+ *            <code>parse</code> methods directly to the handler when an
+ *            {@link IRule} matches.
+ * 
+ * @author Riyad Kalla (software@thebuzzmedia.com)
+ */
+public interface IMatchBatchHandler<T> {
+	/**
+	 * Called by the {@link XMLParser} with every batch of matches, in the
+	 * order they were matched.
+	 * 
+	 * @param parser
+	 *            The source {@link XMLParser} that collected the matches.
+	 * @param batch
+	 *            The matches; only valid until this method returns.
+	 * @param userObject
+	 *            The user-supplied object passed through from the
+	 *            {@link XMLParser}'s <code>parse</code> method, or
+	 *            <code>null</code> if there isn't one.
+	 */
+	public void handleBatch(XMLParser<T> parser, MatchBatch batch, T userObject);
+}
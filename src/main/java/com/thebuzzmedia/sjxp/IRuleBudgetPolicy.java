@@ -0,0 +1,95 @@
+/**   
+ * Copyright 2011 The Buzz Media, LLC
+ * 
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *   http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.thebuzzmedia.sjxp;
+
+import com.thebuzzmedia.sjxp.rule.IRule;
+
+/**
+ * Interface used to describe the policy an {@link XMLParser} follows when one
+ * of its {@link IRule}s spends more time inside of its <code>handleXXX</code>
+ * methods during a single parse than the budget given to
+ * {@link XMLParser#setRuleBudget(long, IRuleBudgetPolicy)}.
+ * <p/>
+ * Because every {@link IRule} is invoked inline from the parser's loop, a
+ * single slow handler (e.g. one doing a synchronous DB lookup) caps the
+ * throughput of the entire parse. A policy gives the caller a single place to
+ * notice that and contain it; by logging it, by handing the remaining work for
+ * that rule off somewhere else and skipping it for the rest of the document or
+ * by stopping the parse altogether.
+ * <p/>
+ * There is no separate action for offloading work: a policy that wants to
+ * hand the rule's work off does so itself (e.g. by registering it with a
+ * queue) and then returns {@link Action#SKIP_RULE}, so the parser stops
+ * invoking the rule for the rest of the document.
+ * <p/>
+ * A policy is called at most once per {@link IRule} per parse; the first time
+ * the rule's accumulated handler time for the current document exceeds the
+ * budget.
+ * 
+ * @param <T>
+ *            The class type of any user-supplied object that the caller wishes
+ *            to be passed through from one of the {@link XMLParser}'s
+ *            <code>parse</code> methods directly to the handler when an
+ *            {@link IRule} matches.
+ * 
+ * @author Riyad Kalla (software@thebuzzmedia.com)
+ */
+public interface IRuleBudgetPolicy<T> {
+	/**
+	 * Used to describe what the {@link XMLParser} should do with a rule that
+	 * has gone over its budget.
+	 */
+	public static enum Action {
+		/**
+		 * Keep invoking the rule like normal for the rest of the document.
+		 */
+		CONTINUE,
+		/**
+		 * Stop invoking the rule for the rest of the current document. The rule
+		 * is invoked again like normal on the next call to <code>parse</code>.
+		 */
+		SKIP_RULE,
+		/**
+		 * Stop parsing, exactly as if {@link XMLParser#stop()} had been
+		 * called.
+		 */
+		STOP;
+	}
+
+	/**
+	 * Called by the {@link XMLParser} the first time the given rule's
+	 * accumulated handler time for the current document exceeds the configured
+	 * budget.
+	 * 
+	 * @param parser
+	 *            The source {@link XMLParser} currently executing the rule.
+	 * @param rule
+	 *            The rule that exceeded its budget.
+	 * @param elapsedTime
+	 *            The total time (in nanoseconds) the rule has spent in its
+	 *            handlers so far during the current document.
+	 * @param userObject
+	 *            The user-supplied object passed through from the
+	 *            {@link XMLParser}'s <code>parse</code> method, or
+	 *            <code>null</code> if there isn't one.
+	 * 
+	 * @return the action the parser should take with the rule. Returning
+	 *         <code>null</code> is the same as returning
+	 *         {@link Action#CONTINUE}.
+	 */
+	public Action budgetExceeded(XMLParser<T> parser, IRule<T> rule,
+			long elapsedTime, T userObject);
+}
@@ -0,0 +1,221 @@
+/**   
+ * Copyright 2011 The Buzz Media, LLC
+ * 
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *   http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.thebuzzmedia.sjxp;
+
+/**
+ * Class used to record a distribution of <code>long</code> values (typically
+ * nanosecond latencies) in a fixed amount of memory.
+ * <p/>
+ * The design is a simplified version of an HDR histogram: values are placed
+ * into buckets whose width doubles with every power of 2, and every power of 2
+ * is split into {@link #SUB_BUCKET_COUNT} linear sub-buckets. This gives every
+ * recorded value a relative precision of roughly 6% over the entire positive
+ * <code>long</code> range while only ever using a single <code>long[]</code> of
+ * {@link #BUCKET_COUNT} entries.
+ * <p/>
+ * Recording a value is a handful of integer operations and never allocates,
+ * which makes it safe to call from inside of the parser's hot loop.
+ * <h3>Thread Safety</h3> This class is not thread-safe, just like the
+ * {@link XMLParser} that records into it.
+ * 
+ * @author Riyad Kalla (software@thebuzzmedia.com)
+ */
+public class LatencyHistogram {
+	/**
+	 * Number of linear sub-buckets each power of 2 is split into. Values below
+	 * <code>2 * SUB_BUCKET_COUNT</code> are recorded exactly.
+	 */
+	public static final int SUB_BUCKET_COUNT = 16;
+
+	/**
+	 * Total number of buckets used by every histogram instance.
+	 */
+	public static final int BUCKET_COUNT = SUB_BUCKET_COUNT * 60;
+
+	private static final int SUB_BUCKET_BITS = 4;
+
+	private long count;
+	private long total;
+	private long min;
+	private long max;
+	private long[] buckets;
+
+	/**
+	 * Creates a new, empty histogram.
+	 */
+	public LatencyHistogram() {
+		buckets = new long[BUCKET_COUNT];
+		reset();
+	}
+
+	/**
+	 * Overridden to provide a nicely formatted summary of the recorded
+	 * distribution for easy debugging.
+	 * 
+	 * @return a nicely formatted summary of the recorded distribution.
+	 */
+	@Override
+	public String toString() {
+		return this.getClass().getName() + "[count=" + count + ", min="
+				+ getMin() + ", mean=" + getMean() + ", p50="
+				+ getValueAtPercentile(50) + ", p99="
+				+ getValueAtPercentile(99) + ", max=" + max + "]";
+	}
+
+	/**
+	 * Used to record a single value in the histogram. Negative values are
+	 * recorded as <code>0</code>.
+	 * 
+	 * @param value
+	 *            The value to record.
+	 */
+	public void record(long value) {
+		if (value < 0)
+			value = 0;
+
+		buckets[indexOf(value)]++;
+		count++;
+		total += value;
+
+		if (value < min)
+			min = value;
+		if (value > max)
+			max = value;
+	}
+
+	/**
+	 * Used to clear all the recorded values from this histogram.
+	 */
+	public void reset() {
+		count = 0;
+		total = 0;
+		min = Long.MAX_VALUE;
+		max = 0;
+
+		for (int i = 0; i < buckets.length; i++)
+			buckets[i] = 0;
+	}
+
+	public long getCount() {
+		return count;
+	}
+
+	public long getTotal() {
+		return total;
+	}
+
+	public long getMin() {
+		return (count == 0 ? 0 : min);
+	}
+
+	public long getMax() {
+		return max;
+	}
+
+	public double getMean() {
+		return (count == 0 ? 0 : (double) total / (double) count);
+	}
+
+	/**
+	 * Used to get the value below which the given percentage of all recorded
+	 * values fall.
+	 * <p/>
+	 * The value returned is the upper bound of the bucket the percentile lands
+	 * in (capped at {@link #getMax()}), so it is never lower than the real
+	 * value.
+	 * 
+	 * @param percentile
+	 *            The percentile (between <code>0</code> and <code>100</code>)
+	 *            to get the value for.
+	 * 
+	 * @return the value at the given percentile or <code>0</code> if nothing
+	 *         has been recorded yet.
+	 */
+	public long getValueAtPercentile(double percentile) {
+		if (count == 0)
+			return 0;
+
+		// Number of values that must be at or below the result
+		long target = (long) Math.ceil((percentile / 100d) * count);
+
+		if (target < 1)
+			target = 1;
+
+		long seen = 0;
+
+		for (int i = 0; i < buckets.length; i++) {
+			seen += buckets[i];
+
+			if (seen >= target) {
+				long value = upperBoundOf(i);
+				return (value > max ? max : value);
+			}
+		}
+
+		return max;
+	}
+
+	/**
+	 * Used to add all the values recorded in the given histogram to this one.
+	 * 
+	 * @param other
+	 *            The histogram to add to this one.
+	 */
+	public void add(LatencyHistogram other) {
+		if (other == null || other.count == 0)
+			return;
+
+		for (int i = 0; i < buckets.length; i++)
+			buckets[i] += other.buckets[i];
+
+		count += other.count;
+		total += other.total;
+
+		if (other.min < min)
+			min = other.min;
+		if (other.max > max)
+			max = other.max;
+	}
+
+	/**
+	 * Used to calculate the bucket a value belongs in. Values below
+	 * <code>2 * SUB_BUCKET_COUNT</code> map directly to their own bucket, every
+	 * larger value is shifted down until only its top
+	 * {@link #SUB_BUCKET_BITS} + 1 bits remain and that is combined with the
+	 * shift amount to pick the bucket.
+	 */
+	static int indexOf(long value) {
+		if (value < (SUB_BUCKET_COUNT << 1))
+			return (int) value;
+
+		int shift = (63 - Long.numberOfLeadingZeros(value)) - SUB_BUCKET_BITS;
+		return (shift * SUB_BUCKET_COUNT) + (int) (value >>> shift);
+	}
+
+	/**
+	 * Used to calculate the largest value that would be recorded in the given
+	 * bucket; the reverse of {@link #indexOf(long)}.
+	 */
+	static long upperBoundOf(int index) {
+		if (index < (SUB_BUCKET_COUNT << 1))
+			return index;
+
+		int shift = (index / SUB_BUCKET_COUNT) - 1;
+		long mantissa = (index % SUB_BUCKET_COUNT) + SUB_BUCKET_COUNT;
+
+		return ((mantissa + 1) << shift) - 1;
+	}
+}
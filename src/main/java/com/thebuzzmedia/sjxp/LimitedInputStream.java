@@ -0,0 +1,116 @@
+/**   
+ * Copyright 2011 The Buzz Media, LLC
+ * 
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *   http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.thebuzzmedia.sjxp;
+
+import java.io.FilterInputStream;
+import java.io.IOException;
+import java.io.InputStream;
+
+/**
+ * Stream used to fail a parse as soon as more than a maximum number of bytes
+ * has been read from the wrapped stream, before the pull parser gets to
+ * buffer them.
+ * <p/>
+ * Instances are re-used between calls to <code>parse</code> by
+ * {@link XMLParser} with {@link #setInput(InputStream)}.
+ * 
+ * @author Riyad Kalla (software@thebuzzmedia.com)
+ */
+class LimitedInputStream extends FilterInputStream {
+	private long maximum;
+	private long count;
+
+	/**
+	 * Creates a new stream allowing at most <code>maximum</code> bytes to be
+	 * read from the given stream.
+	 * 
+	 * @param in
+	 *            The stream to read from.
+	 * @param maximum
+	 *            The maximum number of bytes that can be read.
+	 */
+	LimitedInputStream(InputStream in, long maximum) {
+		super(in);
+		this.maximum = maximum;
+	}
+
+	@Override
+	public int read() throws IOException {
+		int b = in.read();
+
+		if (b != -1)
+			count(1);
+
+		return b;
+	}
+
+	@Override
+	public int read(byte[] b, int off, int len) throws IOException {
+		int read = in.read(b, off, len);
+
+		if (read > 0)
+			count(read);
+
+		return read;
+	}
+
+	@Override
+	public long skip(long n) throws IOException {
+		long skipped = in.skip(n);
+
+		if (skipped > 0)
+			count(skipped);
+
+		return skipped;
+	}
+
+	/**
+	 * Used to point this stream at a new stream to read from, starting the
+	 * count over.
+	 * 
+	 * @param in
+	 *            The stream to read from.
+	 */
+	void setInput(InputStream in) {
+		this.in = in;
+		count = 0;
+	}
+
+	/**
+	 * Used to start counting the bytes read over, e.g. at the start of the
+	 * next document in the stream.
+	 */
+	void resetCount() {
+		count = 0;
+	}
+
+	long getMaximum() {
+		return maximum;
+	}
+
+	/**
+	 * Used to add the given number of bytes to the count.
+	 * 
+	 * @throws XMLParserLimitException
+	 *             if the count goes over the maximum.
+	 */
+	private void count(long read) throws XMLParserLimitException {
+		if ((count += read) > maximum)
+			throw new XMLParserLimitException(XMLParser.Limit.BYTES, maximum,
+					"More than the maximum of [" + maximum
+							+ "] bytes were read from the source.");
+	}
+}
@@ -0,0 +1,351 @@
+/**   
+ * Copyright 2011 The Buzz Media, LLC
+ * 
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *   http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.thebuzzmedia.sjxp;
+
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+
+/**
+ * Class used to find the subtrees of a document held in bytes that no rule of
+ * a {@link RuleIndex} can match, straight from the raw bytes and without
+ * decoding or tokenizing them.
+ * <p/>
+ * The document is walked one markup construct at a time by
+ * {@link #scan(int, int)}, tracking which {@link RuleIndex} node every open
+ * element is at (see {@link RuleIndex#getChild(int, byte[], int, int)}).
+ * When an element is opened that no rule path goes through, the rest of its
+ * subtree is skipped by only looking for the bytes that can change the
+ * nesting depth: the start of markup (<code>&lt;</code>), quotes inside of
+ * tags and the ends of comments, CDATA sections and processing instructions.
+ * <p/>
+ * The document must be in an ASCII-compatible encoding (UTF-8, ISO-8859-1 or
+ * US-ASCII) since bytes are compared to ASCII markup characters directly.
+ * <h3>Performance</h3>
+ * Searching for the next <code>&lt;</code> (the bulk of the work when
+ * skipping text-heavy content) reads 8 bytes at a time as a
+ * <code>long</code> and uses the SWAR "has zero byte" trick to test all 8 of
+ * them at once.
+ * 
+ * @author Riyad Kalla (software@thebuzzmedia.com)
+ */
+class MarkupSkipper {
+	private static final long ONES = 0x0101010101010101L;
+	private static final long HIGHS = 0x8080808080808080L;
+	private static final long LESS_THANS = ONES * '<';
+
+	private RuleIndex<?> ruleIndex;
+	private boolean namespaces;
+
+	private byte[] array;
+	private ByteBuffer view;
+
+	private int depth;
+	private int[] nodes = new int[16];
+
+	private int skipTo;
+	private long skippedBytes;
+
+	/**
+	 * Creates a new skipper for documents matched against the given index.
+	 * 
+	 * @param ruleIndex
+	 *            The index of the rules the document is matched against.
+	 * @param namespaces
+	 *            Used to indicate if the parser is namespace-aware, in which
+	 *            case element names are looked up by their local name (after
+	 *            any prefix) instead of their qualified name.
+	 */
+	MarkupSkipper(RuleIndex<?> ruleIndex, boolean namespaces) {
+		this.ruleIndex = ruleIndex;
+		this.namespaces = namespaces;
+	}
+
+	/**
+	 * Used to start scanning a new document held in the given bytes.
+	 */
+	void reset(byte[] array) {
+		// Re-use the view for the same buffer, e.g. when parsing many messages
+		if (array != this.array) {
+			this.array = array;
+			view = ByteBuffer.wrap(array).order(ByteOrder.LITTLE_ENDIAN);
+		}
+
+		depth = 0;
+		nodes[0] = RuleIndex.ROOT;
+		skipTo = -1;
+	}
+
+	/**
+	 * Used to release the bytes of the last document.
+	 */
+	void release() {
+		array = null;
+		view = null;
+	}
+
+	/**
+	 * Used to scan the markup construct or run of text starting at the given
+	 * position.
+	 * <p/>
+	 * If the construct is the start tag of an element whose subtree can be
+	 * skipped, {@link #getSkipTo()} returns the index right after the
+	 * element's end tag and the returned index is that of the start tag's
+	 * closing <code>&gt;</code>; the caller is expected to turn the start tag
+	 * into an empty-element tag (<code>&lt;name ... /&gt;</code>) and carry on
+	 * from there.
+	 * 
+	 * @return the index right after the construct (or text) at
+	 *         <code>position</code>.
+	 */
+	int scan(int position, int limit) {
+		skipTo = -1;
+
+		if (array[position] != '<') {
+			int index = indexOfLessThan(position, limit);
+			return (index == -1 ? limit : index);
+		}
+
+		int end = endOfConstruct(position, limit);
+
+		// Only start tags that aren't empty-element tags change anything
+		if (end == -1 || !isStartTag(position, limit))
+			return (end == -1 ? limit : end);
+
+		if (array[position + 1] == '/') {
+			if (depth > 0)
+				depth--;
+
+			return end;
+		}
+
+		if (array[end - 2] == '/')
+			return end;
+
+		int child = lookup(position + 1);
+
+		if (child == RuleIndex.NONE) {
+			int index = skipSubtree(end, limit);
+
+			skippedBytes += index - end;
+			skipTo = index;
+
+			return end - 1;
+		}
+
+		if (++depth == nodes.length) {
+			int[] newNodes = new int[nodes.length * 2];
+			System.arraycopy(nodes, 0, newNodes, 0, nodes.length);
+			nodes = newNodes;
+		}
+
+		nodes[depth] = child;
+		return end;
+	}
+
+	int getSkipTo() {
+		return skipTo;
+	}
+
+	long getSkippedBytes() {
+		return skippedBytes;
+	}
+
+	/**
+	 * Used to find the end of an element's content, given the index right
+	 * after its start tag, by counting start and end tags.
+	 * 
+	 * @return the index right after the element's end tag or
+	 *         <code>limit</code> if the document ends first.
+	 */
+	private int skipSubtree(int position, int limit) {
+		int level = 1;
+
+		while (position < limit) {
+			int index = indexOfLessThan(position, limit);
+
+			if (index == -1)
+				return limit;
+
+			int end = endOfConstruct(index, limit);
+
+			if (end == -1)
+				return limit;
+
+			if (isStartTag(index, limit)) {
+				if (array[index + 1] == '/') {
+					if (--level == 0)
+						return end;
+				} else if (array[end - 2] != '/')
+					level++;
+			}
+
+			position = end;
+		}
+
+		return limit;
+	}
+
+	/**
+	 * Used to find the end of the markup construct starting with the
+	 * <code>&lt;</code> at the given index.
+	 * 
+	 * @return the index right after the construct or <code>-1</code> if the
+	 *         document ends first.
+	 */
+	private int endOfConstruct(int index, int limit) {
+		if (startsWith(index, limit, "<!--"))
+			return indexAfter(index + 4, limit, '-', '-');
+		if (startsWith(index, limit, "<![CDATA["))
+			return indexAfter(index + 9, limit, ']', ']');
+		if (startsWith(index, limit, "<?"))
+			return indexAfter(index + 2, limit, '?', (char) 0);
+		if (startsWith(index, limit, "<!"))
+			return endOfDeclaration(index + 2, limit);
+
+		return endOfTag(index + 1, limit);
+	}
+
+	/**
+	 * Used to find the end of a start or end tag, ignoring any
+	 * <code>&gt;</code> inside of quoted attribute values.
+	 */
+	private int endOfTag(int index, int limit) {
+		byte quote = 0;
+
+		for (; index < limit; index++) {
+			byte b = array[index];
+
+			if (quote != 0) {
+				if (b == quote)
+					quote = 0;
+			} else if (b == '"' || b == '\'')
+				quote = b;
+			else if (b == '>')
+				return index + 1;
+		}
+
+		return -1;
+	}
+
+	/**
+	 * Used to find the end of a declaration like a DOCTYPE, including any
+	 * internal subset in brackets.
+	 */
+	private int endOfDeclaration(int index, int limit) {
+		byte quote = 0;
+		int brackets = 0;
+
+		for (; index < limit; index++) {
+			byte b = array[index];
+
+			if (quote != 0) {
+				if (b == quote)
+					quote = 0;
+			} else if (b == '"' || b == '\'')
+				quote = b;
+			else if (b == '[')
+				brackets++;
+			else if (b == ']')
+				brackets--;
+			else if (b == '>' && brackets <= 0)
+				return index + 1;
+		}
+
+		return -1;
+	}
+
+	/**
+	 * Used to find the index right after the next <code>&gt;</code> preceded
+	 * by the given byte(s); e.g. the end of "--&gt;" or "?&gt;" (when
+	 * <code>second</code> is <code>0</code>).
+	 */
+	private int indexAfter(int index, int limit, char first, char second) {
+		for (; index < limit; index++) {
+			if (array[index] == '>' && array[index - 1] == first
+					&& (second == 0 || array[index - 2] == second))
+				return index + 1;
+		}
+
+		return -1;
+	}
+
+	/**
+	 * Used to find the next <code>&lt;</code>, 8 bytes at a time.
+	 * 
+	 * @return the index of the next <code>&lt;</code> or <code>-1</code> if
+	 *         there isn't one before <code>limit</code>.
+	 */
+	private int indexOfLessThan(int index, int limit) {
+		for (; index + 8 <= limit; index += 8) {
+			long word = view.getLong(index) ^ LESS_THANS;
+			long zeros = (word - ONES) & ~word & HIGHS;
+
+			// The lowest flagged byte is always a real match
+			if (zeros != 0)
+				return index + (Long.numberOfTrailingZeros(zeros) >>> 3);
+		}
+
+		for (; index < limit; index++) {
+			if (array[index] == '<')
+				return index;
+		}
+
+		return -1;
+	}
+
+	private boolean isStartTag(int index, int limit) {
+		if (index + 1 >= limit)
+			return false;
+
+		byte b = array[index + 1];
+		return (b != '!' && b != '?');
+	}
+
+	/**
+	 * Used to look up the node of the element whose name starts at the given
+	 * index.
+	 */
+	private int lookup(int index) {
+		int start = index;
+
+		for (; index < array.length; index++) {
+			byte b = array[index];
+
+			if (b == '>' || b == '/' || b == ' ' || b == '\t' || b == '\r'
+					|| b == '\n')
+				break;
+
+			if (b == ':' && namespaces)
+				start = index + 1;
+		}
+
+		return ruleIndex.getChild(nodes[depth], array, start, index);
+	}
+
+	private boolean startsWith(int index, int limit, String value) {
+		int length = value.length();
+
+		if (index + length > limit)
+			return false;
+
+		for (int i = 0; i < length; i++) {
+			if (array[index + i] != value.charAt(i))
+				return false;
+		}
+
+		return true;
+	}
+}
@@ -0,0 +1,212 @@
+/**   
+ * Copyright 2011 The Buzz Media, LLC
+ * 
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *   http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.thebuzzmedia.sjxp;
+
+import com.thebuzzmedia.sjxp.rule.IRule;
+import com.thebuzzmedia.sjxp.rule.IRule.Type;
+
+/**
+ * Class used to hold a batch of {@link Type#ATTRIBUTE} and
+ * {@link Type#CHARACTER} matches collected by an {@link XMLParser} for an
+ * {@link IMatchBatchHandler}.
+ * <p/>
+ * Every match is described by a handful of <code>int</code>s stored in
+ * parallel arrays: the id of the rule that matched (its index in the array of
+ * rules the {@link XMLParser} was created with), the index of the matched
+ * attribute name (always <code>0</code> for {@link Type#CHARACTER} rules) and
+ * the offset and length of the matched value within a single, shared
+ * <code>char[]</code>. The value of an attribute that wasn't present on the
+ * element has a length of <code>-1</code>.
+ * <p/>
+ * The arrays are exposed directly (they are valid up to {@link #size()}) so a
+ * handler can process the values in tight loops, e.g. one column at a time,
+ * and turn them into {@link String}s only if and when it needs to.
+ * <h3>Re-use</h3>
+ * A batch (and every array it returns) is re-used by the parser and is only
+ * valid until the {@link IMatchBatchHandler} it was passed to returns; copy
+ * anything that needs to be kept.
+ * 
+ * @author Riyad Kalla (software@thebuzzmedia.com)
+ */
+public class MatchBatch {
+	private int size;
+	private int[] ruleIds;
+	private int[] indices;
+	private int[] offsets;
+	private int[] lengths;
+
+	private char[] chars;
+	private int charLength;
+
+	/**
+	 * Creates a new, empty batch able to hold the given number of matches
+	 * before growing.
+	 * 
+	 * @param capacity
+	 *            The number of matches to make room for.
+	 */
+	MatchBatch(int capacity) {
+		ruleIds = new int[capacity];
+		indices = new int[capacity];
+		offsets = new int[capacity];
+		lengths = new int[capacity];
+
+		chars = new char[Math.max(capacity * 16, 256)];
+	}
+
+	/**
+	 * Overridden to provide a nicely formatted representation of the batch for
+	 * easy debugging.
+	 * 
+	 * @return a nicely formatted representation of the batch.
+	 */
+	@Override
+	public String toString() {
+		return this.getClass().getName() + "[size=" + size + ", charLength="
+				+ charLength + "]";
+	}
+
+	public int size() {
+		return size;
+	}
+
+	public int getRuleId(int index) {
+		return ruleIds[index];
+	}
+
+	public int getIndex(int index) {
+		return indices[index];
+	}
+
+	public int getOffset(int index) {
+		return offsets[index];
+	}
+
+	public int getLength(int index) {
+		return lengths[index];
+	}
+
+	/**
+	 * Used to get the value of the match at the given index as a
+	 * {@link String}; this creates a new {@link String} every time it is
+	 * called.
+	 * 
+	 * @param index
+	 *            The index of the match within this batch.
+	 * 
+	 * @return the value of the match or <code>null</code> if it was an
+	 *         attribute that wasn't present on the element.
+	 */
+	public String getValue(int index) {
+		return (lengths[index] < 0 ? null : new String(chars, offsets[index],
+				lengths[index]));
+	}
+
+	public int[] getRuleIds() {
+		return ruleIds;
+	}
+
+	public int[] getIndices() {
+		return indices;
+	}
+
+	public int[] getOffsets() {
+		return offsets;
+	}
+
+	public int[] getLengths() {
+		return lengths;
+	}
+
+	public char[] getChars() {
+		return chars;
+	}
+
+	/**
+	 * Used to add a match whose value is the given range of characters, which
+	 * are copied into the batch.
+	 */
+	void add(int ruleId, int index, char[] value, int start, int length) {
+		int offset = reserve(length);
+		System.arraycopy(value, start, chars, offset, length);
+		append(ruleId, index, offset, length);
+	}
+
+	/**
+	 * Used to add a match whose value is the given {@link String} (or
+	 * <code>null</code>), which is copied into the batch.
+	 */
+	void add(int ruleId, int index, String value) {
+		if (value == null) {
+			append(ruleId, index, charLength, -1);
+			return;
+		}
+
+		int length = value.length();
+		int offset = reserve(length);
+		value.getChars(0, length, chars, offset);
+		append(ruleId, index, offset, length);
+	}
+
+	/**
+	 * Used to add a match with the exact same value as the last match added,
+	 * without copying it again. The batch must not be empty.
+	 */
+	void addRepeat(int ruleId, int index) {
+		append(ruleId, index, offsets[size - 1], lengths[size - 1]);
+	}
+
+	void clear() {
+		size = 0;
+		charLength = 0;
+	}
+
+	private int reserve(int length) {
+		if (charLength + length > chars.length) {
+			char[] newChars = new char[Math.max(chars.length * 2, charLength
+					+ length)];
+			System.arraycopy(chars, 0, newChars, 0, charLength);
+			chars = newChars;
+		}
+
+		int offset = charLength;
+		charLength += length;
+
+		return offset;
+	}
+
+	private void append(int ruleId, int index, int offset, int length) {
+		if (size == ruleIds.length) {
+			int capacity = size * 2;
+
+			ruleIds = grow(ruleIds, capacity);
+			indices = grow(indices, capacity);
+			offsets = grow(offsets, capacity);
+			lengths = grow(lengths, capacity);
+		}
+
+		ruleIds[size] = ruleId;
+		indices[size] = index;
+		offsets[size] = offset;
+		lengths[size++] = length;
+	}
+
+	private static int[] grow(int[] array, int capacity) {
+		int[] newArray = new int[capacity];
+		System.arraycopy(array, 0, newArray, 0, array.length);
+		return newArray;
+	}
+}
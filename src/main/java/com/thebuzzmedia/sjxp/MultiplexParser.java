@@ -0,0 +1,417 @@
+/**   
+ * Copyright 2011 The Buzz Media, LLC
+ * 
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *   http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.thebuzzmedia.sjxp;
+
+import com.thebuzzmedia.sjxp.rule.IAttributesRule;
+import com.thebuzzmedia.sjxp.rule.ICaptureRule;
+import com.thebuzzmedia.sjxp.rule.IFragmentRule;
+import com.thebuzzmedia.sjxp.rule.IChunkedCharactersRule;
+import com.thebuzzmedia.sjxp.rule.IRule;
+
+/**
+ * Class used to feed a single parse of a document to several independent
+ * sets of rules, each with its own user object, described by
+ * {@link Subscriber}s.
+ * <p/>
+ * The rules of every subscriber are indexed together, so the document is read
+ * and tokenized once and every event is matched against all of the
+ * subscribers' rules in a single lookup; N consumers of the same document
+ * cost one parse instead of N. Every rule is called with the parser and the
+ * user object of its own subscriber. The user object passed to the
+ * <code>parse</code> methods of this class is not used by anything and can
+ * be left out.
+ * <h3>Stopping Parsing</h3>
+ * A rule calling {@link #stop()} only stops its own subscriber, the same as
+ * {@link Subscriber#stop()}; the rules of the other subscribers keep being
+ * called. Once every subscriber has stopped, parsing stops like it does for
+ * a {@link XMLParser}. Calling {@link #stop()} from anywhere but a rule,
+ * including another thread while a rule is running (e.g. a watchdog), stops
+ * parsing right away. Subscribers are started again at the beginning of every
+ * document.
+ * <h3>Limitations</h3>
+ * Rule timing and budgets (see {@link #setRuleTimingEnabled(boolean)}) and
+ * batches (see {@link #setBatchHandler(IMatchBatchHandler, int)}) work with
+ * the rules the subscribers' rules are wrapped in, not the subscribers' rules
+ * themselves, and batches are handed the user object given to the
+ * <code>parse</code> method.
+ * 
+ * @author Riyad Kalla (software@thebuzzmedia.com)
+ */
+public class MultiplexParser extends XMLParser<Object> {
+	private Subscriber<?>[] subscribers;
+	private int runningCount;
+
+	/**
+	 * The subscriber whose rule is currently being called, if any.
+	 */
+	private Subscriber<?> current;
+
+	/**
+	 * The thread parsing the current document, the only one whose calls to
+	 * {@link #stop()} can come from a rule.
+	 */
+	private volatile Thread parsingThread;
+
+	/**
+	 * Create a new parser calling the rules of all of the given subscribers
+	 * when parsing any XML content.
+	 * 
+	 * @param subscribers
+	 *            The subscribers to feed the parsed content to.
+	 * 
+	 * @throws IllegalArgumentException
+	 *             if <code>subscribers</code> is <code>null</code> or empty,
+	 *             contains <code>null</code> or a subscriber that already
+	 *             belongs to a {@link MultiplexParser}.
+	 * @throws XMLParserException
+	 *             if the {@link #XPP_FACTORY} is unable to create a new
+	 *             pull parser instance and throws an exception.
+	 */
+	public MultiplexParser(Subscriber<?>... subscribers)
+			throws IllegalArgumentException, XMLParserException {
+		super(wrap(subscribers));
+
+		for (int i = 0; i < subscribers.length; i++)
+			subscribers[i].setParser(this);
+
+		this.subscribers = subscribers;
+		runningCount = subscribers.length;
+	}
+
+	/**
+	 * Overridden to only stop the subscriber whose rule is calling this
+	 * method, or to stop parsing altogether when not called from a rule.
+	 * Calls from any thread but the one parsing always stop parsing
+	 * altogether, even while a rule is running.
+	 */
+	@Override
+	public void stop() {
+		if (Thread.currentThread() == parsingThread && current != null)
+			current.stop();
+		else
+			super.stop();
+	}
+
+	public Subscriber<?>[] getSubscribers() {
+		return subscribers;
+	}
+
+	/**
+	 * Overridden to start all of the subscribers again.
+	 */
+	@Override
+	protected void doStartDocument(Object userObject) {
+		parsingThread = Thread.currentThread();
+
+		for (int i = 0; i < subscribers.length; i++)
+			subscribers[i].stopped = false;
+
+		runningCount = subscribers.length;
+	}
+
+	/**
+	 * Used to stop parsing once the last running subscriber is stopped.
+	 */
+	void subscriberStopped() {
+		if (--runningCount == 0)
+			super.stop();
+	}
+
+	/**
+	 * Used to wrap the rules of every subscriber into rules passing the
+	 * subscriber's user object along.
+	 */
+	@SuppressWarnings({ "unchecked", "rawtypes" })
+	private static IRule<Object>[] wrap(Subscriber<?>... subscribers)
+			throws IllegalArgumentException {
+		if (subscribers == null || subscribers.length == 0)
+			throw new IllegalArgumentException(
+					"subscribers cannot be null or empty, you must provide at least 1 subscriber otherwise parsing will do nothing.");
+
+		int count = 0;
+
+		for (int i = 0; i < subscribers.length; i++) {
+			if (subscribers[i] == null)
+				throw new IllegalArgumentException("subscribers[" + i
+						+ "] cannot be null");
+
+			count += subscribers[i].getRules().length;
+		}
+
+		IRule<Object>[] rules = new IRule[count];
+
+		for (int i = 0, index = 0; i < subscribers.length; i++) {
+			IRule[] subscriberRules = subscribers[i].getRules();
+
+			for (int j = 0; j < subscriberRules.length; j++) {
+				IRule rule = subscriberRules[j];
+
+				if (rule instanceof IAttributesRule)
+					rules[index++] = new SubscriberAttributesRule(
+							subscribers[i], rule);
+				else if (rule instanceof IChunkedCharactersRule)
+					rules[index++] = new SubscriberChunkedCharactersRule(
+							subscribers[i], rule);
+				else if (rule instanceof ICaptureRule)
+					rules[index++] = new SubscriberCaptureRule(subscribers[i],
+							rule);
+				else if (rule instanceof IFragmentRule)
+					rules[index++] = new SubscriberFragmentRule(
+							subscribers[i], rule);
+				else
+					rules[index++] = new SubscriberRule(subscribers[i], rule);
+			}
+		}
+
+		return rules;
+	}
+
+	/**
+	 * Class used to call a rule of a subscriber with the subscriber's user
+	 * object, as long as the subscriber is running.
+	 */
+	@SuppressWarnings({ "unchecked", "rawtypes" })
+	static class SubscriberRule<T> implements IRule<Object> {
+		protected Subscriber<T> subscriber;
+		protected IRule<T> rule;
+
+		SubscriberRule(Subscriber<T> subscriber, IRule<T> rule) {
+			this.subscriber = subscriber;
+			this.rule = rule;
+		}
+
+		@Override
+		public String toString() {
+			return rule.toString();
+		}
+
+		public Type getType() {
+			return rule.getType();
+		}
+
+		public String getLocationPath() {
+			return rule.getLocationPath();
+		}
+
+		public String[] getAttributeNames() {
+			return rule.getAttributeNames();
+		}
+
+		public void handleTag(XMLParser<Object> parser, boolean isStartTag,
+				Object userObject) {
+			if (subscriber.stopped)
+				return;
+
+			Subscriber<?> previous = enter(parser);
+
+			try {
+				rule.handleTag((XMLParser) parser, isStartTag,
+						subscriber.getUserObject());
+			} finally {
+				((MultiplexParser) parser).current = previous;
+			}
+		}
+
+		public void handleParsedAttribute(XMLParser<Object> parser, int index,
+				String value, Object userObject) {
+			if (subscriber.stopped)
+				return;
+
+			Subscriber<?> previous = enter(parser);
+
+			try {
+				rule.handleParsedAttribute((XMLParser) parser, index, value,
+						subscriber.getUserObject());
+			} finally {
+				((MultiplexParser) parser).current = previous;
+			}
+		}
+
+		public void handleParsedCharacters(XMLParser<Object> parser,
+				String text, Object userObject) {
+			if (subscriber.stopped)
+				return;
+
+			Subscriber<?> previous = enter(parser);
+
+			try {
+				rule.handleParsedCharacters((XMLParser) parser, text,
+						subscriber.getUserObject());
+			} finally {
+				((MultiplexParser) parser).current = previous;
+			}
+		}
+
+		/**
+		 * Used to mark this rule's subscriber as the one being called.
+		 * 
+		 * @return the subscriber that was being called before.
+		 */
+		protected Subscriber<?> enter(XMLParser<Object> parser) {
+			MultiplexParser multiplexer = (MultiplexParser) parser;
+			Subscriber<?> previous = multiplexer.current;
+
+			multiplexer.current = subscriber;
+			return previous;
+		}
+	}
+
+	/**
+	 * Class used to wrap an {@link IAttributesRule} of a subscriber, so the
+	 * parser still hands it all of the attributes at once.
+	 */
+	@SuppressWarnings({ "unchecked", "rawtypes" })
+	static class SubscriberAttributesRule<T> extends SubscriberRule<T>
+			implements IAttributesRule<Object> {
+		SubscriberAttributesRule(Subscriber<T> subscriber, IRule<T> rule) {
+			super(subscriber, rule);
+		}
+
+		public void handleAttributes(XMLParser<Object> parser,
+				AttributeView attributes, Object userObject) {
+			if (subscriber.stopped)
+				return;
+
+			Subscriber<?> previous = enter(parser);
+
+			try {
+				((IAttributesRule<T>) rule).handleAttributes(
+						(XMLParser) parser, attributes,
+						subscriber.getUserObject());
+			} finally {
+				((MultiplexParser) parser).current = previous;
+			}
+		}
+	}
+
+	/**
+	 * Class used to wrap an {@link ICaptureRule} of a subscriber, so the
+	 * parser can still hand it the captured markup.
+	 */
+	@SuppressWarnings({ "unchecked", "rawtypes" })
+	static class SubscriberCaptureRule<T> extends SubscriberRule<T> implements
+			ICaptureRule<Object> {
+		SubscriberCaptureRule(Subscriber<T> subscriber, IRule<T> rule) {
+			super(subscriber, rule);
+		}
+
+		public void handleCapturedMarkup(XMLParser<Object> parser,
+				char[] markup, int offset, int length, Object userObject) {
+			if (subscriber.stopped)
+				return;
+
+			Subscriber<?> previous = enter(parser);
+
+			try {
+				((ICaptureRule<T>) rule).handleCapturedMarkup(
+						(XMLParser) parser, markup, offset, length,
+						subscriber.getUserObject());
+			} finally {
+				((MultiplexParser) parser).current = previous;
+			}
+		}
+	}
+
+	/**
+	 * Class used to wrap an {@link IFragmentRule} of a subscriber, so the
+	 * parser can still hand it the fragment.
+	 */
+	@SuppressWarnings({ "unchecked", "rawtypes" })
+	static class SubscriberFragmentRule<T> extends SubscriberRule<T>
+			implements IFragmentRule<Object> {
+		SubscriberFragmentRule(Subscriber<T> subscriber, IRule<T> rule) {
+			super(subscriber, rule);
+		}
+
+		public void handleFragment(XMLParser<Object> parser,
+				Fragment fragment, Object userObject) {
+			if (subscriber.stopped)
+				return;
+
+			Subscriber<?> previous = enter(parser);
+
+			try {
+				((IFragmentRule<T>) rule).handleFragment((XMLParser) parser,
+						fragment, subscriber.getUserObject());
+			} finally {
+				((MultiplexParser) parser).current = previous;
+			}
+		}
+	}
+
+	/**
+	 * Class used to wrap an {@link IChunkedCharactersRule} of a subscriber, so
+	 * the parser still hands it its text in chunks.
+	 */
+	@SuppressWarnings({ "unchecked", "rawtypes" })
+	static class SubscriberChunkedCharactersRule<T> extends SubscriberRule<T>
+			implements IChunkedCharactersRule<Object> {
+		SubscriberChunkedCharactersRule(Subscriber<T> subscriber,
+				IRule<T> rule) {
+			super(subscriber, rule);
+		}
+
+		public int getChunkSize() {
+			return ((IChunkedCharactersRule<T>) rule).getChunkSize();
+		}
+
+		public void handleCharactersStart(XMLParser<Object> parser,
+				Object userObject) {
+			if (subscriber.stopped)
+				return;
+
+			Subscriber<?> previous = enter(parser);
+
+			try {
+				((IChunkedCharactersRule<T>) rule).handleCharactersStart(
+						(XMLParser) parser, subscriber.getUserObject());
+			} finally {
+				((MultiplexParser) parser).current = previous;
+			}
+		}
+
+		public void handleCharacters(XMLParser<Object> parser, char[] chunk,
+				int offset, int length, Object userObject) {
+			if (subscriber.stopped)
+				return;
+
+			Subscriber<?> previous = enter(parser);
+
+			try {
+				((IChunkedCharactersRule<T>) rule).handleCharacters(
+						(XMLParser) parser, chunk, offset, length,
+						subscriber.getUserObject());
+			} finally {
+				((MultiplexParser) parser).current = previous;
+			}
+		}
+
+		public void handleCharactersEnd(XMLParser<Object> parser,
+				Object userObject) {
+			if (subscriber.stopped)
+				return;
+
+			Subscriber<?> previous = enter(parser);
+
+			try {
+				((IChunkedCharactersRule<T>) rule).handleCharactersEnd(
+						(XMLParser) parser, subscriber.getUserObject());
+			} finally {
+				((MultiplexParser) parser).current = previous;
+			}
+		}
+	}
+}
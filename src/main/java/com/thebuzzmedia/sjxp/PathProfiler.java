@@ -0,0 +1,688 @@
+/**   
+ * Copyright 2011 The Buzz Media, LLC
+ * 
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *   http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.thebuzzmedia.sjxp;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.UnsupportedEncodingException;
+import java.io.Writer;
+import java.util.ArrayList;
+import java.util.List;
+
+import org.xmlpull.v1.XmlPullParser;
+
+import com.thebuzzmedia.sjxp.rule.IRule;
+
+/**
+ * Class used to profile the structure of any number of documents without
+ * any rules, reporting every distinct location path found in them along
+ * with how many elements, how much text and which attributes were found at
+ * that path.
+ * <p/>
+ * This is meant to help writing the {@link IRule}s for a new kind of
+ * document (the paths are reported in the same format rules use, including
+ * <code>[namespaceURI]localName</code> for namespaced elements and
+ * attributes) and to find the subtrees that make up most of a document, and
+ * so most of the cost of parsing it, before pruning them with
+ * {@link XMLParser#setSkipUnmatched(boolean)}.
+ * <p/>
+ * For every path (see {@link PathStats}) the profiler counts the elements,
+ * the UTF-8 encoded size of the text directly inside of them and of the
+ * text in their whole subtrees, the deepest depth reached inside of them and
+ * the names of all of their attributes.
+ * <p/>
+ * An example profiling a directory of feeds would look like this:
+ * 
+ * <pre>
+ * PathProfiler profiler = new PathProfiler();
+ * 
+ * for (File file : directory.listFiles())
+ * 	profiler.profile(new FileInputStream(file));
+ * 
+ * profiler.writeReport(writer);
+ * </pre>
+ * 
+ * <h3>Performance</h3>
+ * Paths are kept in a compact table like the one used by {@link RuleIndex}:
+ * every distinct path is a single <code>int</code> id into a handful of
+ * parallel arrays, found with a single probe of an open-addressed hash table
+ * keyed by the id of the parent path and the element's name. No
+ * {@link String} is created for any element or text; the paths are only
+ * turned into {@link String}s when they are reported. Memory use is linear
+ * in the number of distinct paths, not in the size of the documents.
+ * <h3>Corpora</h3>
+ * Every document profiled adds to the same statistics until
+ * {@link #reset()} is called. Profilers are not thread-safe; profile the
+ * documents of a large corpus with one profiler per thread and
+ * {@link #merge(PathProfiler)} them once done.
+ * 
+ * @author Riyad Kalla (software@thebuzzmedia.com)
+ */
+public class PathProfiler {
+	private static final int INITIAL_CAPACITY = 64;
+
+	/**
+	 * Path id representing the document itself (the empty path) that every
+	 * root element is a child of.
+	 */
+	private static final int ROOT = 0;
+
+	private ProfilingParser parser;
+	private long documentCount;
+
+	private int pathCount;
+	private int[] parents;
+	private int[] hashes;
+	private String[] localNames;
+	private String[] namespaceURIs;
+	private long[] counts;
+	private long[] textBytes;
+
+	/**
+	 * Local names and namespace URIs of the distinct attributes of every
+	 * path, in the order they were first found.
+	 */
+	private int[] attrCounts;
+	private String[][] attrLocalNames;
+	private String[][] attrNamespaceURIs;
+
+	/**
+	 * Open-addressed hash table of path ids (offset by 1 so 0 means empty)
+	 * keyed by {@link #hash(int, String, String)}.
+	 */
+	private int[] table;
+
+	/**
+	 * Ids of the paths of the open elements of the document being profiled.
+	 */
+	private int depth;
+	private int[] stack = new int[16];
+	private int[] textHolder = new int[2];
+
+	/**
+	 * Create a new profiler with its own parser.
+	 * 
+	 * @throws XMLParserException
+	 *             if the {@link XMLParser#XPP_FACTORY} is unable to create a
+	 *             new {@link XmlPullParser} instance and throws an exception.
+	 */
+	public PathProfiler() throws XMLParserException {
+		parser = new ProfilingParser();
+		reset();
+	}
+
+	/**
+	 * Overridden to provide a nicely formatted representation of the profiler
+	 * for easy debugging.
+	 * 
+	 * @return a nicely formatted representation of the profiler.
+	 */
+	@Override
+	public String toString() {
+		return this.getClass().getName() + "[documentCount=" + documentCount
+				+ ", pathCount=" + getPathCount() + "]";
+	}
+
+	/**
+	 * Used to get the parser the profiler uses, to configure it (e.g. with
+	 * {@link XMLParser#setLimit(XMLParser.Limit, long)}) or to profile
+	 * documents from other sources with any of its <code>parse</code>
+	 * methods.
+	 * <p/>
+	 * The parser has no {@link IRule}s, so
+	 * {@link XMLParser#setSkipUnmatched(boolean)} would skip every document
+	 * entirely and must not be enabled.
+	 * 
+	 * @return the parser the profiler uses.
+	 */
+	public XMLParser<Object> getParser() {
+		return parser;
+	}
+
+	public long getDocumentCount() {
+		return documentCount;
+	}
+
+	public int getPathCount() {
+		return pathCount - 1;
+	}
+
+	/**
+	 * Used to forget every document profiled so far.
+	 */
+	public void reset() {
+		documentCount = 0;
+		pathCount = 1;
+
+		parents = new int[INITIAL_CAPACITY];
+		hashes = new int[INITIAL_CAPACITY];
+		localNames = new String[INITIAL_CAPACITY];
+		namespaceURIs = new String[INITIAL_CAPACITY];
+		counts = new long[INITIAL_CAPACITY];
+		textBytes = new long[INITIAL_CAPACITY];
+		attrCounts = new int[INITIAL_CAPACITY];
+		attrLocalNames = new String[INITIAL_CAPACITY][];
+		attrNamespaceURIs = new String[INITIAL_CAPACITY][];
+		table = new int[INITIAL_CAPACITY * 2];
+
+		parents[ROOT] = -1;
+		localNames[ROOT] = "";
+	}
+
+	/**
+	 * Profile the XML document from the given stream, adding its paths to
+	 * the ones profiled before.
+	 * 
+	 * @param source
+	 *            The stream to read the XML document from.
+	 * 
+	 * @throws IllegalArgumentException
+	 *             if <code>source</code> is <code>null</code>.
+	 * @throws XMLParserException
+	 *             if the XML content is malformed and the underlying pull
+	 *             parser cannot parse it.
+	 */
+	public void profile(InputStream source) throws IllegalArgumentException,
+			XMLParserException {
+		parser.parse(source);
+	}
+
+	/**
+	 * Profile the XML document from the given stream (producing content
+	 * matching the given encoding), adding its paths to the ones profiled
+	 * before.
+	 * 
+	 * @param source
+	 *            The stream to read the XML document from.
+	 * @param encoding
+	 *            The character encoding of the stream, or <code>null</code>
+	 *            to use the one declared by the document.
+	 * 
+	 * @throws IllegalArgumentException
+	 *             if <code>source</code> is <code>null</code>.
+	 * @throws UnsupportedEncodingException
+	 *             if <code>encoding</code> is not supported by this runtime.
+	 * @throws XMLParserException
+	 *             if the XML content is malformed and the underlying pull
+	 *             parser cannot parse it.
+	 */
+	public void profile(InputStream source, String encoding)
+			throws IllegalArgumentException, UnsupportedEncodingException,
+			XMLParserException {
+		parser.parse(source, encoding);
+	}
+
+	/**
+	 * Used to add everything the given profiler profiled to this one, as if
+	 * this profiler had profiled the same documents itself.
+	 * 
+	 * @param profiler
+	 *            The profiler to add to this one.
+	 * 
+	 * @throws IllegalArgumentException
+	 *             if <code>profiler</code> is <code>null</code> or this
+	 *             profiler.
+	 */
+	public void merge(PathProfiler profiler) throws IllegalArgumentException {
+		if (profiler == null || profiler == this)
+			throw new IllegalArgumentException(
+					"profiler cannot be null or this profiler");
+
+		int[] ids = new int[profiler.pathCount];
+		ids[ROOT] = ROOT;
+
+		// Parents always have lower ids than their children
+		for (int i = 1; i < profiler.pathCount; i++) {
+			int id = ids[i] = getPath(ids[profiler.parents[i]],
+					profiler.localNames[i], profiler.namespaceURIs[i]);
+
+			counts[id] += profiler.counts[i];
+			textBytes[id] += profiler.textBytes[i];
+
+			for (int j = 0; j < profiler.attrCounts[i]; j++)
+				addAttribute(id, profiler.attrLocalNames[i][j],
+						profiler.attrNamespaceURIs[i][j]);
+		}
+
+		documentCount += profiler.documentCount;
+	}
+
+	/**
+	 * Used to get the statistics of every path profiled so far, every path
+	 * followed by the paths beneath it and the children of a path in the
+	 * order they were first found.
+	 * 
+	 * @return the statistics of every path profiled so far.
+	 */
+	public List<PathStats> getPaths() {
+		String[] paths = new String[pathCount];
+		long[] totals = new long[pathCount];
+		int[] depths = new int[pathCount];
+		int[] maxDepths = new int[pathCount];
+		int[] firstChildren = new int[pathCount];
+		int[] nextSiblings = new int[pathCount];
+
+		paths[ROOT] = "";
+		firstChildren[ROOT] = -1;
+
+		for (int i = 1; i < pathCount; i++) {
+			int parent = parents[i];
+			StringBuilder path = new StringBuilder(paths[parent]).append('/');
+
+			paths[i] = appendName(path, localNames[i], namespaceURIs[i])
+					.toString();
+			depths[i] = maxDepths[i] = depths[parent] + 1;
+			totals[i] = textBytes[i];
+			firstChildren[i] = -1;
+		}
+
+		// Children are summed into their parents before those are
+		for (int i = pathCount - 1; i > 0; i--) {
+			int parent = parents[i];
+
+			totals[parent] += totals[i];
+			maxDepths[parent] = Math.max(maxDepths[parent], maxDepths[i]);
+
+			nextSiblings[i] = firstChildren[parent];
+			firstChildren[parent] = i;
+		}
+
+		List<PathStats> stats = new ArrayList<PathStats>(pathCount - 1);
+		int[] pending = new int[16];
+		int pendingCount = 0;
+
+		for (int i = firstChildren[ROOT]; i != -1; i = nextSiblings[i]) {
+			if (pendingCount == pending.length)
+				pending = grow(pending);
+
+			pending[pendingCount++] = i;
+		}
+
+		// Visit the paths depth-first, in the order siblings were found
+		reverse(pending, 0, pendingCount);
+
+		while (pendingCount > 0) {
+			int id = pending[--pendingCount];
+			String[] attributeNames = new String[attrCounts[id]];
+
+			for (int j = 0; j < attributeNames.length; j++)
+				attributeNames[j] = appendName(new StringBuilder(),
+						attrLocalNames[id][j], attrNamespaceURIs[id][j])
+						.toString();
+
+			stats.add(new PathStats(paths[id], counts[id], textBytes[id],
+					totals[id], maxDepths[id], attributeNames));
+
+			int start = pendingCount;
+
+			for (int i = firstChildren[id]; i != -1; i = nextSiblings[i]) {
+				if (pendingCount == pending.length)
+					pending = grow(pending);
+
+				pending[pendingCount++] = i;
+			}
+
+			reverse(pending, start, pendingCount);
+		}
+
+		return stats;
+	}
+
+	/**
+	 * Used to write the statistics of every path profiled so far (see
+	 * {@link #getPaths()}) as tab separated values, with a header line and
+	 * one line per path ending with <code>\n</code>. The attribute names of
+	 * a path are separated by commas.
+	 * 
+	 * @param writer
+	 *            The writer to write the report to; it is not flushed or
+	 *            closed.
+	 * 
+	 * @throws IllegalArgumentException
+	 *             if <code>writer</code> is <code>null</code>.
+	 * @throws IOException
+	 *             if the report cannot be written.
+	 */
+	public void writeReport(Writer writer) throws IllegalArgumentException,
+			IOException {
+		if (writer == null)
+			throw new IllegalArgumentException("writer cannot be null");
+
+		writer.write("path\tcount\ttextBytes\ttotalTextBytes\tmaxDepth\tattributes\n");
+
+		List<PathStats> stats = getPaths();
+		StringBuilder line = new StringBuilder(256);
+
+		for (int i = 0, size = stats.size(); i < size; i++) {
+			PathStats path = stats.get(i);
+
+			line.setLength(0);
+			line.append(path.path).append('\t').append(path.count)
+					.append('\t').append(path.textBytes).append('\t')
+					.append(path.totalTextBytes).append('\t')
+					.append(path.maxDepth).append('\t');
+
+			for (int j = 0; j < path.attributeNames.length; j++) {
+				if (j > 0)
+					line.append(',');
+
+				line.append(path.attributeNames[j]);
+			}
+
+			writer.write(line.append('\n').toString());
+		}
+	}
+
+	/**
+	 * Used to get the id of the path of the given child of the given path,
+	 * adding the path to the table if it is not in it yet.
+	 */
+	private int getPath(int parent, String localName, String namespaceURI) {
+		if (namespaceURI != null && namespaceURI.length() == 0)
+			namespaceURI = null;
+
+		int hash = hash(parent, localName, namespaceURI);
+		int mask = table.length - 1;
+
+		for (int i = hash & mask;; i = (i + 1) & mask) {
+			int id = table[i] - 1;
+
+			if (id == -1) {
+				id = addPath(parent, hash, localName, namespaceURI);
+				table[i] = id + 1;
+
+				// Keep the table at most half full
+				if (pathCount * 2 > table.length)
+					rehash();
+
+				return id;
+			}
+
+			if (hashes[id] == hash && parents[id] == parent
+					&& localNames[id].equals(localName)
+					&& equals(namespaceURIs[id], namespaceURI))
+				return id;
+		}
+	}
+
+	private int addPath(int parent, int hash, String localName,
+			String namespaceURI) {
+		if (pathCount == parents.length) {
+			int capacity = pathCount * 2;
+
+			parents = grow(parents, capacity);
+			hashes = grow(hashes, capacity);
+			attrCounts = grow(attrCounts, capacity);
+			localNames = grow(localNames, new String[capacity]);
+			namespaceURIs = grow(namespaceURIs, new String[capacity]);
+			attrLocalNames = grow(attrLocalNames, new String[capacity][]);
+			attrNamespaceURIs = grow(attrNamespaceURIs,
+					new String[capacity][]);
+
+			long[] newCounts = new long[capacity];
+			System.arraycopy(counts, 0, newCounts, 0, pathCount);
+			counts = newCounts;
+
+			long[] newTextBytes = new long[capacity];
+			System.arraycopy(textBytes, 0, newTextBytes, 0, pathCount);
+			textBytes = newTextBytes;
+		}
+
+		int id = pathCount++;
+		parents[id] = parent;
+		hashes[id] = hash;
+		localNames[id] = localName;
+		namespaceURIs[id] = namespaceURI;
+
+		return id;
+	}
+
+	private void rehash() {
+		table = new int[table.length * 2];
+		int mask = table.length - 1;
+
+		for (int id = 1; id < pathCount; id++) {
+			int i = hashes[id] & mask;
+
+			while (table[i] != 0)
+				i = (i + 1) & mask;
+
+			table[i] = id + 1;
+		}
+	}
+
+	/**
+	 * Used to add the given attribute to the names found for the given path,
+	 * if it is not among them yet.
+	 */
+	private void addAttribute(int id, String localName, String namespaceURI) {
+		if (namespaceURI != null && namespaceURI.length() == 0)
+			namespaceURI = null;
+
+		int count = attrCounts[id];
+		String[] names = attrLocalNames[id];
+
+		for (int i = 0; i < count; i++) {
+			if (names[i].equals(localName)
+					&& equals(attrNamespaceURIs[id][i], namespaceURI))
+				return;
+		}
+
+		if (names == null) {
+			names = attrLocalNames[id] = new String[4];
+			attrNamespaceURIs[id] = new String[4];
+		} else if (count == names.length) {
+			names = attrLocalNames[id] = grow(names, new String[count * 2]);
+			attrNamespaceURIs[id] = grow(attrNamespaceURIs[id],
+					new String[count * 2]);
+		}
+
+		names[count] = localName;
+		attrNamespaceURIs[id][count] = namespaceURI;
+		attrCounts[id] = count + 1;
+	}
+
+	private static int hash(int parent, String localName, String namespaceURI) {
+		int hash = parent * 0x9E3779B9 + localName.hashCode() * 31
+				+ (namespaceURI == null ? 0 : namespaceURI.hashCode());
+
+		hash ^= (hash >>> 16);
+		hash *= 0x85EBCA6B;
+		hash ^= (hash >>> 13);
+
+		return hash;
+	}
+
+	private static boolean equals(String s1, String s2) {
+		return (s1 == null ? s2 == null : s1.equals(s2));
+	}
+
+	private static StringBuilder appendName(StringBuilder builder,
+			String localName, String namespaceURI) {
+		if (namespaceURI != null)
+			builder.append('[').append(namespaceURI).append(']');
+
+		return builder.append(localName);
+	}
+
+	/**
+	 * Used to get the number of bytes the given characters take up when
+	 * encoded in UTF-8.
+	 */
+	private static long getUTF8Length(char[] text, int offset, int length) {
+		long bytes = length;
+
+		for (int i = offset, end = offset + length; i < end; i++) {
+			char c = text[i];
+
+			// Every half of a surrogate pair adds up to 4 bytes
+			if (c >= 0x80)
+				bytes += (c < 0x800 || Character.isHighSurrogate(c)
+						|| Character.isLowSurrogate(c) ? 1 : 2);
+		}
+
+		return bytes;
+	}
+
+	private static void reverse(int[] array, int start, int end) {
+		for (end--; start < end; start++, end--) {
+			int value = array[start];
+			array[start] = array[end];
+			array[end] = value;
+		}
+	}
+
+	private static int[] grow(int[] array) {
+		return grow(array, array.length * 2);
+	}
+
+	private static int[] grow(int[] array, int length) {
+		int[] newArray = new int[length];
+		System.arraycopy(array, 0, newArray, 0, array.length);
+		return newArray;
+	}
+
+	private static <A> A[] grow(A[] array, A[] newArray) {
+		System.arraycopy(array, 0, newArray, 0, array.length);
+		return newArray;
+	}
+
+	/**
+	 * Class used to hold the statistics of a single location path, as
+	 * reported by {@link PathProfiler#getPaths()}:
+	 * <ul>
+	 * <li>The path, in the format used by {@link IRule}s.</li>
+	 * <li>The number of elements found at the path.</li>
+	 * <li>The size, in bytes when encoded in UTF-8, of the text directly
+	 * inside of those elements and of all the text in their subtrees.</li>
+	 * <li>The depth of the deepest element found at or beneath the path, the
+	 * root element being at depth 1.</li>
+	 * <li>The names of every attribute found on any of the elements, in the
+	 * format used by {@link IRule}s and in the order they were first found.</li>
+	 * </ul>
+	 * 
+	 * @author Riyad Kalla (software@thebuzzmedia.com)
+	 */
+	public static class PathStats {
+		private String path;
+		private long count;
+		private long textBytes;
+		private long totalTextBytes;
+		private int maxDepth;
+		private String[] attributeNames;
+
+		PathStats(String path, long count, long textBytes,
+				long totalTextBytes, int maxDepth, String[] attributeNames) {
+			this.path = path;
+			this.count = count;
+			this.textBytes = textBytes;
+			this.totalTextBytes = totalTextBytes;
+			this.maxDepth = maxDepth;
+			this.attributeNames = attributeNames;
+		}
+
+		/**
+		 * Overridden to provide a nicely formatted representation of the
+		 * statistics for easy debugging.
+		 * 
+		 * @return a nicely formatted representation of the statistics.
+		 */
+		@Override
+		public String toString() {
+			StringBuilder names = new StringBuilder();
+
+			for (int i = 0; i < attributeNames.length; i++)
+				names.append(i == 0 ? "" : ",").append(attributeNames[i]);
+
+			return this.getClass().getName() + "[path=" + path + ", count="
+					+ count + ", textBytes=" + textBytes + ", totalTextBytes="
+					+ totalTextBytes + ", maxDepth=" + maxDepth
+					+ ", attributeNames=" + names + "]";
+		}
+
+		public String getPath() {
+			return path;
+		}
+
+		public long getCount() {
+			return count;
+		}
+
+		public long getTextBytes() {
+			return textBytes;
+		}
+
+		public long getTotalTextBytes() {
+			return totalTextBytes;
+		}
+
+		public int getMaxDepth() {
+			return maxDepth;
+		}
+
+		public String[] getAttributeNames() {
+			return attributeNames;
+		}
+	}
+
+	/**
+	 * Parser used to follow the path of every element, adding up the
+	 * statistics of each path as it goes.
+	 */
+	class ProfilingParser extends XMLParser<Object> {
+		@Override
+		protected void doStartDocument(Object userObject) {
+			super.doStartDocument(userObject);
+
+			depth = 0;
+			stack[0] = ROOT;
+			documentCount++;
+		}
+
+		@Override
+		protected void doStartTag(Object userObject) {
+			super.doStartTag(userObject);
+
+			XmlPullParser xpp = getPullParser();
+			int id = getPath(stack[depth], xpp.getName(), xpp.getNamespace());
+
+			if (++depth == stack.length)
+				stack = grow(stack);
+
+			stack[depth] = id;
+			counts[id]++;
+
+			for (int i = 0, count = xpp.getAttributeCount(); i < count; i++)
+				addAttribute(id, xpp.getAttributeName(i),
+						xpp.getAttributeNamespace(i));
+		}
+
+		@Override
+		protected void doText(Object userObject) {
+			super.doText(userObject);
+
+			char[] text = getPullParser().getTextCharacters(textHolder);
+			textBytes[stack[depth]] += getUTF8Length(text, textHolder[0],
+					textHolder[1]);
+		}
+
+		@Override
+		protected void doEndTag(Object userObject) {
+			super.doEndTag(userObject);
+			depth--;
+		}
+	}
+}
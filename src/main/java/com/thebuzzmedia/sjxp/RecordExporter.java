@@ -0,0 +1,829 @@
+/**   
+ * Copyright 2011 The Buzz Media, LLC
+ * 
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *   http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.thebuzzmedia.sjxp;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.io.OutputStreamWriter;
+import java.io.Writer;
+import java.nio.charset.Charset;
+import java.util.ArrayList;
+import java.util.List;
+
+import com.thebuzzmedia.sjxp.rule.DefaultRule;
+import com.thebuzzmedia.sjxp.rule.IChunkedCharactersRule;
+import com.thebuzzmedia.sjxp.rule.IRule;
+
+/**
+ * Class used to export the records of a document (e.g. the entries of a
+ * feed) as NDJSON, CSV or TSV, one line per record with a value for every
+ * {@link Column}, without writing any rules.
+ * <p/>
+ * Every element matching the record path is a record. A column takes the
+ * text of the first element at its child path inside of the record (an
+ * empty child path meaning the record element itself), or the value of an
+ * attribute of that element. A column with no match in a record is written
+ * as <code>null</code> in NDJSON and as an empty value in CSV and TSV.
+ * <p/>
+ * Text is copied straight out of the pull parser's buffer (see
+ * {@link IChunkedCharactersRule}) into a buffer per column that is re-used for
+ * every record, and escaped into a single output buffer; no {@link String}
+ * is created for any value. The output is written in UTF-8:
+ * <ul>
+ * <li>{@link Format#NDJSON} writes one JSON object per line, with the column
+ * names as keys.</li>
+ * <li>{@link Format#CSV} writes a header line with the column names, then
+ * one line per record as described by RFC 4180; values holding a comma,
+ * quote or line break are quoted and lines end with <code>\r\n</code>.</li>
+ * <li>{@link Format#TSV} writes a header line with the column names, then
+ * one line per record; tabs, line breaks and backslashes in values are
+ * written as <code>\t</code>, <code>\n</code>, <code>\r</code> and
+ * <code>\\</code>.</li>
+ * </ul>
+ * An example exporting the items of an RSS feed would look like this:
+ * 
+ * <pre>
+ * RecordExporter exporter = new RecordExporter(Format.CSV,
+ * 		&quot;/rss/channel/item&quot;, new Column(&quot;title&quot;, &quot;title&quot;),
+ * 		new Column(&quot;link&quot;, &quot;link&quot;), new Column(&quot;guid&quot;, &quot;guid&quot;),
+ * 		new Column(&quot;permalink&quot;, &quot;guid&quot;, &quot;isPermaLink&quot;));
+ * 
+ * long count = exporter.export(in, out);
+ * </pre>
+ * 
+ * <h3>Rotation</h3>
+ * With {@link #export(InputStream, IExportTarget, long)} the records are
+ * split over as many outputs as needed to write no more than the given
+ * number of records to each, every one of them starting with its own header
+ * line.
+ * <h3>Instance Reuse</h3>
+ * An exporter is configured once and can export any number of documents,
+ * one at a time.
+ * 
+ * @author Riyad Kalla (software@thebuzzmedia.com)
+ */
+public class RecordExporter {
+	/**
+	 * Size of the buffer, in characters, the records are written into before
+	 * being handed to the output.
+	 */
+	public static final int BUFFER_SIZE = 8192;
+
+	private static final Charset UTF_8 = Charset.forName("UTF-8");
+	private static final char[] HEX = "0123456789abcdef".toCharArray();
+
+	/**
+	 * State of a column that has not matched in the current record yet.
+	 */
+	private static final int EMPTY = 0;
+
+	/**
+	 * State of a text column whose element is open.
+	 */
+	private static final int OPEN = 1;
+
+	/**
+	 * State of a column whose value is complete.
+	 */
+	private static final int DONE = 2;
+
+	private Format format;
+	private String recordPath;
+	private Column[] columns;
+	private XMLParser<Object> parser;
+
+	private String[] keys;
+	private StringBuilder[] values;
+	private int[] states;
+	private boolean inRecord;
+	private long recordCount;
+
+	private IExportTarget target;
+	private long recordsPerOutput;
+	private int outputIndex;
+	private long outputRecordCount;
+	private OutputStream out;
+	private Writer writer;
+	private char[] buffer = new char[BUFFER_SIZE];
+	private int bufferLength;
+
+	/**
+	 * Create a new exporter writing the given columns of every record at the
+	 * given location path in the given format.
+	 * 
+	 * @param format
+	 *            The format to write the records in.
+	 * @param recordPath
+	 *            The location path of the record elements.
+	 * @param columns
+	 *            The columns to write for every record, in order.
+	 * 
+	 * @throws IllegalArgumentException
+	 *             if <code>format</code> is <code>null</code>, if
+	 *             <code>recordPath</code> is <code>null</code> or empty or if
+	 *             <code>columns</code> is <code>null</code>, empty or contains
+	 *             <code>null</code>.
+	 */
+	@SuppressWarnings("unchecked")
+	public RecordExporter(Format format, String recordPath, Column... columns)
+			throws IllegalArgumentException {
+		if (format == null)
+			throw new IllegalArgumentException("format cannot be null");
+		if (recordPath == null || recordPath.length() == 0)
+			throw new IllegalArgumentException(
+					"recordPath cannot be null or empty");
+		if (columns == null || columns.length == 0)
+			throw new IllegalArgumentException(
+					"columns cannot be null or empty");
+
+		this.format = format;
+		this.recordPath = recordPath;
+		this.columns = columns;
+
+		keys = new String[columns.length];
+		values = new StringBuilder[columns.length];
+		states = new int[columns.length];
+
+		List<IRule<Object>> rules = new ArrayList<IRule<Object>>();
+		rules.add(new RecordRule());
+
+		for (int i = 0; i < columns.length; i++) {
+			Column column = columns[i];
+
+			if (column == null)
+				throw new IllegalArgumentException(
+						"columns cannot contain null");
+
+			StringBuilder key = new StringBuilder(i == 0 ? "{\"" : ",\"");
+			appendJson(key, column.name);
+			keys[i] = key.append("\":").toString();
+			values[i] = new StringBuilder(64);
+
+			String path = (column.childPath.length() == 0 ? recordPath
+					: recordPath + '/' + column.childPath);
+
+			if (column.attributeName == null) {
+				rules.add(new ColumnTagRule(path, i));
+				rules.add(new ColumnTextRule(path, i));
+			} else
+				rules.add(new ColumnAttributeRule(path, column.attributeName,
+						i));
+		}
+
+		parser = new XMLParser<Object>(rules.toArray(new IRule[rules.size()]));
+	}
+
+	/**
+	 * Overridden to provide a nicely formatted representation of the exporter
+	 * for easy debugging.
+	 * 
+	 * @return a nicely formatted representation of the exporter.
+	 */
+	@Override
+	public String toString() {
+		return this.getClass().getName() + "[format=" + format
+				+ ", recordPath=" + recordPath + ", columnCount="
+				+ columns.length + "]";
+	}
+
+	public Format getFormat() {
+		return format;
+	}
+
+	public String getRecordPath() {
+		return recordPath;
+	}
+
+	public Column[] getColumns() {
+		return columns;
+	}
+
+	/**
+	 * Used to get the parser the exporter parses documents with, for example
+	 * to set limits (see {@link XMLParser#setLimit(XMLParser.Limit, long)})
+	 * or a timeout on it.
+	 * 
+	 * @return the parser used by the exporter.
+	 */
+	public XMLParser<Object> getParser() {
+		return parser;
+	}
+
+	/**
+	 * Export the records of the XML document from the given stream to the
+	 * given stream.
+	 * <p/>
+	 * The target stream is flushed, but not closed, once all of the records
+	 * have been written.
+	 * 
+	 * @param source
+	 *            The stream to read the XML document from.
+	 * @param target
+	 *            The stream to write the records to.
+	 * 
+	 * @return the number of records exported.
+	 * 
+	 * @throws IllegalArgumentException
+	 *             if <code>source</code> or <code>target</code> is
+	 *             <code>null</code>.
+	 * @throws XMLParserException
+	 *             if the XML content is malformed and the underlying pull
+	 *             parser cannot parse it, or if writing to
+	 *             <code>target</code> fails.
+	 */
+	public long export(InputStream source, OutputStream target)
+			throws IllegalArgumentException, XMLParserException {
+		if (source == null)
+			throw new IllegalArgumentException("source cannot be null");
+		if (target == null)
+			throw new IllegalArgumentException("target cannot be null");
+
+		recordsPerOutput = XMLParser.NO_LIMIT;
+
+		try {
+			openOutput(target);
+			parser.parse(source);
+			closeOutput(false);
+
+			return recordCount;
+		} finally {
+			reset();
+		}
+	}
+
+	/**
+	 * Export the records of the XML document from the given stream to the
+	 * outputs opened by the given target, starting a new output every
+	 * <code>recordsPerOutput</code> records.
+	 * <p/>
+	 * The first output is opened right away, so even a document without
+	 * records produces one (holding only the header line of a CSV or TSV
+	 * export); every other output is only opened once there is a record to
+	 * write to it. Every output is closed once its records have been written,
+	 * or once exporting fails.
+	 * 
+	 * @param source
+	 *            The stream to read the XML document from.
+	 * @param target
+	 *            The target opening the outputs to write the records to.
+	 * @param recordsPerOutput
+	 *            The maximum number of records written to each output, or
+	 *            {@link XMLParser#NO_LIMIT} to write all of them to one.
+	 * 
+	 * @return the number of records exported.
+	 * 
+	 * @throws IllegalArgumentException
+	 *             if <code>source</code> or <code>target</code> is
+	 *             <code>null</code> or if <code>recordsPerOutput</code> is
+	 *             &lt; 1.
+	 * @throws XMLParserException
+	 *             if the XML content is malformed and the underlying pull
+	 *             parser cannot parse it, or if opening or writing to an
+	 *             output fails.
+	 */
+	public long export(InputStream source, IExportTarget target,
+			long recordsPerOutput) throws IllegalArgumentException,
+			XMLParserException {
+		if (source == null)
+			throw new IllegalArgumentException("source cannot be null");
+		if (target == null)
+			throw new IllegalArgumentException("target cannot be null");
+		if (recordsPerOutput < 1)
+			throw new IllegalArgumentException("recordsPerOutput ["
+					+ recordsPerOutput + "] must be >= 1");
+
+		this.target = target;
+		this.recordsPerOutput = recordsPerOutput;
+
+		try {
+			nextOutput();
+			parser.parse(source);
+
+			if (writer != null)
+				closeOutput(true);
+
+			return recordCount;
+		} finally {
+			// Don't leave the output open if exporting failed
+			if (writer != null) {
+				try {
+					out.close();
+				} catch (IOException e) {
+					// no-op, the original exception is more important
+				}
+			}
+
+			reset();
+		}
+	}
+
+	/**
+	 * Used to reset the state of the exporter after an export.
+	 */
+	private void reset() {
+		target = null;
+		out = null;
+		writer = null;
+		bufferLength = outputIndex = 0;
+		recordCount = outputRecordCount = 0;
+		inRecord = false;
+	}
+
+	/**
+	 * Used to open the next output of the target.
+	 */
+	private void nextOutput() throws XMLParserException {
+		OutputStream stream;
+
+		try {
+			stream = target.openOutput(outputIndex);
+		} catch (IOException e) {
+			throw new XMLParserException("Unable to open output ["
+					+ outputIndex + "] of the export.", e);
+		}
+
+		if (stream == null)
+			throw new XMLParserException("Output [" + outputIndex
+					+ "] of the export was null.");
+
+		outputIndex++;
+		openOutput(stream);
+	}
+
+	/**
+	 * Used to start writing to the given stream, beginning with the header
+	 * line if the format has one.
+	 */
+	private void openOutput(OutputStream stream) {
+		out = stream;
+		writer = new OutputStreamWriter(stream, UTF_8);
+		outputRecordCount = 0;
+
+		if (format == Format.NDJSON)
+			return;
+
+		for (int i = 0; i < columns.length; i++) {
+			if (i > 0)
+				put(format == Format.CSV ? ',' : '\t');
+
+			putValue(columns[i].name);
+		}
+
+		endLine();
+	}
+
+	/**
+	 * Used to write out everything left in the buffer, closing the stream as
+	 * well if <code>close</code> is <code>true</code>.
+	 */
+	private void closeOutput(boolean close) throws XMLParserException {
+		flushBuffer();
+
+		try {
+			writer.flush();
+
+			if (close)
+				out.close();
+		} catch (IOException e) {
+			throw new XMLParserException(
+					"Unable to write the exported records to their output.", e);
+		}
+
+		writer = null;
+		out = null;
+	}
+
+	/**
+	 * Used to start a record, opening a new output first if the previous one
+	 * is full.
+	 */
+	private void startRecord() {
+		if (writer == null)
+			nextOutput();
+
+		for (int i = 0; i < values.length; i++) {
+			values[i].setLength(0);
+			states[i] = EMPTY;
+		}
+
+		inRecord = true;
+	}
+
+	/**
+	 * Used to write the values of the columns of the record that just ended.
+	 */
+	private void endRecord() {
+		inRecord = false;
+
+		for (int i = 0; i < values.length; i++) {
+			if (format == Format.NDJSON) {
+				put(keys[i]);
+
+				if (states[i] == EMPTY)
+					put("null");
+				else {
+					put('"');
+					putJson(values[i]);
+					put('"');
+				}
+			} else {
+				if (i > 0)
+					put(format == Format.CSV ? ',' : '\t');
+
+				putValue(values[i]);
+			}
+		}
+
+		if (format == Format.NDJSON)
+			put('}');
+
+		endLine();
+		recordCount++;
+
+		// Rotate once the output is full
+		if (++outputRecordCount == recordsPerOutput && target != null)
+			closeOutput(true);
+	}
+
+	private void endLine() {
+		if (format == Format.CSV)
+			put('\r');
+
+		put('\n');
+	}
+
+	/**
+	 * Used to write the given CSV or TSV value, escaped as needed.
+	 */
+	private void putValue(CharSequence value) {
+		int length = value.length();
+
+		if (format == Format.TSV) {
+			for (int i = 0; i < length; i++) {
+				char c = value.charAt(i);
+
+				switch (c) {
+				case '\t':
+					put('\\');
+					put('t');
+					break;
+
+				case '\n':
+					put('\\');
+					put('n');
+					break;
+
+				case '\r':
+					put('\\');
+					put('r');
+					break;
+
+				case '\\':
+					put('\\');
+					put('\\');
+					break;
+
+				default:
+					put(c);
+				}
+			}
+
+			return;
+		}
+
+		boolean quote = false;
+
+		for (int i = 0; !quote && i < length; i++) {
+			char c = value.charAt(i);
+			quote = (c == ',' || c == '"' || c == '\r' || c == '\n');
+		}
+
+		if (quote)
+			put('"');
+
+		for (int i = 0; i < length; i++) {
+			char c = value.charAt(i);
+
+			if (c == '"')
+				put('"');
+
+			put(c);
+		}
+
+		if (quote)
+			put('"');
+	}
+
+	/**
+	 * Used to write the given value as the content of a JSON string.
+	 */
+	private void putJson(CharSequence value) {
+		for (int i = 0, length = value.length(); i < length; i++) {
+			char c = value.charAt(i);
+
+			switch (c) {
+			case '"':
+			case '\\':
+				put('\\');
+				put(c);
+				break;
+
+			case '\n':
+				put('\\');
+				put('n');
+				break;
+
+			case '\r':
+				put('\\');
+				put('r');
+				break;
+
+			case '\t':
+				put('\\');
+				put('t');
+				break;
+
+			default:
+				// Line and paragraph separators break JavaScript parsers
+				if (c < 0x20 || c == '\u2028' || c == '\u2029') {
+					put('\\');
+					put('u');
+					put(HEX[c >> 12]);
+					put(HEX[(c >> 8) & 0xF]);
+					put(HEX[(c >> 4) & 0xF]);
+					put(HEX[c & 0xF]);
+				} else
+					put(c);
+			}
+		}
+	}
+
+	private static void appendJson(StringBuilder builder, String value) {
+		for (int i = 0, length = value.length(); i < length; i++) {
+			char c = value.charAt(i);
+
+			if (c == '"' || c == '\\')
+				builder.append('\\').append(c);
+			else if (c < 0x20)
+				builder.append(String.format("\\u%04x", (int) c));
+			else
+				builder.append(c);
+		}
+	}
+
+	private void put(String value) {
+		for (int i = 0, length = value.length(); i < length; i++)
+			put(value.charAt(i));
+	}
+
+	private void put(char c) {
+		if (bufferLength == buffer.length)
+			flushBuffer();
+
+		buffer[bufferLength++] = c;
+	}
+
+	/**
+	 * Used to hand the buffered characters to the output.
+	 */
+	private void flushBuffer() throws XMLParserException {
+		try {
+			writer.write(buffer, 0, bufferLength);
+		} catch (IOException e) {
+			throw new XMLParserException(
+					"Unable to write the exported records to their output.", e);
+		}
+
+		bufferLength = 0;
+	}
+
+	/**
+	 * The formats a {@link RecordExporter} can write records in.
+	 * 
+	 * @author Riyad Kalla (software@thebuzzmedia.com)
+	 */
+	public static enum Format {
+		/**
+		 * Newline delimited JSON; one JSON object per record and line.
+		 */
+		NDJSON,
+
+		/**
+		 * Comma separated values as described by RFC 4180, with a header
+		 * line.
+		 */
+		CSV,
+
+		/**
+		 * Tab separated values, with a header line.
+		 */
+		TSV;
+	}
+
+	/**
+	 * Class used to describe a column of the records written by a
+	 * {@link RecordExporter}: its name and where its value comes from in
+	 * every record.
+	 * 
+	 * @author Riyad Kalla (software@thebuzzmedia.com)
+	 */
+	public static class Column {
+		private String name;
+		private String childPath;
+		private String attributeName;
+
+		/**
+		 * Create a new column holding the text of the element at the given
+		 * path.
+		 * 
+		 * @param name
+		 *            The name of the column, written as the JSON key or in the
+		 *            header line.
+		 * @param childPath
+		 *            The location path of the element, relative to the record
+		 *            element (e.g. <code>author/name</code>), or
+		 *            <code>null</code> or empty for the record element itself.
+		 * 
+		 * @throws IllegalArgumentException
+		 *             if <code>name</code> is <code>null</code> or empty or if
+		 *             <code>childPath</code> starts with a <code>/</code>.
+		 */
+		public Column(String name, String childPath)
+				throws IllegalArgumentException {
+			this(name, childPath, null);
+		}
+
+		/**
+		 * Create a new column holding the value of the given attribute of the
+		 * element at the given path.
+		 * 
+		 * @param name
+		 *            The name of the column, written as the JSON key or in the
+		 *            header line.
+		 * @param childPath
+		 *            The location path of the element, relative to the record
+		 *            element (e.g. <code>author/name</code>), or
+		 *            <code>null</code> or empty for the record element itself.
+		 * @param attributeName
+		 *            The name of the attribute, given like it is to a
+		 *            {@link IRule.Type#ATTRIBUTE} rule, or <code>null</code> to
+		 *            use the text of the element instead.
+		 * 
+		 * @throws IllegalArgumentException
+		 *             if <code>name</code> is <code>null</code> or empty, if
+		 *             <code>childPath</code> starts with a <code>/</code> or if
+		 *             <code>attributeName</code> is empty.
+		 */
+		public Column(String name, String childPath, String attributeName)
+				throws IllegalArgumentException {
+			if (name == null || name.length() == 0)
+				throw new IllegalArgumentException(
+						"name cannot be null or empty");
+			if (childPath != null && childPath.startsWith("/"))
+				throw new IllegalArgumentException("childPath [" + childPath
+						+ "] must be relative to the record element");
+			if (attributeName != null && attributeName.length() == 0)
+				throw new IllegalArgumentException(
+						"attributeName cannot be empty");
+
+			this.name = name;
+			this.childPath = (childPath == null ? "" : childPath);
+			this.attributeName = attributeName;
+		}
+
+		/**
+		 * Overridden to provide a nicely formatted representation of the
+		 * column for easy debugging.
+		 * 
+		 * @return a nicely formatted representation of the column.
+		 */
+		@Override
+		public String toString() {
+			return this.getClass().getName() + "[name=" + name
+					+ ", childPath=" + childPath + ", attributeName="
+					+ attributeName + "]";
+		}
+
+		public String getName() {
+			return name;
+		}
+
+		public String getChildPath() {
+			return childPath;
+		}
+
+		public String getAttributeName() {
+			return attributeName;
+		}
+	}
+
+	/**
+	 * Rule used to start and end the records.
+	 */
+	class RecordRule extends DefaultRule<Object> {
+		public RecordRule() {
+			super(Type.TAG, recordPath);
+		}
+
+		@Override
+		public void handleTag(XMLParser<Object> parser, boolean isStartTag,
+				Object userObject) {
+			if (isStartTag)
+				startRecord();
+			else
+				endRecord();
+		}
+	}
+
+	/**
+	 * Rule used to follow the first element of a text column in a record.
+	 */
+	class ColumnTagRule extends DefaultRule<Object> {
+		private int index;
+
+		public ColumnTagRule(String path, int index) {
+			super(Type.TAG, path);
+			this.index = index;
+		}
+
+		@Override
+		public void handleTag(XMLParser<Object> parser, boolean isStartTag,
+				Object userObject) {
+			if (isStartTag) {
+				if (inRecord && states[index] == EMPTY)
+					states[index] = OPEN;
+			} else if (states[index] == OPEN)
+				states[index] = DONE;
+		}
+	}
+
+	/**
+	 * Rule used to copy the text of a text column out of the pull parser's
+	 * buffer.
+	 */
+	class ColumnTextRule extends DefaultRule<Object> implements
+			IChunkedCharactersRule<Object> {
+		private int index;
+
+		public ColumnTextRule(String path, int index) {
+			super(Type.CHARACTER, path);
+			this.index = index;
+		}
+
+		public int getChunkSize() {
+			return Integer.MAX_VALUE;
+		}
+
+		public void handleCharactersStart(XMLParser<Object> parser,
+				Object userObject) {
+			// no-op impl
+		}
+
+		public void handleCharacters(XMLParser<Object> parser, char[] chunk,
+				int offset, int length, Object userObject) {
+			if (states[index] == OPEN)
+				values[index].append(chunk, offset, length);
+		}
+
+		public void handleCharactersEnd(XMLParser<Object> parser,
+				Object userObject) {
+			// no-op impl
+		}
+	}
+
+	/**
+	 * Rule used to take the value of an attribute column.
+	 */
+	class ColumnAttributeRule extends DefaultRule<Object> {
+		private int index;
+
+		public ColumnAttributeRule(String path, String attributeName, int index) {
+			super(Type.ATTRIBUTE, path, attributeName);
+			this.index = index;
+		}
+
+		@Override
+		public void handleParsedAttribute(XMLParser<Object> parser,
+				int index, String value, Object userObject) {
+			// The value is the pull parser's own, nothing is created for it
+			if (inRecord && value != null && states[this.index] == EMPTY) {
+				values[this.index].append(value);
+				states[this.index] = DONE;
+			}
+		}
+	}
+}
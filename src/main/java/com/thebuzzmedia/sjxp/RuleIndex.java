@@ -0,0 +1,1014 @@
+/**   
+ * Copyright 2011 The Buzz Media, LLC
+ * 
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *   http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.thebuzzmedia.sjxp;
+
+import java.util.IdentityHashMap;
+import java.util.Map;
+
+import com.thebuzzmedia.sjxp.rule.ICaptureRule;
+import com.thebuzzmedia.sjxp.rule.IFragmentRule;
+import com.thebuzzmedia.sjxp.rule.IRule;
+import com.thebuzzmedia.sjxp.rule.IRule.Type;
+
+/**
+ * Class used to hold all the {@link IRule}s of an {@link XMLParser} in a
+ * compact trie of location path segments that the parser walks one step at a
+ * time as it enters and leaves elements.
+ * <p/>
+ * Every distinct path segment (e.g. the "book" in "/library/book") among all
+ * the rules becomes a single node, so rules sharing a common prefix share the
+ * nodes for that prefix. Each node is just an <code>int</code> id into a
+ * handful of parallel arrays holding the segment's local name, namespace URI
+ * and the rules (if any) of every {@link Type} targeting that exact path.
+ * <h3>Performance</h3>
+ * Finding the node for a child element is a single probe into an
+ * open-addressed hash table keyed by the parent node and the child's name; no
+ * {@link String}s or boxed {@link Integer}s are created and the cost does not
+ * grow with the length of the current path or the number of rules.
+ * <p/>
+ * Once the parser enters an element no rule path goes through, it is at
+ * {@link #NONE} and so is every element beneath it, without any lookups at
+ * all.
+ * <p/>
+ * Memory use is linear in the number of distinct path segments, no matter how
+ * many rules there are.
+ * <h3>Changing Rules</h3>
+ * Rules can be added, disabled and enabled again at any time, including while
+ * the parser is in the middle of a document. The rule arrays of a node are
+ * never changed in place; a change replaces them with new arrays holding only
+ * the enabled rules, so a disabled rule costs nothing on later events and an
+ * event already being processed finishes with the rules it started with.
+ * <p/>
+ * Every node keeps the ids of the rules targeting it, so a change only
+ * rebuilds the arrays of the nodes the changed rule targets, in one pass over
+ * their rules and with a single allocation per array. Finding the rule's ids
+ * is a single lookup, no matter how many rules there are.
+ * 
+ * @param <T>
+ *            The class type of any user-supplied object that the caller wishes
+ *            to be passed through from one of the {@link XMLParser}'s
+ *            <code>parse</code> methods directly to the handler when an
+ *            {@link IRule} matches.
+ * 
+ * @author Riyad Kalla (software@thebuzzmedia.com)
+ */
+class RuleIndex<T> {
+	/**
+	 * Node id representing any location no rule path goes through.
+	 */
+	static final int NONE = -1;
+
+	/**
+	 * Node id representing the document itself (the empty path) that every
+	 * root element is a child of.
+	 */
+	static final int ROOT = 0;
+
+	/**
+	 * Node id returned by {@link #getChild(int, byte[], int, int)} when more
+	 * than one node could match the child (or its name is not plain ASCII) so
+	 * the caller has to assume any of them might.
+	 */
+	static final int AMBIGUOUS = -2;
+
+	private static final int INITIAL_CAPACITY = 16;
+
+	private int nodeCount;
+	private int[] parents;
+	private int[] hashes;
+	private String[] localNames;
+	private String[] namespaceURIs;
+
+	private IRule<T>[][] tagRules;
+	private IRule<T>[][] attrRules;
+	private IRule<T>[][] charRules;
+	private IRule<T>[][] captureRules;
+	private IRule<T>[][] fragmentRules;
+
+	/**
+	 * Every rule in the index by id, along with the node it targets (or
+	 * {@link #NONE}), if it is disabled and, for {@link Type#ATTRIBUTE} rules,
+	 * the local names and namespace URIs of its attributes.
+	 */
+	private int ruleCount;
+	private IRule<T>[] rules;
+	private int[] ruleNodes;
+	private boolean[] disabled;
+	private String[][] ruleAttrLocalNames;
+	private String[][] ruleAttrNamespaceURIs;
+
+	/**
+	 * The ids of every rule in the index, enabled or not, by rule.
+	 */
+	private Map<IRule<T>, int[]> ruleIds;
+
+	/**
+	 * The ids of the rules targeting every node, in the order they were added;
+	 * only the first {@link #nodeRuleCounts} of each array are used.
+	 */
+	private int[][] nodeRuleIds;
+	private int[] nodeRuleCounts;
+
+	/**
+	 * Local names and namespace URIs of the attributes of every
+	 * {@link Type#ATTRIBUTE} rule, parsed once up front and kept in the same
+	 * order as {@link #attrRules}.
+	 */
+	private String[][][] attrLocalNames;
+	private String[][][] attrNamespaceURIs;
+
+	/**
+	 * Ids (the index of the rule in the array the index was created with) of
+	 * every {@link Type#ATTRIBUTE} and {@link Type#CHARACTER} rule, in the
+	 * same order as {@link #attrRules} and {@link #charRules}.
+	 */
+	private int[][] attrRuleIds;
+	private int[][] charRuleIds;
+
+	private int tagRuleCount;
+	private int attrRuleCount;
+	private int charRuleCount;
+	private int captureRuleCount;
+	private int fragmentRuleCount;
+
+	/**
+	 * Open-addressed hash table of node ids (offset by 1 so 0 means empty)
+	 * keyed by {@link #hash(int, String, String)}.
+	 */
+	private int[] table;
+
+	/**
+	 * Open-addressed hash table of node ids (offset by 1 so 0 means empty)
+	 * keyed by the parent node and local name alone, ignoring the namespace
+	 * URI; only the first node with a given key is stored, and
+	 * {@link #sharedLocalNames} marks it if there are others.
+	 */
+	private int[] localTable;
+	private int[] localHashes;
+	private boolean[] sharedLocalNames;
+
+	/**
+	 * Creates a new index containing the given rules. Every rule's id is its
+	 * index in the given array.
+	 * 
+	 * @param rules
+	 *            The rules to index.
+	 */
+	@SuppressWarnings("unchecked")
+	RuleIndex(IRule<T>... rules) {
+		int capacity = INITIAL_CAPACITY;
+
+		parents = new int[capacity];
+		hashes = new int[capacity];
+		localHashes = new int[capacity];
+		sharedLocalNames = new boolean[capacity];
+		localNames = new String[capacity];
+		namespaceURIs = new String[capacity];
+
+		tagRules = new IRule[capacity][];
+		attrRules = new IRule[capacity][];
+		charRules = new IRule[capacity][];
+		captureRules = new IRule[capacity][];
+		fragmentRules = new IRule[capacity][];
+
+		attrLocalNames = new String[capacity][][];
+		attrNamespaceURIs = new String[capacity][][];
+
+		attrRuleIds = new int[capacity][];
+		charRuleIds = new int[capacity][];
+
+		nodeRuleIds = new int[capacity][];
+		nodeRuleCounts = new int[capacity];
+
+		this.rules = new IRule[Math.max(rules.length, capacity)];
+		ruleNodes = new int[this.rules.length];
+		disabled = new boolean[this.rules.length];
+		ruleAttrLocalNames = new String[this.rules.length][];
+		ruleAttrNamespaceURIs = new String[this.rules.length][];
+		ruleIds = new IdentityHashMap<IRule<T>, int[]>(rules.length);
+
+		table = new int[capacity * 2];
+		localTable = new int[capacity * 2];
+
+		// Create the root node representing the empty path
+		parents[ROOT] = NONE;
+		nodeCount = 1;
+
+		for (int i = 0; i < rules.length; i++)
+			add(rules[i], false);
+
+		// Build the rule arrays of every node in one pass once all are known
+		for (int node = ROOT; node < nodeCount; node++) {
+			if (nodeRuleCounts[node] > 0)
+				rebuild(node);
+		}
+	}
+
+	/**
+	 * Overridden to provide a summary of the index for easy debugging.
+	 * 
+	 * @return a summary of the index for easy debugging.
+	 */
+	@Override
+	public String toString() {
+		return this.getClass().getName() + "[nodes=" + nodeCount
+				+ ", tagRules=" + tagRuleCount + ", attributeRules="
+				+ attrRuleCount + ", characterRules=" + charRuleCount
+				+ ", captureRules=" + captureRuleCount + ", fragmentRules="
+				+ fragmentRuleCount + "]";
+	}
+
+	/**
+	 * Used to add the given rule to the index, creating any nodes its location
+	 * path requires. The id of the rule is the number of rules added before
+	 * it.
+	 * <p/>
+	 * Rules with a location path that does not start with a slash (/) can never
+	 * match anything and are ignored.
+	 * 
+	 * @param rule
+	 *            The rule to add.
+	 * 
+	 * @return the id of the rule.
+	 * 
+	 * @throws XMLParserException
+	 *             if a namespace URI in the rule's location path is missing its
+	 *             closing bracket (]) or one of its attribute names is
+	 *             incomplete, or if it does not implement the interface its
+	 *             type requires ({@link ICaptureRule} or
+	 *             {@link IFragmentRule}).
+	 */
+	int add(IRule<T> rule) throws XMLParserException {
+		return add(rule, true);
+	}
+
+	/**
+	 * Used to add the given rule to the index, only rebuilding the rule arrays
+	 * of its node if <code>rebuild</code> is <code>true</code>.
+	 */
+	@SuppressWarnings("unchecked")
+	private int add(IRule<T> rule, boolean rebuild) throws XMLParserException {
+		if (rule.getType() == Type.CAPTURE && !(rule instanceof ICaptureRule))
+			throw new XMLParserException(
+					"CAPTURE rules must implement ICaptureRule, IRule: " + rule);
+		if (rule.getType() == Type.FRAGMENT
+				&& !(rule instanceof IFragmentRule))
+			throw new XMLParserException(
+					"FRAGMENT rules must implement IFragmentRule, IRule: "
+							+ rule);
+
+		String[] localNames = null;
+		String[] namespaceURIs = null;
+
+		if (rule.getType() == Type.ATTRIBUTE) {
+			String[] attrNames = rule.getAttributeNames();
+			int length = (attrNames == null ? 0 : attrNames.length);
+
+			localNames = new String[length];
+			namespaceURIs = new String[length];
+
+			for (int i = 0; i < length; i++)
+				parseAttributeName(rule, attrNames[i], localNames,
+						namespaceURIs, i);
+		}
+
+		int node = resolve(rule, true);
+
+		if (ruleCount == rules.length) {
+			int capacity = ruleCount * 2;
+
+			rules = (IRule<T>[]) grow(rules, new IRule[capacity]);
+			ruleNodes = grow(ruleNodes, capacity);
+			ruleAttrLocalNames = (String[][]) grow(ruleAttrLocalNames,
+					new String[capacity][]);
+			ruleAttrNamespaceURIs = (String[][]) grow(ruleAttrNamespaceURIs,
+					new String[capacity][]);
+
+			boolean[] newDisabled = new boolean[capacity];
+			System.arraycopy(disabled, 0, newDisabled, 0, ruleCount);
+			disabled = newDisabled;
+		}
+
+		int id = ruleCount++;
+		rules[id] = rule;
+		ruleNodes[id] = node;
+		ruleAttrLocalNames[id] = localNames;
+		ruleAttrNamespaceURIs[id] = namespaceURIs;
+		ruleIds.put(rule, append(ruleIds.get(rule), id));
+
+		if (node == NONE)
+			return id;
+
+		int[] ids = nodeRuleIds[node];
+		int count = nodeRuleCounts[node];
+
+		if (ids == null)
+			ids = nodeRuleIds[node] = new int[2];
+		else if (count == ids.length)
+			ids = nodeRuleIds[node] = grow(ids, count * 2);
+
+		ids[count] = id;
+		nodeRuleCounts[node] = count + 1;
+
+		if (rebuild)
+			rebuild(node);
+
+		switch (rule.getType()) {
+		case TAG:
+			tagRuleCount++;
+			break;
+
+		case ATTRIBUTE:
+			attrRuleCount++;
+			break;
+
+		case CHARACTER:
+			charRuleCount++;
+			break;
+
+		case CAPTURE:
+			captureRuleCount++;
+			break;
+
+		case FRAGMENT:
+			fragmentRuleCount++;
+			break;
+		}
+
+		return id;
+	}
+
+	/**
+	 * Used to enable or disable every occurrence of the given rule, rebuilding
+	 * the rule arrays of every node it targets once.
+	 * 
+	 * @return <code>true</code> if the rule is in the index, otherwise
+	 *         <code>false</code>.
+	 */
+	boolean setEnabled(IRule<T> rule, boolean enabled) {
+		int[] ids = ruleIds.get(rule);
+
+		if (ids == null)
+			return false;
+
+		boolean changed = false;
+
+		for (int i = 0; i < ids.length; i++) {
+			if (disabled[ids[i]] == enabled) {
+				disabled[ids[i]] = !enabled;
+				changed = true;
+			}
+		}
+
+		if (!changed)
+			return true;
+
+		// Rebuild every node the rule targets once, however often it does
+		for (int i = 0; i < ids.length; i++) {
+			int node = ruleNodes[ids[i]];
+			boolean rebuilt = (node == NONE);
+
+			for (int j = 0; j < i && !rebuilt; j++)
+				rebuilt = (ruleNodes[ids[j]] == node);
+
+			if (!rebuilt)
+				rebuild(node);
+		}
+
+		return true;
+	}
+
+	/**
+	 * Used to determine if the given rule is in the index and enabled.
+	 */
+	boolean isEnabled(IRule<T> rule) {
+		int[] ids = ruleIds.get(rule);
+		return (ids != null && !disabled[ids[0]]);
+	}
+
+	/**
+	 * Used to replace all of the rule arrays of the given node with new ones
+	 * holding its enabled rules, in the order they were added. The rules of
+	 * the node are counted first, so every array is allocated once at its
+	 * final size.
+	 */
+	@SuppressWarnings("unchecked")
+	private void rebuild(int node) {
+		int[] ids = nodeRuleIds[node];
+		int count = nodeRuleCounts[node];
+		int tagCount = 0;
+		int attrCount = 0;
+		int charCount = 0;
+		int captureCount = 0;
+		int fragmentCount = 0;
+
+		for (int i = 0; i < count; i++) {
+			int id = ids[i];
+
+			if (disabled[id])
+				continue;
+
+			switch (rules[id].getType()) {
+			case TAG:
+				tagCount++;
+				break;
+
+			case ATTRIBUTE:
+				attrCount++;
+				break;
+
+			case CHARACTER:
+				charCount++;
+				break;
+
+			case CAPTURE:
+				captureCount++;
+				break;
+
+			case FRAGMENT:
+				fragmentCount++;
+				break;
+			}
+		}
+
+		IRule<T>[] newTagRules = (tagCount == 0 ? null : new IRule[tagCount]);
+		IRule<T>[] newAttrRules = null;
+		String[][] newAttrLocalNames = null;
+		String[][] newAttrNamespaceURIs = null;
+		int[] newAttrRuleIds = null;
+		IRule<T>[] newCharRules = null;
+		int[] newCharRuleIds = null;
+		IRule<T>[] newCaptureRules = (captureCount == 0 ? null
+				: new IRule[captureCount]);
+		IRule<T>[] newFragmentRules = (fragmentCount == 0 ? null
+				: new IRule[fragmentCount]);
+
+		if (attrCount > 0) {
+			newAttrRules = new IRule[attrCount];
+			newAttrLocalNames = new String[attrCount][];
+			newAttrNamespaceURIs = new String[attrCount][];
+			newAttrRuleIds = new int[attrCount];
+		}
+
+		if (charCount > 0) {
+			newCharRules = new IRule[charCount];
+			newCharRuleIds = new int[charCount];
+		}
+
+		tagCount = attrCount = charCount = captureCount = fragmentCount = 0;
+
+		for (int i = 0; i < count; i++) {
+			int id = ids[i];
+
+			if (disabled[id])
+				continue;
+
+			IRule<T> rule = rules[id];
+
+			switch (rule.getType()) {
+			case TAG:
+				newTagRules[tagCount++] = rule;
+				break;
+
+			case ATTRIBUTE:
+				newAttrRules[attrCount] = rule;
+				newAttrLocalNames[attrCount] = ruleAttrLocalNames[id];
+				newAttrNamespaceURIs[attrCount] = ruleAttrNamespaceURIs[id];
+				newAttrRuleIds[attrCount++] = id;
+				break;
+
+			case CHARACTER:
+				newCharRules[charCount] = rule;
+				newCharRuleIds[charCount++] = id;
+				break;
+
+			case CAPTURE:
+				newCaptureRules[captureCount++] = rule;
+				break;
+
+			case FRAGMENT:
+				newFragmentRules[fragmentCount++] = rule;
+				break;
+			}
+		}
+
+		tagRules[node] = newTagRules;
+		attrRules[node] = newAttrRules;
+		attrLocalNames[node] = newAttrLocalNames;
+		attrNamespaceURIs[node] = newAttrNamespaceURIs;
+		attrRuleIds[node] = newAttrRuleIds;
+		charRules[node] = newCharRules;
+		charRuleIds[node] = newCharRuleIds;
+		captureRules[node] = newCaptureRules;
+		fragmentRules[node] = newFragmentRules;
+	}
+
+	/**
+	 * Used to find the node of the child element with the given name of the
+	 * given node.
+	 * 
+	 * @param node
+	 *            The node of the parent element.
+	 * @param localName
+	 *            The local name of the child element.
+	 * @param namespaceURI
+	 *            The namespace URI of the child element, or <code>null</code>
+	 *            or an empty {@link String} if it has none.
+	 * 
+	 * @return the node of the child element or {@link #NONE} if no rule path
+	 *         goes through it.
+	 */
+	int getChild(int node, String localName, String namespaceURI) {
+		if (node == NONE)
+			return NONE;
+
+		if (namespaceURI != null && namespaceURI.length() == 0)
+			namespaceURI = null;
+
+		int hash = hash(node, localName, namespaceURI);
+		int mask = table.length - 1;
+
+		for (int i = hash & mask;; i = (i + 1) & mask) {
+			int child = table[i] - 1;
+
+			if (child == NONE)
+				return NONE;
+
+			if (hashes[child] == hash && parents[child] == node
+					&& localNames[child].equals(localName)
+					&& equals(namespaceURIs[child], namespaceURI))
+				return child;
+		}
+	}
+
+	/**
+	 * Used to find the node of the child element with the given local name
+	 * (held as ASCII bytes) of the given node, in whatever namespace.
+	 * <p/>
+	 * This is the lookup used to decide if a subtree can be skipped straight
+	 * from the bytes of a document, before namespace prefixes have been
+	 * resolved, so it errs on the side of caution: when no child has the local
+	 * name the subtree can't hold any match, otherwise the caller gets the
+	 * only candidate or {@link #AMBIGUOUS} if there are several.
+	 * 
+	 * @param node
+	 *            The node of the parent element, or {@link #AMBIGUOUS}.
+	 * @param name
+	 *            The bytes holding the local name.
+	 * @param start
+	 *            The index of the first byte of the local name.
+	 * @param end
+	 *            The index after the last byte of the local name.
+	 * 
+	 * @return the node of the child element, {@link #NONE} if no rule path
+	 *         goes through it or {@link #AMBIGUOUS} if it is not certain which
+	 *         node it is (including when the name is not plain ASCII or
+	 *         <code>node</code> is {@link #AMBIGUOUS}).
+	 */
+	int getChild(int node, byte[] name, int start, int end) {
+		if (node == NONE)
+			return NONE;
+		if (node == AMBIGUOUS)
+			return AMBIGUOUS;
+
+		// Everything inside of a captured element or fragment is needed
+		if (captureRules[node] != null || fragmentRules[node] != null)
+			return AMBIGUOUS;
+
+		// Same as String.hashCode() for the ASCII characters of the name
+		int nameHash = 0;
+
+		for (int i = start; i < end; i++) {
+			if (name[i] < 0)
+				return AMBIGUOUS;
+
+			nameHash = 31 * nameHash + name[i];
+		}
+
+		int hash = hashLocal(node, nameHash);
+		int mask = localTable.length - 1;
+
+		for (int i = hash & mask;; i = (i + 1) & mask) {
+			int child = localTable[i] - 1;
+
+			if (child == NONE)
+				return NONE;
+
+			if (localHashes[child] == hash && parents[child] == node
+					&& equals(localNames[child], name, start, end))
+				return (sharedLocalNames[child] ? AMBIGUOUS : child);
+		}
+	}
+
+	/**
+	 * Used to get the {@link Type#TAG} rules targeting the given node.
+	 * 
+	 * @return the rules targeting the given node or <code>null</code> if there
+	 *         are none.
+	 */
+	IRule<T>[] getTagRules(int node) {
+		return (node == NONE ? null : tagRules[node]);
+	}
+
+	/**
+	 * Used to get the {@link Type#ATTRIBUTE} rules targeting the given node.
+	 * 
+	 * @return the rules targeting the given node or <code>null</code> if there
+	 *         are none.
+	 */
+	IRule<T>[] getAttributeRules(int node) {
+		return (node == NONE ? null : attrRules[node]);
+	}
+
+	/**
+	 * Used to get the local names of the attributes of every
+	 * {@link Type#ATTRIBUTE} rule targeting the given node, in the same order
+	 * as {@link #getAttributeRules(int)}.
+	 * 
+	 * @return the local names of the attributes of every rule targeting the
+	 *         given node or <code>null</code> if there are none.
+	 */
+	String[][] getAttributeLocalNames(int node) {
+		return (node == NONE ? null : attrLocalNames[node]);
+	}
+
+	/**
+	 * Used to get the namespace URIs (<code>null</code> for none) of the
+	 * attributes of every {@link Type#ATTRIBUTE} rule targeting the given
+	 * node, in the same order as {@link #getAttributeRules(int)}.
+	 * 
+	 * @return the namespace URIs of the attributes of every rule targeting the
+	 *         given node or <code>null</code> if there are none.
+	 */
+	String[][] getAttributeNamespaceURIs(int node) {
+		return (node == NONE ? null : attrNamespaceURIs[node]);
+	}
+
+	/**
+	 * Used to get the ids of every {@link Type#ATTRIBUTE} rule targeting the
+	 * given node, in the same order as {@link #getAttributeRules(int)}.
+	 * 
+	 * @return the ids of the rules targeting the given node or
+	 *         <code>null</code> if there are none.
+	 */
+	int[] getAttributeRuleIds(int node) {
+		return (node == NONE ? null : attrRuleIds[node]);
+	}
+
+	/**
+	 * Used to get the {@link Type#CHARACTER} rules targeting the given node.
+	 * 
+	 * @return the rules targeting the given node or <code>null</code> if there
+	 *         are none.
+	 */
+	IRule<T>[] getCharacterRules(int node) {
+		return (node == NONE ? null : charRules[node]);
+	}
+
+	/**
+	 * Used to get the ids of every {@link Type#CHARACTER} rule targeting the
+	 * given node, in the same order as {@link #getCharacterRules(int)}.
+	 * 
+	 * @return the ids of the rules targeting the given node or
+	 *         <code>null</code> if there are none.
+	 */
+	int[] getCharacterRuleIds(int node) {
+		return (node == NONE ? null : charRuleIds[node]);
+	}
+
+	/**
+	 * Used to get the {@link Type#CAPTURE} rules targeting the given node.
+	 * 
+	 * @return the rules targeting the given node or <code>null</code> if there
+	 *         are none.
+	 */
+	IRule<T>[] getCaptureRules(int node) {
+		return (node == NONE ? null : captureRules[node]);
+	}
+
+	/**
+	 * Used to get the {@link Type#FRAGMENT} rules targeting the given node.
+	 * 
+	 * @return the rules targeting the given node or <code>null</code> if there
+	 *         are none.
+	 */
+	IRule<T>[] getFragmentRules(int node) {
+		return (node == NONE ? null : fragmentRules[node]);
+	}
+
+	int getNodeCount() {
+		return nodeCount;
+	}
+
+	int getTagRuleCount() {
+		return tagRuleCount;
+	}
+
+	int getAttributeRuleCount() {
+		return attrRuleCount;
+	}
+
+	int getCharacterRuleCount() {
+		return charRuleCount;
+	}
+
+	int getCaptureRuleCount() {
+		return captureRuleCount;
+	}
+
+	int getFragmentRuleCount() {
+		return fragmentRuleCount;
+	}
+
+	/**
+	 * Used to walk the given rule's location path one segment at a time,
+	 * optionally creating any nodes that don't exist yet.
+	 * <p/>
+	 * Segments are parsed by hand instead of splitting the path on slashes
+	 * because namespace URIs (e.g. "[http://purl.org/rss/1.0/]") are very
+	 * likely to contain slashes themselves.
+	 * 
+	 * @return the node for the rule's location path or {@link #NONE} if it
+	 *         does not exist (and <code>create</code> is <code>false</code>) or
+	 *         the path does not start with a slash.
+	 */
+	private int resolve(IRule<T> rule, boolean create)
+			throws XMLParserException {
+		String path = rule.getLocationPath();
+
+		if (path == null || path.length() == 0 || path.charAt(0) != '/') {
+			if (XMLParser.DEBUG)
+				XMLParser.log("\tIgnoring rule that can never match: %s", rule);
+
+			return NONE;
+		}
+
+		int node = ROOT;
+		int index = 0;
+		int length = path.length();
+
+		while (index < length && node != NONE) {
+			// Skip the separator
+			index++;
+
+			String namespaceURI = null;
+
+			if (index < length && path.charAt(index) == '[') {
+				int endIndex = path.indexOf(']', index);
+
+				if (endIndex == -1)
+					throw new XMLParserException(
+							"namespace URI for rule is missing its closing bracket (]) for IRule: "
+									+ rule);
+
+				namespaceURI = path.substring(index + 1, endIndex);
+				index = endIndex + 1;
+
+				if (namespaceURI.length() == 0)
+					namespaceURI = null;
+			}
+
+			int endIndex = path.indexOf('/', index);
+
+			if (endIndex == -1)
+				endIndex = length;
+
+			String localName = path.substring(index, endIndex);
+			int child = getChild(node, localName, namespaceURI);
+
+			if (child == NONE && create)
+				child = createNode(node, localName, namespaceURI);
+
+			node = child;
+			index = endIndex;
+		}
+
+		return node;
+	}
+
+	/**
+	 * Used to split an attribute name in the format "[namespaceURI]localName"
+	 * into its parts, so the parser never has to do it while parsing.
+	 */
+	private static void parseAttributeName(IRule<?> rule, String attrName,
+			String[] localNames, String[] namespaceURIs, int index)
+			throws XMLParserException {
+		String namespaceURI = null;
+
+		if (IRule.ALL_ATTRIBUTES.equals(attrName)) {
+			if (localNames.length > 1)
+				throw new XMLParserException(
+						"IRule.ALL_ATTRIBUTES must be the only attribute name of IRule: "
+								+ rule);
+
+			localNames[index] = IRule.ALL_ATTRIBUTES;
+			return;
+		}
+
+		// Parse the namespaceURI out of the name if necessary
+		if (attrName.charAt(0) == '[') {
+			int endIndex = attrName.indexOf(']');
+
+			/*
+			 * Make sure the rule is valid so we avoid out of bounds and keep
+			 * the caller informed when their rules are busted by failing fast.
+			 */
+			if (endIndex <= 2)
+				throw new XMLParserException(
+						"namespace URI for rule looks to be incomplete or empty for IRule: "
+								+ rule);
+
+			namespaceURI = attrName.substring(1, endIndex);
+		}
+
+		int startIndex = (namespaceURI == null ? 0
+				: namespaceURI.length() + 2);
+
+		if (attrName.length() - startIndex <= 1)
+			throw new XMLParserException(
+					"local name for rule looks to be missing for IRule: "
+							+ rule);
+
+		localNames[index] = attrName.substring(startIndex);
+		namespaceURIs[index] = namespaceURI;
+	}
+
+	@SuppressWarnings("unchecked")
+	private int createNode(int parent, String localName, String namespaceURI) {
+		if (nodeCount == parents.length) {
+			int capacity = parents.length * 2;
+
+			parents = grow(parents, capacity);
+			hashes = grow(hashes, capacity);
+			localHashes = grow(localHashes, capacity);
+
+			boolean[] newSharedLocalNames = new boolean[capacity];
+			System.arraycopy(sharedLocalNames, 0, newSharedLocalNames, 0,
+					nodeCount);
+			sharedLocalNames = newSharedLocalNames;
+			localNames = (String[]) grow(localNames, new String[capacity]);
+			namespaceURIs = (String[]) grow(namespaceURIs,
+					new String[capacity]);
+
+			tagRules = (IRule<T>[][]) grow(tagRules, new IRule[capacity][]);
+			attrRules = (IRule<T>[][]) grow(attrRules, new IRule[capacity][]);
+			charRules = (IRule<T>[][]) grow(charRules, new IRule[capacity][]);
+			captureRules = (IRule<T>[][]) grow(captureRules,
+					new IRule[capacity][]);
+			fragmentRules = (IRule<T>[][]) grow(fragmentRules,
+					new IRule[capacity][]);
+
+			attrLocalNames = (String[][][]) grow(attrLocalNames,
+					new String[capacity][][]);
+			attrNamespaceURIs = (String[][][]) grow(attrNamespaceURIs,
+					new String[capacity][][]);
+
+			attrRuleIds = (int[][]) grow(attrRuleIds, new int[capacity][]);
+			charRuleIds = (int[][]) grow(charRuleIds, new int[capacity][]);
+
+			nodeRuleIds = (int[][]) grow(nodeRuleIds, new int[capacity][]);
+			nodeRuleCounts = grow(nodeRuleCounts, capacity);
+		}
+
+		int node = nodeCount++;
+
+		parents[node] = parent;
+		hashes[node] = hash(parent, localName, namespaceURI);
+		localHashes[node] = hashLocal(parent, localName.hashCode());
+		localNames[node] = localName;
+		namespaceURIs[node] = namespaceURI;
+
+		// Keep the tables at most half full so probe sequences stay short
+		if (nodeCount * 2 > table.length)
+			rehash(table.length * 2);
+		else {
+			insert(table, hashes, node);
+			insertLocal(localTable, node);
+		}
+
+		return node;
+	}
+
+	private void rehash(int capacity) {
+		int[] newTable = new int[capacity];
+		int[] newLocalTable = new int[capacity];
+
+		// Every node except the root lives in the tables
+		for (int i = ROOT + 1; i < nodeCount; i++) {
+			insert(newTable, hashes, i);
+			insertLocal(newLocalTable, i);
+		}
+
+		table = newTable;
+		localTable = newLocalTable;
+	}
+
+	private void insert(int[] table, int[] hashes, int node) {
+		int mask = table.length - 1;
+		int i = hashes[node] & mask;
+
+		while (table[i] != 0)
+			i = (i + 1) & mask;
+
+		table[i] = node + 1;
+	}
+
+	/**
+	 * Used to insert the given node into the local name table, unless a node
+	 * with the same parent and local name is already in there, in which case
+	 * both are marked as sharing it.
+	 */
+	private void insertLocal(int[] localTable, int node) {
+		int mask = localTable.length - 1;
+		int i = localHashes[node] & mask;
+
+		for (; localTable[i] != 0; i = (i + 1) & mask) {
+			int other = localTable[i] - 1;
+
+			if (localHashes[other] == localHashes[node]
+					&& parents[other] == parents[node]
+					&& localNames[other].equals(localNames[node])) {
+				sharedLocalNames[other] = true;
+				sharedLocalNames[node] = true;
+				return;
+			}
+		}
+
+		localTable[i] = node + 1;
+	}
+
+	/**
+	 * Used to calculate the hash of a child segment, mixing the bits of the
+	 * result so the low bits used to pick a table slot are well distributed.
+	 */
+	private static int hash(int parent, String localName, String namespaceURI) {
+		int hash = parent * 0x9E3779B9 + localName.hashCode() * 31
+				+ (namespaceURI == null ? 0 : namespaceURI.hashCode());
+
+		hash ^= (hash >>> 16);
+		hash *= 0x85EBCA6B;
+		hash ^= (hash >>> 13);
+
+		return hash;
+	}
+
+	private static int hashLocal(int parent, int localNameHash) {
+		int hash = parent * 0x9E3779B9 + localNameHash;
+
+		hash ^= (hash >>> 16);
+		hash *= 0x85EBCA6B;
+		hash ^= (hash >>> 13);
+
+		return hash;
+	}
+
+	private static boolean equals(String s1, String s2) {
+		return (s1 == null ? s2 == null : s1.equals(s2));
+	}
+
+	private static boolean equals(String s, byte[] bytes, int start, int end) {
+		if (s.length() != end - start)
+			return false;
+
+		for (int i = start; i < end; i++) {
+			if (s.charAt(i - start) != bytes[i])
+				return false;
+		}
+
+		return true;
+	}
+
+	private static int[] append(int[] array, int value) {
+		if (array == null)
+			return new int[] { value };
+
+		int[] newArray = grow(array, array.length + 1);
+		newArray[array.length] = value;
+
+		return newArray;
+	}
+
+	private static int[] grow(int[] array, int capacity) {
+		int[] newArray = new int[capacity];
+		System.arraycopy(array, 0, newArray, 0, array.length);
+		return newArray;
+	}
+
+	private static Object[] grow(Object[] array, Object[] newArray) {
+		System.arraycopy(array, 0, newArray, 0, array.length);
+		return newArray;
+	}
+}
@@ -0,0 +1,117 @@
+/**   
+ * Copyright 2011 The Buzz Media, LLC
+ * 
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *   http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.thebuzzmedia.sjxp;
+
+import com.thebuzzmedia.sjxp.rule.IRule;
+
+/**
+ * Class used to describe one of the independent consumers of a
+ * {@link MultiplexParser}: a set of rules along with the user object passed to
+ * them.
+ * <p/>
+ * A subscriber can be stopped on its own, by calling {@link #stop()} or by
+ * one of its rules calling {@link XMLParser#stop()}, without stopping the
+ * other subscribers of the parser.
+ * 
+ * @param <T>
+ *            The class type of the user-supplied object passed to the
+ *            subscriber's rules.
+ * 
+ * @author Riyad Kalla (software@thebuzzmedia.com)
+ */
+public class Subscriber<T> {
+	private T userObject;
+	private IRule<T>[] rules;
+
+	private MultiplexParser parser;
+	boolean stopped;
+
+	/**
+	 * Create a new subscriber passing the given user object to the given
+	 * rules.
+	 * 
+	 * @param userObject
+	 *            The user-supplied object passed to the subscriber's rules, or
+	 *            <code>null</code> if there isn't one.
+	 * @param rules
+	 *            The rules of the subscriber.
+	 * 
+	 * @throws IllegalArgumentException
+	 *             if <code>rules</code> is <code>null</code> or empty.
+	 */
+	public Subscriber(T userObject, IRule<T>... rules)
+			throws IllegalArgumentException {
+		if (rules == null || rules.length == 0)
+			throw new IllegalArgumentException(
+					"rules cannot be null or empty, a subscriber must have at least 1 rule.");
+
+		this.userObject = userObject;
+		this.rules = rules;
+	}
+
+	/**
+	 * Overridden to provide a nicely formatted representation of the
+	 * subscriber for easy debugging.
+	 * 
+	 * @return a nicely formatted representation of the subscriber.
+	 */
+	@Override
+	public String toString() {
+		return this.getClass().getName() + "[rules=" + rules.length
+				+ ", stopped=" + stopped + "]";
+	}
+
+	/**
+	 * Used to stop calling the rules of this subscriber for the rest of the
+	 * current document. The {@link MultiplexParser} stops parsing altogether
+	 * once all of its subscribers are stopped.
+	 */
+	public void stop() {
+		if (stopped)
+			return;
+
+		stopped = true;
+
+		if (parser != null)
+			parser.subscriberStopped();
+	}
+
+	public boolean isStopped() {
+		return stopped;
+	}
+
+	public T getUserObject() {
+		return userObject;
+	}
+
+	public IRule<T>[] getRules() {
+		return rules;
+	}
+
+	/**
+	 * Used to attach the subscriber to the parser it belongs to.
+	 * 
+	 * @throws IllegalArgumentException
+	 *             if the subscriber already belongs to another parser.
+	 */
+	void setParser(MultiplexParser parser) throws IllegalArgumentException {
+		if (this.parser != null)
+			throw new IllegalArgumentException(
+					"subscriber already belongs to a MultiplexParser, a subscriber can only be added to one parser.");
+
+		this.parser = parser;
+	}
+}
@@ -0,0 +1,746 @@
+/**   
+ * Copyright 2011 The Buzz Media, LLC
+ * 
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *   http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.thebuzzmedia.sjxp;
+
+import java.io.BufferedWriter;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.io.OutputStreamWriter;
+import java.io.PrintStream;
+import java.io.Writer;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Enumeration;
+import java.util.List;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.regex.Pattern;
+import java.util.zip.GZIPInputStream;
+import java.util.zip.ZipEntry;
+import java.util.zip.ZipFile;
+
+import org.xmlpull.v1.XmlPullParser;
+
+import com.thebuzzmedia.sjxp.rule.DefaultRule;
+import com.thebuzzmedia.sjxp.rule.IRule;
+
+/**
+ * Command line tool used to print the text of elements and the values of
+ * attributes matching location paths in any number of XML files, like
+ * <code>grep</code> does for lines of text.
+ * <p/>
+ * Usage:
+ * 
+ * <pre>
+ * java -cp sjxp.jar:xpp3.jar com.thebuzzmedia.sjxp.XMLGrep [options] [file|directory|-]...
+ * 
+ *   -c PATH         print the text of the elements at PATH
+ *   -a PATH@NAME    print the value of the attribute NAME (or * for all of
+ *                   them) of the elements at PATH
+ *   -H, -h          always or never prefix matches with the file name
+ *   -n              prefix matches with the line and column of the element
+ *   -j N            parse N files at a time (default: number of processors)
+ *   --include GLOB  parse the files in directories and zip files matching
+ *                   GLOB (default: *.xml); repeat for more patterns
+ *   -p              print a profile of every path in the files instead
+ * </pre>
+ * 
+ * Selectors (<code>-c</code> and <code>-a</code>) can be repeated and use
+ * the location path format of {@link IRule}, including the
+ * <code>[namespaceURI]localName</code> format for namespaced elements and
+ * attributes. An example printing the title of every item of a directory of
+ * RSS feeds would look like this:
+ * 
+ * <pre>
+ * java -jar sjxp.jar -n -c /rss/channel/item/title feeds/
+ * feeds/rss-1.xml:12:14:First Item
+ * feeds/rss-1.xml:19:14:Second Item
+ * feeds/rss-2.xml:12:14:Another Item
+ * </pre>
+ * 
+ * Every match is printed as a single line in UTF-8; backslashes, tabs and
+ * line breaks in values are written as <code>\\</code>, <code>\t</code>,
+ * <code>\n</code> and <code>\r</code>. An element's text is the text
+ * directly inside of it and is printed when the element ends; elements
+ * holding nothing but whitespace are not printed. The line and column
+ * printed with <code>-n</code> are where the element's start tag ends.
+ * <p/>
+ * Directories are searched recursively for files matching the include
+ * patterns, also once a <code>.gz</code> extension is removed from their
+ * name (these are decompressed while they are parsed), and for
+ * <code>.zip</code> files whose entries matching the include patterns are
+ * parsed. Files named on the command line are always parsed and
+ * <code>-</code> (or no file at all) reads a document from standard input.
+ * <h3>Performance</h3>
+ * Files are parsed in parallel by a pool of threads, each of them re-using
+ * its own {@link XMLParser} for every file it parses. The lines matched in a
+ * file are collected in a buffer that is written to standard output as a
+ * whole, so lines are never split but the lines of different files can be
+ * interleaved; use <code>-j 1</code> to get the matches in the order of the
+ * files.
+ * <p/>
+ * With <code>-p</code> no selectors are given; instead every distinct path
+ * in all of the files is printed with how many elements, how much text and
+ * which attributes were found at it (see {@link PathProfiler}), every thread
+ * profiling its files with its own profiler until they are merged at the
+ * end. Sibling paths are listed in the order they were first found, which
+ * with more than one thread depends on which files each thread parsed; use
+ * <code>-j 1</code> to get them in the order of the files.
+ * <p/>
+ * The exit status is 0 if anything matched, 1 if nothing did and 2 if any
+ * file could not be read or parsed. Files that cannot be parsed are reported
+ * on standard error and the remaining files are still parsed.
+ * 
+ * @author Riyad Kalla (software@thebuzzmedia.com)
+ */
+public class XMLGrep {
+	/**
+	 * Size of the buffer, in characters, the matches of a file are collected
+	 * in before they are written to standard output.
+	 */
+	public static final int BUFFER_SIZE = 65536;
+
+	private static final String NAME = "xmlgrep";
+
+	private static final String USAGE = "Usage: " + NAME
+			+ " [options] [file|directory|-]...\n"
+			+ "  -c PATH         print the text of the elements at PATH\n"
+			+ "  -a PATH@NAME    print the value of the attribute NAME (or * for all of\n"
+			+ "                  them) of the elements at PATH\n"
+			+ "  -H, -h          always or never prefix matches with the file name\n"
+			+ "  -n              prefix matches with the line and column of the element\n"
+			+ "  -j N            parse N files at a time (default: number of processors)\n"
+			+ "  --include GLOB  parse the files in directories and zip files matching\n"
+			+ "                  GLOB (default: *.xml); repeat for more patterns\n"
+			+ "  -p              print a profile of every path in the files instead\n";
+
+	private List<String> paths = new ArrayList<String>();
+	private List<String> attributeNames = new ArrayList<String>();
+	private List<Pattern> includes = new ArrayList<Pattern>();
+	private Boolean fileNames;
+	private boolean positions;
+	private int threadCount = Runtime.getRuntime().availableProcessors();
+	private boolean profile;
+
+	private InputStream in;
+	private Writer out;
+	private PrintStream err;
+	private AtomicLong matchCount = new AtomicLong();
+	private AtomicInteger errorCount = new AtomicInteger();
+
+	private ThreadLocal<XMLParser<Match>> parsers = new ThreadLocal<XMLParser<Match>>() {
+		@Override
+		protected XMLParser<Match> initialValue() {
+			return createParser();
+		}
+	};
+
+	private List<PathProfiler> profilers = new ArrayList<PathProfiler>();
+	private ThreadLocal<PathProfiler> threadProfilers = new ThreadLocal<PathProfiler>() {
+		@Override
+		protected PathProfiler initialValue() {
+			PathProfiler profiler = new PathProfiler();
+
+			synchronized (profilers) {
+				profilers.add(profiler);
+			}
+
+			return profiler;
+		}
+	};
+
+	/**
+	 * Used to run the tool with the given command line arguments and exit
+	 * with its exit status.
+	 * 
+	 * @param args
+	 *            The command line arguments.
+	 */
+	public static void main(String[] args) {
+		System.exit(run(args, System.in, System.out, System.err));
+	}
+
+	/**
+	 * Used to run the tool with the given command line arguments, reading
+	 * <code>-</code> from and writing matches and errors to the given streams.
+	 * 
+	 * @return the exit status.
+	 */
+	static int run(String[] args, InputStream in, OutputStream out,
+			PrintStream err) {
+		XMLGrep grep = new XMLGrep();
+		grep.in = in;
+		grep.err = err;
+
+		List<String> inputs = new ArrayList<String>();
+
+		try {
+			grep.parseArguments(args, inputs);
+		} catch (IllegalArgumentException e) {
+			err.println(NAME + ": " + e.getMessage());
+			err.print(USAGE);
+			return 2;
+		}
+
+		try {
+			grep.out = new BufferedWriter(new OutputStreamWriter(out, "UTF-8"),
+					BUFFER_SIZE);
+		} catch (IOException e) {
+			// no-op, this should never happen as UTF-8 is always supported.
+		}
+
+		grep.search(inputs);
+
+		if (grep.errorCount.get() > 0)
+			return 2;
+
+		return (grep.matchCount.get() > 0 ? 0 : 1);
+	}
+
+	/**
+	 * Used to read the options out of the command line arguments, adding
+	 * everything else to the given list of inputs.
+	 */
+	private void parseArguments(String[] args, List<String> inputs)
+			throws IllegalArgumentException {
+		boolean options = true;
+
+		for (int i = 0; i < args.length; i++) {
+			String arg = args[i];
+
+			if (!options || arg.equals("-") || !arg.startsWith("-")) {
+				inputs.add(arg);
+				continue;
+			}
+
+			if (arg.equals("--"))
+				options = false;
+			else if (arg.equals("-c")) {
+				paths.add(getValue(args, ++i, arg));
+				attributeNames.add(null);
+			} else if (arg.equals("-a")) {
+				String selector = getValue(args, ++i, arg);
+				int index = selector.lastIndexOf('@');
+
+				if (index < 1 || index == selector.length() - 1)
+					throw new IllegalArgumentException("selector [" + selector
+							+ "] must be a location path and an attribute name separated by a @");
+
+				paths.add(selector.substring(0, index));
+				attributeNames.add(selector.substring(index + 1));
+			} else if (arg.equals("-H"))
+				fileNames = Boolean.TRUE;
+			else if (arg.equals("-h"))
+				fileNames = Boolean.FALSE;
+			else if (arg.equals("-n"))
+				positions = true;
+			else if (arg.equals("-j")) {
+				String value = getValue(args, ++i, arg);
+
+				try {
+					threadCount = Integer.parseInt(value);
+				} catch (NumberFormatException e) {
+					threadCount = 0;
+				}
+
+				if (threadCount < 1)
+					throw new IllegalArgumentException("thread count [" + value
+							+ "] must be >= 1");
+			} else if (arg.equals("-p"))
+				profile = true;
+			else if (arg.equals("--include"))
+				includes.add(toPattern(getValue(args, ++i, arg)));
+			else
+				throw new IllegalArgumentException("unknown option [" + arg
+						+ "]");
+		}
+
+		if (profile && !paths.isEmpty())
+			throw new IllegalArgumentException(
+					"-p cannot be combined with -c or -a selectors");
+		if (!profile && paths.isEmpty())
+			throw new IllegalArgumentException(
+					"at least one -c or -a selector must be given");
+
+		if (includes.isEmpty())
+			includes.add(toPattern("*.xml"));
+		if (inputs.isEmpty())
+			inputs.add("-");
+		if (fileNames == null)
+			fileNames = Boolean.valueOf(inputs.size() > 1
+					|| new File(inputs.get(0)).isDirectory());
+
+		// Every location path is checked here instead of in every thread
+		if (!profile)
+			createParser();
+	}
+
+	/**
+	 * Used to search the given inputs, parsing their files in parallel.
+	 */
+	private void search(List<String> inputs) {
+		ExecutorService executor = Executors.newFixedThreadPool(threadCount);
+
+		try {
+			for (int i = 0; i < inputs.size(); i++) {
+				String input = inputs.get(i);
+				File file = new File(input);
+
+				if (input.equals("-"))
+					submit(executor, null, "(standard input)");
+				else if (file.isDirectory())
+					searchDirectory(executor, file);
+				else
+					submit(executor, file, input);
+			}
+		} finally {
+			executor.shutdown();
+		}
+
+		try {
+			while (!executor.awaitTermination(1, TimeUnit.SECONDS))
+				;
+		} catch (InterruptedException e) {
+			executor.shutdownNow();
+			Thread.currentThread().interrupt();
+		}
+
+		try {
+			if (profile)
+				writeProfile();
+
+			out.flush();
+		} catch (IOException e) {
+			error("(standard output)", e);
+		}
+	}
+
+	/**
+	 * Used to merge the profiles of all the threads and write them out.
+	 */
+	private void writeProfile() throws IOException {
+		PathProfiler profiler = new PathProfiler();
+
+		for (int i = 0, size = profilers.size(); i < size; i++)
+			profiler.merge(profilers.get(i));
+
+		profiler.writeReport(out);
+		matchCount.set(profiler.getPathCount());
+	}
+
+	/**
+	 * Used to submit every file inside of the given directory (and its
+	 * directories) matching the include patterns.
+	 */
+	private void searchDirectory(ExecutorService executor, File directory) {
+		File[] files = directory.listFiles();
+
+		if (files == null) {
+			error(directory.getPath(), new IOException(
+					"Unable to list the directory"));
+			return;
+		}
+
+		// Keep the order the same from one run to the next
+		Arrays.sort(files);
+
+		for (int i = 0; i < files.length; i++) {
+			File file = files[i];
+			String name = file.getName();
+
+			if (file.isDirectory())
+				searchDirectory(executor, file);
+			else if (isZip(name) || isIncluded(stripGzip(name)))
+				submit(executor, file, file.getPath());
+		}
+	}
+
+	/**
+	 * Used to have the given file, or standard input if <code>file</code> is
+	 * <code>null</code>, searched by one of the threads.
+	 */
+	private void submit(ExecutorService executor, final File file,
+			final String name) {
+		executor.execute(new Runnable() {
+			public void run() {
+				if (file == null)
+					searchStream(in, name);
+				else if (isZip(name))
+					searchZip(file, name);
+				else
+					searchFile(file, name);
+			}
+		});
+	}
+
+	/**
+	 * Used to search a file, decompressing it if its name ends with
+	 * <code>.gz</code>.
+	 */
+	private void searchFile(File file, String name) {
+		InputStream source = null;
+
+		try {
+			source = new FileInputStream(file);
+
+			if (isGzip(name))
+				source = new GZIPInputStream(source, BUFFER_SIZE);
+
+			searchStream(source, name);
+		} catch (IOException e) {
+			error(name, e);
+		} finally {
+			close(source);
+		}
+	}
+
+	/**
+	 * Used to search the entries of a zip file matching the include patterns.
+	 */
+	private void searchZip(File file, String name) {
+		ZipFile zip = null;
+
+		try {
+			zip = new ZipFile(file);
+
+			for (Enumeration<? extends ZipEntry> entries = zip.entries(); entries
+					.hasMoreElements();) {
+				ZipEntry entry = entries.nextElement();
+				String entryName = entry.getName();
+
+				if (entry.isDirectory()
+						|| !isIncluded(entryName.substring(entryName
+								.lastIndexOf('/') + 1)))
+					continue;
+
+				InputStream source = null;
+
+				try {
+					source = zip.getInputStream(entry);
+					searchStream(source, name + '!' + entryName);
+				} catch (IOException e) {
+					error(name + '!' + entryName, e);
+				} finally {
+					close(source);
+				}
+			}
+		} catch (IOException e) {
+			error(name, e);
+		} finally {
+			if (zip != null) {
+				try {
+					zip.close();
+				} catch (IOException e) {
+					// no-op, nothing was written to it.
+				}
+			}
+		}
+	}
+
+	/**
+	 * Used to parse a single document with this thread's parser and write
+	 * what matched in it to standard output, or to add it to this thread's
+	 * profile.
+	 */
+	private void searchStream(InputStream source, String name) {
+		if (profile) {
+			try {
+				threadProfilers.get().profile(source);
+			} catch (Exception e) {
+				error(name, e);
+			}
+
+			return;
+		}
+
+		Match match = new Match(name, paths.size());
+
+		try {
+			parsers.get().parse(source, match);
+		} catch (Exception e) {
+			error(name, e);
+		} finally {
+			// Lines matched before a parse error are still written
+			flush(match);
+		}
+	}
+
+	/**
+	 * Used to create a parser with two rules for every text selector (one to
+	 * follow its element and one to collect its text) and one for every
+	 * attribute selector.
+	 * 
+	 * @throws IllegalArgumentException
+	 *             if any of the selectors is not a valid location path.
+	 */
+	@SuppressWarnings("unchecked")
+	private XMLParser<Match> createParser() throws IllegalArgumentException {
+		List<IRule<Match>> rules = new ArrayList<IRule<Match>>();
+
+		for (int i = 0; i < paths.size(); i++) {
+			String path = paths.get(i);
+			String attributeName = attributeNames.get(i);
+
+			if (attributeName == null) {
+				rules.add(new TextTagRule(path, i));
+				rules.add(new TextRule(path, i));
+			} else
+				rules.add(new AttributeRule(path, attributeName));
+		}
+
+		return new XMLParser<Match>(rules.toArray(new IRule[rules.size()]));
+	}
+
+	/**
+	 * Used to add a line for a match to the buffer of its file, handing the
+	 * buffer to standard output once it is full.
+	 */
+	private void print(Match match, int line, int column, CharSequence value) {
+		StringBuilder buffer = match.buffer;
+
+		if (fileNames.booleanValue())
+			buffer.append(match.name).append(':');
+		if (positions)
+			buffer.append(line).append(':').append(column).append(':');
+
+		for (int i = 0, length = value.length(); i < length; i++) {
+			char c = value.charAt(i);
+
+			switch (c) {
+			case '\\':
+				buffer.append("\\\\");
+				break;
+
+			case '\t':
+				buffer.append("\\t");
+				break;
+
+			case '\n':
+				buffer.append("\\n");
+				break;
+
+			case '\r':
+				buffer.append("\\r");
+				break;
+
+			default:
+				buffer.append(c);
+			}
+		}
+
+		buffer.append('\n');
+		matchCount.incrementAndGet();
+
+		if (buffer.length() >= BUFFER_SIZE)
+			flush(match);
+	}
+
+	/**
+	 * Used to write the lines buffered for a file to standard output as a
+	 * whole.
+	 */
+	private void flush(Match match) {
+		if (match.buffer.length() == 0)
+			return;
+
+		try {
+			synchronized (out) {
+				out.append(match.buffer);
+			}
+		} catch (IOException e) {
+			error("(standard output)", e);
+		}
+
+		match.buffer.setLength(0);
+	}
+
+	private void error(String name, Exception e) {
+		errorCount.incrementAndGet();
+
+		synchronized (err) {
+			err.println(NAME + ": " + name + ": " + e.getMessage());
+		}
+	}
+
+	private boolean isIncluded(String name) {
+		for (int i = 0, size = includes.size(); i < size; i++) {
+			if (includes.get(i).matcher(name).matches())
+				return true;
+		}
+
+		return false;
+	}
+
+	private static String getValue(String[] args, int index, String option)
+			throws IllegalArgumentException {
+		if (index >= args.length)
+			throw new IllegalArgumentException("option [" + option
+					+ "] requires a value");
+
+		return args[index];
+	}
+
+	/**
+	 * Used to turn a glob using <code>*</code> and <code>?</code> into the
+	 * equivalent regular expression.
+	 */
+	private static Pattern toPattern(String glob) {
+		StringBuilder regex = new StringBuilder();
+		int start = 0;
+
+		for (int i = 0; i < glob.length(); i++) {
+			char c = glob.charAt(i);
+
+			if (c == '*' || c == '?') {
+				if (i > start)
+					regex.append(Pattern.quote(glob.substring(start, i)));
+
+				regex.append(c == '*' ? ".*" : ".");
+				start = i + 1;
+			}
+		}
+
+		if (start < glob.length())
+			regex.append(Pattern.quote(glob.substring(start)));
+
+		return Pattern.compile(regex.toString());
+	}
+
+	private static boolean isZip(String name) {
+		return name.regionMatches(true, name.length() - 4, ".zip", 0, 4);
+	}
+
+	private static boolean isGzip(String name) {
+		return name.regionMatches(true, name.length() - 3, ".gz", 0, 3);
+	}
+
+	private static String stripGzip(String name) {
+		return (isGzip(name) ? name.substring(0, name.length() - 3) : name);
+	}
+
+	private static void close(InputStream source) {
+		if (source == null)
+			return;
+
+		try {
+			source.close();
+		} catch (IOException e) {
+			// no-op, nothing was written to it.
+		}
+	}
+
+	/**
+	 * Class used as the user object of a single parse, holding the lines
+	 * matched in the document and the text and position of the open elements
+	 * of every text selector.
+	 */
+	static class Match {
+		private String name;
+		private StringBuilder buffer = new StringBuilder(256);
+		private StringBuilder[] texts;
+		private int[] lines;
+		private int[] columns;
+
+		public Match(String name, int selectorCount) {
+			this.name = name;
+
+			texts = new StringBuilder[selectorCount];
+			lines = new int[selectorCount];
+			columns = new int[selectorCount];
+		}
+	}
+
+	/**
+	 * Rule used to follow the elements of a text selector and print their
+	 * text once they end.
+	 */
+	class TextTagRule extends DefaultRule<Match> {
+		private int index;
+
+		public TextTagRule(String path, int index) {
+			super(Type.TAG, path);
+			this.index = index;
+		}
+
+		@Override
+		public void handleTag(XMLParser<Match> parser, boolean isStartTag,
+				Match match) {
+			StringBuilder text = match.texts[index];
+
+			if (isStartTag) {
+				if (text == null)
+					text = match.texts[index] = new StringBuilder(64);
+
+				XmlPullParser xpp = parser.getPullParser();
+				text.setLength(0);
+				match.lines[index] = xpp.getLineNumber();
+				match.columns[index] = xpp.getColumnNumber();
+				return;
+			}
+
+			for (int i = 0, length = text.length(); i < length; i++) {
+				if (!Character.isWhitespace(text.charAt(i))) {
+					print(match, match.lines[index], match.columns[index],
+							text);
+					break;
+				}
+			}
+		}
+	}
+
+	/**
+	 * Rule used to collect the text of the elements of a text selector.
+	 */
+	class TextRule extends DefaultRule<Match> {
+		private int index;
+
+		public TextRule(String path, int index) {
+			super(Type.CHARACTER, path);
+			this.index = index;
+		}
+
+		@Override
+		public void handleParsedCharacters(XMLParser<Match> parser,
+				String text, Match match) {
+			match.texts[index].append(text);
+		}
+	}
+
+	/**
+	 * Rule used to print the attribute values of an attribute selector.
+	 */
+	class AttributeRule extends DefaultRule<Match> {
+		public AttributeRule(String path, String attributeName) {
+			super(Type.ATTRIBUTE, path, attributeName);
+		}
+
+		@Override
+		public void handleParsedAttribute(XMLParser<Match> parser, int index,
+				String value, Match match) {
+			if (value == null)
+				return;
+
+			XmlPullParser xpp = parser.getPullParser();
+			print(match, xpp.getLineNumber(), xpp.getColumnNumber(), value);
+		}
+	}
+}
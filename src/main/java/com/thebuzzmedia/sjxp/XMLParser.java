@@ -17,17 +17,23 @@ package com.thebuzzmedia.sjxp;
 
 import java.io.IOException;
 import java.io.InputStream;
+import java.io.InputStreamReader;
 import java.io.UnsupportedEncodingException;
+import java.nio.ByteBuffer;
+import java.nio.channels.ClosedByInterruptException;
 import java.nio.charset.Charset;
-import java.util.ArrayList;
-import java.util.HashMap;
-import java.util.List;
+import java.util.IdentityHashMap;
 import java.util.Map;
 
 import org.xmlpull.v1.XmlPullParser;
 import org.xmlpull.v1.XmlPullParserException;
 import org.xmlpull.v1.XmlPullParserFactory;
 
+import com.thebuzzmedia.sjxp.IRuleBudgetPolicy.Action;
+import com.thebuzzmedia.sjxp.rule.IAttributesRule;
+import com.thebuzzmedia.sjxp.rule.ICaptureRule;
+import com.thebuzzmedia.sjxp.rule.IFragmentRule;
+import com.thebuzzmedia.sjxp.rule.IChunkedCharactersRule;
 import com.thebuzzmedia.sjxp.rule.IRule;
 import com.thebuzzmedia.sjxp.rule.IRule.Type;
 
@@ -119,6 +125,32 @@ public class XMLParser<T> {
 	 */
 	public static final String LOG_MESSAGE_PREFIX = "[sjxp] ";
 
+	/**
+	 * Default maximum number of characters of markup held for
+	 * {@link Type#CAPTURE} rules at one time.
+	 * 
+	 * @see #setCaptureLimit(int)
+	 */
+	public static final int DEFAULT_CAPTURE_LIMIT = 1024 * 1024;
+
+	/**
+	 * Value used to remove one of the limits set with
+	 * {@link #setLimit(Limit, long)}; every limit starts out at this value.
+	 */
+	public static final long NO_LIMIT = Long.MAX_VALUE;
+
+	/**
+	 * Pull parser feature needed by {@link Type#CAPTURE} rules to get the
+	 * original markup of every token.
+	 */
+	private static final String FEATURE_XML_ROUNDTRIP = "http://xmlpull.org/v1/doc/features.html#xml-roundtrip";
+
+	/**
+	 * Number of events between checks for cancellation, the timeout and the
+	 * parsing thread being interrupted.
+	 */
+	private static final int CANCEL_CHECK_INTERVAL = 128;
+
 	/**
 	 * Singleton {@link XmlPullParserFactory} instance used to create new
 	 * underlying {@link XmlPullParser} instances for each instance of
@@ -184,14 +216,67 @@ public class XMLParser<T> {
 	}
 
 	private String toStringCache;
-	private boolean continueParsing = true;
+	private volatile boolean continueParsing = true;
 
 	private Location location;
 	private XmlPullParser xpp;
-
-	private Map<Integer, List<IRule<T>>> tagRuleMap;
-	private Map<Integer, List<IRule<T>>> attrRuleMap;
-	private Map<Integer, List<IRule<T>>> charRuleMap;
+	private AttributeView attributes;
+
+	private RuleIndex<T> ruleIndex;
+
+	private IRule<T>[] rules;
+	private Map<IRule<T>, RuleTimer> ruleTimerMap;
+	private long ruleBudget;
+	private IRuleBudgetPolicy<T> budgetPolicy;
+
+	private ChunkedInputStream chunkedSource;
+	private ByteSourceReader byteReader;
+	private DocumentStreamReader documentReader;
+
+	private boolean skipUnmatched;
+	private MarkupSkipper skipper;
+
+	private int captureLimit = DEFAULT_CAPTURE_LIMIT;
+	private char[] captureBuffer;
+	private int captureLength;
+	private int captureCount;
+	private int[] captureStarts;
+	private int[] captureDepths;
+	private int[] captureNodes;
+	private boolean captureEmptyTag;
+
+	private Fragment fragment;
+	private int fragmentCount;
+	private int[] fragmentRoots;
+	private int[] fragmentDepths;
+	private int[] fragmentNodes;
+
+	private IMatchBatchHandler<T> batchHandler;
+	private MatchBatch batch;
+	private int batchSize;
+	private int[] textHolder;
+
+	private boolean readTokens;
+	private boolean tokenEvent;
+	private int pendingEvent = -1;
+	private char[] tokenText;
+	private int tokenTextLength;
+	private int dropDepth;
+
+	private boolean limited;
+	private long maxDepth = NO_LIMIT;
+	private long maxTextLength = NO_LIMIT;
+	private long maxAttributeLength = NO_LIMIT;
+	private long maxAttributeCount = NO_LIMIT;
+	private long maxBytes = NO_LIMIT;
+	private long maxEvents = NO_LIMIT;
+	private long eventCount;
+	private LimitedInputStream limitedSource;
+
+	private CancelToken cancelToken;
+	private long timeout;
+	private long deadline;
+	private int cancelCheckCountdown;
 
 	/**
 	 * Create a new parser that uses the given {@link IRule}s when parsing any
@@ -223,6 +308,68 @@ public class XMLParser<T> {
 		}
 
 		// Load all the rules
+		this.rules = rules;
+		initRules(rules);
+	}
+
+	/**
+	 * Create a new parser that uses the given {@link XmlPullParser} instead of
+	 * one created by {@link #XPP_FACTORY} and the given {@link IRule}s when
+	 * parsing any XML content.
+	 * <p/>
+	 * This is handy when a specific pull parser implementation (or one
+	 * configured differently than {@link #XPP_FACTORY}) is needed, for example
+	 * when comparing implementations against each other. The caller is
+	 * responsible for configuring features like namespace awareness on the
+	 * given parser.
+	 * 
+	 * @param xpp
+	 *            The pull parser used to parse all XML content.
+	 * @param rules
+	 *            The rules applied to any parsed content.
+	 * 
+	 * @throws IllegalArgumentException
+	 *             if <code>xpp</code> is <code>null</code> or if
+	 *             <code>rules</code> is <code>null</code> or empty.
+	 */
+	public XMLParser(XmlPullParser xpp, IRule<T>... rules)
+			throws IllegalArgumentException {
+		if (xpp == null)
+			throw new IllegalArgumentException("xpp cannot be null");
+		if (rules == null || rules.length == 0)
+			throw new IllegalArgumentException(
+					"rules cannot be null or empty, you must provide at least 1 rule to execute otherwise parsing will do nothing.");
+
+		this.xpp = xpp;
+		location = new Location();
+
+		// Load all the rules
+		this.rules = rules;
+		initRules(rules);
+	}
+
+	/**
+	 * Create a new parser without any {@link IRule}s, used by subclasses that
+	 * process every event themselves (e.g. the one {@link PathProfiler}
+	 * uses).
+	 * 
+	 * @throws XMLParserException
+	 *             if the {@link #XPP_FACTORY} is unable to create a new
+	 *             {@link XmlPullParser} instance and throws an exception.
+	 */
+	@SuppressWarnings("unchecked")
+	XMLParser() throws XMLParserException {
+		location = new Location();
+
+		try {
+			xpp = XPP_FACTORY.newPullParser();
+		} catch (XmlPullParserException e) {
+			throw new XMLParserException(
+					"An exception occurred while trying to create a new XmlPullParser instance using the XmlPullParserFactory.",
+					e);
+		}
+
+		rules = new IRule[0];
 		initRules(rules);
 	}
 
@@ -241,8 +388,8 @@ public class XMLParser<T> {
 	@Override
 	public synchronized String toString() {
 		if (toStringCache == null) {
-			toStringCache = this.getClass().getName() + "[attributeRules="
-					+ attrRuleMap + ", characterRules=" + charRuleMap + "]";
+			toStringCache = this.getClass().getName() + "[ruleIndex="
+					+ ruleIndex + "]";
 		}
 
 		return toStringCache;
@@ -260,11 +407,552 @@ public class XMLParser<T> {
 	 * {@link XmlPullParser} to stop working after it's done with its current
 	 * parse event and return from whichever <code>parse</code> method was
 	 * called.
+	 * <p/>
+	 * The flag is <code>volatile</code>, so this can be called from any
+	 * thread, but the stopped state is reset by every call to a
+	 * <code>parse</code> method and a read blocked on the source is not
+	 * interrupted. To cancel parses from another thread reliably, use a
+	 * {@link CancelToken} (see {@link #setCancelToken(CancelToken)}).
 	 */
 	public void stop() {
 		continueParsing = false;
 	}
 
+	/**
+	 * Used to set the token that cancels the parses of this parser. The token
+	 * is checked at the start of every parse and every few events after
+	 * that; once it is cancelled parsing fails with an
+	 * {@link XMLParserCancelledException}.
+	 * <p/>
+	 * Independent of any token, a parse also fails with an
+	 * {@link XMLParserCancelledException} when the thread running it is
+	 * interrupted, leaving the thread's interrupted status set. Reads blocked
+	 * on an interruptible channel (e.g. a stream created with
+	 * {@link java.nio.channels.Channels#newInputStream}) are broken out of by
+	 * {@link CancelToken#cancel(boolean)} or {@link Thread#interrupt()}.
+	 * 
+	 * @param cancelToken
+	 *            The token, or <code>null</code> to not use one.
+	 */
+	public void setCancelToken(CancelToken cancelToken) {
+		this.cancelToken = cancelToken;
+	}
+
+	public CancelToken getCancelToken() {
+		return cancelToken;
+	}
+
+	/**
+	 * Used to set the maximum wall-clock time a document can take to parse,
+	 * including the time spent in the rules. A document still being parsed
+	 * once the timeout has passed fails with an
+	 * {@link XMLParserCancelledException} for which
+	 * {@link XMLParserCancelledException#isTimedOut()} is <code>true</code>.
+	 * <p/>
+	 * The time is checked every few events, so a parse can run past the
+	 * timeout by as long as a handful of events (or a single rule, or a
+	 * single read blocked on the source) take. When parsing a stream of
+	 * documents every document gets the full timeout.
+	 * <p/>
+	 * The default is <code>0</code>, no timeout.
+	 * 
+	 * @param timeout
+	 *            The timeout in milliseconds, or <code>0</code> for none.
+	 * 
+	 * @throws IllegalArgumentException
+	 *             if <code>timeout</code> is &lt; 0.
+	 */
+	public void setTimeout(long timeout) throws IllegalArgumentException {
+		if (timeout < 0)
+			throw new IllegalArgumentException("timeout [" + timeout
+					+ "] must be >= 0");
+
+		this.timeout = timeout;
+	}
+
+	public long getTimeout() {
+		return timeout;
+	}
+
+	/**
+	 * Used to get the attributes of the element the parser is currently at,
+	 * for example from a {@link Type#TAG} rule or an {@link IRule#ALL_ATTRIBUTES}
+	 * rule that wants the names of the attributes it is given.
+	 * <p/>
+	 * The same {@link AttributeView} is re-used for every element and is only
+	 * valid while the START_TAG of an element matched by one or more
+	 * {@link Type#TAG} or {@link Type#ATTRIBUTE} rules is being processed.
+	 * 
+	 * @return the attributes of the current element, or <code>null</code> if
+	 *         no element has been matched yet.
+	 */
+	public AttributeView getAttributes() {
+		return attributes;
+	}
+
+	/**
+	 * Used to enable or disable one of the parser's rules, for example from
+	 * another rule once it knows which kind of document is being parsed or
+	 * that a section of it is done.
+	 * <p/>
+	 * A disabled rule is left out of the parser's rule index entirely, so it
+	 * costs nothing on later events. Changes take effect with the next parse
+	 * event; a rule disabled while the parser is calling the rules of an event
+	 * may still be called for that same event. Rules stay disabled until they
+	 * are enabled again, including for later parses.
+	 * <p/>
+	 * Rules must only be changed from the thread parsing (e.g. from a rule) or
+	 * while the parser is not being used.
+	 * 
+	 * @param rule
+	 *            One of the parser's rules.
+	 * @param enabled
+	 *            <code>true</code> to enable the rule or <code>false</code> to
+	 *            disable it.
+	 * 
+	 * @throws IllegalArgumentException
+	 *             if <code>rule</code> is <code>null</code> or not one of the
+	 *             parser's rules.
+	 */
+	public void setRuleEnabled(IRule<T> rule, boolean enabled)
+			throws IllegalArgumentException {
+		if (rule == null)
+			throw new IllegalArgumentException("rule cannot be null");
+		if (!ruleIndex.setEnabled(rule, enabled))
+			throw new IllegalArgumentException("rule [" + rule
+					+ "] is not one of this parser's rules");
+
+		if (DEBUG)
+			log("Rule %s %s", rule, (enabled ? "ENABLED" : "DISABLED"));
+	}
+
+	public boolean isRuleEnabled(IRule<T> rule) {
+		return ruleIndex.isEnabled(rule);
+	}
+
+	/**
+	 * Used to add a new rule to the parser, for example from another rule
+	 * once it knows which kind of document is being parsed. The new rule gets
+	 * the next rule id (see {@link MatchBatch}).
+	 * <p/>
+	 * Added during a parse, the rule matches from the next parse event on,
+	 * including inside of the elements that are already open; it is only
+	 * called for the END_TAG of an element whose START_TAG it missed. A parse
+	 * skipping unmatched subtrees (see {@link #setSkipUnmatched(boolean)})
+	 * stops skipping for the rest of the document, but subtrees it already
+	 * skipped are not parsed again.
+	 * <p/>
+	 * Rules must only be added from the thread parsing (e.g. from a rule) or
+	 * while the parser is not being used.
+	 * 
+	 * @param rule
+	 *            The rule to add.
+	 * 
+	 * @throws IllegalArgumentException
+	 *             if <code>rule</code> is <code>null</code>.
+	 * @throws XMLParserException
+	 *             if the rule's location path or attribute names are not
+	 *             valid, or if it is a {@link Type#CAPTURE} rule and the pull
+	 *             parser does not support capturing markup.
+	 */
+	@SuppressWarnings("unchecked")
+	public void addRule(IRule<T> rule)
+			throws IllegalArgumentException, XMLParserException {
+		if (rule == null)
+			throw new IllegalArgumentException("rule cannot be null");
+
+		ruleIndex.add(rule);
+
+		IRule<T>[] newRules = new IRule[rules.length + 1];
+		System.arraycopy(rules, 0, newRules, 0, rules.length);
+		newRules[rules.length] = rule;
+		rules = newRules;
+
+		if (ruleTimerMap != null && !ruleTimerMap.containsKey(rule))
+			ruleTimerMap.put(rule, new RuleTimer());
+
+		prepareRules();
+		location.resolve();
+
+		if (byteReader != null)
+			byteReader.stopSkipping();
+
+		toStringCache = null;
+
+		if (DEBUG)
+			log("Rule %s ADDED", rule);
+	}
+
+	/**
+	 * Used to enable or disable recording how long every {@link IRule} spends
+	 * inside of its <code>handleXXX</code> methods.
+	 * <p/>
+	 * When enabled, every handler invocation is timed with
+	 * {@link System#nanoTime()} and recorded into a {@link LatencyHistogram}
+	 * kept per-rule (see {@link #getRuleHistogram(IRule)}). The histograms
+	 * accumulate across calls to <code>parse</code> until timing is disabled
+	 * and re-enabled.
+	 * <p/>
+	 * Timing is disabled by default and costs nothing when disabled. Disabling
+	 * timing also clears any budget set with
+	 * {@link #setRuleBudget(long, IRuleBudgetPolicy)}.
+	 * 
+	 * @param enabled
+	 *            <code>true</code> to time every rule invocation,
+	 *            <code>false</code> to stop.
+	 */
+	public void setRuleTimingEnabled(boolean enabled) {
+		if (!enabled) {
+			ruleTimerMap = null;
+			ruleBudget = 0;
+			budgetPolicy = null;
+		} else if (ruleTimerMap == null) {
+			Map<IRule<T>, RuleTimer> timerMap = new IdentityHashMap<IRule<T>, RuleTimer>(
+					rules.length);
+
+			for (int i = 0; i < rules.length; i++) {
+				if (!timerMap.containsKey(rules[i]))
+					timerMap.put(rules[i], new RuleTimer());
+			}
+
+			ruleTimerMap = timerMap;
+		}
+	}
+
+	public boolean isRuleTimingEnabled() {
+		return (ruleTimerMap != null);
+	}
+
+	/**
+	 * Used to set the maximum amount of time any single {@link IRule} is
+	 * allowed to spend inside of its <code>handleXXX</code> methods during a
+	 * single parse before the given policy is consulted.
+	 * <p/>
+	 * Setting a budget implicitly enables rule timing (see
+	 * {@link #setRuleTimingEnabled(boolean)}).
+	 * 
+	 * @param budget
+	 *            The maximum accumulated time (in nanoseconds) a rule may spend
+	 *            in its handlers per document.
+	 * @param policy
+	 *            The policy consulted when a rule exceeds the budget, or
+	 *            <code>null</code> to remove any budget previously set.
+	 * 
+	 * @throws IllegalArgumentException
+	 *             if <code>policy</code> is not <code>null</code> and
+	 *             <code>budget</code> is &lt;= 0.
+	 */
+	public void setRuleBudget(long budget, IRuleBudgetPolicy<T> policy)
+			throws IllegalArgumentException {
+		if (policy == null) {
+			ruleBudget = 0;
+			budgetPolicy = null;
+			return;
+		}
+
+		if (budget <= 0)
+			throw new IllegalArgumentException("budget [" + budget
+					+ "] must be > 0");
+
+		setRuleTimingEnabled(true);
+
+		ruleBudget = budget;
+		budgetPolicy = policy;
+	}
+
+	/**
+	 * Used to get the histogram of handler latencies (in nanoseconds) recorded
+	 * for the given rule.
+	 * 
+	 * @param rule
+	 *            One of the rules this parser was created with.
+	 * 
+	 * @return the histogram of handler latencies recorded for the given rule or
+	 *         <code>null</code> if rule timing is not enabled or the rule is
+	 *         not one of this parser's rules.
+	 */
+	public LatencyHistogram getRuleHistogram(IRule<T> rule) {
+		if (ruleTimerMap == null)
+			return null;
+
+		RuleTimer timer = ruleTimerMap.get(rule);
+		return (timer == null ? null : timer.histogram);
+	}
+
+	/**
+	 * Used to set the maximum number of bytes requested from the source stream
+	 * by any single read, trading a little throughput for how soon
+	 * {@link IRule}s fire on a slowly arriving document.
+	 * <p/>
+	 * The underlying {@link XmlPullParser} requests up to 8 KB at a time.
+	 * Streams that only return once a read is completely filled would then
+	 * hold back every event until the first 8 KB of the document arrived. With
+	 * a small read chunk size (e.g. 512 bytes) the parser gets to the events in
+	 * each chunk as soon as it arrives. Streams that return whatever is
+	 * available (most network streams) are delivered eagerly either way.
+	 * <p/>
+	 * Note that a TEXT event (and with it any {@link Type#CHARACTER} rules)
+	 * can only be delivered once the markup following the text has arrived.
+	 * <p/>
+	 * The default is <code>0</code>, leaving the read size up to the pull
+	 * parser.
+	 * 
+	 * @param readChunkSize
+	 *            The maximum number of bytes to request from the source stream
+	 *            at one time, or <code>0</code> for no limit.
+	 * 
+	 * @throws IllegalArgumentException
+	 *             if <code>readChunkSize</code> is &lt; 0.
+	 */
+	public void setReadChunkSize(int readChunkSize)
+			throws IllegalArgumentException {
+		if (readChunkSize < 0)
+			throw new IllegalArgumentException("readChunkSize ["
+					+ readChunkSize + "] must be >= 0");
+
+		chunkedSource = (readChunkSize == 0 ? null : new ChunkedInputStream(
+				null, readChunkSize));
+	}
+
+	public int getReadChunkSize() {
+		return (chunkedSource == null ? 0 : chunkedSource.getChunkSize());
+	}
+
+	/**
+	 * Used to skip over the subtrees of a document that no {@link IRule} can
+	 * match without tokenizing them at all.
+	 * <p/>
+	 * When an element is opened that no rule's location path goes through,
+	 * its content is skipped by scanning the raw bytes for nothing but the
+	 * markup that changes the nesting depth, and the pull parser is handed
+	 * the element as if it were empty. For documents where the rules only
+	 * target a small part of the tree (e.g. a header in front of a large
+	 * body) most of the document is then never decoded or tokenized.
+	 * <p/>
+	 * Skipping only applies to documents parsed out of bytes (
+	 * {@link #parse(byte[], int, int, String, Object)},
+	 * {@link #parse(ByteBuffer, String, Object)} and
+	 * {@link #parseFrames(InputStream, String, IDocumentListener, Object)})
+	 * that are encoded in UTF-8, US-ASCII or ISO-8859-1. The content of a
+	 * skipped element is not checked for well-formedness and subclasses
+	 * overriding the <code>doXXX</code> methods will not see any events for
+	 * it.
+	 * <p/>
+	 * The default is <code>false</code>.
+	 * 
+	 * @param skipUnmatched
+	 *            <code>true</code> to skip the subtrees no rule can match.
+	 */
+	public void setSkipUnmatched(boolean skipUnmatched) {
+		this.skipUnmatched = skipUnmatched;
+	}
+
+	public boolean isSkipUnmatched() {
+		return skipUnmatched;
+	}
+
+	/**
+	 * Used to set the maximum number of characters of markup held for
+	 * {@link Type#CAPTURE} rules at one time; the markup of the outermost
+	 * element being captured (which includes that of any captured element
+	 * nested in it).
+	 * <p/>
+	 * Captured markup is collected into a single buffer that is re-used for
+	 * every element and only grows as far as the largest element captured so
+	 * far. An element that would exceed the limit fails the parse with an
+	 * {@link XMLParserException} instead of growing the buffer without bound.
+	 * <p/>
+	 * The default is {@link #DEFAULT_CAPTURE_LIMIT}.
+	 * 
+	 * @param captureLimit
+	 *            The maximum number of characters to capture.
+	 * 
+	 * @throws IllegalArgumentException
+	 *             if <code>captureLimit</code> is &lt; 1.
+	 */
+	public void setCaptureLimit(int captureLimit)
+			throws IllegalArgumentException {
+		if (captureLimit < 1)
+			throw new IllegalArgumentException("captureLimit ["
+					+ captureLimit + "] must be >= 1");
+
+		this.captureLimit = captureLimit;
+	}
+
+	public int getCaptureLimit() {
+		return captureLimit;
+	}
+
+	/**
+	 * Used to set one of the hard limits on the documents this parser
+	 * accepts, bounding the memory and time any single document can take no
+	 * matter what it contains.
+	 * <p/>
+	 * A document going over a limit fails the parse with an
+	 * {@link XMLParserLimitException} as soon as it is detected, before any
+	 * rule sees the offending event. Limits apply to every document on its
+	 * own; when parsing a stream of documents the counts start over after
+	 * every document. See {@link Limit} for what each of them counts.
+	 * <p/>
+	 * The default for every limit is {@link #NO_LIMIT}.
+	 * 
+	 * @param limit
+	 *            The limit to set.
+	 * @param maximum
+	 *            The maximum allowed, or {@link #NO_LIMIT} to remove the
+	 *            limit.
+	 * 
+	 * @throws IllegalArgumentException
+	 *             if <code>limit</code> is <code>null</code> or if
+	 *             <code>maximum</code> is &lt; 0.
+	 */
+	public void setLimit(Limit limit, long maximum)
+			throws IllegalArgumentException {
+		if (limit == null)
+			throw new IllegalArgumentException("limit cannot be null");
+		if (maximum < 0)
+			throw new IllegalArgumentException("maximum [" + maximum
+					+ "] must be >= 0");
+
+		switch (limit) {
+		case DEPTH:
+			maxDepth = maximum;
+			break;
+
+		case TEXT_LENGTH:
+			maxTextLength = maximum;
+
+			if (textHolder == null)
+				textHolder = new int[2];
+			break;
+
+		case ATTRIBUTE_LENGTH:
+			maxAttributeLength = maximum;
+			break;
+
+		case ATTRIBUTE_COUNT:
+			maxAttributeCount = maximum;
+			break;
+
+		case BYTES:
+			maxBytes = maximum;
+			limitedSource = (maximum == NO_LIMIT ? null
+					: new LimitedInputStream(null, maximum));
+			break;
+
+		case EVENTS:
+			maxEvents = maximum;
+			break;
+		}
+
+		// Bytes are counted by the source, everything else per event
+		limited = (maxDepth != NO_LIMIT || maxTextLength != NO_LIMIT
+				|| maxAttributeLength != NO_LIMIT
+				|| maxAttributeCount != NO_LIMIT || maxEvents != NO_LIMIT);
+	}
+
+	public long getLimit(Limit limit) {
+		switch (limit) {
+		case DEPTH:
+			return maxDepth;
+
+		case TEXT_LENGTH:
+			return maxTextLength;
+
+		case ATTRIBUTE_LENGTH:
+			return maxAttributeLength;
+
+		case ATTRIBUTE_COUNT:
+			return maxAttributeCount;
+
+		case BYTES:
+			return maxBytes;
+
+		default:
+			return maxEvents;
+		}
+	}
+
+	/**
+	 * Used to deliver the values matched by every {@link Type#ATTRIBUTE} and
+	 * {@link Type#CHARACTER} rule to the given handler in batches, instead of
+	 * calling the <code>handleXXX</code> methods of the rules themselves.
+	 * <p/>
+	 * Matches are collected into a re-used {@link MatchBatch}; text is copied
+	 * straight out of the pull parser's buffer without creating a
+	 * {@link String} for it. The handler is called every time the batch holds
+	 * <code>batchSize</code> matches, at the end of every document and
+	 * whenever {@link #flushBatch(Object)} is called (e.g. by a
+	 * {@link Type#TAG} rule at the end of every record). {@link Type#TAG}
+	 * rules are still called directly, so they see the batch before it is
+	 * flushed.
+	 * <p/>
+	 * Rule timing (see {@link #setRuleTimingEnabled(boolean)}) does not apply
+	 * to batched rules since they are never called.
+	 * 
+	 * @param handler
+	 *            The handler that receives the batches, or <code>null</code>
+	 *            to go back to calling every rule directly.
+	 * @param batchSize
+	 *            The number of matches collected before the handler is called.
+	 * 
+	 * @throws IllegalArgumentException
+	 *             if <code>handler</code> is not <code>null</code> and
+	 *             <code>batchSize</code> is &lt; 1.
+	 */
+	public void setBatchHandler(IMatchBatchHandler<T> handler, int batchSize)
+			throws IllegalArgumentException {
+		if (handler == null) {
+			batchHandler = null;
+			batch = null;
+			this.batchSize = 0;
+			return;
+		}
+
+		if (batchSize < 1)
+			throw new IllegalArgumentException("batchSize [" + batchSize
+					+ "] must be >= 1");
+
+		if (batch == null || batchSize > this.batchSize)
+			batch = new MatchBatch(batchSize);
+
+		if (textHolder == null)
+			textHolder = new int[2];
+
+		batchHandler = handler;
+		this.batchSize = batchSize;
+	}
+
+	public IMatchBatchHandler<T> getBatchHandler() {
+		return batchHandler;
+	}
+
+	public int getBatchSize() {
+		return batchSize;
+	}
+
+	/**
+	 * Used to hand any matches collected so far to the handler set with
+	 * {@link #setBatchHandler(IMatchBatchHandler, int)} right away. This does
+	 * nothing if there is no handler or no matches.
+	 * 
+	 * @param userObject
+	 *            The user-supplied object passed through to the handler.
+	 */
+	public void flushBatch(T userObject) {
+		if (batchHandler == null || batch.size() == 0)
+			return;
+
+		if (DEBUG)
+			log("	Flushing batch of %d matches", batch.size());
+
+		try {
+			batchHandler.handleBatch(this, batch, userObject);
+		} finally {
+			batch.clear();
+		}
+	}
+
 	/**
 	 * Parse the XML out of the given stream matching the {@link IRule}s
 	 * provided when the {@link XMLParser} was instantiated.
@@ -438,6 +1126,18 @@ public class XMLParser<T> {
 								+ "] is not a valid charset encoding in this runtime according to Charset.isSupported(encoding).");
 		}
 
+		// Cap the size of each read if a read chunk size was set
+		if (chunkedSource != null) {
+			chunkedSource.setInput(source);
+			source = chunkedSource;
+		}
+
+		// Count the bytes read if there is a limit on them
+		if (limitedSource != null) {
+			limitedSource.setInput(source);
+			source = limitedSource;
+		}
+
 		try {
 			xpp.setInput(source, encoding);
 
@@ -463,311 +1163,1809 @@ public class XMLParser<T> {
 			throw new XMLParserException(
 					"An error with the underlying data stream being parsed occurred.",
 					e);
+		} finally {
+			// Don't hold on to the caller's stream between parses
+			if (chunkedSource != null)
+				chunkedSource.setInput(null);
+			if (limitedSource != null)
+				limitedSource.setInput(null);
+			if (cancelToken != null)
+				cancelToken.exit();
 		}
 	}
 
-	protected void initRules(IRule<T>... rules) {
-		// calculate a rough optimal size for the rule maps
-		int optSize = (rules.length > 64 ? rules.length * 2 : 64);
-
-		// init the rule maps
-		tagRuleMap = new HashMap<Integer, List<IRule<T>>>(optSize);
-		attrRuleMap = new HashMap<Integer, List<IRule<T>>>(optSize);
-		charRuleMap = new HashMap<Integer, List<IRule<T>>>(optSize);
-
-		// init the rules
-		List<IRule<T>> ruleList = null;
-
-		for (int i = 0, length = rules.length; i < length; i++) {
-			IRule<T> rule = rules[i];
-
-			switch (rule.getType()) {
-			case TAG:
-				// Get the rule list for this path
-				ruleList = tagRuleMap.get(rule.getLocationPath());
-
-				// If there wasn't already a rule list, create and add it
-				if (ruleList == null) {
-					ruleList = new ArrayList<IRule<T>>(3);
-					tagRuleMap.put(rule.getLocationPath().hashCode(), ruleList);
-				}
-				break;
-
-			case ATTRIBUTE:
-				// Get the rule list for this path
-				ruleList = attrRuleMap.get(rule.getLocationPath());
-
-				// If there wasn't already a rule list, create and add it
-				if (ruleList == null) {
-					ruleList = new ArrayList<IRule<T>>(3);
-					attrRuleMap
-							.put(rule.getLocationPath().hashCode(), ruleList);
-				}
-				break;
-
-			case CHARACTER:
-				// Get the rule list for this path
-				ruleList = charRuleMap.get(rule.getLocationPath());
-
-				// If there wasn't already a rule list, create and add it
-				if (ruleList == null) {
-					ruleList = new ArrayList<IRule<T>>(3);
-					charRuleMap
-							.put(rule.getLocationPath().hashCode(), ruleList);
-				}
-				break;
-			}
-
-			// Add the rule to the list for the given path
-			ruleList.add(rule);
-		}
-
-		if (DEBUG)
-			log("Initialized %d TAG rules, %d ATTRIBUTE rules and %d CHARACTER rules.",
-					tagRuleMap.size(), attrRuleMap.size(), charRuleMap.size());
-	}
-
 	/**
-	 * Uses the underlying {@link XmlPullParser} to begin parsing through the
-	 * XML content from the given stream. This method's implementation is
-	 * simple, acting like a traffic-cop responding to
-	 * {@link XmlPullParser#START_TAG}, {@link XmlPullParser#TEXT},
-	 * {@link XmlPullParser#END_TAG} and {@link XmlPullParser#END_DOCUMENT}
-	 * events by calling the appropriate <code>doXXX</code> methods.
+	 * Parse the XML held in the given bytes (encoded in UTF-8) matching the
+	 * {@link IRule}s provided when the {@link XMLParser} was instantiated.
 	 * <p/>
-	 * Developers creating a subclass of {@link XMLParser} are meant to override
-	 * one of the {@link #doStartTag(Object)}, {@link #doText(Object)},
-	 * {@link #doEndTag(Object)} and {@link #doEndDocument(Object)} methods to
-	 * add custom behavior and not necessarily override this central method.
+	 * See {@link #parse(byte[], int, int, String, Object)} for details.
+	 * 
+	 * @param source
+	 *            The bytes holding the XML document.
+	 * @param offset
+	 *            The index of the first byte of the document.
+	 * @param length
+	 *            The number of bytes in the document.
+	 * @param userObject
+	 *            The user-supplied object passed through from this parse method
+	 *            to the matching {@link IRule}'s <code>handleXXX</code> method
+	 *            when a match is found, or <code>null</code> if no user object
+	 *            is needed.
+	 * 
+	 * @throws IllegalArgumentException
+	 *             if <code>source</code> is <code>null</code> or if
+	 *             <code>offset</code> and <code>length</code> are outside of
+	 *             its bounds.
+	 * @throws XMLParserException
+	 *             if the XML content is malformed and the underlying pull
+	 *             parser cannot parse it.
+	 */
+	public void parse(byte[] source, int offset, int length, T userObject)
+			throws IllegalArgumentException, XMLParserException {
+		try {
+			parse(source, offset, length, null, userObject);
+		} catch (UnsupportedEncodingException e) {
+			// no-op, this should never happen as null is a valid encoding.
+		}
+	}
+
+	/**
+	 * Parse the XML held in the given bytes (producing content matching the
+	 * given encoding) matching the {@link IRule}s provided when the
+	 * {@link XMLParser} was instantiated.
+	 * <p/>
+	 * This is the fast path for parsing a lot of small documents (e.g.
+	 * messages pulled off of a queue) one after the other, re-using the same
+	 * buffer. The parser keeps a single {@link java.io.Reader} that decodes
+	 * straight out of the given bytes, the encoding is only validated when it
+	 * changes from the last call and no per-document state is allocated; for
+	 * UTF-8, US-ASCII and ISO-8859-1 documents the only objects created are
+	 * the ones the pull parser creates for the content itself.
+	 * <p/>
+	 * The bytes must not be modified until this method returns, and are not
+	 * referenced by the parser afterwards.
 	 * <h3>Stopping Parsing</h3>
 	 * Parsing can be safely stopped by calling {@link #stop()}. This allows
 	 * {@link IRule} implementations control over stopping parsing, for example,
 	 * if an arbitrary threshold is hit. A followup call to any of the
 	 * <code>parse</code> methods will reset the stopped state.
 	 * 
+	 * @param source
+	 *            The bytes holding the XML document.
+	 * @param offset
+	 *            The index of the first byte of the document.
+	 * @param length
+	 *            The number of bytes in the document.
+	 * @param encoding
+	 *            The character encoding (e.g. "UTF-8") of the bytes. Unlike
+	 *            parsing a stream, <code>null</code> means UTF-8 (the XML
+	 *            default) and is not determined from the document.
 	 * @param userObject
 	 *            The user-supplied object passed through from this parse method
 	 *            to the matching {@link IRule}'s <code>handleXXX</code> method
 	 *            when a match is found, or <code>null</code> if no user object
-	 *            is needed. Passing through a user-object is just meant as a
-	 *            convenience for giving the handler methods on the
-	 *            {@link IRule}'s access to objects like DAOs that can be used
-	 *            to persist or process parsed data easily.
+	 *            is needed.
 	 * 
-	 * @throws IOException
-	 *             if an error occurs with reading from the underlying
-	 *             {@link InputStream} given to one of the public
-	 *             <code>parse</code> methods.
-	 * @throws XmlPullParserException
-	 *             if an error occurs while parsing the XML content from the
-	 *             underlying stream; typically resulting from malformed or
-	 *             invalid XML.
+	 * @throws IllegalArgumentException
+	 *             if <code>source</code> is <code>null</code> or if
+	 *             <code>offset</code> and <code>length</code> are outside of
+	 *             its bounds.
+	 * @throws UnsupportedEncodingException
+	 *             if <code>encoding</code> represents an encoding name that is
+	 *             not recognized by {@link Charset#isSupported(String)}
+	 * @throws XMLParserException
+	 *             if the XML content is malformed and the underlying pull
+	 *             parser cannot parse it.
+	 */
+	public void parse(byte[] source, int offset, int length, String encoding,
+			T userObject) throws IllegalArgumentException,
+			UnsupportedEncodingException, XMLParserException {
+		if (source == null)
+			throw new IllegalArgumentException("source cannot be null");
+		if (offset < 0 || length < 0 || offset + length > source.length)
+			throw new IllegalArgumentException("offset [" + offset
+					+ "] and length [" + length
+					+ "] must be within the bounds of source [length="
+					+ source.length + "]");
+
+		checkBytes(length);
+		prepareByteReader(encoding);
+		byteReader.setInput(source, offset, length);
+
+		parse(byteReader, userObject);
+	}
+
+	/**
+	 * Parse the XML held in the remaining bytes (encoded in UTF-8) of the
+	 * given buffer matching the {@link IRule}s provided when the
+	 * {@link XMLParser} was instantiated.
+	 * <p/>
+	 * See {@link #parse(ByteBuffer, String, Object)} for details.
+	 * 
+	 * @param source
+	 *            The buffer holding the XML document between its position and
+	 *            limit.
+	 * @param userObject
+	 *            The user-supplied object passed through from this parse method
+	 *            to the matching {@link IRule}'s <code>handleXXX</code> method
+	 *            when a match is found, or <code>null</code> if no user object
+	 *            is needed.
+	 * 
+	 * @throws IllegalArgumentException
+	 *             if <code>source</code> is <code>null</code>.
+	 * @throws XMLParserException
+	 *             if the XML content is malformed and the underlying pull
+	 *             parser cannot parse it.
+	 */
+	public void parse(ByteBuffer source, T userObject)
+			throws IllegalArgumentException, XMLParserException {
+		try {
+			parse(source, null, userObject);
+		} catch (UnsupportedEncodingException e) {
+			// no-op, this should never happen as null is a valid encoding.
+		}
+	}
+
+	/**
+	 * Parse the XML held in the remaining bytes of the given buffer (producing
+	 * content matching the given encoding) matching the {@link IRule}s
+	 * provided when the {@link XMLParser} was instantiated.
+	 * <p/>
+	 * This works exactly like
+	 * {@link #parse(byte[], int, int, String, Object)}. Heap buffers are
+	 * decoded in place from their backing array; direct buffers have no such
+	 * array, so their remaining bytes are first bulk-copied into a scratch
+	 * array the parser re-uses from one call to the next (growing it only for
+	 * a larger document). When parsing completes (or is stopped) the buffer's
+	 * position is moved to its limit.
+	 * 
+	 * @param source
+	 *            The buffer holding the XML document between its position and
+	 *            limit.
+	 * @param encoding
+	 *            The character encoding (e.g. "UTF-8") of the bytes, or
+	 *            <code>null</code> for UTF-8.
+	 * @param userObject
+	 *            The user-supplied object passed through from this parse method
+	 *            to the matching {@link IRule}'s <code>handleXXX</code> method
+	 *            when a match is found, or <code>null</code> if no user object
+	 *            is needed.
+	 * 
+	 * @throws IllegalArgumentException
+	 *             if <code>source</code> is <code>null</code>.
+	 * @throws UnsupportedEncodingException
+	 *             if <code>encoding</code> represents an encoding name that is
+	 *             not recognized by {@link Charset#isSupported(String)}
+	 * @throws XMLParserException
+	 *             if the XML content is malformed and the underlying pull
+	 *             parser cannot parse it.
+	 */
+	public void parse(ByteBuffer source, String encoding, T userObject)
+			throws IllegalArgumentException, UnsupportedEncodingException,
+			XMLParserException {
+		if (source == null)
+			throw new IllegalArgumentException("source cannot be null");
+
+		checkBytes(source.remaining());
+		prepareByteReader(encoding);
+		byteReader.setInput(source);
+
+		try {
+			parse(byteReader, userObject);
+		} finally {
+			source.position(source.limit());
+		}
+	}
+
+	/**
+	 * Parse a stream of concatenated XML documents (e.g. the output of a log
+	 * appender writing one document per event) in a single pass, matching the
+	 * {@link IRule}s provided when the {@link XMLParser} was instantiated
+	 * against every document in turn.
+	 * <p/>
+	 * See
+	 * {@link #parseDocuments(InputStream, String, IDocumentListener, Object)}
+	 * for details.
+	 * 
+	 * @param source
+	 *            The stream the XML documents will be read out of.
+	 * @param listener
+	 *            The listener notified at the start and end of every document,
+	 *            or <code>null</code> if no notification is needed.
+	 * @param userObject
+	 *            The user-supplied object passed through from this parse method
+	 *            to the matching {@link IRule}'s <code>handleXXX</code> method
+	 *            when a match is found, or <code>null</code> if no user object
+	 *            is needed.
+	 * 
+	 * @return the number of documents parsed completely.
+	 * 
+	 * @throws IllegalArgumentException
+	 *             if <code>source</code> is <code>null</code>.
+	 * @throws XMLParserException
+	 *             if any error occurs with the underlying stream during parsing
+	 *             of if the XML content itself is malformed and the underlying
+	 *             pull parser cannot parse it.
+	 */
+	public int parseDocuments(InputStream source,
+			IDocumentListener<T> listener, T userObject)
+			throws IllegalArgumentException, XMLParserException {
+		try {
+			return parseDocuments(source, null, listener, userObject);
+		} catch (UnsupportedEncodingException e) {
+			// no-op, this should never happen as null is a valid encoding.
+			return 0;
+		}
+	}
+
+	/**
+	 * Parse a stream of concatenated XML documents (producing content matching
+	 * the given encoding) in a single pass, matching the {@link IRule}s
+	 * provided when the {@link XMLParser} was instantiated against every
+	 * document in turn.
+	 * <p/>
+	 * The stream may hold any number of root elements one after the other,
+	 * optionally separated by whitespace and each optionally preceded by its
+	 * own XML declaration (which is ignored; every document is decoded with the
+	 * given encoding). The parser's location is reset at the start of every
+	 * document so rules match each one exactly as if it had been parsed by
+	 * itself, and the given listener is notified at every document boundary.
+	 * Documents must not carry a document type declaration.
+	 * <p/>
+	 * Parsing continues until the end of the stream, so a single call can
+	 * consume an unbounded stream (e.g. a socket) with one parser and one
+	 * buffer.
+	 * <p/>
+	 * This class will make no attempt at closing the given {@link InputStream},
+	 * the caller must take care to clean up that resource.
+	 * <h3>Stopping Parsing</h3>
+	 * Calling {@link #stop()} stops parsing the entire stream, not just the
+	 * current document. Because the stream is read ahead in blocks, the
+	 * position of the stream afterwards is undefined.
+	 * 
+	 * @param source
+	 *            The stream the XML documents will be read out of.
+	 * @param encoding
+	 *            The character encoding (e.g. "UTF-8") of the data from the
+	 *            given stream, or <code>null</code> for UTF-8.
+	 * @param listener
+	 *            The listener notified at the start and end of every document,
+	 *            or <code>null</code> if no notification is needed.
+	 * @param userObject
+	 *            The user-supplied object passed through from this parse method
+	 *            to the matching {@link IRule}'s <code>handleXXX</code> method
+	 *            when a match is found, or <code>null</code> if no user object
+	 *            is needed.
+	 * 
+	 * @return the number of documents parsed completely.
+	 * 
+	 * @throws IllegalArgumentException
+	 *             if <code>source</code> is <code>null</code>.
+	 * @throws UnsupportedEncodingException
+	 *             if <code>encoding</code> represents an encoding name that is
+	 *             not recognized by {@link Charset#isSupported(String)}
+	 * @throws XMLParserException
+	 *             if any error occurs with the underlying stream during parsing
+	 *             of if the XML content itself is malformed and the underlying
+	 *             pull parser cannot parse it.
+	 */
+	public int parseDocuments(InputStream source, String encoding,
+			IDocumentListener<T> listener, T userObject)
+			throws IllegalArgumentException, UnsupportedEncodingException,
+			XMLParserException {
+		if (source == null)
+			throw new IllegalArgumentException("source cannot be null");
+		if (encoding == null || encoding.trim().length() == 0)
+			encoding = "UTF-8";
+		else if (!Charset.isSupported(encoding))
+			throw new UnsupportedEncodingException(
+					"Encoding ["
+							+ encoding
+							+ "] is not a valid charset encoding in this runtime according to Charset.isSupported(encoding).");
+
+		// Cap the size of each read if a read chunk size was set
+		if (chunkedSource != null) {
+			chunkedSource.setInput(source);
+			source = chunkedSource;
+		}
+
+		// Count the bytes read if there is a limit on them
+		if (limitedSource != null) {
+			limitedSource.setInput(source);
+			source = limitedSource;
+		}
+
+		if (documentReader == null)
+			documentReader = new DocumentStreamReader();
+
+		documentReader.setInput(new InputStreamReader(source, encoding));
+
+		try {
+			xpp.setInput(documentReader);
+
+			if (DEBUG)
+				log("Underlying XmlPullParser input set [type=documents, encoding=%s, userObject=%s]",
+						encoding, (userObject == null ? "" : userObject));
+
+			return doParseDocuments(listener, userObject);
+		} catch (IOException e) {
+			throw new XMLParserException(
+					"An exception occurred while parsing the given source, the XML document may be malformed.",
+					e);
+		} catch (XmlPullParserException e) {
+			throw new XMLParserException(
+					"An error with the underlying data stream being parsed occurred.",
+					e);
+		} finally {
+			// Don't hold on to the caller's stream between parses
+			documentReader.close();
+
+			if (chunkedSource != null)
+				chunkedSource.setInput(null);
+			if (limitedSource != null)
+				limitedSource.setInput(null);
+			if (cancelToken != null)
+				cancelToken.exit();
+		}
+	}
+
+	/**
+	 * Parse a stream of length-prefixed XML documents (UTF-8 encoded) in a
+	 * single pass, matching the {@link IRule}s provided when the
+	 * {@link XMLParser} was instantiated against every document in turn.
+	 * <p/>
+	 * See {@link #parseFrames(InputStream, String, IDocumentListener, Object)}
+	 * for details.
+	 * 
+	 * @param source
+	 *            The stream the framed XML documents will be read out of.
+	 * @param listener
+	 *            The listener notified at the start and end of every document,
+	 *            or <code>null</code> if no notification is needed.
+	 * @param userObject
+	 *            The user-supplied object passed through from this parse method
+	 *            to the matching {@link IRule}'s <code>handleXXX</code> method
+	 *            when a match is found, or <code>null</code> if no user object
+	 *            is needed.
+	 * 
+	 * @return the number of documents parsed completely.
+	 * 
+	 * @throws IllegalArgumentException
+	 *             if <code>source</code> is <code>null</code>.
+	 * @throws XMLParserException
+	 *             if any error occurs with the underlying stream during
+	 *             parsing, if a frame is malformed or if the XML content itself
+	 *             is malformed and the underlying pull parser cannot parse it.
+	 */
+	public int parseFrames(InputStream source, IDocumentListener<T> listener,
+			T userObject) throws IllegalArgumentException, XMLParserException {
+		try {
+			return parseFrames(source, null, listener, userObject);
+		} catch (UnsupportedEncodingException e) {
+			// no-op, this should never happen as null is a valid encoding.
+			return 0;
+		}
+	}
+
+	/**
+	 * Parse a stream of length-prefixed XML documents (producing content
+	 * matching the given encoding) in a single pass, matching the
+	 * {@link IRule}s provided when the {@link XMLParser} was instantiated
+	 * against every document in turn.
+	 * <p/>
+	 * Every frame is a 4-byte, big-endian length (as written by
+	 * {@link java.io.DataOutputStream#writeInt(int)}) followed by that many
+	 * bytes holding a single XML document. Frames are read into one buffer
+	 * that is re-used (and only grown) for the whole stream and parsed like
+	 * {@link #parse(byte[], int, int, String, Object)} does, so there is no
+	 * per-document allocation. The given listener is notified at every
+	 * document boundary.
+	 * <p/>
+	 * Parsing continues until the stream ends on a frame boundary.
+	 * <p/>
+	 * This class will make no attempt at closing the given {@link InputStream},
+	 * the caller must take care to clean up that resource.
+	 * <h3>Stopping Parsing</h3>
+	 * Calling {@link #stop()} stops parsing the entire stream, not just the
+	 * current document. The stream is left positioned right after the frame
+	 * that was being parsed.
+	 * 
+	 * @param source
+	 *            The stream the framed XML documents will be read out of.
+	 * @param encoding
+	 *            The character encoding (e.g. "UTF-8") of every document, or
+	 *            <code>null</code> for UTF-8.
+	 * @param listener
+	 *            The listener notified at the start and end of every document,
+	 *            or <code>null</code> if no notification is needed.
+	 * @param userObject
+	 *            The user-supplied object passed through from this parse method
+	 *            to the matching {@link IRule}'s <code>handleXXX</code> method
+	 *            when a match is found, or <code>null</code> if no user object
+	 *            is needed.
+	 * 
+	 * @return the number of documents parsed completely.
+	 * 
+	 * @throws IllegalArgumentException
+	 *             if <code>source</code> is <code>null</code>.
+	 * @throws UnsupportedEncodingException
+	 *             if <code>encoding</code> represents an encoding name that is
+	 *             not recognized by {@link Charset#isSupported(String)}
+	 * @throws XMLParserException
+	 *             if any error occurs with the underlying stream during
+	 *             parsing, if a frame is malformed or if the XML content itself
+	 *             is malformed and the underlying pull parser cannot parse it.
+	 */
+	public int parseFrames(InputStream source, String encoding,
+			IDocumentListener<T> listener, T userObject)
+			throws IllegalArgumentException, UnsupportedEncodingException,
+			XMLParserException {
+		if (source == null)
+			throw new IllegalArgumentException("source cannot be null");
+
+		prepareByteReader(encoding);
+
+		int index = 0;
+		byte[] frame = new byte[1024];
+
+		try {
+			while (true) {
+				int read = readFully(source, frame, 4);
+
+				if (read == 0)
+					break;
+				if (read < 4)
+					throw new XMLParserException("Frame header at document ["
+							+ index + "] is incomplete, only " + read
+							+ " of 4 bytes could be read.");
+
+				int length = ((frame[0] & 0xFF) << 24)
+						| ((frame[1] & 0xFF) << 16) | ((frame[2] & 0xFF) << 8)
+						| (frame[3] & 0xFF);
+
+				if (length < 0)
+					throw new XMLParserException("Frame length [" + length
+							+ "] at document [" + index + "] must be >= 0");
+
+				// Refuse oversized frames before allocating room for them
+				checkBytes(length);
+
+				if (length > frame.length)
+					frame = new byte[Math.max(length, frame.length * 2)];
+
+				if ((read = readFully(source, frame, length)) < length)
+					throw new XMLParserException("Frame at document [" + index
+							+ "] is incomplete, only " + read + " of " + length
+							+ " bytes could be read.");
+
+				byteReader.setInput(frame, 0, length);
+				xpp.setInput(byteReader);
+
+				continueParsing = true;
+
+				if (listener != null)
+					listener.handleDocument(this, true, index, userObject);
+
+				if (!continueParsing)
+					break;
+
+				doParse(userObject);
+
+				// Stopped before the end of the document
+				if (xpp.getEventType() != XmlPullParser.END_DOCUMENT)
+					break;
+
+				continueParsing = true;
+
+				if (listener != null)
+					listener.handleDocument(this, false, index, userObject);
+
+				index++;
+
+				if (!continueParsing)
+					break;
+			}
+		} catch (IOException e) {
+			throw new XMLParserException(
+					"An exception occurred while parsing the given source, the XML document may be malformed.",
+					e);
+		} catch (XmlPullParserException e) {
+			throw new XMLParserException(
+					"An error with the underlying data stream being parsed occurred.",
+					e);
+		} finally {
+			byteReader.close();
+
+			if (cancelToken != null)
+				cancelToken.exit();
+		}
+
+		return index;
+	}
+
+	/**
+	 * Used to parse the content of the given {@link ByteSourceReader}, which
+	 * is always released afterwards.
+	 */
+	private void parse(ByteSourceReader reader, T userObject)
+			throws XMLParserException {
+		try {
+			xpp.setInput(reader);
+
+			if (DEBUG)
+				log("Underlying XmlPullParser input set [type=bytes, userObject=%s]",
+						(userObject == null ? "" : userObject));
+		} catch (XmlPullParserException e) {
+			reader.close();
+			throw new XMLParserException(
+					"Unable to set the given bytes as input for the underlying XmlPullParser.",
+					e);
+		}
+
+		try {
+			doParse(userObject);
+		} catch (IOException e) {
+			throw new XMLParserException(
+					"An exception occurred while parsing the given source, the XML document may be malformed.",
+					e);
+		} catch (XmlPullParserException e) {
+			throw new XMLParserException(
+					"An error with the underlying data stream being parsed occurred.",
+					e);
+		} finally {
+			// Don't hold on to the caller's bytes between parses
+			reader.close();
+
+			if (cancelToken != null)
+				cancelToken.exit();
+		}
+	}
+
+	/**
+	 * Used to load the given rules into the {@link RuleIndex} used to match
+	 * them against the parser's location.
+	 * <p/>
+	 * Rules are indexed by the segments of their location path, so the memory
+	 * used is linear in the number of distinct path segments and the cost of
+	 * matching a parse event does not grow with the number of rules.
+	 * 
+	 * @param rules
+	 *            The rules applied to any parsed content.
+	 */
+	protected void initRules(IRule<T>... rules) {
+		ruleIndex = new RuleIndex<T>(rules);
+		prepareRules();
+
+		if (DEBUG)
+			log("Initialized %d TAG rules, %d ATTRIBUTE rules and %d CHARACTER rules in %d path nodes.",
+					ruleIndex.getTagRuleCount(),
+					ruleIndex.getAttributeRuleCount(),
+					ruleIndex.getCharacterRuleCount(),
+					ruleIndex.getNodeCount());
+	}
+
+	/**
+	 * Used to set up the state needed by the {@link Type#CAPTURE} and
+	 * {@link Type#FRAGMENT} rules in the {@link RuleIndex}, once there are
+	 * any.
+	 * 
+	 * @throws XMLParserException
+	 *             if there are {@link Type#CAPTURE} rules but the pull parser
+	 *             does not support capturing markup.
+	 */
+	private void prepareRules() throws XMLParserException {
+		if (ruleIndex.getCaptureRuleCount() > 0 && captureStarts == null) {
+			try {
+				xpp.setFeature(FEATURE_XML_ROUNDTRIP, true);
+			} catch (XmlPullParserException e) {
+				throw new XMLParserException(
+						"Type.CAPTURE rules require a pull parser that supports the "
+								+ FEATURE_XML_ROUNDTRIP + " feature.", e);
+			}
+
+			captureStarts = new int[4];
+			captureDepths = new int[4];
+			captureNodes = new int[4];
+		}
+
+		if (ruleIndex.getFragmentRuleCount() > 0 && fragment == null) {
+			fragment = new Fragment();
+			fragmentRoots = new int[4];
+			fragmentDepths = new int[4];
+			fragmentNodes = new int[4];
+
+			if (textHolder == null)
+				textHolder = new int[2];
+		}
+	}
+
+	/**
+	 * Uses the underlying {@link XmlPullParser} to begin parsing through the
+	 * XML content from the given stream. This method's implementation is
+	 * simple, acting like a traffic-cop responding to
+	 * {@link XmlPullParser#START_TAG}, {@link XmlPullParser#TEXT},
+	 * {@link XmlPullParser#END_TAG} and {@link XmlPullParser#END_DOCUMENT}
+	 * events by calling the appropriate <code>doXXX</code> methods.
+	 * <p/>
+	 * Developers creating a subclass of {@link XMLParser} are meant to override
+	 * one of the {@link #doStartTag(Object)}, {@link #doText(Object)},
+	 * {@link #doEndTag(Object)} and {@link #doEndDocument(Object)} methods to
+	 * add custom behavior and not necessarily override this central method.
+	 * <h3>Stopping Parsing</h3>
+	 * Parsing can be safely stopped by calling {@link #stop()}. This allows
+	 * {@link IRule} implementations control over stopping parsing, for example,
+	 * if an arbitrary threshold is hit. A followup call to any of the
+	 * <code>parse</code> methods will reset the stopped state.
+	 * 
+	 * @param userObject
+	 *            The user-supplied object passed through from this parse method
+	 *            to the matching {@link IRule}'s <code>handleXXX</code> method
+	 *            when a match is found, or <code>null</code> if no user object
+	 *            is needed. Passing through a user-object is just meant as a
+	 *            convenience for giving the handler methods on the
+	 *            {@link IRule}'s access to objects like DAOs that can be used
+	 *            to persist or process parsed data easily.
+	 * 
+	 * @throws IOException
+	 *             if an error occurs with reading from the underlying
+	 *             {@link InputStream} given to one of the public
+	 *             <code>parse</code> methods.
+	 * @throws XmlPullParserException
+	 *             if an error occurs while parsing the XML content from the
+	 *             underlying stream; typically resulting from malformed or
+	 *             invalid XML.
+	 */
+	protected void doParse(T userObject) throws IOException,
+			XmlPullParserException {
+		resetDocument();
+		continueParsing = true;
+		startCancelChecks();
+
+		if (DEBUG)
+			log("Parsing starting...");
+
+		doStartDocument(userObject);
+
+		long startTime = (DEBUG ? System.currentTimeMillis() : 0);
+
+		while (continueParsing) {
+			int event = nextEvent();
+
+			if (--cancelCheckCountdown == 0)
+				checkCancelled();
+			if (limited)
+				checkLimits(event, 0);
+
+			switch (event) {
+			case XmlPullParser.START_TAG:
+				doStartTag(userObject);
+				break;
+
+			case XmlPullParser.TEXT:
+				doText(userObject);
+				break;
+
+			case XmlPullParser.END_TAG:
+				doEndTag(userObject);
+				break;
+
+			case XmlPullParser.END_DOCUMENT:
+				continueParsing = false;
+				doEndDocument(userObject);
+				break;
+			}
+		}
+
+		// Deliver whatever was matched, even if parsing was stopped
+		flushBatch(userObject);
+
+		if (DEBUG) {
+			long duration = System.currentTimeMillis() - startTime;
+			log("Parse COMPLETE, elapsed time: %dms (approx %f seconds)",
+					duration, (double) duration / (double) 1000);
+		}
+	}
+
+	/**
+	 * Uses the underlying {@link XmlPullParser} to parse through a stream of
+	 * documents wrapped by a {@link DocumentStreamReader}, processing events
+	 * exactly like {@link #doParse(Object)} does for everything beneath the
+	 * synthetic root element and firing the listener at every document
+	 * boundary.
+	 * 
+	 * @return the number of documents parsed completely.
+	 */
+	private int doParseDocuments(IDocumentListener<T> listener, T userObject)
+			throws IOException, XmlPullParserException {
+		int index = 0;
+		continueParsing = true;
+
+		// Set the deadline before the first check, it is reset per document
+		resetDocument();
+		startCancelChecks();
+
+		if (DEBUG)
+			log("Parsing documents starting...");
+
+		while (continueParsing) {
+			int event = nextEvent();
+
+			if (--cancelCheckCountdown == 0)
+				checkCancelled();
+
+			// Limits are checked against the documents, not the synthetic root
+			if (limited)
+				checkLimits(event, 1);
+
+			switch (event) {
+			case XmlPullParser.START_TAG:
+				// Depth 1 is the synthetic root, 2 is a document's root
+				if (xpp.getDepth() == 1)
+					break;
+
+				if (xpp.getDepth() == 2) {
+					resetDocument();
+
+					if (DEBUG)
+						log("Document %d starting...", index);
+
+					doStartDocument(userObject);
+
+					if (listener != null) {
+						listener.handleDocument(this, true, index, userObject);
+
+						if (!continueParsing)
+							break;
+					}
+				}
+
+				doStartTag(userObject);
+				break;
+
+			case XmlPullParser.TEXT:
+				// Ignore whitespace between documents
+				if (xpp.getDepth() > 1)
+					doText(userObject);
+				break;
+
+			case XmlPullParser.END_TAG:
+				if (xpp.getDepth() == 1)
+					break;
+
+				doEndTag(userObject);
+
+				if (xpp.getDepth() == 2) {
+					doEndDocument(userObject);
+					flushBatch(userObject);
+
+					// Limits start over with the next document
+					eventCount = 0;
+
+					if (limitedSource != null)
+						limitedSource.resetCount();
+
+					if (listener != null)
+						listener.handleDocument(this, false, index, userObject);
+
+					index++;
+				}
+				break;
+
+			case XmlPullParser.END_DOCUMENT:
+				continueParsing = false;
+				break;
+			}
+		}
+
+		// Deliver whatever was matched, even if parsing was stopped
+		flushBatch(userObject);
+
+		if (DEBUG)
+			log("Parsing documents COMPLETE, %d documents parsed", index);
+
+		return index;
+	}
+
+	/**
+	 * Used to prepare for a new document, before any of its events are
+	 * processed; when parsing a stream of documents this is called once for
+	 * every document in the stream.
+	 * <p/>
+	 * By default this method does nothing, but this stub is provided to make
+	 * overriding the default behavior easier if desired.
+	 * 
+	 * @param userObject
+	 *            The user-supplied object passed through from this parse method
+	 *            to the matching {@link IRule}'s <code>handleXXX</code> method
+	 *            when a match is found, or <code>null</code> if no user object
+	 *            is needed. Passing through a user-object is just meant as a
+	 *            convenience for giving the handler methods on the
+	 *            {@link IRule}'s access to objects like DAOs that can be used
+	 *            to persist or process parsed data easily.
+	 */
+	protected void doStartDocument(T userObject) {
+		// no-op impl
+	}
+
+	/**
+	 * Used to process a {@link XmlPullParser#START_TAG} event.
+	 * <p/>
+	 * By default this updates the internal location state of the parser,
+	 * processes all {@link IRule}s of type {@link Type#TAG} and processes all
+	 * {@link IRule}s of type {@link Type#ATTRIBUTE} that match the parser's
+	 * current location.
+	 * 
+	 * @param userObject
+	 *            The user-supplied object passed through from this parse method
+	 *            to the matching {@link IRule}'s <code>handleXXX</code> method
+	 *            when a match is found, or <code>null</code> if no user object
+	 *            is needed. Passing through a user-object is just meant as a
+	 *            convenience for giving the handler methods on the
+	 *            {@link IRule}'s access to objects like DAOs that can be used
+	 *            to persist or process parsed data easily.
+	 */
+	protected void doStartTag(T userObject) {
+		// Update parser location
+		location.push(xpp.getName(), xpp.getNamespace());
+
+		if (DEBUG)
+			log("START_TAG: %s", location);
+
+		// Get the rules for the current path
+		int node = location.getNode();
+		IRule<T>[] tagRules = ruleIndex.getTagRules(node);
+		IRule<T>[] attrRules = ruleIndex.getAttributeRules(node);
+
+		/*
+		 * Rules can be changed by the rules called below, which replaces these
+		 * arrays; get all of them now so they stay in step with each other.
+		 */
+		String[][] attrLocalNames = ruleIndex.getAttributeLocalNames(node);
+		String[][] attrNamespaceURIs = ruleIndex
+				.getAttributeNamespaceURIs(node);
+		int[] attrRuleIds = ruleIndex.getAttributeRuleIds(node);
+
+		if (captureCount > 0 || ruleIndex.getCaptureRules(node) != null)
+			captureStartTag(node);
+
+		if (fragmentCount > 0 || ruleIndex.getFragmentRules(node) != null)
+			fragmentStartTag(node);
+
+		// If there are no rules for the current path, then we are done.
+		if (tagRules == null && attrRules == null)
+			return;
+
+		if (DEBUG)
+			log("\t%d TAG rules and %d ATTR rules found for START_TAG...",
+					(tagRules == null ? 0 : tagRules.length),
+					(attrRules == null ? 0 : attrRules.length));
+
+		if (attributes == null)
+			attributes = new AttributeView(xpp);
+
+		attributes.reset();
+
+		// Process the TAG rules
+		if (tagRules != null) {
+			for (int i = 0; i < tagRules.length; i++) {
+				IRule<T> rule = tagRules[i];
+
+				if (DEBUG)
+					log("\t\tRunning TAG Rule: %s", rule);
+
+				RuleTimer timer = null;
+
+				if (ruleTimerMap != null) {
+					if ((timer = ruleTimerMap.get(rule)).skipped)
+						continue;
+
+					timer.startTime = System.nanoTime();
+				}
+
+				rule.handleTag(this, true, userObject);
+
+				if (timer != null)
+					stopTimer(timer, rule, userObject);
+			}
+		}
+
+		// Process the ATTR rules
+		if (attrRules != null && batchHandler != null)
+			batchAttributes(attrRules, attrRuleIds, attrLocalNames,
+					attrNamespaceURIs, userObject);
+		else if (attrRules != null) {
+			for (int i = 0; i < attrRules.length; i++) {
+				IRule<T> rule = attrRules[i];
+
+				if (DEBUG)
+					log("\t\tRunning ATTR Rule: %s", rule);
+
+				String[] localNames = attrLocalNames[i];
+				String[] namespaceURIs = attrNamespaceURIs[i];
+				boolean viewRule = (rule instanceof IAttributesRule);
+
+				// Be safe, jump to the next rule if this one has no name
+				// entries
+				if (localNames.length == 0 && !viewRule)
+					continue;
+
+				RuleTimer timer = null;
+
+				if (ruleTimerMap != null) {
+					if ((timer = ruleTimerMap.get(rule)).skipped)
+						continue;
+
+					timer.startTime = System.nanoTime();
+				}
+
+				if (viewRule)
+					((IAttributesRule<T>) rule).handleAttributes(this,
+							attributes, userObject);
+				else if (localNames[0] == IRule.ALL_ATTRIBUTES) {
+					for (int j = 0, count = attributes.getCount(); j < count; j++)
+						rule.handleParsedAttribute(this, j,
+								attributes.getValue(j), userObject);
+				} else {
+					/*
+					 * PERFORMANCE: The attribute names were already split into
+					 * their namespace URI and local name when the rules were
+					 * indexed, so no substrings are created here per event.
+					 * The view only scans the element's attributes once no
+					 * matter how many names (from how many rules) are looked
+					 * up.
+					 */
+					for (int j = 0; j < localNames.length; j++) {
+						// Give the parsed attribute value to the matching rule
+						rule.handleParsedAttribute(this, j, attributes
+								.getValue(namespaceURIs[j], localNames[j]),
+								userObject);
+					}
+				}
+
+				if (timer != null)
+					stopTimer(timer, rule, userObject);
+			}
+		}
+	}
+
+	/**
+	 * Used to process a {@link XmlPullParser#TEXT} event.
+	 * <p/>
+	 * By default this processes all {@link IRule}s of type
+	 * {@link Type#CHARACTER} that match the parser's current location.
+	 * {@link IChunkedCharactersRule}s are handed the text in chunks straight
+	 * out of the pull parser's buffer and the text is only turned into a
+	 * {@link String} if any other rule matches.
+	 * 
+	 * @param userObject
+	 *            The user-supplied object passed through from this parse method
+	 *            to the matching {@link IRule}'s <code>handleXXX</code> method
+	 *            when a match is found, or <code>null</code> if no user object
+	 *            is needed. Passing through a user-object is just meant as a
+	 *            convenience for giving the handler methods on the
+	 *            {@link IRule}'s access to objects like DAOs that can be used
+	 *            to persist or process parsed data easily.
+	 */
+	protected void doText(T userObject) {
+		if (DEBUG)
+			log("TEXT: %s", location);
+
+		if (fragmentCount > 0)
+			fragment.appendText(getTextCharacters(), textHolder[0],
+					textHolder[1]);
+
+		// Get the rules for the current path
+		IRule<T>[] rules = ruleIndex.getCharacterRules(location.getNode());
+
+		// If there are no rules for the current path, then we are done.
+		if (rules == null)
+			return;
+
+		if (DEBUG)
+			log("\t%d rules found for TEXT...", rules.length);
+
+		if (batchHandler != null) {
+			batchText(location.getNode(), userObject);
+			return;
+		}
+
+		// Only create a String if a rule wants one
+		String text = null;
+
+		// Give the parsed text to all matching IRules for this path
+		for (int i = 0; i < rules.length; i++) {
+			IRule<T> rule = rules[i];
+
+			if (DEBUG)
+				log("\t\tRunning Rule: %s", rule);
+
+			RuleTimer timer = null;
+
+			if (ruleTimerMap != null) {
+				if ((timer = ruleTimerMap.get(rule)).skipped)
+					continue;
+
+				timer.startTime = System.nanoTime();
+			}
+
+			if (rule instanceof IChunkedCharactersRule)
+				chunkText((IChunkedCharactersRule<T>) rule, userObject);
+			else {
+				if (text == null)
+					text = getText();
+
+				rule.handleParsedCharacters(this, text, userObject);
+			}
+
+			if (timer != null)
+				stopTimer(timer, rule, userObject);
+		}
+	}
+
+	/**
+	 * Used to hand the current text to the given rule in chunks, straight out
+	 * of the pull parser's buffer.
+	 * 
+	 * @throws XMLParserException
+	 *             if the rule's chunk size is &lt; 1.
+	 */
+	private void chunkText(IChunkedCharactersRule<T> rule, T userObject)
+			throws XMLParserException {
+		int chunkSize = rule.getChunkSize();
+
+		if (chunkSize < 1)
+			throw new XMLParserException("Chunk size [" + chunkSize
+					+ "] of rule " + rule + " must be >= 1");
+
+		if (textHolder == null)
+			textHolder = new int[2];
+
+		char[] buffer = getTextCharacters();
+		int offset = textHolder[0];
+		int end = offset + textHolder[1];
+
+		rule.handleCharactersStart(this, userObject);
+
+		while (offset < end) {
+			int length = Math.min(chunkSize, end - offset);
+
+			// Keep surrogate pairs together
+			if (length > 1 && offset + length < end
+					&& Character.isHighSurrogate(buffer[offset + length - 1]))
+				length--;
+
+			rule.handleCharacters(this, buffer, offset, length, userObject);
+			offset += length;
+		}
+
+		rule.handleCharactersEnd(this, userObject);
+	}
+
+	/**
+	 * Used to add the value of every attribute of every given
+	 * {@link Type#ATTRIBUTE} rule to the batch, flushing it whenever it fills
+	 * up.
+	 */
+	private void batchAttributes(IRule<T>[] attrRules, int[] ruleIds,
+			String[][] attrLocalNames, String[][] attrNamespaceURIs,
+			T userObject) {
+		for (int i = 0; i < ruleIds.length; i++) {
+			String[] localNames = attrLocalNames[i];
+			String[] namespaceURIs = attrNamespaceURIs[i];
+
+			// Like TAG rules these are still called directly
+			if (attrRules[i] instanceof IAttributesRule) {
+				((IAttributesRule<T>) attrRules[i]).handleAttributes(this,
+						attributes, userObject);
+				continue;
+			}
+
+			if (localNames.length > 0
+					&& localNames[0] == IRule.ALL_ATTRIBUTES) {
+				for (int j = 0, count = attributes.getCount(); j < count; j++) {
+					batch.add(ruleIds[i], j, attributes.getValue(j));
+
+					if (batch.size() >= batchSize)
+						flushBatch(userObject);
+				}
+
+				continue;
+			}
+
+			for (int j = 0; j < localNames.length; j++) {
+				batch.add(ruleIds[i], j, attributes.getValue(namespaceURIs[j],
+						localNames[j]));
+
+				if (batch.size() >= batchSize)
+					flushBatch(userObject);
+			}
+		}
+	}
+
+	/**
+	 * Used to add the current text to the batch once for every
+	 * {@link Type#CHARACTER} rule targeting the given node, copying it only
+	 * once and flushing the batch whenever it fills up.
+	 */
+	private void batchText(int node, T userObject) {
+		int[] ruleIds = ruleIndex.getCharacterRuleIds(node);
+		char[] text = getTextCharacters();
+
+		for (int i = 0; i < ruleIds.length; i++) {
+			if (i == 0 || batch.size() == 0)
+				batch.add(ruleIds[i], 0, text, textHolder[0], textHolder[1]);
+			else
+				batch.addRepeat(ruleIds[i], 0);
+
+			if (batch.size() >= batchSize)
+				flushBatch(userObject);
+		}
+	}
+
+	/**
+	 * Used to move the pull parser to the next event the parser processes.
+	 * <p/>
+	 * Outside of captured elements this is simply {@link XmlPullParser#next()}
+	 * . Inside of them every token is read with {@link #nextToken()} so its
+	 * original markup can be appended to the capture, while the rules are
+	 * given the same events {@link XmlPullParser#next()} would report. When
+	 * reading tokens for a {@link XMLRewriter} every token is read that way
+	 * everywhere.
+	 */
+	private int nextEvent() throws XmlPullParserException, IOException {
+		try {
+			// A token that ended the text of a capture is still to be processed
+			tokenEvent = (readTokens || captureCount > 0 || pendingEvent != -1);
+			return (tokenEvent ? nextToken() : xpp.next());
+		} catch (ClosedByInterruptException e) {
+			throw new XMLParserCancelledException(
+					"The parsing thread was interrupted while reading from the source.",
+					e);
+		}
+	}
+
+	/**
+	 * Used to append the markup of the current token to the capture, if it is
+	 * anything but a tag.
+	 */
+	private void captureToken(int event) throws XMLParserException {
+		switch (event) {
+		case XmlPullParser.TEXT:
+		case XmlPullParser.IGNORABLE_WHITESPACE:
+			appendCapture(null, xpp.getText(), null);
+			break;
+
+		case XmlPullParser.CDSECT:
+			appendCapture("<![CDATA[", xpp.getText(), "]]>");
+			break;
+
+		case XmlPullParser.ENTITY_REF:
+			appendCapture("&", xpp.getName(), ";");
+			break;
+
+		case XmlPullParser.COMMENT:
+			appendCapture("<!--", xpp.getText(), "-->");
+			break;
+
+		case XmlPullParser.PROCESSING_INSTRUCTION:
+			appendCapture("<?", xpp.getText(), "?>");
+			break;
+		}
+	}
+
+	/**
+	 * Used to move the pull parser to the next event the parser processes
+	 * when reading tokens inside of captured elements or for a
+	 * {@link XMLRewriter}.
+	 * <p/>
+	 * Every token is read with {@link XmlPullParser#nextToken()} and handed
+	 * to {@link #doToken(int)}, except for tags which are processed as
+	 * events. Consecutive text, CDATA sections and entity references (and,
+	 * inside of captures, the comments and processing instructions between
+	 * them) are collected into a single {@link XmlPullParser#TEXT} event, the
+	 * same as
+	 * {@link XmlPullParser#next()} would report them, line endings included;
+	 * the token that ended the text is kept and processed by the next call,
+	 * once the text has been.
+	 * <p/>
+	 * If the element of the last {@link XmlPullParser#START_TAG} was dropped
+	 * (see {@link #skipElement()}) its content is read here without being
+	 * processed at all and its {@link XmlPullParser#END_TAG} is returned.
+	 */
+	private int nextToken() throws XmlPullParserException, IOException {
+		if (dropDepth > 0) {
+			while (xpp.getEventType() != XmlPullParser.END_TAG
+					|| xpp.getDepth() != dropDepth) {
+				xpp.nextToken();
+
+				if (--cancelCheckCountdown == 0)
+					checkCancelled();
+			}
+
+			dropDepth = 0;
+			return XmlPullParser.END_TAG;
+		}
+
+		int event = pendingEvent;
+		boolean text = false;
+
+		pendingEvent = -1;
+		tokenTextLength = 0;
+
+		if (event == -1)
+			event = xpp.nextToken();
+
+		while (true) {
+			switch (event) {
+			case XmlPullParser.TEXT:
+			case XmlPullParser.IGNORABLE_WHITESPACE:
+			case XmlPullParser.CDSECT:
+			case XmlPullParser.ENTITY_REF:
+				String value = xpp.getText();
+
+				// Undeclared entities have no replacement text to report
+				if (value != null) {
+					appendTokenText(value, event != XmlPullParser.ENTITY_REF);
+					text = true;
+				}
+				break;
+
+			case XmlPullParser.COMMENT:
+			case XmlPullParser.PROCESSING_INSTRUCTION:
+				/*
+				 * Inside of captures the text goes on past these, as it does
+				 * for next(); XMLRewriter writes them out between the text.
+				 */
+				if (text && readTokens) {
+					pendingEvent = event;
+					return XmlPullParser.TEXT;
+				}
+				break;
+
+			default:
+				if (text) {
+					pendingEvent = event;
+					return XmlPullParser.TEXT;
+				}
+
+				if (event == XmlPullParser.START_TAG
+						|| event == XmlPullParser.END_TAG
+						|| event == XmlPullParser.END_DOCUMENT)
+					return event;
+			}
+
+			if (captureCount > 0)
+				captureToken(event);
+
+			doToken(event);
+			event = xpp.nextToken();
+		}
+	}
+
+	/**
+	 * Used to append the given value to the text collected by
+	 * {@link #nextToken()}.
+	 * 
+	 * @param normalize
+	 *            <code>true</code> if the line endings in the value are to be
+	 *            normalized to <code>'\n'</code>, as they are in the text
+	 *            reported by {@link XmlPullParser#next()}; the value of a
+	 *            character reference like <code>&amp;#13;</code> is left
+	 *            alone.
+	 */
+	private void appendTokenText(String value, boolean normalize) {
+		int length = value.length();
+
+		if (tokenText == null || tokenTextLength + length > tokenText.length)
+			tokenText = grow(tokenText, tokenTextLength + length);
+
+		if (!normalize || value.indexOf('\r') == -1) {
+			value.getChars(0, length, tokenText, tokenTextLength);
+			tokenTextLength += length;
+			return;
+		}
+
+		for (int i = 0; i < length; i++) {
+			char c = value.charAt(i);
+
+			if (c == '\r') {
+				c = '\n';
+
+				if (i + 1 < length && value.charAt(i + 1) == '\n')
+					i++;
+			}
+
+			tokenText[tokenTextLength++] = c;
+		}
+	}
+
+	/**
+	 * Used to get the characters of the current text event, setting the
+	 * offset and length of the text in them in {@link #textHolder}.
+	 */
+	private char[] getTextCharacters() {
+		if (!tokenEvent)
+			return xpp.getTextCharacters(textHolder);
+
+		textHolder[0] = 0;
+		textHolder[1] = tokenTextLength;
+		return tokenText;
+	}
+
+	/**
+	 * Used to get the current text event as a {@link String}.
+	 */
+	private String getText() {
+		return (tokenEvent ? new String(tokenText, 0, tokenTextLength) : xpp
+				.getText());
+	}
+
+	/**
+	 * Used by {@link XMLRewriter} to read every token of the documents parsed
+	 * from here on (see {@link #nextToken()}) or go back to reading only the
+	 * events processed by the parser.
+	 */
+	void setReadTokens(boolean readTokens) {
+		this.readTokens = readTokens;
+
+		if (textHolder == null)
+			textHolder = new int[2];
+	}
+
+	/**
+	 * Used by {@link XMLRewriter} while processing a
+	 * {@link XmlPullParser#START_TAG} to have the content of the element read
+	 * without processing any of it; the next event is the element's
+	 * {@link XmlPullParser#END_TAG}.
+	 */
+	void skipElement() {
+		dropDepth = xpp.getDepth();
+	}
+
+	/**
+	 * Used to process a token read by {@link #nextToken()} that is not an
+	 * event of its own: text, CDATA sections and entity references (before
+	 * the {@link XmlPullParser#TEXT} event they are part of), comments,
+	 * processing instructions, the document type declaration and whitespace
+	 * outside of the root element.
+	 * <p/>
+	 * By default this does nothing; {@link XMLRewriter} overrides it to copy
+	 * the tokens to its output.
+	 */
+	void doToken(int event) {
+		// no-op impl
+	}
+
+	XmlPullParser getPullParser() {
+		return xpp;
+	}
+
+	/**
+	 * Used to register the current thread with the {@link CancelToken}, if
+	 * there is one, and fail right away if parsing was already cancelled.
+	 */
+	private void startCancelChecks() throws XMLParserCancelledException {
+		if (cancelToken != null)
+			cancelToken.enter();
+
+		checkCancelled();
+	}
+
+	/**
+	 * Used to check if parsing was cancelled by the {@link CancelToken}, the
+	 * timeout or an interrupt of the parsing thread, then wait another
+	 * {@link #CANCEL_CHECK_INTERVAL} events before checking again.
+	 * 
+	 * @throws XMLParserCancelledException
+	 *             if parsing was cancelled.
+	 */
+	private void checkCancelled() throws XMLParserCancelledException {
+		cancelCheckCountdown = CANCEL_CHECK_INTERVAL;
+
+		if (cancelToken != null && cancelToken.isCancelled())
+			throw new XMLParserCancelledException(
+					"Parsing was cancelled by its CancelToken.", false);
+		if (timeout > 0 && System.nanoTime() - deadline > 0)
+			throw new XMLParserCancelledException(
+					"Parsing did not finish within the timeout of [" + timeout
+							+ "ms].", true);
+		if (Thread.currentThread().isInterrupted())
+			throw new XMLParserCancelledException(
+					"The parsing thread was interrupted.", false);
+	}
+
+	/**
+	 * Used to check the current event against the limits set with
+	 * {@link #setLimit(Limit, long)}, other than {@link Limit#BYTES}.
+	 * 
+	 * @param rootDepth
+	 *            The depth of the pull parser outside of the document's root
+	 *            element.
+	 * 
+	 * @throws XMLParserLimitException
+	 *             if the event goes over any of the limits.
+	 */
+	private void checkLimits(int event, int rootDepth)
+			throws XMLParserLimitException {
+		if (++eventCount > maxEvents)
+			throw limitExceeded(Limit.EVENTS, maxEvents, "events");
+
+		if (event == XmlPullParser.START_TAG) {
+			if (xpp.getDepth() - rootDepth > maxDepth)
+				throw limitExceeded(Limit.DEPTH, maxDepth, "nested elements");
+
+			int count = xpp.getAttributeCount();
+
+			if (count > maxAttributeCount)
+				throw limitExceeded(Limit.ATTRIBUTE_COUNT, maxAttributeCount,
+						"attributes on an element");
+
+			if (maxAttributeLength != NO_LIMIT) {
+				for (int i = 0; i < count; i++) {
+					if (xpp.getAttributeValue(i).length() > maxAttributeLength)
+						throw limitExceeded(Limit.ATTRIBUTE_LENGTH,
+								maxAttributeLength,
+								"characters in an attribute value");
+				}
+			}
+		} else if (event == XmlPullParser.TEXT && maxTextLength != NO_LIMIT) {
+			// Only the length is needed, don't create a String for it
+			getTextCharacters();
+
+			if (textHolder[1] > maxTextLength)
+				throw limitExceeded(Limit.TEXT_LENGTH, maxTextLength,
+						"characters in a text node");
+		}
+	}
+
+	/**
+	 * Used to create the exception for a limit the current event went over.
+	 */
+	private XMLParserLimitException limitExceeded(Limit limit, long maximum,
+			String counted) {
+		return new XMLParserLimitException(limit, maximum,
+				"Document has more than the maximum of [" + maximum + "] "
+						+ counted + " " + xpp.getPositionDescription());
+	}
+
+	/**
+	 * Used to refuse a document held in bytes right away if it is larger
+	 * than the {@link Limit#BYTES} limit.
+	 * 
+	 * @throws XMLParserLimitException
+	 *             if <code>length</code> is over the limit.
+	 */
+	private void checkBytes(long length) throws XMLParserLimitException {
+		if (length > maxBytes)
+			throw new XMLParserLimitException(Limit.BYTES, maxBytes,
+					"Document of [" + length
+							+ "] bytes is larger than the maximum of ["
+							+ maxBytes + "] bytes.");
+	}
+
+	/**
+	 * Used to append the markup of the current start tag to the capture,
+	 * starting a new capture first if there are {@link Type#CAPTURE} rules
+	 * targeting the given node.
+	 */
+	private void captureStartTag(int node) {
+		if (ruleIndex.getCaptureRules(node) != null) {
+			if (captureCount == captureStarts.length) {
+				captureStarts = grow(captureStarts);
+				captureDepths = grow(captureDepths);
+				captureNodes = grow(captureNodes);
+			}
+
+			captureStarts[captureCount] = captureLength;
+			captureDepths[captureCount] = xpp.getDepth();
+			captureNodes[captureCount++] = node;
+		}
+
+		String tag = xpp.getText();
+		boolean emptyTag;
+
+		try {
+			emptyTag = xpp.isEmptyElementTag();
+		} catch (XmlPullParserException e) {
+			throw new XMLParserException(
+					"Unable to capture the start tag at location [" + this
+							+ "].", e);
+		}
+
+		if (!isStartTagMarkup(tag))
+			tag = buildStartTag(emptyTag);
+
+		appendCapture(null, tag, null);
+
+		// The END_TAG of an empty element reports the same "<name/>" again
+		captureEmptyTag = emptyTag;
+	}
+
+	/**
+	 * Used to check if the given text reported by the pull parser for a
+	 * {@link XmlPullParser#START_TAG} is the markup of the tag.
+	 * <p/>
+	 * The pull parser loses the markup of a start tag with entity or character
+	 * references in its attribute values, reporting the replacement text of
+	 * the last one instead (e.g. <code>"A"</code> for
+	 * <code>&lt;c k='a&amp;#65;b'&gt;</code>), which is never a whole tag.
 	 */
-	protected void doParse(T userObject) throws IOException,
-			XmlPullParserException {
-		location.clear();
-		continueParsing = true;
+	static boolean isStartTagMarkup(String tag) {
+		return (tag != null && tag.length() > 1 && tag.charAt(0) == '<' && tag
+				.charAt(tag.length() - 1) == '>');
+	}
 
-		if (DEBUG)
-			log("Parsing starting...");
+	/**
+	 * Used to build the markup of the current start tag from its parsed name,
+	 * namespace declarations and attributes, when the pull parser lost the
+	 * original one (see {@link #isStartTagMarkup(String)}).
+	 */
+	private String buildStartTag(boolean emptyTag) {
+		StringBuilder tag = new StringBuilder(64).append('<');
+		String prefix = xpp.getPrefix();
 
-		long startTime = System.currentTimeMillis();
+		if (prefix != null)
+			tag.append(prefix).append(':');
 
-		while (continueParsing) {
-			switch (xpp.next()) {
-			case XmlPullParser.START_TAG:
-				doStartTag(userObject);
+		tag.append(xpp.getName());
+
+		try {
+			// Namespace declarations are not reported as attributes
+			if (xpp.getFeature(XmlPullParser.FEATURE_PROCESS_NAMESPACES)) {
+				int depth = xpp.getDepth();
+
+				for (int i = xpp.getNamespaceCount(depth - 1), count = xpp
+						.getNamespaceCount(depth); i < count; i++) {
+					prefix = xpp.getNamespacePrefix(i);
+
+					tag.append(prefix == null ? " xmlns" : " xmlns:" + prefix);
+					appendAttributeValue(tag, xpp.getNamespaceUri(i));
+				}
+			}
+		} catch (XmlPullParserException e) {
+			throw new XMLParserException(
+					"Unable to get the namespace declarations of the start tag at location ["
+							+ this + "].", e);
+		}
+
+		for (int i = 0, count = xpp.getAttributeCount(); i < count; i++) {
+			prefix = xpp.getAttributePrefix(i);
+			tag.append(' ');
+
+			if (prefix != null)
+				tag.append(prefix).append(':');
+
+			tag.append(xpp.getAttributeName(i));
+			appendAttributeValue(tag, xpp.getAttributeValue(i));
+		}
+
+		return tag.append(emptyTag ? "/>" : ">").toString();
+	}
+
+	/**
+	 * Used to append <code>="value"</code> to the given tag, escaping the
+	 * characters of the value that would not read back the same.
+	 */
+	private static void appendAttributeValue(StringBuilder tag, String value) {
+		tag.append("=\"");
+
+		for (int i = 0, length = value.length(); i < length; i++) {
+			char c = value.charAt(i);
+
+			switch (c) {
+			case '&':
+				tag.append("&amp;");
 				break;
 
-			case XmlPullParser.TEXT:
-				doText(userObject);
+			case '<':
+				tag.append("&lt;");
 				break;
 
-			case XmlPullParser.END_TAG:
-				doEndTag(userObject);
+			case '"':
+				tag.append("&quot;");
 				break;
 
-			case XmlPullParser.END_DOCUMENT:
-				continueParsing = false;
-				doEndDocument(userObject);
+			// Whitespace in attribute values is normalized to spaces
+			case '\t':
+				tag.append("&#9;");
+				break;
+
+			case '\n':
+				tag.append("&#10;");
 				break;
+
+			case '\r':
+				tag.append("&#13;");
+				break;
+
+			default:
+				tag.append(c);
 			}
 		}
 
-		if (DEBUG) {
-			long duration = System.currentTimeMillis() - startTime;
-			log("Parse COMPLETE, elapsed time: %dms (approx %f seconds)",
-					duration, (double) duration / (double) 1000);
-		}
+		tag.append('"');
 	}
 
 	/**
-	 * Used to process a {@link XmlPullParser#START_TAG} event.
-	 * <p/>
-	 * By default this updates the internal location state of the parser,
-	 * processes all {@link IRule}s of type {@link Type#TAG} and processes all
-	 * {@link IRule}s of type {@link Type#ATTRIBUTE} that match the parser's
-	 * current location.
-	 * 
-	 * @param userObject
-	 *            The user-supplied object passed through from this parse method
-	 *            to the matching {@link IRule}'s <code>handleXXX</code> method
-	 *            when a match is found, or <code>null</code> if no user object
-	 *            is needed. Passing through a user-object is just meant as a
-	 *            convenience for giving the handler methods on the
-	 *            {@link IRule}'s access to objects like DAOs that can be used
-	 *            to persist or process parsed data easily.
+	 * Used to append the markup of the current end tag to the capture and
+	 * hand the captured markup to the {@link Type#CAPTURE} rules of the
+	 * element being closed, if it is the innermost one being captured.
 	 */
-	protected void doStartTag(T userObject) {
-		// Update parser location
-		location.push(xpp.getName(), xpp.getNamespace());
-
-		if (DEBUG)
-			log("START_TAG: %s", location);
+	private void captureEndTag(T userObject) {
+		if (captureEmptyTag)
+			captureEmptyTag = false;
+		else
+			appendCapture(null, xpp.getText(), null);
 
-		// Get the rules for the current path
-		List<IRule<T>> tagRuleList = tagRuleMap.get(location
-				.getCachedHashCode());
-		List<IRule<T>> attrRuleList = attrRuleMap.get(location
-				.getCachedHashCode());
+		int index = captureCount - 1;
 
-		// If there are no rules for the current path, then we are done.
-		if ((tagRuleList == null || tagRuleList.isEmpty())
-				&& (attrRuleList == null || attrRuleList.isEmpty()))
+		if (captureDepths[index] != xpp.getDepth())
 			return;
 
+		IRule<T>[] rules = ruleIndex.getCaptureRules(captureNodes[index]);
+		int start = captureStarts[index];
+
 		if (DEBUG)
-			log("\t%d TAG rules and %d ATTR rules found for START_TAG...",
-					(tagRuleList == null ? 0 : tagRuleList.size()),
-					(attrRuleList == null ? 0 : attrRuleList.size()));
+			log("\t%d CAPTURE rules found for END_TAG...",
+					(rules == null ? 0 : rules.length));
 
-		// Process the TAG rules
-		if (tagRuleList != null) {
-			for (int i = 0, size = tagRuleList.size(); i < size; i++) {
-				IRule<T> rule = tagRuleList.get(i);
+		// The rules may have been disabled since the capture started
+		for (int i = 0; rules != null && i < rules.length; i++) {
+			IRule<T> rule = rules[i];
 
-				if (DEBUG)
-					log("\t\tRunning TAG Rule: %s", rule);
+			if (DEBUG)
+				log("\t\tRunning CAPTURE Rule: %s", rule);
 
-				rule.handleTag(this, true, userObject);
+			RuleTimer timer = null;
+
+			if (ruleTimerMap != null) {
+				if ((timer = ruleTimerMap.get(rule)).skipped)
+					continue;
+
+				timer.startTime = System.nanoTime();
+			}
+
+			((ICaptureRule<T>) rule).handleCapturedMarkup(this, captureBuffer,
+					start, captureLength - start, userObject);
+
+			if (timer != null)
+				stopTimer(timer, rule, userObject);
+		}
+
+		// The outermost capture is done, start over at the front of the buffer
+		if (--captureCount == 0)
+			captureLength = 0;
+	}
+
+	/**
+	 * Used to add the current element to the fragment being built, starting a
+	 * new one first if there are {@link Type#FRAGMENT} rules targeting the
+	 * given node.
+	 */
+	private void fragmentStartTag(int node) {
+		int id = fragment.startElement(xpp);
+
+		if (ruleIndex.getFragmentRules(node) != null) {
+			if (fragmentCount == fragmentRoots.length) {
+				fragmentRoots = grow(fragmentRoots);
+				fragmentDepths = grow(fragmentDepths);
+				fragmentNodes = grow(fragmentNodes);
 			}
+
+			fragmentRoots[fragmentCount] = id;
+			fragmentDepths[fragmentCount] = xpp.getDepth();
+			fragmentNodes[fragmentCount++] = node;
 		}
+	}
 
-		// Process the ATTR rules
-		if (attrRuleList != null) {
-			for (int i = 0, size = attrRuleList.size(); i < size; i++) {
-				IRule<T> rule = attrRuleList.get(i);
+	/**
+	 * Used to close the current element in the fragment being built and hand
+	 * it to the {@link Type#FRAGMENT} rules of the element, if it is the
+	 * innermost one a fragment was started for.
+	 */
+	private void fragmentEndTag(T userObject) {
+		fragment.endElement();
 
-				if (DEBUG)
-					log("\t\tRunning ATTR Rule: %s", rule);
+		int index = fragmentCount - 1;
 
-				String[] attrNames = rule.getAttributeNames();
+		if (fragmentDepths[index] != xpp.getDepth())
+			return;
 
-				// Be safe, jump to the next rule if this one has no name
-				// entries
-				if (attrNames == null || attrNames.length == 0)
-					continue;
+		IRule<T>[] rules = ruleIndex.getFragmentRules(fragmentNodes[index]);
+		fragment.setRoot(fragmentRoots[index]);
 
-				/*
-				 * PERFORMANCE: Generating the substrings is the fastest way to
-				 * parse out the matching rules as it shares the same underlying
-				 * char[] used to represent the entire location path or
-				 * attribute name and just creates a new simple String instance
-				 * with modified index/offset values that is GC'ed quickly and
-				 * easily (uses a special package-protected String constructor).
-				 * 
-				 * Using regexp to match, splitting the rule or just about any
-				 * other approach would have been magnitudes more expensive both
-				 * in memory and CPU requirements than doing a simple substring.
-				 */
-				for (int j = 0; j < attrNames.length; j++) {
-					String attrName = attrNames[j];
-					String localName = null;
-					String namespaceURI = null;
-
-					// Parse the namespaceURI out of the name if necessary
-					if (attrName.charAt(0) == '[') {
-						int endIndex = attrName.indexOf(']');
-
-						/*
-						 * Make sure the rule is valid so we avoid out of bounds
-						 * and keep the caller informed when their rules are
-						 * busted by failing fast.
-						 */
-						if (endIndex <= 2)
-							throw new XMLParserException(
-									"namespace URI for rule looks to be incomplete or empty for IRule: "
-											+ rule);
-
-						namespaceURI = attrName.substring(1, endIndex);
-					}
+		if (DEBUG)
+			log("\t%d FRAGMENT rules found for END_TAG...",
+					(rules == null ? 0 : rules.length));
 
-					int startIndex = (namespaceURI == null ? 0 : namespaceURI
-							.length() + 2);
+		// The rules may have been disabled since the fragment started
+		for (int i = 0; rules != null && i < rules.length; i++) {
+			IRule<T> rule = rules[i];
 
-					/*
-					 * Make sure the rule is valid so we avoid out of bounds and
-					 * keep the caller informed when their rules are busted by
-					 * failing fast.
-					 */
-					if (attrName.length() - startIndex <= 1)
-						throw new XMLParserException(
-								"local name for rule looks to be missing for IRule: "
-										+ rule);
-
-					// Parse the local name
-					localName = attrName.substring(startIndex,
-							attrName.length());
-
-					// Give the parsed attribute value to the matching rule
-					rule.handleParsedAttribute(this, j,
-							xpp.getAttributeValue(namespaceURI, localName),
-							userObject);
-				}
+			if (DEBUG)
+				log("\t\tRunning FRAGMENT Rule: %s", rule);
+
+			RuleTimer timer = null;
+
+			if (ruleTimerMap != null) {
+				if ((timer = ruleTimerMap.get(rule)).skipped)
+					continue;
+
+				timer.startTime = System.nanoTime();
 			}
+
+			((IFragmentRule<T>) rule).handleFragment(this, fragment,
+					userObject);
+
+			if (timer != null)
+				stopTimer(timer, rule, userObject);
 		}
+
+		// The outermost fragment is done, re-use the arena for the next one
+		if (--fragmentCount == 0)
+			fragment.clear();
 	}
 
 	/**
-	 * Used to process a {@link XmlPullParser#TEXT} event.
-	 * <p/>
-	 * By default this processes all {@link IRule}s of type
-	 * {@link Type#CHARACTER} that match the parser's current location.
+	 * Used to append the given markup (any of which can be <code>null</code>)
+	 * to the capture buffer, growing it up to the capture limit.
 	 * 
-	 * @param userObject
-	 *            The user-supplied object passed through from this parse method
-	 *            to the matching {@link IRule}'s <code>handleXXX</code> method
-	 *            when a match is found, or <code>null</code> if no user object
-	 *            is needed. Passing through a user-object is just meant as a
-	 *            convenience for giving the handler methods on the
-	 *            {@link IRule}'s access to objects like DAOs that can be used
-	 *            to persist or process parsed data easily.
+	 * @throws XMLParserException
+	 *             if the markup would exceed the capture limit.
 	 */
-	protected void doText(T userObject) {
-		if (DEBUG)
-			log("TEXT: %s", location);
+	private void appendCapture(String prefix, String value, String suffix)
+			throws XMLParserException {
+		int length = (prefix == null ? 0 : prefix.length())
+				+ (value == null ? 0 : value.length())
+				+ (suffix == null ? 0 : suffix.length());
+
+		if (length > captureLimit - captureLength)
+			throw new XMLParserException("Captured markup at location ["
+					+ location + "] exceeds the capture limit of "
+					+ captureLimit + " characters.");
+
+		if (captureBuffer == null
+				|| captureLength + length > captureBuffer.length) {
+			int capacity = Math.max(captureLength + length,
+					(captureBuffer == null ? 1024 : captureBuffer.length * 2));
+			char[] newBuffer = new char[Math.min(capacity, captureLimit)];
+
+			if (captureBuffer != null)
+				System.arraycopy(captureBuffer, 0, newBuffer, 0, captureLength);
+
+			captureBuffer = newBuffer;
+		}
 
-		// Get the rules for the current path
-		List<IRule<T>> ruleList = charRuleMap.get(location.getCachedHashCode());
+		if (prefix != null) {
+			prefix.getChars(0, prefix.length(), captureBuffer, captureLength);
+			captureLength += prefix.length();
+		}
 
-		// If there are no rules for the current path, then we are done.
-		if (ruleList == null || ruleList.isEmpty())
-			return;
+		if (value != null) {
+			value.getChars(0, value.length(), captureBuffer, captureLength);
+			captureLength += value.length();
+		}
 
-		if (DEBUG)
-			log("\t%d rules found for TEXT...", ruleList.size());
+		if (suffix != null) {
+			suffix.getChars(0, suffix.length(), captureBuffer, captureLength);
+			captureLength += suffix.length();
+		}
+	}
 
-		String text = xpp.getText();
+	private static char[] grow(char[] array, int minimumLength) {
+		char[] newArray = new char[Math.max(minimumLength,
+				(array == null ? 1024 : array.length * 2))];
 
-		// Give the parsed text to all matching IRules for this path
-		for (int i = 0, size = ruleList.size(); i < size; i++) {
-			IRule<T> rule = ruleList.get(i);
+		if (array != null)
+			System.arraycopy(array, 0, newArray, 0, array.length);
 
-			if (DEBUG)
-				log("\t\tRunning Rule: %s", rule);
+		return newArray;
+	}
 
-			rule.handleParsedCharacters(this, text, userObject);
-		}
+	private static int[] grow(int[] array) {
+		int[] newArray = new int[array.length * 2];
+		System.arraycopy(array, 0, newArray, 0, array.length);
+		return newArray;
 	}
 
 	/**
@@ -783,23 +2981,40 @@ public class XMLParser<T> {
 	 *            to persist or process parsed data easily.
 	 */
 	protected void doEndTag(T userObject) {
+		if (captureCount > 0)
+			captureEndTag(userObject);
+
+		if (fragmentCount > 0)
+			fragmentEndTag(userObject);
+
 		// Get the rules for the current path
-		List<IRule<T>> tagRuleList = tagRuleMap.get(location
-				.getCachedHashCode());
+		IRule<T>[] tagRules = ruleIndex.getTagRules(location.getNode());
 
 		// If there are no rules for the current path, then we are done.
-		if (tagRuleList != null && !tagRuleList.isEmpty()) {
+		if (tagRules != null) {
 			if (DEBUG)
-				log("\t%d TAG rules found for END_TAG...", tagRuleList.size());
+				log("\t%d TAG rules found for END_TAG...", tagRules.length);
 
 			// Process the TAG rules
-			for (int i = 0, size = tagRuleList.size(); i < size; i++) {
-				IRule<T> rule = tagRuleList.get(i);
+			for (int i = 0; i < tagRules.length; i++) {
+				IRule<T> rule = tagRules[i];
 
 				if (DEBUG)
 					log("\t\tRunning TAG Rule: %s", rule);
 
+				RuleTimer timer = null;
+
+				if (ruleTimerMap != null) {
+					if ((timer = ruleTimerMap.get(rule)).skipped)
+						continue;
+
+					timer.startTime = System.nanoTime();
+				}
+
 				rule.handleTag(this, false, userObject);
+
+				if (timer != null)
+					stopTimer(timer, rule, userObject);
 			}
 		}
 
@@ -831,6 +3046,189 @@ public class XMLParser<T> {
 			log("END_DOCUMENT, Parsing COMPLETE");
 	}
 
+	/**
+	 * Used to set up the {@link ByteSourceReader} re-used by every parse of a
+	 * document held in bytes.
+	 */
+	private void prepareByteReader(String encoding)
+			throws UnsupportedEncodingException {
+		if (byteReader == null)
+			byteReader = new ByteSourceReader();
+
+		if (skipUnmatched && skipper == null)
+			skipper = new MarkupSkipper(ruleIndex,
+					xpp.getFeature(XmlPullParser.FEATURE_PROCESS_NAMESPACES));
+
+		byteReader.setEncoding(encoding);
+		byteReader.setSkipper(skipUnmatched ? skipper : null);
+	}
+
+	/**
+	 * Used to reset the per-document state of the parser; its location, any
+	 * batched matches left over from a failed parse, the time spent in each
+	 * rule and the deadline of the timeout.
+	 */
+	private void resetDocument() {
+		location.clear();
+		eventCount = 0;
+
+		if (timeout > 0)
+			deadline = System.nanoTime() + timeout * 1000000L;
+
+		captureLength = captureCount = 0;
+		captureEmptyTag = false;
+
+		tokenEvent = false;
+		pendingEvent = -1;
+		tokenTextLength = dropDepth = 0;
+
+		if (fragmentCount > 0) {
+			fragmentCount = 0;
+			fragment.clear();
+		}
+
+		if (batch != null)
+			batch.clear();
+
+		if (ruleTimerMap != null) {
+			for (int i = 0; i < rules.length; i++)
+				ruleTimerMap.get(rules[i]).resetDocument();
+		}
+	}
+
+	/**
+	 * Used to read up to the given number of bytes into the start of the
+	 * given buffer, blocking until they have all been read or the stream ends.
+	 * 
+	 * @return the number of bytes read.
+	 */
+	private static int readFully(InputStream in, byte[] buffer, int length)
+			throws IOException {
+		int count = 0;
+
+		while (count < length) {
+			int read = in.read(buffer, count, length - count);
+
+			if (read == -1)
+				break;
+
+			count += read;
+		}
+
+		return count;
+	}
+
+	/**
+	 * Used to record the time elapsed since the given timer was started into
+	 * its histogram and consult the budget policy (if there is one) the first
+	 * time the rule's total time for the current document goes over budget.
+	 * 
+	 * @param timer
+	 *            The timer of the rule that just returned from its handler.
+	 * @param rule
+	 *            The rule that just returned from its handler.
+	 * @param userObject
+	 *            The user-supplied object passed through to the handler.
+	 */
+	private void stopTimer(RuleTimer timer, IRule<T> rule, T userObject) {
+		long elapsedTime = System.nanoTime() - timer.startTime;
+
+		timer.histogram.record(elapsedTime);
+		timer.documentTime += elapsedTime;
+
+		if (budgetPolicy == null || timer.budgetExceeded
+				|| timer.documentTime <= ruleBudget)
+			return;
+
+		timer.budgetExceeded = true;
+		Action action = budgetPolicy.budgetExceeded(this, rule,
+				timer.documentTime, userObject);
+
+		if (DEBUG)
+			log("\t\tRule exceeded budget [elapsed=%dns, action=%s]: %s",
+					timer.documentTime, action, rule);
+
+		if (action == Action.SKIP_RULE)
+			timer.skipped = true;
+		else if (action == Action.STOP)
+			stop();
+	}
+
+	/**
+	 * The hard limits that can be set on the documents a parser accepts with
+	 * {@link XMLParser#setLimit(Limit, long)}.
+	 * <p/>
+	 * The pull parser holds an entire text node or start tag in memory before
+	 * reporting it, so the length limits protect the rules and everything
+	 * they build from oversized values; {@link #BYTES} is what bounds the
+	 * pull parser's own buffers.
+	 * <p/>
+	 * There is no limit on entity expansion since XPP3 never expands entities
+	 * declared in a DTD (referencing one fails the parse); the only entities
+	 * expanded are the predefined and character references, which are never
+	 * longer than the markup they replace.
+	 * 
+	 * @author Riyad Kalla (software@thebuzzmedia.com)
+	 */
+	public static enum Limit {
+		/**
+		 * The number of elements nested inside of each other, counting the
+		 * root element.
+		 */
+		DEPTH,
+		/**
+		 * The number of characters in a single text event. Text is reported
+		 * in one event up to the next markup, or up to the next comment or
+		 * entity reference while a {@link Type#CAPTURE} rule is capturing.
+		 */
+		TEXT_LENGTH,
+		/**
+		 * The number of characters in the value of a single attribute.
+		 */
+		ATTRIBUTE_LENGTH,
+		/**
+		 * The number of attributes on a single element.
+		 */
+		ATTRIBUTE_COUNT,
+		/**
+		 * The number of bytes in a document. Documents held in bytes (or
+		 * frames) are refused before parsing starts; streams fail as soon as
+		 * too many bytes are read from them. When parsing a stream of
+		 * concatenated documents the pull parser reads ahead of the document
+		 * it is parsing, so the count for every document is only accurate to
+		 * within one read.
+		 */
+		BYTES,
+		/**
+		 * The number of start tag, text and end tag events in a document.
+		 */
+		EVENTS
+	}
+
+	/**
+	 * Simple holder of the timing state for a single {@link IRule}; the
+	 * histogram of all its handler latencies and the time it has spent in its
+	 * handlers during the current document.
+	 */
+	static class RuleTimer {
+		private long startTime;
+		private long documentTime;
+		private boolean budgetExceeded;
+		private boolean skipped;
+
+		private LatencyHistogram histogram = new LatencyHistogram();
+
+		/**
+		 * Used to clear the per-document state of the timer at the start of a
+		 * new parse. The histogram is left untouched.
+		 */
+		void resetDocument() {
+			documentTime = 0;
+			budgetExceeded = false;
+			skipped = false;
+		}
+	}
+
 	/**
 	 * Simple and fast class used to mock the behavior of a stack in the form of
 	 * a string for the purposes of "pushing" and "popping" the parser's current
@@ -844,128 +3242,68 @@ public class XMLParser<T> {
 	 * {@link System#arraycopy(Object, int, Object, int, int)}) has been
 	 * completely removed and replaced with using simple integer hash codes.
 	 * <p/>
-	 * The performance improvement is huge over the original toString-based
-	 * method of matching {@link IRule}'s <code>locationPath</code>s against the
-	 * parser's current location.
+	 * As of SJXP 2.3 the location also walks the {@link RuleIndex} one path
+	 * segment at a time as elements are pushed, keeping a stack of the
+	 * {@link RuleIndex} node ids for every open element. Matching the current
+	 * location against the rules is then a simple array read instead of
+	 * re-hashing the entire path on every event. The path lengths needed to
+	 * "pop" are kept in a plain <code>int[]</code> so nothing is ever boxed.
 	 * 
 	 * @author Riyad Kalla (software@thebuzzmedia.com)
 	 */
 	class Location {
-		private static final int HASH_CODE_CACHE_SIZE = 512;
-
-		private int hashCode;
-		private Integer[] hashCodeCache;
+		private int depth;
+		private int[] nodes;
+		private String[] localNames;
+		private String[] namespaceURIs;
 
 		private StringBuilder path;
-		private List<Integer> lengthList;
+		private int[] lengths;
 
 		/**
 		 * Creates a new empty location.
 		 */
 		public Location() {
-			hashCode = 0;
-			hashCodeCache = new Integer[HASH_CODE_CACHE_SIZE];
+			depth = 0;
+			nodes = new int[16];
+			nodes[0] = RuleIndex.ROOT;
+			localNames = new String[16];
+			namespaceURIs = new String[16];
 
 			path = new StringBuilder(256);
-			lengthList = new ArrayList<Integer>(16);
+			lengths = new int[16];
 		}
 
 		/**
-		 * Overridden to calculate the hash code of this location using the
-		 * exact same hash code calculation that {@link String#hashCode()} uses.
-		 * This allows us to say a <code>String</code> with the content
-		 * "/library/book/title" is equal to an instance of this class
-		 * representing the same location when doing lookups in a {@link Map}.
-		 * <p/>
-		 * This method calculates the hash code and then caches it, followup
-		 * calls to {@link #push(String, String)} or {@link #pop()} invalidate
-		 * the cached hash code allowing it to be recalculated again on the next
-		 * call.
+		 * Overridden to return the location path this location represents,
+		 * e.g. "/library/book/title".
+		 * 
+		 * @return the location path this location represents.
 		 */
 		@Override
-		public int hashCode() {
-			/*
-			 * If the hash code is already 0 and our path is empty, there is
-			 * nothing to compute so the hash code stays 0. Otherwise we drop
-			 * into the for-loop and calculate the String-equivalent hash code.
-			 */
-			if (hashCode == 0 && path.length() > 0) {
-				for (int i = 0, length = path.length(); i < length; i++) {
-					hashCode = 31 * hashCode + path.charAt(i);
-				}
-			}
-
-			return hashCode;
+		public String toString() {
+			return path.toString();
 		}
 
 		/**
-		 * Used to get a cached {@link Integer} version of the <code>int</code>
-		 * {@link #hashCode()} return value.
-		 * <p/>
-		 * To avoid unnecessary {@link Integer} allocations, this method caches
-		 * up to a certain number of {@link Integer} instances, re-using them
-		 * every time the same hash code value comes back up and creating new
-		 * instances when it doesn't.
-		 * <p/>
-		 * If a larger number of {@link Integer} instances are created than the
-		 * underlying cache can hold, then a new instance will be created and
-		 * returned like normal.
-		 * <h3>Design</h3>
-		 * The reason this works so well for parsing XML is because of the
-		 * nested, tag-matching structure of XML. When considering unique paths
-		 * inside of an XML doc (e.g. "/library", "/library/book", etc.) there
-		 * are typically not that many; maybe 20, 50 or less than a 100 in most
-		 * cases.
-		 * <p/>
-		 * Once the hash code {@link Integer} values for these unique paths is
-		 * created and cached, once we re-encounter that path again and again,
-		 * we don't need to recreate that hash code {@link Integer}, we can just
-		 * use the one from the previous occurrence.
+		 * Used to get the {@link RuleIndex} node id of the current location,
+		 * or {@link RuleIndex#NONE} if no rule targets this location or any
+		 * location beneath it.
 		 * 
-		 * @return a cached {@link Integer} version of the <code>int</code>
-		 *         {@link #hashCode()} return value.
+		 * @return the {@link RuleIndex} node id of the current location.
 		 */
-		public Integer getCachedHashCode() {
-			// Recalculate the hash code
-			hashCode();
-
-			// Figure out the index, in our cache, where this value WOULD be.
-			int index = hashCode % hashCodeCache.length;
-
-			// Absolute value only
-			if (index < 0)
-				index = -index;
-
-			// Get the Integer we think represents our value.
-			Integer value = hashCodeCache[index];
-
-			// If we haven't created an Integer for this value yet, do it now.
-			if (value == null)
-				hashCodeCache[index] = (value = Integer.valueOf(hashCode));
-			/*
-			 * If a collision has occurred and we have filled up our cache
-			 * already and the Integer we grabbed doesn't represent our int
-			 * value, forget the cache and just create a new Integer the old
-			 * fashion way and return it.
-			 * 
-			 * The hope is that the cache is always large enough that we only
-			 * ever hit it and have no misses like this.
-			 */
-			else if (hashCode != value.intValue())
-				value = Integer.valueOf(hashCode);
-
-			return value;
+		public int getNode() {
+			return nodes[depth];
 		}
 
 		/**
 		 * Used to clear all the internal state of the location.
 		 */
 		public void clear() {
-			hashCode = 0;
-			hashCodeCache = new Integer[HASH_CODE_CACHE_SIZE];
+			depth = 0;
+			nodes[0] = RuleIndex.ROOT;
 
 			path.setLength(0);
-			lengthList.clear();
 		}
 
 		/**
@@ -980,11 +3318,36 @@ public class XMLParser<T> {
 		 *            tag.
 		 */
 		public void push(String localName, String namespaceURI) {
-			// Clear the hash code cache first to be safe.
-			hashCode = 0;
+			// Step into the matching child node (if any)
+			int node = ruleIndex.getChild(nodes[depth], localName,
+					namespaceURI);
+
+			if (++depth == nodes.length) {
+				int[] newNodes = new int[nodes.length * 2];
+				System.arraycopy(nodes, 0, newNodes, 0, nodes.length);
+				nodes = newNodes;
+
+				int[] newLengths = new int[lengths.length * 2];
+				System.arraycopy(lengths, 0, newLengths, 0, lengths.length);
+				lengths = newLengths;
+
+				String[] newLocalNames = new String[localNames.length * 2];
+				System.arraycopy(localNames, 0, newLocalNames, 0,
+						localNames.length);
+				localNames = newLocalNames;
+
+				String[] newNamespaceURIs = new String[namespaceURIs.length * 2];
+				System.arraycopy(namespaceURIs, 0, newNamespaceURIs, 0,
+						namespaceURIs.length);
+				namespaceURIs = newNamespaceURIs;
+			}
+
+			nodes[depth] = node;
+			localNames[depth] = localName;
+			namespaceURIs[depth] = namespaceURI;
 
 			// Remember the length before we inserted this last entry
-			lengthList.add(path.length());
+			lengths[depth] = path.length();
 
 			// Add separator
 			path.append('/');
@@ -1010,14 +3373,18 @@ public class XMLParser<T> {
 		 * {@link StringBuilder}.
 		 */
 		public void pop() {
-			// Clear the hash code cache first to be safe.
-			hashCode = 0;
-
-			// Get the length before the last insertion
-			Integer lastLength = lengthList.remove(lengthList.size() - 1);
-
 			// 'Pop' the last insertion by cropping the length to exclude it.
-			path.setLength(lastLength);
+			path.setLength(lengths[depth--]);
+		}
+
+		/**
+		 * Used to look up the {@link RuleIndex} node of every element of the
+		 * location again, after rules have been added to the index.
+		 */
+		public void resolve() {
+			for (int i = 1; i <= depth; i++)
+				nodes[i] = ruleIndex.getChild(nodes[i - 1], localNames[i],
+						namespaceURIs[i]);
 		}
 	}
-}
\ No newline at end of file
+}
@@ -0,0 +1,60 @@
+/**   
+ * Copyright 2011 The Buzz Media, LLC
+ * 
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *   http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.thebuzzmedia.sjxp;
+
+/**
+ * Unchecked exception thrown when a parse is cancelled before it finished;
+ * by a {@link CancelToken}, by running past the timeout set with
+ * {@link XMLParser#setTimeout(long)} or by the parsing thread being
+ * interrupted.
+ * 
+ * @author Riyad Kalla (software@thebuzzmedia.com)
+ */
+public class XMLParserCancelledException extends XMLParserException {
+	private static final long serialVersionUID = 1L;
+
+	private boolean timedOut;
+
+	/**
+	 * Create a new exception with the given message.
+	 * 
+	 * @param message
+	 *            The explanation of why the parse was cancelled.
+	 * @param timedOut
+	 *            <code>true</code> if the parse ran past its timeout.
+	 */
+	public XMLParserCancelledException(String message, boolean timedOut) {
+		super(message);
+		this.timedOut = timedOut;
+	}
+
+	/**
+	 * Create a new exception with the given message and cause.
+	 * 
+	 * @param message
+	 *            The explanation of why the parse was cancelled.
+	 * @param cause
+	 *            The underlying exception that occurred that caused this one to
+	 *            be created.
+	 */
+	public XMLParserCancelledException(String message, Exception cause) {
+		super(message, cause);
+	}
+
+	public boolean isTimedOut() {
+		return timedOut;
+	}
+}
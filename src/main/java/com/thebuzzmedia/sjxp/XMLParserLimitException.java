@@ -0,0 +1,58 @@
+/**   
+ * Copyright 2011 The Buzz Media, LLC
+ * 
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *   http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.thebuzzmedia.sjxp;
+
+/**
+ * Unchecked exception thrown when a document exceeds one of the limits set
+ * with {@link XMLParser#setLimit(XMLParser.Limit, long)}.
+ * <p/>
+ * Catching this subtype lets callers tell a document that was refused for
+ * being too large or too deep apart from one that is malformed.
+ * 
+ * @author Riyad Kalla (software@thebuzzmedia.com)
+ */
+public class XMLParserLimitException extends XMLParserException {
+	private static final long serialVersionUID = 1L;
+
+	private XMLParser.Limit limit;
+	private long maximum;
+
+	/**
+	 * Create a new exception for the given limit.
+	 * 
+	 * @param limit
+	 *            The limit that was exceeded.
+	 * @param maximum
+	 *            The maximum the limit was set to.
+	 * @param message
+	 *            The explanation of where the limit was exceeded.
+	 */
+	public XMLParserLimitException(XMLParser.Limit limit, long maximum,
+			String message) {
+		super(message);
+
+		this.limit = limit;
+		this.maximum = maximum;
+	}
+
+	public XMLParser.Limit getLimit() {
+		return limit;
+	}
+
+	public long getMaximum() {
+		return maximum;
+	}
+}
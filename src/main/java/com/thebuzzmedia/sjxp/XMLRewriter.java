@@ -0,0 +1,803 @@
+/**   
+ * Copyright 2011 The Buzz Media, LLC
+ * 
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *   http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.thebuzzmedia.sjxp;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.io.OutputStreamWriter;
+import java.io.UnsupportedEncodingException;
+import java.io.Writer;
+import java.nio.charset.Charset;
+import java.nio.charset.CharsetEncoder;
+import java.util.ArrayList;
+import java.util.List;
+
+import org.xmlpull.v1.XmlPullParser;
+import org.xmlpull.v1.XmlPullParserException;
+
+import com.thebuzzmedia.sjxp.rule.IRule;
+import com.thebuzzmedia.sjxp.rule.IRule.Type;
+
+/**
+ * Class used to copy a document to an {@link OutputStream} in a single
+ * streaming pass, letting its {@link IRule}s drop, rename or edit the
+ * elements, attributes and text they match on the way through.
+ * <p/>
+ * The rules are ordinary rules, called exactly like they are by
+ * {@link XMLParser}. While handling an event they can change how it is
+ * written out by calling:
+ * <ul>
+ * <li>{@link #dropElement()}, {@link #renameElement(String)},
+ * {@link #setAttribute(String, String)} and {@link #removeAttribute(String)}
+ * from a {@link Type#TAG} rule handling a start tag or a
+ * {@link Type#ATTRIBUTE} rule.</li>
+ * <li>{@link #replaceText(String)} from a {@link Type#CHARACTER} rule.</li>
+ * </ul>
+ * Everything else is copied through as it was read: tags, text, CDATA
+ * sections, entity and character references, comments, processing
+ * instructions and the document type declaration keep their original markup
+ * and the output is written in the encoding of the document, so untouched
+ * regions come out byte for byte the same. The exceptions are the XML
+ * declaration, which is written again with double quotes, the line breaks,
+ * which the pull parser normalizes to <code>\n</code>, and start tags with
+ * entity references in their attribute values, which the pull parser does
+ * not keep the markup of and are written again from their attributes.
+ * Edited start tags are written again from their attributes as well.
+ * <p/>
+ * Only the text of the current event and the current start tag are ever
+ * held in memory, so documents of any size are rewritten in constant memory.
+ * The content of a dropped element is read without being processed at all;
+ * no rules are called for anything inside of it.
+ * <p/>
+ * An example removing a password attribute and any debug elements would
+ * look like this:
+ * 
+ * <pre>
+ * final XMLRewriter rewriter = new XMLRewriter(new DefaultRule(Type.TAG,
+ * 		&quot;/config/debug&quot;) {
+ * 	public void handleTag(XMLParser parser, boolean isStartTag,
+ * 			Object userObject) {
+ * 		if (isStartTag)
+ * 			((XMLRewriter) parser).dropElement();
+ * 	}
+ * }, new DefaultRule(Type.TAG, &quot;/config/database&quot;) {
+ * 	public void handleTag(XMLParser parser, boolean isStartTag,
+ * 			Object userObject) {
+ * 		if (isStartTag)
+ * 			((XMLRewriter) parser).removeAttribute(&quot;password&quot;);
+ * 	}
+ * });
+ * 
+ * rewriter.rewrite(in, out);
+ * </pre>
+ * 
+ * The <code>parse</code> methods inherited from {@link XMLParser} run the
+ * rules without writing anything.
+ * 
+ * @param <T>
+ *            The class type of any user-supplied object that the caller wishes
+ *            to be passed through from one of the {@link XMLRewriter}'s
+ *            <code>rewrite</code> methods directly to the handler when an
+ *            {@link IRule} matches.
+ * 
+ * @author Riyad Kalla (software@thebuzzmedia.com)
+ */
+public class XMLRewriter<T> extends XMLParser<T> {
+	private static final String FEATURE_XML_ROUNDTRIP = "http://xmlpull.org/v1/doc/features.html#xml-roundtrip";
+	private static final String PROPERTY_XMLDECL_VERSION = "http://xmlpull.org/v1/doc/properties.html#xmldecl-version";
+	private static final String PROPERTY_XMLDECL_STANDALONE = "http://xmlpull.org/v1/doc/properties.html#xmldecl-standalone";
+
+	private XmlPullParser xpp;
+
+	private OutputStream target;
+	private String encoding;
+	private Writer out;
+	private CharsetEncoder encoder;
+
+	/**
+	 * The markup of the text read for the next {@link XmlPullParser#TEXT}
+	 * event.
+	 */
+	private StringBuilder markup = new StringBuilder();
+	private boolean inText;
+	private String textReplacement;
+
+	private boolean inStartTag;
+	private boolean drop;
+	private boolean dropped;
+	private boolean emptyTag;
+	private String elementName;
+	private List<String> attributeNames = new ArrayList<String>(4);
+	private List<String> attributeValues = new ArrayList<String>(4);
+
+	/**
+	 * The names of the renamed elements that are open, by depth.
+	 */
+	private String[] elementNames = new String[16];
+
+	/**
+	 * Create a new rewriter that uses the given {@link IRule}s when rewriting
+	 * any XML content.
+	 * 
+	 * @param rules
+	 *            The rules applied to any rewritten content.
+	 * 
+	 * @throws IllegalArgumentException
+	 *             if <code>rules</code> is <code>null</code> or empty.
+	 * @throws XMLParserException
+	 *             if the {@link #XPP_FACTORY} is unable to create a new
+	 *             {@link XmlPullParser} instance and throws an exception, or
+	 *             if the pull parser cannot report the original markup of the
+	 *             document.
+	 */
+	public XMLRewriter(IRule<T>... rules) throws IllegalArgumentException,
+			XMLParserException {
+		super(rules);
+		init();
+	}
+
+	/**
+	 * Create a new rewriter that uses the given {@link XmlPullParser} instead
+	 * of one created by {@link #XPP_FACTORY} and the given {@link IRule}s when
+	 * rewriting any XML content.
+	 * 
+	 * @param xpp
+	 *            The pull parser used to parse all XML content.
+	 * @param rules
+	 *            The rules applied to any rewritten content.
+	 * 
+	 * @throws IllegalArgumentException
+	 *             if <code>xpp</code> is <code>null</code> or if
+	 *             <code>rules</code> is <code>null</code> or empty.
+	 * @throws XMLParserException
+	 *             if the pull parser cannot report the original markup of the
+	 *             document.
+	 */
+	public XMLRewriter(XmlPullParser xpp, IRule<T>... rules)
+			throws IllegalArgumentException, XMLParserException {
+		super(xpp, rules);
+		init();
+	}
+
+	/**
+	 * Used to set the pull parser up to report the original markup of every
+	 * token.
+	 */
+	private void init() throws XMLParserException {
+		xpp = getPullParser();
+
+		try {
+			xpp.setFeature(FEATURE_XML_ROUNDTRIP, true);
+		} catch (XmlPullParserException e) {
+			throw new XMLParserException(
+					"XMLRewriter requires a pull parser that supports the "
+							+ FEATURE_XML_ROUNDTRIP + " feature.", e);
+		}
+	}
+
+	/**
+	 * Rewrite the XML document from the given stream to the given stream,
+	 * applying the {@link IRule}s provided when the {@link XMLRewriter} was
+	 * instantiated.
+	 * <p/>
+	 * See {@link #rewrite(InputStream, String, OutputStream, Object)} for
+	 * details.
+	 * 
+	 * @param source
+	 *            The stream to read the XML document from.
+	 * @param target
+	 *            The stream to write the rewritten document to.
+	 * 
+	 * @throws IllegalArgumentException
+	 *             if <code>source</code> or <code>target</code> is
+	 *             <code>null</code>.
+	 * @throws XMLParserException
+	 *             if the XML content is malformed and the underlying pull
+	 *             parser cannot parse it, or if writing to
+	 *             <code>target</code> fails.
+	 */
+	public void rewrite(InputStream source, OutputStream target)
+			throws IllegalArgumentException, XMLParserException {
+		try {
+			rewrite(source, null, target, null);
+		} catch (UnsupportedEncodingException e) {
+			// no-op, this should never happen as null is a valid encoding.
+		}
+	}
+
+	/**
+	 * Rewrite the XML document from the given stream to the given stream,
+	 * applying the {@link IRule}s provided when the {@link XMLRewriter} was
+	 * instantiated.
+	 * <p/>
+	 * See {@link #rewrite(InputStream, String, OutputStream, Object)} for
+	 * details.
+	 * 
+	 * @param source
+	 *            The stream to read the XML document from.
+	 * @param target
+	 *            The stream to write the rewritten document to.
+	 * @param userObject
+	 *            The user-supplied object passed through from this rewrite
+	 *            method to the matching {@link IRule}'s <code>handleXXX</code>
+	 *            method when a match is found, or <code>null</code> if no user
+	 *            object is needed.
+	 * 
+	 * @throws IllegalArgumentException
+	 *             if <code>source</code> or <code>target</code> is
+	 *             <code>null</code>.
+	 * @throws XMLParserException
+	 *             if the XML content is malformed and the underlying pull
+	 *             parser cannot parse it, or if writing to
+	 *             <code>target</code> fails.
+	 */
+	public void rewrite(InputStream source, OutputStream target, T userObject)
+			throws IllegalArgumentException, XMLParserException {
+		try {
+			rewrite(source, null, target, userObject);
+		} catch (UnsupportedEncodingException e) {
+			// no-op, this should never happen as null is a valid encoding.
+		}
+	}
+
+	/**
+	 * Rewrite the XML document from the given stream to the given stream,
+	 * applying the {@link IRule}s provided when the {@link XMLRewriter} was
+	 * instantiated.
+	 * <p/>
+	 * The document is written in the given encoding, or the encoding of the
+	 * document if <code>encoding</code> is <code>null</code>. The target
+	 * stream is flushed, but not closed, once the whole document has been
+	 * written. If rewriting fails part of the document may have been written
+	 * already.
+	 * 
+	 * @param source
+	 *            The stream to read the XML document from.
+	 * @param encoding
+	 *            The encoding of the document, or <code>null</code> to have
+	 *            the pull parser detect it.
+	 * @param target
+	 *            The stream to write the rewritten document to.
+	 * @param userObject
+	 *            The user-supplied object passed through from this rewrite
+	 *            method to the matching {@link IRule}'s <code>handleXXX</code>
+	 *            method when a match is found, or <code>null</code> if no user
+	 *            object is needed.
+	 * 
+	 * @throws IllegalArgumentException
+	 *             if <code>source</code> or <code>target</code> is
+	 *             <code>null</code>.
+	 * @throws UnsupportedEncodingException
+	 *             if <code>encoding</code> is not supported.
+	 * @throws XMLParserException
+	 *             if the XML content is malformed and the underlying pull
+	 *             parser cannot parse it, or if writing to
+	 *             <code>target</code> fails.
+	 */
+	public void rewrite(InputStream source, String encoding,
+			OutputStream target, T userObject) throws IllegalArgumentException,
+			UnsupportedEncodingException, XMLParserException {
+		if (target == null)
+			throw new IllegalArgumentException("target cannot be null");
+
+		this.target = target;
+		this.encoding = encoding;
+		setReadTokens(true);
+
+		try {
+			parse(source, encoding, userObject);
+
+			if (out != null)
+				out.flush();
+		} catch (IOException e) {
+			throw new XMLParserException(
+					"Unable to write the rewritten document to its stream.", e);
+		} finally {
+			setReadTokens(false);
+			this.target = null;
+			out = null;
+			encoder = null;
+			markup.setLength(0);
+			textReplacement = null;
+			inText = inStartTag = drop = dropped = emptyTag = false;
+		}
+	}
+
+	/**
+	 * Used to leave the element of the current start tag, everything inside
+	 * of it and its end tag out of the output. The content of the element is
+	 * read without calling any rules for it; the {@link Type#TAG} rules of
+	 * the element are still called for its end tag.
+	 * 
+	 * @throws XMLParserException
+	 *             if not called while handling a start tag.
+	 */
+	public void dropElement() throws XMLParserException {
+		checkStartTag();
+		drop = true;
+	}
+
+	/**
+	 * Used to write the element of the current start tag with the given name
+	 * instead of its own.
+	 * 
+	 * @param name
+	 *            The qualified name (e.g. <code>xhtml:div</code>) to write the
+	 *            element with.
+	 * 
+	 * @throws IllegalArgumentException
+	 *             if <code>name</code> is <code>null</code> or empty.
+	 * @throws XMLParserException
+	 *             if not called while handling a start tag.
+	 */
+	public void renameElement(String name) throws IllegalArgumentException,
+			XMLParserException {
+		if (name == null || name.length() == 0)
+			throw new IllegalArgumentException("name cannot be null or empty");
+
+		checkStartTag();
+		elementName = name;
+	}
+
+	/**
+	 * Used to write the current start tag with the given attribute set to the
+	 * given value, replacing the attribute's value if it has one or adding it
+	 * after the other attributes if not.
+	 * 
+	 * @param name
+	 *            The qualified name of the attribute as written in the
+	 *            document (e.g. <code>xml:lang</code>).
+	 * @param value
+	 *            The value of the attribute; it is escaped as needed when
+	 *            written.
+	 * 
+	 * @throws IllegalArgumentException
+	 *             if <code>name</code> is <code>null</code> or empty or if
+	 *             <code>value</code> is <code>null</code>.
+	 * @throws XMLParserException
+	 *             if not called while handling a start tag.
+	 */
+	public void setAttribute(String name, String value)
+			throws IllegalArgumentException, XMLParserException {
+		if (value == null)
+			throw new IllegalArgumentException("value cannot be null");
+
+		editAttribute(name, value);
+	}
+
+	/**
+	 * Used to write the current start tag without the given attribute.
+	 * 
+	 * @param name
+	 *            The qualified name of the attribute as written in the
+	 *            document (e.g. <code>xml:lang</code>).
+	 * 
+	 * @throws IllegalArgumentException
+	 *             if <code>name</code> is <code>null</code> or empty.
+	 * @throws XMLParserException
+	 *             if not called while handling a start tag.
+	 */
+	public void removeAttribute(String name) throws IllegalArgumentException,
+			XMLParserException {
+		editAttribute(name, null);
+	}
+
+	/**
+	 * Used to write the given text instead of the text of the current text
+	 * event.
+	 * 
+	 * @param text
+	 *            The text to write; it is escaped as needed when written, an
+	 *            empty text removes the current text.
+	 * 
+	 * @throws IllegalArgumentException
+	 *             if <code>text</code> is <code>null</code>.
+	 * @throws XMLParserException
+	 *             if not called while handling a text event.
+	 */
+	public void replaceText(String text) throws IllegalArgumentException,
+			XMLParserException {
+		if (text == null)
+			throw new IllegalArgumentException("text cannot be null");
+		if (!inText)
+			throw new XMLParserException(
+					"replaceText(String) can only be called while handling text.");
+
+		textReplacement = text;
+	}
+
+	/**
+	 * Overridden to write the start tag out once the rules have been called
+	 * for it, with any changes they made.
+	 */
+	@Override
+	protected void doStartTag(T userObject) {
+		drop = false;
+		elementName = null;
+		attributeNames.clear();
+		attributeValues.clear();
+
+		inStartTag = true;
+
+		try {
+			super.doStartTag(userObject);
+		} finally {
+			inStartTag = false;
+		}
+
+		if (target == null)
+			return;
+
+		if (drop) {
+			dropped = true;
+			skipElement();
+			return;
+		}
+
+		int depth = xpp.getDepth();
+		String tag = xpp.getText();
+
+		try {
+			emptyTag = xpp.isEmptyElementTag();
+		} catch (XmlPullParserException e) {
+			// no-op, this should never happen on a start tag.
+		}
+
+		/*
+		 * The pull parser loses the markup of a start tag with entity
+		 * references in its attribute values, reporting the replacement text
+		 * of the last one instead; write those from the parsed attributes.
+		 */
+		if (elementName != null || attributeNames.size() > 0
+				|| !XMLParser.isStartTagMarkup(tag))
+			tag = buildStartTag();
+
+		if (depth >= elementNames.length) {
+			String[] newNames = new String[elementNames.length * 2];
+			System.arraycopy(elementNames, 0, newNames, 0, elementNames.length);
+			elementNames = newNames;
+		}
+
+		elementNames[depth] = elementName;
+		write(tag);
+	}
+
+	/**
+	 * Overridden to write the text out once the rules have been called for
+	 * it, or the text they replaced it with.
+	 */
+	@Override
+	protected void doText(T userObject) {
+		textReplacement = null;
+		inText = true;
+
+		try {
+			super.doText(userObject);
+		} finally {
+			inText = false;
+		}
+
+		if (target == null)
+			return;
+
+		if (textReplacement == null)
+			write(markup);
+		else {
+			markup.setLength(0);
+			write(escape(textReplacement, false));
+		}
+
+		markup.setLength(0);
+	}
+
+	/**
+	 * Overridden to write the end tag out once the rules have been called for
+	 * it.
+	 */
+	@Override
+	protected void doEndTag(T userObject) {
+		super.doEndTag(userObject);
+
+		if (target == null)
+			return;
+
+		if (dropped)
+			dropped = false;
+		// The end tag of an empty element reports the same "<name/>" again
+		else if (emptyTag)
+			emptyTag = false;
+		else {
+			int depth = xpp.getDepth();
+			String name = elementNames[depth];
+
+			if (name == null)
+				write(xpp.getText());
+			else {
+				elementNames[depth] = null;
+				write("</" + name + ">");
+			}
+		}
+	}
+
+	/**
+	 * Overridden to collect the markup of text and write everything else out
+	 * as it is.
+	 */
+	@Override
+	void doToken(int event) {
+		if (target == null)
+			return;
+
+		switch (event) {
+		case XmlPullParser.TEXT:
+		case XmlPullParser.IGNORABLE_WHITESPACE:
+			markup.append(xpp.getText());
+			break;
+
+		case XmlPullParser.CDSECT:
+			markup.append("<![CDATA[").append(xpp.getText()).append("]]>");
+			break;
+
+		case XmlPullParser.ENTITY_REF:
+			markup.append('&').append(xpp.getName()).append(';');
+			break;
+
+		case XmlPullParser.COMMENT:
+			write("<!--" + xpp.getText() + "-->");
+			break;
+
+		case XmlPullParser.PROCESSING_INSTRUCTION:
+			write("<?" + xpp.getText() + "?>");
+			break;
+
+		case XmlPullParser.DOCDECL:
+			write("<!DOCTYPE" + xpp.getText() + ">");
+			break;
+		}
+	}
+
+	/**
+	 * Used to make sure the rules are handling a start tag.
+	 */
+	private void checkStartTag() throws XMLParserException {
+		if (!inStartTag)
+			throw new XMLParserException(
+					"Elements and attributes can only be changed while handling a start tag.");
+	}
+
+	/**
+	 * Used to record a change to an attribute of the current start tag, a
+	 * <code>null</code> value removes the attribute.
+	 */
+	private void editAttribute(String name, String value)
+			throws IllegalArgumentException, XMLParserException {
+		if (name == null || name.length() == 0)
+			throw new IllegalArgumentException("name cannot be null or empty");
+
+		checkStartTag();
+
+		int index = attributeNames.indexOf(name);
+
+		if (index == -1) {
+			attributeNames.add(name);
+			attributeValues.add(value);
+		} else
+			attributeValues.set(index, value);
+	}
+
+	/**
+	 * Used to write the current start tag from its parsed name, namespace
+	 * declarations and attributes, with the changes made by the rules.
+	 */
+	private String buildStartTag() {
+		StringBuilder tag = new StringBuilder(64).append('<');
+		tag.append(elementName != null ? elementName : qualifiedName(
+				xpp.getPrefix(), xpp.getName()));
+
+		try {
+			// Namespace declarations are not reported as attributes
+			if (xpp.getFeature(XmlPullParser.FEATURE_PROCESS_NAMESPACES)) {
+				int depth = xpp.getDepth();
+
+				for (int i = xpp.getNamespaceCount(depth - 1), count = xpp
+						.getNamespaceCount(depth); i < count; i++) {
+					String prefix = xpp.getNamespacePrefix(i);
+
+					tag.append(prefix == null ? " xmlns" : " xmlns:" + prefix);
+					tag.append("=\"")
+							.append(escape(xpp.getNamespaceUri(i), true))
+							.append('"');
+				}
+			}
+		} catch (XmlPullParserException e) {
+			throw new XMLParserException(
+					"Unable to get the namespace declarations of the start tag at location ["
+							+ this + "].", e);
+		}
+
+		for (int i = 0, count = xpp.getAttributeCount(); i < count; i++) {
+			String name = qualifiedName(xpp.getAttributePrefix(i),
+					xpp.getAttributeName(i));
+			String value = xpp.getAttributeValue(i);
+			int index = attributeNames.indexOf(name);
+
+			if (index != -1) {
+				value = attributeValues.get(index);
+
+				// Mark the change as made
+				attributeNames.set(index, null);
+			}
+
+			if (value != null)
+				appendAttribute(tag, name, value);
+		}
+
+		// Whatever is left are new attributes
+		for (int i = 0, count = attributeNames.size(); i < count; i++) {
+			String name = attributeNames.get(i);
+			String value = attributeValues.get(i);
+
+			if (name != null && value != null)
+				appendAttribute(tag, name, value);
+		}
+
+		return tag.append(emptyTag ? "/>" : ">").toString();
+	}
+
+	private void appendAttribute(StringBuilder tag, String name, String value) {
+		tag.append(' ').append(name).append("=\"")
+				.append(escape(value, true)).append('"');
+	}
+
+	private static String qualifiedName(String prefix, String name) {
+		return (prefix == null ? name : prefix + ':' + name);
+	}
+
+	/**
+	 * Used to escape the given text or attribute value for writing; markup
+	 * characters are replaced by entity references and characters the
+	 * output encoding cannot hold by character references.
+	 */
+	private String escape(String value, boolean attribute) {
+		StringBuilder escaped = null;
+		int start = 0;
+
+		for (int i = 0, length = value.length(); i < length; i++) {
+			char c = value.charAt(i);
+			int count = 1;
+			String replacement = null;
+
+			switch (c) {
+			case '&':
+				replacement = "&amp;";
+				break;
+
+			case '<':
+				replacement = "&lt;";
+				break;
+
+			case '>':
+				replacement = "&gt;";
+				break;
+
+			case '"':
+				if (attribute)
+					replacement = "&quot;";
+				break;
+
+			case '\r':
+				replacement = "&#13;";
+				break;
+
+			// Keep them from being normalized to spaces when read again
+			case '\n':
+			case '\t':
+				if (attribute)
+					replacement = "&#" + (int) c + ';';
+				break;
+
+			default:
+				if (c > 127 && encoder != null) {
+					int codePoint = value.codePointAt(i);
+					count = Character.charCount(codePoint);
+
+					if (!encoder.canEncode(value.substring(i, i + count)))
+						replacement = "&#" + codePoint + ';';
+				}
+			}
+
+			if (replacement != null) {
+				if (escaped == null)
+					escaped = new StringBuilder(length + 16);
+
+				escaped.append(value, start, i).append(replacement);
+				start = i + count;
+			}
+
+			i += count - 1;
+		}
+
+		if (escaped == null)
+			return value;
+
+		return escaped.append(value, start, value.length()).toString();
+	}
+
+	/**
+	 * Used to write the given markup to the output, opening the output
+	 * (and writing the XML declaration) first if this is the first markup of
+	 * the document.
+	 * 
+	 * @throws XMLParserException
+	 *             if writing fails.
+	 */
+	private void write(CharSequence text) throws XMLParserException {
+		try {
+			if (out == null)
+				open();
+
+			// Undeclared entity references are not part of any text event
+			if (markup.length() > 0 && text != markup) {
+				out.append(markup);
+				markup.setLength(0);
+			}
+
+			out.append(text);
+		} catch (IOException e) {
+			throw new XMLParserException(
+					"Unable to write the rewritten document to its stream.", e);
+		}
+	}
+
+	/**
+	 * Used to open the writer on the target stream in the encoding of the
+	 * document, which is known once the pull parser has read its XML
+	 * declaration, and write the declaration out again if it had one.
+	 */
+	private void open() throws IOException {
+		String name = encoding;
+
+		if (name == null)
+			name = xpp.getInputEncoding();
+		if (name == null)
+			name = "UTF-8";
+
+		Charset charset = Charset.forName(name);
+
+		// Every character can be written as is in the Unicode encodings
+		if (!charset.name().startsWith("UTF-"))
+			encoder = charset.newEncoder();
+
+		out = new OutputStreamWriter(target, charset);
+
+		Object version = xpp.getProperty(PROPERTY_XMLDECL_VERSION);
+
+		if (version != null) {
+			Object standalone = xpp.getProperty(PROPERTY_XMLDECL_STANDALONE);
+
+			out.write("<?xml version=\"" + version + "\" encoding=\"" + name
+					+ '"');
+
+			if (standalone != null)
+				out.write(" standalone=\""
+						+ (Boolean.TRUE.equals(standalone) ? "yes" : "no")
+						+ '"');
+
+			out.write("?>");
+		}
+	}
+}
@@ -0,0 +1,410 @@
+/**   
+ * Copyright 2011 The Buzz Media, LLC
+ * 
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *   http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.thebuzzmedia.sjxp.rule;
+
+import java.lang.reflect.InvocationTargetException;
+import java.lang.reflect.Method;
+import java.lang.reflect.Modifier;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.Comparator;
+import java.util.List;
+
+import com.thebuzzmedia.sjxp.Fragment;
+import com.thebuzzmedia.sjxp.XMLParser;
+import com.thebuzzmedia.sjxp.XMLParserException;
+
+/**
+ * Class used to adapt a method annotated with {@link RuleMethod} into an
+ * {@link IRule} that calls it whenever the rule matches.
+ * <p/>
+ * The parameters of an annotated method are matched up with the arguments of
+ * the {@link IRule} handler by their type, in any order and all of them
+ * optional:
+ * <ul>
+ * <li>{@link XMLParser}: the parser that matched the rule.</li>
+ * <li><code>boolean</code>: for {@link IRule.Type#TAG} rules, if the tag is
+ * being opened (<code>true</code>) or closed. A {@link IRule.Type#TAG} method
+ * without one is only called when the tag is opened.</li>
+ * <li><code>int</code>: for {@link IRule.Type#ATTRIBUTE} rules, the index of
+ * the attribute name the value belongs to.</li>
+ * <li>{@link String}: for {@link IRule.Type#ATTRIBUTE} rules the attribute
+ * value, for {@link IRule.Type#CHARACTER} rules the parsed text and for
+ * {@link IRule.Type#CAPTURE} rules the captured markup.</li>
+ * <li>{@link Fragment}: for {@link IRule.Type#FRAGMENT} rules the matching
+ * element.</li>
+ * <li>Any other type: the user object passed to the parser's
+ * <code>parse</code> method. Primitive types other than <code>boolean</code>
+ * and <code>int</code> are not supported.</li>
+ * </ul>
+ * Methods may have any visibility; non-public ones are made accessible.
+ * <h3>Performance</h3>
+ * This class is a convenience for writing handlers as plain methods, not a
+ * faster way of dispatching matches: no dispatcher class is generated for the
+ * annotated methods (SJXP runs on Java 5 and Android and has no bytecode
+ * generation), every match goes through
+ * {@link Method#invoke(Object, Object...)} and so costs more than the virtual
+ * call to a hand-written rule (see <code>AnnotatedBenchmark</code>).
+ * <p/>
+ * The argument array is re-used (one per thread, so the rule can still be
+ * shared between parsers) and <code>boolean</code> and small <code>int</code>
+ * arguments are boxed from the JVM's caches, so a call allocates nothing of
+ * its own. For the hottest rules a hand-written {@link DefaultRule} (or an
+ * {@link com.thebuzzmedia.sjxp.IMatchBatchHandler}) remains the fastest
+ * option.
+ * 
+ * @param <T>
+ *            The class type of any user-supplied object that the caller wishes
+ *            to be passed through from one of the {@link XMLParser}'s
+ *            <code>parse</code> methods directly to the handler when a rule
+ *            matches.
+ * 
+ * @author Riyad Kalla (software@thebuzzmedia.com)
+ */
+public class AnnotatedRule<T> extends DefaultRule<T> {
+	private static final int PARSER = 0;
+	private static final int OPENING_TAG = 1;
+	private static final int INDEX = 2;
+	private static final int VALUE = 3;
+	private static final int FRAGMENT = 4;
+	private static final int USER_OBJECT = 5;
+
+	private static final Object[] NO_ARGUMENTS = new Object[0];
+
+	private Object target;
+	private Method method;
+	private int[] parameters;
+	private boolean openingTagOnly;
+	private ThreadLocal<Object[]> arguments;
+
+	/**
+	 * Used to create a rule for every method of the given object (including
+	 * inherited ones) annotated with {@link RuleMethod}. Rules are returned in
+	 * the order of their method names, then of their parameter types and then
+	 * of the names of the classes declaring them, so their ids (see
+	 * {@link com.thebuzzmedia.sjxp.MatchBatch}) are stable.
+	 * <p/>
+	 * An annotated method that is overridden by another annotated method is
+	 * skipped, the call would only end up in the overriding method again.
+	 * 
+	 * @param target
+	 *            The object whose annotated methods are called.
+	 * 
+	 * @return a rule for every annotated method of <code>target</code>.
+	 * 
+	 * @throws IllegalArgumentException
+	 *             if <code>target</code> is <code>null</code>, has no
+	 *             annotated methods or if any annotated method is not valid
+	 *             (see {@link #AnnotatedRule(Object, Method)}).
+	 */
+	@SuppressWarnings("unchecked")
+	public static <T> IRule<T>[] createRules(Object target)
+			throws IllegalArgumentException {
+		if (target == null)
+			throw new IllegalArgumentException("target cannot be null");
+
+		List<Method> methods = new ArrayList<Method>();
+
+		for (Class<?> type = target.getClass(); type != null; type = type
+				.getSuperclass()) {
+			Method[] declared = type.getDeclaredMethods();
+
+			for (int i = 0; i < declared.length; i++) {
+				if (declared[i].isAnnotationPresent(RuleMethod.class)
+						&& !isOverridden(declared[i], methods))
+					methods.add(declared[i]);
+			}
+		}
+
+		if (methods.isEmpty())
+			throw new IllegalArgumentException("target ["
+					+ target.getClass().getName()
+					+ "] has no methods annotated with @RuleMethod");
+
+		Collections.sort(methods, new Comparator<Method>() {
+			public int compare(Method m1, Method m2) {
+				int result = m1.getName().compareTo(m2.getName());
+				Class<?>[] types1 = m1.getParameterTypes();
+				Class<?>[] types2 = m2.getParameterTypes();
+
+				for (int i = 0; result == 0 && i < types1.length
+						&& i < types2.length; i++)
+					result = types1[i].getName().compareTo(types2[i].getName());
+
+				if (result == 0)
+					result = types1.length - types2.length;
+				if (result == 0)
+					result = m1.getDeclaringClass().getName().compareTo(
+							m2.getDeclaringClass().getName());
+
+				return result;
+			}
+		});
+
+		IRule<T>[] rules = new IRule[methods.size()];
+
+		for (int i = 0; i < rules.length; i++)
+			rules[i] = new AnnotatedRule<T>(target, methods.get(i));
+
+		return rules;
+	}
+
+	/**
+	 * Create a new rule calling the given method, which must be annotated with
+	 * {@link RuleMethod}.
+	 * 
+	 * @param target
+	 *            The object the method is called on.
+	 * @param method
+	 *            The method to call when the rule matches.
+	 * 
+	 * @throws IllegalArgumentException
+	 *             if <code>target</code> or <code>method</code> is
+	 *             <code>null</code>, if <code>method</code> is not annotated
+	 *             with {@link RuleMethod}, if the annotation's values are not
+	 *             valid for a {@link DefaultRule} or if one of the method's
+	 *             parameters does not make sense for the type of rule.
+	 */
+	public AnnotatedRule(Object target, Method method)
+			throws IllegalArgumentException {
+		super(getAnnotation(method).type(), getAnnotation(method)
+				.locationPath(), getAttributeNames(getAnnotation(method)));
+
+		if (target == null)
+			throw new IllegalArgumentException("target cannot be null");
+
+		Class<?>[] types = method.getParameterTypes();
+		parameters = new int[types.length];
+		boolean[] used = new boolean[USER_OBJECT + 1];
+
+		for (int i = 0; i < types.length; i++) {
+			Class<?> type = types[i];
+			int parameter;
+
+			if (XMLParser.class.isAssignableFrom(type))
+				parameter = PARSER;
+			else if (type == Boolean.TYPE || type == Boolean.class)
+				parameter = OPENING_TAG;
+			else if (type == Integer.TYPE || type == Integer.class)
+				parameter = INDEX;
+			else if (type == String.class)
+				parameter = VALUE;
+			else if (type == Fragment.class)
+				parameter = FRAGMENT;
+			else if (type.isPrimitive())
+				throw new IllegalArgumentException("Parameter [" + i
+						+ "] of type [" + type.getName() + "] of method ["
+						+ method + "] is not supported, the only primitive "
+						+ "types allowed are boolean and int.");
+			else
+				parameter = USER_OBJECT;
+
+			if ((parameter == OPENING_TAG && getType() != Type.TAG)
+					|| (parameter == INDEX && getType() != Type.ATTRIBUTE)
+					|| (parameter == VALUE && (getType() == Type.TAG
+							|| getType() == Type.FRAGMENT))
+					|| (parameter == FRAGMENT && getType() != Type.FRAGMENT))
+				throw new IllegalArgumentException("Parameter [" + i
+						+ "] of type [" + type.getName() + "] of method ["
+						+ method + "] is not supported for Type."
+						+ getType() + " rules.");
+
+			if (used[parameter])
+				throw new IllegalArgumentException("Parameter [" + i
+						+ "] of type [" + type.getName() + "] of method ["
+						+ method + "] is ambiguous, only one parameter of "
+						+ "each kind is allowed.");
+
+			used[parameter] = true;
+			parameters[i] = parameter;
+		}
+
+		method.setAccessible(true);
+
+		this.target = target;
+		this.method = method;
+		openingTagOnly = !used[OPENING_TAG];
+
+		if (parameters.length > 0) {
+			final int length = parameters.length;
+
+			arguments = new ThreadLocal<Object[]>() {
+				@Override
+				protected Object[] initialValue() {
+					return new Object[length];
+				}
+			};
+		}
+	}
+
+	@Override
+	public void handleTag(XMLParser<T> parser, boolean isStartTag, T userObject) {
+		if (isStartTag || !openingTagOnly)
+			invoke(parser, isStartTag, 0, null, null, userObject);
+	}
+
+	@Override
+	public void handleParsedAttribute(XMLParser<T> parser, int index,
+			String value, T userObject) {
+		invoke(parser, false, index, value, null, userObject);
+	}
+
+	@Override
+	public void handleParsedCharacters(XMLParser<T> parser, String text,
+			T userObject) {
+		invoke(parser, false, 0, text, null, userObject);
+	}
+
+	@Override
+	public void handleCapturedMarkup(XMLParser<T> parser, char[] markup,
+			int offset, int length, T userObject) {
+		invoke(parser, false, 0, new String(markup, offset, length), null,
+				userObject);
+	}
+
+	@Override
+	public void handleFragment(XMLParser<T> parser, Fragment fragment,
+			T userObject) {
+		invoke(parser, false, 0, null, fragment, userObject);
+	}
+
+	public Object getTarget() {
+		return target;
+	}
+
+	public Method getMethod() {
+		return method;
+	}
+
+	/**
+	 * Used to call the method with the given arguments, in the order of its
+	 * parameters, passed in the current thread's argument array.
+	 * 
+	 * @throws XMLParserException
+	 *             if the method cannot be called or throws a checked
+	 *             exception. Unchecked exceptions are re-thrown as-is.
+	 */
+	private void invoke(XMLParser<T> parser, boolean isStartTag, int index,
+			String value, Fragment fragment, T userObject)
+			throws XMLParserException {
+		Object[] args = (arguments == null ? NO_ARGUMENTS : arguments.get());
+
+		for (int i = 0; i < args.length; i++) {
+			switch (parameters[i]) {
+			case PARSER:
+				args[i] = parser;
+				break;
+
+			case OPENING_TAG:
+				args[i] = Boolean.valueOf(isStartTag);
+				break;
+
+			case INDEX:
+				args[i] = Integer.valueOf(index);
+				break;
+
+			case VALUE:
+				args[i] = value;
+				break;
+
+			case FRAGMENT:
+				args[i] = fragment;
+				break;
+
+			default:
+				args[i] = userObject;
+				break;
+			}
+		}
+
+		try {
+			method.invoke(target, args);
+		} catch (InvocationTargetException e) {
+			Throwable cause = e.getCause();
+
+			if (cause instanceof RuntimeException)
+				throw (RuntimeException) cause;
+			if (cause instanceof Error)
+				throw (Error) cause;
+
+			throw new XMLParserException("Rule method [" + method
+					+ "] threw an exception.",
+					(cause instanceof Exception ? (Exception) cause : e));
+		} catch (IllegalAccessException e) {
+			throw new XMLParserException("Rule method [" + method
+					+ "] could not be called.", e);
+		} finally {
+			// Don't keep the parser, values or user object reachable
+			Arrays.fill(args, null);
+		}
+	}
+
+	/**
+	 * Used to check if the given method is overridden by one of the given
+	 * methods of its subclasses.
+	 */
+	private static boolean isOverridden(Method method, List<Method> methods) {
+		int modifiers = method.getModifiers();
+
+		// Private and static methods can only be hidden, not overridden
+		if ((modifiers & (Modifier.PRIVATE | Modifier.STATIC)) != 0)
+			return false;
+
+		boolean packagePrivate = ((modifiers & (Modifier.PUBLIC
+				| Modifier.PROTECTED)) == 0);
+
+		for (int i = 0, size = methods.size(); i < size; i++) {
+			Method other = methods.get(i);
+
+			// Package-private methods are only overridden in the same package
+			if (packagePrivate
+					&& other.getDeclaringClass().getPackage() != method
+							.getDeclaringClass().getPackage())
+				continue;
+
+			if (other.getName().equals(method.getName())
+					&& Arrays.equals(other.getParameterTypes(),
+							method.getParameterTypes()))
+				return true;
+		}
+
+		return false;
+	}
+
+	private static RuleMethod getAnnotation(Method method)
+			throws IllegalArgumentException {
+		if (method == null)
+			throw new IllegalArgumentException("method cannot be null");
+
+		RuleMethod annotation = method.getAnnotation(RuleMethod.class);
+
+		if (annotation == null)
+			throw new IllegalArgumentException("method [" + method
+					+ "] is not annotated with @RuleMethod");
+
+		return annotation;
+	}
+
+	/**
+	 * Used to pass no attribute names at all (instead of an empty array) to
+	 * {@link DefaultRule} for rules other than {@link IRule.Type#ATTRIBUTE}.
+	 */
+	private static String[] getAttributeNames(RuleMethod annotation) {
+		String[] names = annotation.attributeNames();
+		return (names.length == 0 ? null : names);
+	}
+}
@@ -0,0 +1,348 @@
+/**   
+ * Copyright 2011 The Buzz Media, LLC
+ * 
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *   http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.thebuzzmedia.sjxp.rule;
+
+import java.io.IOException;
+import java.io.OutputStream;
+
+import com.thebuzzmedia.sjxp.XMLParser;
+import com.thebuzzmedia.sjxp.XMLParserException;
+
+/**
+ * Class used to decode the base64 encoded character data of an element (e.g.
+ * a binary attachment) straight into an {@link OutputStream}, without ever
+ * holding the encoded text as a {@link String} or the decoded bytes as a
+ * whole.
+ * <p/>
+ * The text is handed to the rule in chunks (see
+ * {@link IChunkedCharactersRule}) that are decoded into a single, fixed-size
+ * buffer which is written out every time it fills up. For every matching
+ * element {@link #openOutputStream(XMLParser, Object)} is asked for the stream
+ * to write to and {@link #closeOutputStream(XMLParser, OutputStream, long, Object)}
+ * is called once all of the bytes have been written. To write to a
+ * {@link java.nio.channels.WritableByteChannel}, return a stream created with
+ * {@link java.nio.channels.Channels#newOutputStream}.
+ * <p/>
+ * Whitespace (e.g. line breaks every 76 characters) is ignored and padding is
+ * optional. Any other character outside of the base64 alphabet, or anything
+ * but whitespace after the padding, fails the parse with an
+ * {@link XMLParserException}, as does an {@link IOException} thrown by the
+ * stream. The stream is handed to
+ * {@link #abortOutputStream(XMLParser, OutputStream, long, Object)} before the
+ * exception is thrown.
+ * <p/>
+ * An example would look like this:
+ * 
+ * <pre>
+ * new Base64Rule&lt;File&gt;(&quot;/message/attachment&quot;) {
+ * 	private int count = 0;
+ * 
+ * 	protected OutputStream openOutputStream(XMLParser&lt;File&gt; parser,
+ * 			File directory) throws IOException {
+ * 		return new FileOutputStream(new File(directory, &quot;attachment-&quot;
+ * 				+ (count++)));
+ * 	}
+ * };
+ * </pre>
+ * 
+ * <h3>Instance Reuse</h3>
+ * The decoding state is kept in the rule itself, so an instance must only be
+ * used by one parse at a time.
+ * <h3>Mixed Content</h3>
+ * The text of an element is decoded per TEXT event; comments and processing
+ * instructions between the base64 text are skipped by the parser, but child
+ * elements split it into separate values.
+ * 
+ * @param <T>
+ *            The class type of any user-supplied object that the caller wishes
+ *            to be passed through from one of the {@link XMLParser}'s
+ *            <code>parse</code> methods directly to the handler when a rule
+ *            matches.
+ * 
+ * @author Riyad Kalla (software@thebuzzmedia.com)
+ */
+public abstract class Base64Rule<T> extends DefaultRule<T> implements
+		IChunkedCharactersRule<T> {
+	/**
+	 * Default size of the buffer the decoded bytes are collected in before
+	 * they are written out.
+	 */
+	public static final int DEFAULT_BUFFER_SIZE = 8192;
+
+	/**
+	 * Marks characters outside of the base64 alphabet in {@link #DECODE}.
+	 */
+	private static final byte INVALID = -1;
+
+	/**
+	 * Marks whitespace in {@link #DECODE}.
+	 */
+	private static final byte WHITESPACE = -2;
+
+	/**
+	 * Marks the padding character in {@link #DECODE}.
+	 */
+	private static final byte PADDING = -3;
+
+	/**
+	 * The value of every ASCII character in the base64 alphabet.
+	 */
+	private static final byte[] DECODE = new byte[128];
+
+	static {
+		String alphabet = "ABCDEFGHIJKLMNOPQRSTUVWXYZabcdefghijklmnopqrstuvwxyz0123456789+/";
+
+		for (int i = 0; i < DECODE.length; i++)
+			DECODE[i] = INVALID;
+		for (int i = 0; i < alphabet.length(); i++)
+			DECODE[alphabet.charAt(i)] = (byte) i;
+
+		DECODE[' '] = DECODE['\t'] = DECODE['\r'] = DECODE['\n'] = WHITESPACE;
+		DECODE['='] = PADDING;
+	}
+
+	private byte[] buffer;
+	private int bufferLength;
+
+	private OutputStream out;
+	private long byteCount;
+	private int bits;
+	private int bitCount;
+	private boolean padded;
+
+	/**
+	 * Create a new rule decoding the text of the elements at the given
+	 * location path with a buffer of {@link #DEFAULT_BUFFER_SIZE} bytes.
+	 * 
+	 * @param locationPath
+	 *            The location path of the elements holding base64 text.
+	 * 
+	 * @throws IllegalArgumentException
+	 *             if <code>locationPath</code> is <code>null</code> or empty.
+	 */
+	public Base64Rule(String locationPath) throws IllegalArgumentException {
+		this(locationPath, DEFAULT_BUFFER_SIZE);
+	}
+
+	/**
+	 * Create a new rule decoding the text of the elements at the given
+	 * location path with a buffer of the given size.
+	 * 
+	 * @param locationPath
+	 *            The location path of the elements holding base64 text.
+	 * @param bufferSize
+	 *            The number of decoded bytes collected before they are
+	 *            written out.
+	 * 
+	 * @throws IllegalArgumentException
+	 *             if <code>locationPath</code> is <code>null</code> or empty,
+	 *             or if <code>bufferSize</code> is &lt; 3.
+	 */
+	public Base64Rule(String locationPath, int bufferSize)
+			throws IllegalArgumentException {
+		super(Type.CHARACTER, locationPath);
+
+		if (bufferSize < 3)
+			throw new IllegalArgumentException("bufferSize [" + bufferSize
+					+ "] must be >= 3");
+
+		buffer = new byte[bufferSize];
+	}
+
+	/**
+	 * Used to hand out chunks of about the size that decodes into a full
+	 * buffer.
+	 */
+	public int getChunkSize() {
+		return (buffer.length / 3) * 4;
+	}
+
+	public void handleCharactersStart(XMLParser<T> parser, T userObject) {
+		try {
+			out = openOutputStream(parser, userObject);
+		} catch (IOException e) {
+			throw new XMLParserException(
+					"Unable to open the stream to write the decoded base64 content of "
+							+ this + " to.", e);
+		}
+
+		bufferLength = bits = bitCount = 0;
+		byteCount = 0;
+		padded = false;
+	}
+
+	public void handleCharacters(XMLParser<T> parser, char[] chunk,
+			int offset, int length, T userObject) {
+		for (int end = offset + length; offset < end; offset++) {
+			char c = chunk[offset];
+			int value = (c < 128 ? DECODE[c] : INVALID);
+
+			if (value >= 0 && !padded) {
+				// Only the bits of the next byte are ever needed
+				bits = ((bits << 6) | value) & 0xFFFF;
+
+				if ((bitCount += 6) >= 8) {
+					bitCount -= 8;
+
+					if (bufferLength == buffer.length)
+						flush(parser, userObject);
+
+					buffer[bufferLength++] = (byte) (bits >> bitCount);
+				}
+			} else if (value == PADDING)
+				padded = true;
+			else if (value != WHITESPACE)
+				throw abort(parser, userObject, new XMLParserException(
+						"Invalid base64 character [" + c
+								+ "] in the content matched by " + this));
+		}
+	}
+
+	public void handleCharactersEnd(XMLParser<T> parser, T userObject) {
+		// A single character left over can't hold a whole byte
+		if (bitCount == 6)
+			throw abort(parser, userObject, new XMLParserException(
+					"Base64 content matched by " + this + " is truncated."));
+
+		flush(parser, userObject);
+
+		try {
+			closeOutputStream(parser, out, byteCount, userObject);
+		} catch (IOException e) {
+			throw new XMLParserException(
+					"Unable to close the stream the decoded base64 content of "
+							+ this + " was written to.", e);
+		} finally {
+			out = null;
+		}
+	}
+
+	/**
+	 * Used to get the stream the decoded content of the current element is
+	 * written to.
+	 * 
+	 * @param parser
+	 *            The source {@link XMLParser} currently executing this rule.
+	 * @param userObject
+	 *            The user-supplied object passed through from the
+	 *            {@link XMLParser}'s <code>parse</code> method directly to this
+	 *            handler, or <code>null</code> if there isn't one.
+	 * 
+	 * @return the stream to write the decoded bytes to.
+	 * 
+	 * @throws IOException
+	 *             if the stream cannot be opened.
+	 */
+	protected abstract OutputStream openOutputStream(XMLParser<T> parser,
+			T userObject) throws IOException;
+
+	/**
+	 * Used to finish the stream the decoded content of the current element
+	 * was written to, once all of it has been written.
+	 * <p/>
+	 * By default this closes the stream; override it to keep the stream open
+	 * (e.g. one shared by every element) or to record the decoded length.
+	 * 
+	 * @param parser
+	 *            The source {@link XMLParser} currently executing this rule.
+	 * @param out
+	 *            The stream returned by
+	 *            {@link #openOutputStream(XMLParser, Object)}.
+	 * @param length
+	 *            The number of decoded bytes written to the stream.
+	 * @param userObject
+	 *            The user-supplied object passed through from the
+	 *            {@link XMLParser}'s <code>parse</code> method directly to this
+	 *            handler, or <code>null</code> if there isn't one.
+	 * 
+	 * @throws IOException
+	 *             if the stream cannot be closed.
+	 */
+	protected void closeOutputStream(XMLParser<T> parser, OutputStream out,
+			long length, T userObject) throws IOException {
+		out.close();
+	}
+
+	/**
+	 * Used to clean up the stream the decoded content of the current element
+	 * was written to when the content turns out to be invalid or the stream
+	 * fails; the parse fails once this returns.
+	 * <p/>
+	 * By default this closes the stream; override it to keep the stream open
+	 * or to delete what was written so far (e.g. a partial file).
+	 * 
+	 * @param parser
+	 *            The source {@link XMLParser} currently executing this rule.
+	 * @param out
+	 *            The stream returned by
+	 *            {@link #openOutputStream(XMLParser, Object)}.
+	 * @param length
+	 *            The number of decoded bytes written to the stream.
+	 * @param userObject
+	 *            The user-supplied object passed through from the
+	 *            {@link XMLParser}'s <code>parse</code> method directly to this
+	 *            handler, or <code>null</code> if there isn't one.
+	 * 
+	 * @throws IOException
+	 *             if the stream cannot be closed; it is ignored in favor of
+	 *             the failure that caused the abort.
+	 */
+	protected void abortOutputStream(XMLParser<T> parser, OutputStream out,
+			long length, T userObject) throws IOException {
+		out.close();
+	}
+
+	/**
+	 * Used to hand the stream of the current element to
+	 * {@link #abortOutputStream(XMLParser, OutputStream, long, Object)} after
+	 * the given failure.
+	 * 
+	 * @return the given failure, for the caller to throw.
+	 */
+	private XMLParserException abort(XMLParser<T> parser, T userObject,
+			XMLParserException failure) {
+		OutputStream stream = out;
+		out = null;
+
+		try {
+			abortOutputStream(parser, stream, byteCount, userObject);
+		} catch (IOException e) {
+			// no-op, the failure is what gets reported.
+		}
+
+		return failure;
+	}
+
+	/**
+	 * Used to write the decoded bytes collected so far to the stream.
+	 */
+	private void flush(XMLParser<T> parser, T userObject)
+			throws XMLParserException {
+		if (bufferLength == 0)
+			return;
+
+		try {
+			out.write(buffer, 0, bufferLength);
+		} catch (IOException e) {
+			throw abort(parser, userObject, new XMLParserException(
+					"Unable to write the decoded base64 content of " + this
+							+ " to its stream.", e));
+		}
+
+		byteCount += bufferLength;
+		bufferLength = 0;
+	}
+}
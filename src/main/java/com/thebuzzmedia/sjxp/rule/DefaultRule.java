@@ -15,6 +15,7 @@
  */
 package com.thebuzzmedia.sjxp.rule;
 
+import com.thebuzzmedia.sjxp.Fragment;
 import com.thebuzzmedia.sjxp.XMLParser;
 
 /**
@@ -66,7 +67,8 @@ import com.thebuzzmedia.sjxp.XMLParser;
  * 
  * @author Riyad Kalla (software@thebuzzmedia.com)
  */
-public class DefaultRule<T> implements IRule<T> {
+public class DefaultRule<T> implements ICaptureRule<T>,
+		IFragmentRule<T> {
 	private String toStringCache = null;
 
 	private Type type;
@@ -89,7 +91,8 @@ public class DefaultRule<T> implements IRule<T> {
 	 *             <code>locationPath</code> is <code>null</code> or empty, if
 	 *             <code>type</code> is {@link IRule.Type#ATTRIBUTE} and
 	 *             <code>attributeNames</code> is <code>null</code> or empty or
-	 *             if <code>type</code> is {@link IRule.Type#CHARACTER} and
+	 *             if <code>type</code> is {@link IRule.Type#CHARACTER},
+	 *             {@link IRule.Type#CAPTURE} or {@link IRule.Type#FRAGMENT} and
 	 *             <code>attributeNames</code> <strong>is not</strong>
 	 *             <code>null</code> or empty.
 	 */
@@ -120,10 +123,13 @@ public class DefaultRule<T> implements IRule<T> {
 		 * head against the wall as to why the parser isn't picking up their
 		 * attributes.
 		 */
-		if (type == Type.CHARACTER && attributeNames != null
-				&& attributeNames.length > 0)
+		if ((type == Type.CHARACTER || type == Type.CAPTURE
+				|| type == Type.FRAGMENT)
+				&& attributeNames != null && attributeNames.length > 0)
 			throw new IllegalArgumentException(
-					"Type.CHARACTER was specified, but attribute names were passed in. This is likely a mistake and can be fixed by simply not passing in the ignored attribute names.");
+					"Type."
+							+ type
+							+ " was specified, but attribute names were passed in. This is likely a mistake and can be fixed by simply not passing in the ignored attribute names.");
 
 		this.type = type;
 		this.locationPath = locationPath;
@@ -208,4 +214,24 @@ public class DefaultRule<T> implements IRule<T> {
 			T userObject) {
 		// no-op impl
 	}
+
+	/**
+	 * Default no-op implementation. Please override with your own logic.
+	 * 
+	 * @see ICaptureRule#handleCapturedMarkup(XMLParser, char[], int, int, Object)
+	 */
+	public void handleCapturedMarkup(XMLParser<T> parser, char[] markup,
+			int offset, int length, T userObject) {
+		// no-op impl
+	}
+
+	/**
+	 * Default no-op implementation. Please override with your own logic.
+	 * 
+	 * @see IFragmentRule#handleFragment(XMLParser, Fragment, Object)
+	 */
+	public void handleFragment(XMLParser<T> parser, Fragment fragment,
+			T userObject) {
+		// no-op impl
+	}
 }
\ No newline at end of file
@@ -0,0 +1,74 @@
+/**   
+ * Copyright 2011 The Buzz Media, LLC
+ * 
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *   http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.thebuzzmedia.sjxp.rule;
+
+import com.thebuzzmedia.sjxp.AttributeView;
+import com.thebuzzmedia.sjxp.XMLParser;
+
+/**
+ * Interface used to describe a {@link IRule.Type#ATTRIBUTE} rule that wants
+ * all of the attributes of a matching element at once instead of one
+ * {@link #handleParsedAttribute(XMLParser, int, String, Object)} call per
+ * attribute name.
+ * <p/>
+ * The {@link XMLParser} calls
+ * {@link #handleAttributes(XMLParser, AttributeView, Object)} once for every
+ * element matching the rule's location path, whatever its attribute names
+ * are; {@link IRule#ALL_ATTRIBUTES} is the natural attribute name to give such
+ * a rule. {@link #handleParsedAttribute(XMLParser, int, String, Object)} is
+ * never called.
+ * <p/>
+ * An example would look like this:
+ * <pre>
+ * class BookRule extends DefaultRule&lt;T&gt; implements IAttributesRule&lt;T&gt; {
+ * 	public BookRule() {
+ * 		super(Type.ATTRIBUTE, &quot;/library/book&quot;, IRule.ALL_ATTRIBUTES);
+ * 	}
+ * 
+ * 	public void handleAttributes(XMLParser&lt;T&gt; parser,
+ * 			AttributeView attributes, T userObject) {
+ * 		String isbn = attributes.getValue(&quot;isbn&quot;);
+ * 		// ...
+ * 	}
+ * }
+ * </pre>
+ * 
+ * @param <T>
+ *            The class type of any user-supplied object that the caller wishes
+ *            to be passed through from one of the {@link XMLParser}'s
+ *            <code>parse</code> methods directly to the handler when a rule
+ *            matches.
+ * 
+ * @author Riyad Kalla (software@thebuzzmedia.com)
+ */
+public interface IAttributesRule<T> extends IRule<T> {
+	/**
+	 * Handler method called by the {@link XMLParser} when this rule matches
+	 * the parser's current location in the document.
+	 * 
+	 * @param parser
+	 *            The source {@link XMLParser} currently executing this rule.
+	 * @param attributes
+	 *            The attributes of the matching element; re-used by the parser
+	 *            and only valid until this method returns.
+	 * @param userObject
+	 *            The user-supplied object passed through from the
+	 *            {@link XMLParser}'s <code>parse</code> method directly to this
+	 *            handler, or <code>null</code> if there isn't one.
+	 */
+	public void handleAttributes(XMLParser<T> parser, AttributeView attributes,
+			T userObject);
+}
@@ -0,0 +1,64 @@
+/**   
+ * Copyright 2011 The Buzz Media, LLC
+ * 
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *   http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.thebuzzmedia.sjxp.rule;
+
+import com.thebuzzmedia.sjxp.XMLParser;
+
+/**
+ * Interface used to describe a {@link IRule.Type#CAPTURE} rule, which wants
+ * the original markup of every matching element. Every rule of that type must
+ * implement it; {@link DefaultRule} already does.
+ * 
+ * @param <T>
+ *            The class type of any user-supplied object that the caller wishes
+ *            to be passed through from one of the {@link XMLParser}'s
+ *            <code>parse</code> methods directly to the handler when a rule
+ *            matches.
+ * 
+ * @author Riyad Kalla (software@thebuzzmedia.com)
+ */
+public interface ICaptureRule<T> extends IRule<T> {
+	/**
+	 * Handler method called by the {@link XMLParser} when an {@link IRule} of
+	 * type {@link Type#CAPTURE} matches an element, once the element's end tag
+	 * has been parsed.
+	 * <p/>
+	 * The markup is exactly what the document contains: comments, CDATA
+	 * sections, entity references and whitespace are all left as they are.
+	 * Namespace prefixes declared on an ancestor of the element are not
+	 * declared in the captured markup, and start tags with entity or
+	 * character references in their attribute values, whose markup the pull
+	 * parser loses, are built again from their parsed attributes.
+	 * 
+	 * @param parser
+	 *            The source {@link XMLParser} currently executing this rule.
+	 * @param markup
+	 *            The buffer holding the captured markup; it is re-used by the
+	 *            parser and only valid until this method returns.
+	 * @param offset
+	 *            The index of the first character of the markup.
+	 * @param length
+	 *            The number of characters of markup.
+	 * @param userObject
+	 *            The user-supplied object passed through from the
+	 *            {@link XMLParser}'s <code>parse</code> method directly to this
+	 *            handler, or <code>null</code> if there isn't one.
+	 * 
+	 * @see XMLParser#setCaptureLimit(int)
+	 */
+	public void handleCapturedMarkup(XMLParser<T> parser, char[] markup,
+			int offset, int length, T userObject);
+}
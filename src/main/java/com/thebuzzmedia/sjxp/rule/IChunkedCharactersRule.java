@@ -0,0 +1,105 @@
+/**   
+ * Copyright 2011 The Buzz Media, LLC
+ * 
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *   http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.thebuzzmedia.sjxp.rule;
+
+import com.thebuzzmedia.sjxp.XMLParser;
+
+/**
+ * Interface used to describe a {@link IRule.Type#CHARACTER} rule that wants
+ * the text of a matching element in bounded chunks instead of as one
+ * {@link String}, for elements holding very large text (e.g. base64
+ * attachments or logs in a CDATA section).
+ * <p/>
+ * For every text event matching the rule's location path the
+ * {@link XMLParser} calls {@link #handleCharactersStart(XMLParser, Object)},
+ * then {@link #handleCharacters(XMLParser, char[], int, int, Object)} with
+ * consecutive slices of the text no longer than {@link #getChunkSize()}
+ * characters, then {@link #handleCharactersEnd(XMLParser, Object)}. The
+ * chunks are slices of the pull parser's own text buffer, which is re-used
+ * for the whole parse, so no {@link String} or copy of the text is ever
+ * created for the rule.
+ * {@link #handleParsedCharacters(XMLParser, String, Object)} is never called.
+ * <p/>
+ * The pull parser still reads an entire text node into its buffer before
+ * reporting it; chunking saves the rule from holding a second, equally large
+ * copy of it. A chunk never ends between the two halves of a surrogate pair
+ * unless the chunk size is 1.
+ * 
+ * @param <T>
+ *            The class type of any user-supplied object that the caller wishes
+ *            to be passed through from one of the {@link XMLParser}'s
+ *            <code>parse</code> methods directly to the handler when a rule
+ *            matches.
+ * 
+ * @author Riyad Kalla (software@thebuzzmedia.com)
+ */
+public interface IChunkedCharactersRule<T> extends IRule<T> {
+	/**
+	 * Used to get the maximum number of characters handed to
+	 * {@link #handleCharacters(XMLParser, char[], int, int, Object)} at one
+	 * time.
+	 * 
+	 * @return the maximum chunk size, must be &gt;= 1.
+	 */
+	public int getChunkSize();
+
+	/**
+	 * Handler method called by the {@link XMLParser} before the first chunk of
+	 * a matching text event.
+	 * 
+	 * @param parser
+	 *            The source {@link XMLParser} currently executing this rule.
+	 * @param userObject
+	 *            The user-supplied object passed through from the
+	 *            {@link XMLParser}'s <code>parse</code> method directly to this
+	 *            handler, or <code>null</code> if there isn't one.
+	 */
+	public void handleCharactersStart(XMLParser<T> parser, T userObject);
+
+	/**
+	 * Handler method called by the {@link XMLParser} with every chunk of a
+	 * matching text event, in order.
+	 * 
+	 * @param parser
+	 *            The source {@link XMLParser} currently executing this rule.
+	 * @param chunk
+	 *            The buffer holding the chunk; owned by the pull parser and
+	 *            only valid until this method returns.
+	 * @param offset
+	 *            The index of the first character of the chunk.
+	 * @param length
+	 *            The number of characters in the chunk.
+	 * @param userObject
+	 *            The user-supplied object passed through from the
+	 *            {@link XMLParser}'s <code>parse</code> method directly to this
+	 *            handler, or <code>null</code> if there isn't one.
+	 */
+	public void handleCharacters(XMLParser<T> parser, char[] chunk,
+			int offset, int length, T userObject);
+
+	/**
+	 * Handler method called by the {@link XMLParser} after the last chunk of a
+	 * matching text event.
+	 * 
+	 * @param parser
+	 *            The source {@link XMLParser} currently executing this rule.
+	 * @param userObject
+	 *            The user-supplied object passed through from the
+	 *            {@link XMLParser}'s <code>parse</code> method directly to this
+	 *            handler, or <code>null</code> if there isn't one.
+	 */
+	public void handleCharactersEnd(XMLParser<T> parser, T userObject);
+}
@@ -0,0 +1,57 @@
+/**   
+ * Copyright 2011 The Buzz Media, LLC
+ * 
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *   http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.thebuzzmedia.sjxp.rule;
+
+import com.thebuzzmedia.sjxp.Fragment;
+import com.thebuzzmedia.sjxp.XMLParser;
+
+/**
+ * Interface used to describe a {@link IRule.Type#FRAGMENT} rule, which wants
+ * every matching element as a {@link Fragment}. Every rule of that type must
+ * implement it; {@link DefaultRule} already does.
+ * 
+ * @param <T>
+ *            The class type of any user-supplied object that the caller wishes
+ *            to be passed through from one of the {@link XMLParser}'s
+ *            <code>parse</code> methods directly to the handler when a rule
+ *            matches.
+ * 
+ * @author Riyad Kalla (software@thebuzzmedia.com)
+ */
+public interface IFragmentRule<T> extends IRule<T> {
+	/**
+	 * Handler method called by the {@link XMLParser} when an {@link IRule} of
+	 * type {@link Type#FRAGMENT} matches an element, once the element's end
+	 * tag has been parsed.
+	 * <p/>
+	 * The {@link Type#TAG}, {@link Type#ATTRIBUTE} and {@link Type#CHARACTER}
+	 * rules inside of the element are still called as the element is parsed,
+	 * before this method is.
+	 * 
+	 * @param parser
+	 *            The source {@link XMLParser} currently executing this rule.
+	 * @param fragment
+	 *            The matching element, whose id is {@link Fragment#getRoot()};
+	 *            it is re-used by the parser and only valid until this method
+	 *            returns.
+	 * @param userObject
+	 *            The user-supplied object passed through from the
+	 *            {@link XMLParser}'s <code>parse</code> method directly to this
+	 *            handler, or <code>null</code> if there isn't one.
+	 */
+	public void handleFragment(XMLParser<T> parser, Fragment fragment,
+			T userObject);
+}
@@ -15,6 +15,7 @@
  */
 package com.thebuzzmedia.sjxp.rule;
 
+import com.thebuzzmedia.sjxp.Fragment;
 import com.thebuzzmedia.sjxp.XMLParser;
 
 /**
@@ -87,6 +88,14 @@ import com.thebuzzmedia.sjxp.XMLParser;
  * 
  * It can look a little confusing, but it is exact and won't lead to
  * impossible-to-debug scenarios.
+ * <h3>Rule Format - All Attributes</h3>
+ * A {@link Type#ATTRIBUTE} rule with {@link #ALL_ATTRIBUTES} as its only
+ * attribute name matches every attribute of the element, in the order they
+ * appear in the document; the <code>index</code> given to
+ * {@link #handleParsedAttribute(XMLParser, int, String, Object)} is then the
+ * index of the attribute on the element and its name can be looked up with
+ * {@link XMLParser#getAttributes()}. Rules that want all of an element's
+ * attributes at once can implement {@link IAttributesRule} instead.
  * <h3>Rule Format - Default Namespaces</h3>
  * Some XML files will define a default namespace using the <code>xmlns</code>
  * argument, by itself, in the header. If your document does this, any tag in
@@ -141,6 +150,11 @@ import com.thebuzzmedia.sjxp.XMLParser;
  * @author Riyad Kalla (software@thebuzzmedia.com)
  */
 public interface IRule<T> {
+	/**
+	 * Attribute name used to match every attribute of an element.
+	 */
+	public static final String ALL_ATTRIBUTES = "*";
+
 	/**
 	 * Used to describe the type of the parse rule.
 	 */
@@ -165,7 +179,22 @@ public interface IRule<T> {
 		 * Type used to indicate that this rule describes the character data
 		 * between an open and close tag that the caller wants parsed.
 		 */
-		CHARACTER;
+		CHARACTER,
+		/**
+		 * Type used to indicate that this rule wants the original markup of
+		 * the entire matching element, from the first character of its start
+		 * tag to the last character of its end tag, exactly as it appears in
+		 * the document. Rules of this type must implement
+		 * {@link ICaptureRule}.
+		 */
+		CAPTURE,
+		/**
+		 * Type used to indicate that this rule wants the entire matching
+		 * element (its attributes, child elements and text) at once, as a
+		 * {@link Fragment} it can navigate freely. Rules of this type must
+		 * implement {@link IFragmentRule}.
+		 */
+		FRAGMENT;
 	}
 
 	/**
@@ -286,6 +315,8 @@ public interface IRule<T> {
 	 * This method is not called by the {@link XMLParser} until all the
 	 * character data has been coalesced together into a single {@link String}.
 	 * You don't need to worry about re-combining chunked text elements.
+	 * Rules expecting very large text can implement
+	 * {@link IChunkedCharactersRule} to get it in bounded chunks instead.
 	 * 
 	 * @param parser
 	 *            The source {@link XMLParser} currently executing this rule.
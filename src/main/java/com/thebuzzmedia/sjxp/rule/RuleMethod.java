@@ -0,0 +1,77 @@
+/**   
+ * Copyright 2011 The Buzz Media, LLC
+ * 
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *   http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.thebuzzmedia.sjxp.rule;
+
+import java.lang.annotation.Documented;
+import java.lang.annotation.ElementType;
+import java.lang.annotation.Retention;
+import java.lang.annotation.RetentionPolicy;
+import java.lang.annotation.Target;
+
+import com.thebuzzmedia.sjxp.XMLParser;
+
+/**
+ * Annotation used to turn a method of a plain Java object into a rule, so a
+ * handler class can describe all of its rules in one place instead of as a
+ * series of anonymous {@link DefaultRule} subclasses.
+ * <p/>
+ * The annotated methods of an object are turned into {@link IRule}s with
+ * {@link AnnotatedRule#createRules(Object)}. The values of this annotation are
+ * exactly the arguments {@link DefaultRule} is created with.
+ * <p/>
+ * An example would look like this:
+ * 
+ * <pre>
+ * class BookHandler {
+ * 	&#064;RuleMethod(type = Type.CHARACTER, locationPath = &quot;/library/book/title&quot;)
+ * 	void title(String text, BookDAO dao) {
+ * 		// Handle the title text
+ * 	}
+ * 
+ * 	&#064;RuleMethod(type = Type.ATTRIBUTE, locationPath = &quot;/library/book&quot;, attributeNames = { &quot;id&quot; })
+ * 	void id(String value) {
+ * 		// Handle the book's id
+ * 	}
+ * }
+ * 
+ * XMLParser&lt;BookDAO&gt; parser = new XMLParser&lt;BookDAO&gt;(
+ * 		AnnotatedRule.&lt;BookDAO&gt; createRules(new BookHandler()));
+ * </pre>
+ * 
+ * See {@link AnnotatedRule} for the parameters an annotated method can have.
+ * 
+ * @author Riyad Kalla (software@thebuzzmedia.com)
+ */
+@Documented
+@Retention(RetentionPolicy.RUNTIME)
+@Target(ElementType.METHOD)
+public @interface RuleMethod {
+	/**
+	 * The type of the rule.
+	 */
+	IRule.Type type();
+
+	/**
+	 * The location path of the element to target in the XML.
+	 */
+	String locationPath();
+
+	/**
+	 * The names of the attributes to parse values for if the type of the rule
+	 * is {@link IRule.Type#ATTRIBUTE}.
+	 */
+	String[] attributeNames() default {};
+}
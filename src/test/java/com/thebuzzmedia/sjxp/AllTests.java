@@ -3,12 +3,35 @@ package com.thebuzzmedia.sjxp;
 import org.junit.runner.RunWith;
 import org.junit.runners.Suite;
 
+import com.thebuzzmedia.sjxp.rule.AnnotatedRuleTest;
+import com.thebuzzmedia.sjxp.rule.Base64RuleTest;
 import com.thebuzzmedia.sjxp.rule.DefaultRuleTest;
 
 @RunWith(Suite.class)
 @Suite.SuiteClasses({ DefaultRuleTest.class, AttributeOnlyTest.class,
 		CharacterOnlyTest.class, ComplexTest.class, EmptyTest.class,
-		NamespaceTest.class, SimpleTest.class, StopTest.class })
+		NamespaceTest.class, SimpleTest.class, StopTest.class,
+		RuleTimingTest.class, RuleIndexTest.class,
+		AllocationTest.class,
+		ReadChunkSizeTest.class,
+		ByteSourceTest.class,
+		DocumentStreamTest.class,
+		BatchTest.class,
+		AnnotatedRuleTest.class,
+		SkipTest.class,
+		AttributeViewTest.class,
+		CaptureTest.class,
+		FragmentTest.class,
+		MultiplexParserTest.class,
+		DynamicRuleTest.class,
+		LimitTest.class,
+		CancelTest.class,
+		ChunkedTextTest.class,
+		Base64RuleTest.class,
+		XMLRewriterTest.class,
+		RecordExporterTest.class,
+		XMLGrepTest.class,
+		PathProfilerTest.class })
 public class AllTests {
 	// no op
 }
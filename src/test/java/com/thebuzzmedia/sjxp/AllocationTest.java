@@ -0,0 +1,422 @@
+/**   
+ * Copyright 2011 The Buzz Media, LLC
+ * 
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *   http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.thebuzzmedia.sjxp;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.lang.management.ManagementFactory;
+import java.util.ArrayList;
+import java.util.LinkedHashMap;
+import java.util.LinkedHashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+
+import org.junit.Assume;
+import org.junit.Test;
+import org.xmlpull.v1.XmlPullParser;
+
+import com.thebuzzmedia.sjxp.rule.DefaultRule;
+import com.thebuzzmedia.sjxp.rule.IChunkedCharactersRule;
+import com.thebuzzmedia.sjxp.rule.IRule;
+import com.thebuzzmedia.sjxp.rule.IRule.Type;
+
+import static junit.framework.Assert.*;
+
+/**
+ * Guards the promise that SJXP adds no garbage of its own to the parse.
+ * <p/>
+ * Every benchmark document is parsed with a raw {@link XmlPullParser} loop
+ * (the baseline, doing the same pull parser calls SJXP has to make) and with
+ * an {@link XMLParser}, and the bytes allocated by the current thread are
+ * compared. The difference divided by the number of elements must stay within
+ * the budgets below; raise them only knowingly.
+ * <p/>
+ * Small messages parsed out of a re-used <code>byte[]</code> are held to the
+ * same standard, so the per-document setup stays free as well.
+ */
+@SuppressWarnings({ "rawtypes", "unchecked" })
+public class AllocationTest extends AbstractTest {
+	/**
+	 * Bytes SJXP may allocate per element when no rule matches anything.
+	 */
+	public static final double MATCH_NOTHING_BUDGET = 1;
+
+	/**
+	 * Bytes SJXP may allocate per element when every element, attribute and
+	 * text of the document is matched by a rule.
+	 */
+	public static final double MATCH_EVERYTHING_BUDGET = 1;
+
+	/**
+	 * Bytes SJXP may allocate per message when parsing small documents one
+	 * after the other out of a re-used <code>byte[]</code>.
+	 */
+	public static final double MESSAGE_BUDGET = 0;
+
+	/**
+	 * A typical small (~500 byte) message.
+	 */
+	public static final String MESSAGE = "<?xml version=\"1.0\" encoding=\"UTF-8\"?>"
+			+ "<order id=\"12345\" status=\"NEW\"><customer id=\"987\">"
+			+ "<name>Jane Doe</name><email>jane@example.com</email></customer>"
+			+ "<items><item sku=\"A-1\" quantity=\"2\"><price currency=\"USD\">"
+			+ "19.99</price></item><item sku=\"B-22\" quantity=\"1\"><price "
+			+ "currency=\"USD\">5.49</price></item></items><shipping method="
+			+ "\"GROUND\"><street>123 Main Street</street><city>Springfield"
+			+ "</city><zip>12345</zip></shipping><note>Leave at the door, "
+			+ "ring twice &amp; wait.</note></order>";
+
+	public static final String[] DOCUMENTS = new String[] {
+			"bugzilla-bug-feed.xml", "eclipse-xml-stress-test.xml",
+			"rdf-newyork.craigslist.org.xml", "rss-news.samsung.com.xml",
+			"rss-news.ycombinator.com.xml", "rss-techcrunch.com.xml" };
+
+	private static final int RUNS = 10;
+
+	private long matchCount;
+
+	@Test
+	public void testMatchNothing() throws Exception {
+		for (int i = 0; i < DOCUMENTS.length; i++) {
+			byte[] document = load(DOCUMENTS[i]);
+			Set<String> paths = new LinkedHashSet<String>();
+			collect(document, paths, null);
+
+			// Rules on paths sharing the document's prefixes that never match
+			String[] pathArray = paths.toArray(new String[paths.size()]);
+			List<IRule> rules = new ArrayList<IRule>();
+
+			for (int j = 0; j < pathArray.length; j++) {
+				rules.add(new CountingRule(Type.TAG, pathArray[j] + "/none"));
+				rules.add(new CountingRule(Type.CHARACTER, pathArray[j]
+						+ "/none"));
+			}
+
+			assertWithinBudget(DOCUMENTS[i], document, rules, false,
+					MATCH_NOTHING_BUDGET);
+			assertEquals(0, matchCount);
+		}
+	}
+
+	@Test
+	public void testMatchEverything() throws Exception {
+		for (int i = 0; i < DOCUMENTS.length; i++) {
+			byte[] document = load(DOCUMENTS[i]);
+			Map<String, Set<String>> attributes = new LinkedHashMap<String, Set<String>>();
+			collect(document, attributes.keySet(), attributes);
+
+			String[] pathArray = attributes.keySet().toArray(
+					new String[attributes.size()]);
+			List<IRule> rules = new ArrayList<IRule>();
+
+			for (int j = 0; j < pathArray.length; j++) {
+				Set<String> names = attributes.get(pathArray[j]);
+
+				rules.add(new CountingRule(Type.TAG, pathArray[j]));
+				rules.add(new CountingRule(Type.CHARACTER, pathArray[j]));
+
+				if (!names.isEmpty())
+					rules.add(new CountingRule(Type.ATTRIBUTE, pathArray[j],
+							names.toArray(new String[names.size()])));
+			}
+
+			assertWithinBudget(DOCUMENTS[i], document, rules, true,
+					MATCH_EVERYTHING_BUDGET);
+			assertTrue(matchCount > 0);
+		}
+	}
+
+	@Test
+	public void testMessages() throws Exception {
+		com.sun.management.ThreadMXBean threadBean = getThreadBean();
+		byte[] message = MESSAGE.getBytes("UTF-8");
+		long threadId = Thread.currentThread().getId();
+
+		XMLParser parser = new XMLParser(new CountingRule(Type.CHARACTER,
+				"/order/none"), new CountingRule(Type.ATTRIBUTE, "/order/none",
+				"id"));
+
+		// The baseline re-uses a reader the same way the parser does
+		XmlPullParser xpp = XMLParser.XPP_FACTORY.newPullParser();
+		ByteSourceReader reader = new ByteSourceReader();
+
+		long baseline = Long.MAX_VALUE;
+		long actual = Long.MAX_VALUE;
+
+		for (int i = 0; i < RUNS; i++) {
+			long startBytes = threadBean.getThreadAllocatedBytes(threadId);
+
+			for (int j = 0; j < 1000; j++) {
+				reader.setInput(message, 0, message.length);
+				xpp.setInput(reader);
+
+				while (xpp.next() != XmlPullParser.END_DOCUMENT)
+					;
+			}
+
+			baseline = Math.min(baseline,
+					threadBean.getThreadAllocatedBytes(threadId) - startBytes);
+
+			startBytes = threadBean.getThreadAllocatedBytes(threadId);
+
+			for (int j = 0; j < 1000; j++)
+				parser.parse(message, 0, message.length, null);
+
+			actual = Math.min(actual,
+					threadBean.getThreadAllocatedBytes(threadId) - startBytes);
+		}
+
+		double perMessage = (actual - baseline) / 1000d;
+
+		assertTrue("allocated " + perMessage
+				+ " bytes per message more than the raw pull parser ("
+				+ actual + " vs " + baseline
+				+ " bytes for 1000 messages), budget is " + MESSAGE_BUDGET,
+				perMessage <= MESSAGE_BUDGET);
+		assertEquals(0, matchCount);
+	}
+
+	@Test
+	public void testChunkedText() throws Exception {
+		com.sun.management.ThreadMXBean threadBean = getThreadBean();
+		long threadId = Thread.currentThread().getId();
+		StringBuilder xml = new StringBuilder("<doc><payload>");
+
+		for (int i = 0; i < 1024 * 1024; i++)
+			xml.append((char) ('a' + (i % 26)));
+
+		byte[] document = xml.append("</payload></doc>").toString()
+				.getBytes("UTF-8");
+
+		XMLParser parser = new XMLParser(new ChunkedRule());
+		long actual = Long.MAX_VALUE;
+
+		// The pull parser's buffer grows during the first run
+		for (int i = 0; i < 3; i++) {
+			long startBytes = threadBean.getThreadAllocatedBytes(threadId);
+			parser.parse(document, 0, document.length, null);
+
+			actual = Math.min(actual,
+					threadBean.getThreadAllocatedBytes(threadId) - startBytes);
+		}
+
+		// Far less than a String (or any other copy) of the 1M characters
+		assertTrue("allocated " + actual + " bytes for a 1M character text",
+				actual < 64 * 1024);
+		assertEquals(1024, matchCount);
+	}
+
+	private void assertWithinBudget(String name, byte[] document,
+			List<IRule> rules, boolean matchEverything, double budget)
+			throws Exception {
+		com.sun.management.ThreadMXBean threadBean = getThreadBean();
+		XmlPullParser xpp = XMLParser.XPP_FACTORY.newPullParser();
+		XMLParser parser = new XMLParser(rules.toArray(new IRule[rules
+				.size()]));
+		long threadId = Thread.currentThread().getId();
+
+		long baseline = Long.MAX_VALUE;
+		long actual = Long.MAX_VALUE;
+		int elements = 0;
+
+		// Take the best of several runs so warm up and JIT noise are ignored
+		for (int i = 0; i < RUNS; i++) {
+			InputStream in = new ByteArrayInputStream(document);
+			long startBytes = threadBean.getThreadAllocatedBytes(threadId);
+			elements = parseRaw(xpp, in, matchEverything);
+			baseline = Math.min(baseline,
+					threadBean.getThreadAllocatedBytes(threadId) - startBytes);
+
+			in = new ByteArrayInputStream(document);
+			matchCount = 0;
+			startBytes = threadBean.getThreadAllocatedBytes(threadId);
+			parser.parse(in);
+			actual = Math.min(actual,
+					threadBean.getThreadAllocatedBytes(threadId) - startBytes);
+		}
+
+		double perElement = (double) (actual - baseline) / elements;
+
+		assertTrue(name + " allocated " + perElement
+				+ " bytes per element more than the raw pull parser ("
+				+ actual + " vs " + baseline + " bytes for " + elements
+				+ " elements), budget is " + budget, perElement <= budget);
+	}
+
+	private com.sun.management.ThreadMXBean getThreadBean() {
+		java.lang.management.ThreadMXBean bean = ManagementFactory
+				.getThreadMXBean();
+
+		// Only some JVMs can count the bytes allocated by a thread
+		Assume.assumeTrue(bean instanceof com.sun.management.ThreadMXBean);
+
+		com.sun.management.ThreadMXBean threadBean = (com.sun.management.ThreadMXBean) bean;
+		Assume.assumeTrue(threadBean.isThreadAllocatedMemorySupported());
+		threadBean.setThreadAllocatedMemoryEnabled(true);
+
+		return threadBean;
+	}
+
+	/**
+	 * Used to parse the document with nothing but the pull parser calls SJXP
+	 * itself has to make.
+	 */
+	private int parseRaw(XmlPullParser xpp, InputStream in,
+			boolean matchEverything) throws Exception {
+		int elements = 0;
+		xpp.setInput(in, null);
+
+		for (int type = xpp.next(); type != XmlPullParser.END_DOCUMENT; type = xpp
+				.next()) {
+			switch (type) {
+			case XmlPullParser.START_TAG:
+				elements++;
+				xpp.getName();
+				xpp.getNamespace();
+
+				if (matchEverything) {
+					for (int i = 0, count = xpp.getAttributeCount(); i < count; i++)
+						xpp.getAttributeValue(i);
+				}
+				break;
+
+			case XmlPullParser.TEXT:
+				if (matchEverything && xpp.getDepth() > 0)
+					xpp.getText();
+				break;
+			}
+		}
+
+		return elements;
+	}
+
+	/**
+	 * Used to collect the location path of every element in the document and,
+	 * optionally, the names of the attributes found on each path.
+	 */
+	private void collect(byte[] document, Set<String> paths,
+			Map<String, Set<String>> attributes) throws Exception {
+		XmlPullParser xpp = XMLParser.XPP_FACTORY.newPullParser();
+		List<String> stack = new ArrayList<String>();
+		stack.add("");
+
+		xpp.setInput(new ByteArrayInputStream(document), null);
+
+		for (int type = xpp.next(); type != XmlPullParser.END_DOCUMENT; type = xpp
+				.next()) {
+			if (type == XmlPullParser.START_TAG) {
+				String path = stack.get(stack.size() - 1) + '/'
+						+ qualify(xpp.getNamespace(), xpp.getName());
+				stack.add(path);
+
+				if (attributes == null) {
+					paths.add(path);
+					continue;
+				}
+
+				Set<String> names = attributes.get(path);
+
+				if (names == null)
+					attributes.put(path, names = new LinkedHashSet<String>());
+
+				for (int i = 0; i < xpp.getAttributeCount(); i++) {
+					// Rules cannot target single-character attribute names
+					if (xpp.getAttributeName(i).length() > 1)
+						names.add(qualify(xpp.getAttributeNamespace(i),
+								xpp.getAttributeName(i)));
+				}
+			} else if (type == XmlPullParser.END_TAG)
+				stack.remove(stack.size() - 1);
+		}
+	}
+
+	private static String qualify(String namespaceURI, String localName) {
+		if (namespaceURI == null || namespaceURI.length() == 0)
+			return localName;
+
+		return '[' + namespaceURI + ']' + localName;
+	}
+
+	private byte[] load(String name) throws IOException {
+		InputStream in = this.getClass().getResourceAsStream(
+				"benchmark/" + name);
+		assertNotNull(name, in);
+
+		try {
+			int bytesRead = 0;
+			byte[] buffer = new byte[8192];
+			ByteArrayOutputStream out = new ByteArrayOutputStream();
+
+			while ((bytesRead = in.read(buffer)) > 0)
+				out.write(buffer, 0, bytesRead);
+
+			return out.toByteArray();
+		} finally {
+			in.close();
+		}
+	}
+
+	class ChunkedRule extends DefaultRule implements IChunkedCharactersRule {
+		public ChunkedRule() {
+			super(Type.CHARACTER, "/doc/payload");
+		}
+
+		public int getChunkSize() {
+			return 1024;
+		}
+
+		public void handleCharactersStart(XMLParser parser, Object userObject) {
+			matchCount = 0;
+		}
+
+		public void handleCharacters(XMLParser parser, char[] chunk,
+				int offset, int length, Object userObject) {
+			matchCount++;
+		}
+
+		public void handleCharactersEnd(XMLParser parser, Object userObject) {
+			// no-op
+		}
+	}
+
+	class CountingRule extends DefaultRule {
+		public CountingRule(Type type, String locationPath,
+				String... attributeNames) {
+			super(type, locationPath, attributeNames);
+		}
+
+		@Override
+		public void handleTag(XMLParser parser, boolean isStartTag,
+				Object userObject) {
+			matchCount++;
+		}
+
+		@Override
+		public void handleParsedAttribute(XMLParser parser, int index,
+				String value, Object userObject) {
+			matchCount++;
+		}
+
+		@Override
+		public void handleParsedCharacters(XMLParser parser, String text,
+				Object userObject) {
+			matchCount++;
+		}
+	}
+}
@@ -0,0 +1,151 @@
+/**   
+ * Copyright 2011 The Buzz Media, LLC
+ * 
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *   http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.thebuzzmedia.sjxp;
+
+import java.util.ArrayList;
+import java.util.List;
+
+import org.junit.Test;
+
+import com.thebuzzmedia.sjxp.rule.DefaultRule;
+import com.thebuzzmedia.sjxp.rule.IAttributesRule;
+import com.thebuzzmedia.sjxp.rule.IRule;
+import com.thebuzzmedia.sjxp.rule.IRule.Type;
+
+import static junit.framework.Assert.*;
+
+@SuppressWarnings({ "rawtypes", "unchecked" })
+public class AttributeViewTest extends AbstractTest {
+	public static final String DOCUMENT = createDocument();
+
+	private List<String> values = new ArrayList<String>();
+
+	@Test
+	public void testNamedLookup() throws Exception {
+		XMLParser parser = new XMLParser(new ValueRule("/root/wide", "a29",
+				"a0", "missing", "[urn:x]a3", "a3"), new ValueRule(
+				"/root/narrow", "b1", "missing", "b0"));
+		parser.parse(DOCUMENT.getBytes("UTF-8"), 0, DOCUMENT.length(), null);
+
+		assertEquals("[0=v29, 1=v0, 2=null, 3=x3, 4=v3, 0=w1, 1=null, 2=w0]",
+				values.toString());
+	}
+
+	@Test
+	public void testAttributesRule() throws Exception {
+		XMLParser parser = new XMLParser(new ViewRule("/root/wide"),
+				new ViewRule("/root/narrow"));
+		parser.parse(DOCUMENT.getBytes("UTF-8"), 0, DOCUMENT.length(), null);
+
+		assertEquals("[31, v17, x3, 30, null, 2, w1, null, -1]",
+				values.toString());
+	}
+
+	@Test
+	public void testAllAttributes() throws Exception {
+		XMLParser parser = new XMLParser(new ValueRule("/root/narrow",
+				IRule.ALL_ATTRIBUTES) {
+			@Override
+			public void handleParsedAttribute(XMLParser parser, int index,
+					String value, Object userObject) {
+				AttributeView attributes = parser.getAttributes();
+				values.add(attributes.getLocalName(index) + '=' + value);
+			}
+		});
+		parser.parse(DOCUMENT.getBytes("UTF-8"), 0, DOCUMENT.length(), null);
+		assertEquals("[b0=w0, b1=w1]", values.toString());
+
+		// Batched, the index is still the index of the attribute
+		values.clear();
+		parser = new XMLParser(new ValueRule("/root/wide",
+				IRule.ALL_ATTRIBUTES));
+		parser.setBatchHandler(new IMatchBatchHandler() {
+			public void handleBatch(XMLParser parser, MatchBatch batch,
+					Object userObject) {
+				for (int i = 0; i < batch.size(); i++)
+					values.add(batch.getIndex(i) + "=" + batch.getValue(i));
+			}
+		}, 8);
+		parser.parse(DOCUMENT.getBytes("UTF-8"), 0, DOCUMENT.length(), null);
+
+		assertEquals(31, values.size());
+		assertEquals("0=v0", values.get(0));
+		assertEquals("30=x3", values.get(30));
+
+		try {
+			new XMLParser(new ValueRule("/root/wide", "a0",
+					IRule.ALL_ATTRIBUTES));
+			assertTrue(false);
+		} catch (XMLParserException e) {
+			assertTrue(true);
+		}
+	}
+
+	private static String createDocument() {
+		StringBuilder builder = new StringBuilder(
+				"<root xmlns:x=\"urn:x\"><wide");
+
+		for (int i = 0; i < 30; i++)
+			builder.append(" a").append(i).append("=\"v").append(i)
+					.append('"');
+
+		return builder.append(" x:a3=\"x3\"/><narrow b0=\"w0\" b1=\"w1\"/>")
+				.append("</root>").toString();
+	}
+
+	class ValueRule extends DefaultRule {
+		public ValueRule(String locationPath, String... attributeNames) {
+			super(Type.ATTRIBUTE, locationPath, attributeNames);
+		}
+
+		@Override
+		public void handleParsedAttribute(XMLParser parser, int index,
+				String value, Object userObject) {
+			values.add(index + "=" + value);
+		}
+	}
+
+	class ViewRule extends DefaultRule implements IAttributesRule {
+		public ViewRule(String locationPath) {
+			super(Type.ATTRIBUTE, locationPath, IRule.ALL_ATTRIBUTES);
+		}
+
+		@Override
+		public void handleParsedAttribute(XMLParser parser, int index,
+				String value, Object userObject) {
+			fail("handleParsedAttribute should never be called");
+		}
+
+		public void handleAttributes(XMLParser parser,
+				AttributeView attributes, Object userObject) {
+			assertSame(attributes, parser.getAttributes());
+
+			values.add(String.valueOf(attributes.getCount()));
+			values.add(attributes.getValue(attributes.getCount() > 2 ? "a17"
+					: "b1"));
+			values.add(attributes.getValue("urn:x", "a3"));
+
+			if (attributes.getCount() > 2) {
+				int index = attributes.indexOf("urn:x", "a3");
+				values.add(String.valueOf(index));
+				values.add(attributes.getNamespaceURI(0));
+				assertEquals("urn:x", attributes.getNamespaceURI(index));
+				assertEquals("x", attributes.getPrefix(index));
+			} else
+				values.add(String.valueOf(attributes.indexOf(null, "a3")));
+		}
+	}
+}
@@ -0,0 +1,137 @@
+/**   
+ * Copyright 2011 The Buzz Media, LLC
+ * 
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *   http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.thebuzzmedia.sjxp;
+
+import java.util.ArrayList;
+import java.util.List;
+
+import org.junit.Test;
+
+import com.thebuzzmedia.sjxp.rule.DefaultRule;
+import com.thebuzzmedia.sjxp.rule.IRule.Type;
+
+import static junit.framework.Assert.*;
+
+@SuppressWarnings({ "rawtypes", "unchecked" })
+public class BatchTest extends AbstractTest {
+	private List<String> values = new ArrayList<String>();
+	private List<Integer> batchSizes = new ArrayList<Integer>();
+	private int directCount = 0;
+	private boolean stop = false;
+
+	@Test
+	public void test() {
+		XMLParser parser = new XMLParser(new DefaultRule(Type.ATTRIBUTE,
+				"/imdb/category", "name"), new DefaultRule(Type.CHARACTER,
+				"/imdb/category/movie/name"), new DefaultRule(Type.ATTRIBUTE,
+				"/imdb/category/movie/cast/actor", "realName", "missing"),
+				new NameRule(), new FlushRule(), new StopRule());
+		parser.setBatchHandler(new Handler(), 4);
+		parser.parse(this.getClass()
+				.getResourceAsStream("resources/simple.xml"));
+
+		// Batched rules are never called directly
+		assertEquals(0, directCount);
+
+		assertEquals("[0:0=Action, 1:0=Terminator 2, 3:0=Terminator 2, "
+				+ "2:0=Arnold Schwarzenegger, 2:1=null, "
+				+ "2:0=Linda Hamilton, 2:1=null, 2:0=Edward Furlong, "
+				+ "2:1=null, 0:0=Comedy, 1:0=Tommy Boy, 3:0=Tommy Boy, "
+				+ "2:0=Chris Farley, 2:1=null, 2:0=David Spade, 2:1=null, "
+				+ "2:0=Brian Dennehy, 2:1=null]", values.toString());
+
+		// Full batches, then flushed by the end of each movie
+		assertEquals("[4, 4, 1, 4, 4, 1]", batchSizes.toString());
+
+		// Stopping still delivers what was matched
+		values.clear();
+		stop = true;
+		parser.setBatchHandler(new Handler(), 100);
+		parser.parse(this.getClass()
+				.getResourceAsStream("resources/simple.xml"));
+		assertEquals("[Action, Terminator 2, Terminator 2]", values.toString()
+				.replaceAll("\\d:0=", ""));
+		stop = false;
+
+		try {
+			parser.setBatchHandler(new Handler(), 0);
+			assertTrue(false);
+		} catch (IllegalArgumentException e) {
+			assertTrue(true);
+		}
+
+		// Rules are called like normal again once the handler is removed
+		parser.setBatchHandler(null, 0);
+		parser.parse(this.getClass()
+				.getResourceAsStream("resources/simple.xml"));
+		assertEquals(2, directCount);
+	}
+
+	class Handler implements IMatchBatchHandler {
+		public void handleBatch(XMLParser parser, MatchBatch batch,
+				Object userObject) {
+			batchSizes.add(batch.size());
+
+			for (int i = 0; i < batch.size(); i++) {
+				String value = (batch.getLengths()[i] < 0 ? null : new String(
+						batch.getChars(), batch.getOffsets()[i],
+						batch.getLengths()[i]));
+
+				assertEquals(batch.getValue(i), value);
+				values.add(batch.getRuleId(i) + ":" + batch.getIndex(i) + "="
+						+ value);
+			}
+		}
+	}
+
+	class NameRule extends DefaultRule {
+		public NameRule() {
+			super(Type.CHARACTER, "/imdb/category/movie/name");
+		}
+
+		@Override
+		public void handleParsedCharacters(XMLParser parser, String text,
+				Object userObject) {
+			directCount++;
+		}
+	}
+
+	class StopRule extends DefaultRule {
+		public StopRule() {
+			super(Type.TAG, "/imdb/category/movie/cast");
+		}
+
+		@Override
+		public void handleTag(XMLParser parser, boolean isOpeningTag,
+				Object userObject) {
+			if (stop)
+				parser.stop();
+		}
+	}
+
+	class FlushRule extends DefaultRule {
+		public FlushRule() {
+			super(Type.TAG, "/imdb/category/movie");
+		}
+
+		@Override
+		public void handleTag(XMLParser parser, boolean isOpeningTag,
+				Object userObject) {
+			if (!isOpeningTag)
+				parser.flushBatch(userObject);
+		}
+	}
+}
@@ -0,0 +1,173 @@
+/**   
+ * Copyright 2011 The Buzz Media, LLC
+ * 
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *   http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.thebuzzmedia.sjxp;
+
+import java.io.ByteArrayOutputStream;
+import java.io.InputStream;
+import java.nio.ByteBuffer;
+
+import org.junit.Test;
+
+import com.thebuzzmedia.sjxp.rule.DefaultRule;
+
+import static junit.framework.Assert.*;
+
+@SuppressWarnings({ "rawtypes", "unchecked" })
+public class ByteSourceTest extends AbstractTest {
+	public static final String TEXT = "caf\u00E9 \u20AC \uD83D\uDE00 done";
+
+	private int nameCount = 0;
+	private String text;
+
+	@Test
+	public void testByteArray() throws Exception {
+		byte[] document = load("resources/simple.xml");
+		byte[] buffer = new byte[document.length + 20];
+		System.arraycopy(document, 0, buffer, 10, document.length);
+
+		XMLParser parser = new XMLParser(new NameRule());
+
+		// Parse the same buffer over and over like a message consumer would
+		for (int i = 0; i < 3; i++)
+			parser.parse(buffer, 10, document.length, null);
+
+		assertEquals(6, nameCount);
+
+		try {
+			parser.parse(buffer, 10, buffer.length, null);
+			assertTrue(false);
+		} catch (IllegalArgumentException e) {
+			assertTrue(true);
+		}
+	}
+
+	@Test
+	public void testByteBuffer() throws Exception {
+		byte[] document = load("resources/simple.xml");
+		XMLParser parser = new XMLParser(new NameRule());
+
+		ByteBuffer heap = ByteBuffer.wrap(document);
+		parser.parse(heap, null);
+		assertEquals(2, nameCount);
+		assertFalse(heap.hasRemaining());
+
+		ByteBuffer direct = ByteBuffer.allocateDirect(document.length + 4);
+		direct.put(new byte[4]).put(document).flip().position(4);
+		parser.parse(direct, null);
+		assertEquals(4, nameCount);
+		assertFalse(direct.hasRemaining());
+	}
+
+	@Test
+	public void testEncodings() throws Exception {
+		String xml = "<a><b>" + TEXT + "</b></a>";
+		XMLParser parser = new XMLParser(new TextRule());
+
+		byte[] utf8 = xml.getBytes("UTF-8");
+		parser.parse(utf8, 0, utf8.length, null);
+		assertEquals(TEXT, text);
+
+		// UTF-8 byte order mark
+		byte[] bom = new byte[utf8.length + 3];
+		bom[0] = (byte) 0xEF;
+		bom[1] = (byte) 0xBB;
+		bom[2] = (byte) 0xBF;
+		System.arraycopy(utf8, 0, bom, 3, utf8.length);
+		text = null;
+		parser.parse(bom, 0, bom.length, null);
+		assertEquals(TEXT, text);
+
+		String latin = "<a><b>caf\u00E9</b></a>";
+		byte[] latin1 = latin.getBytes("ISO-8859-1");
+		parser.parse(latin1, 0, latin1.length, "ISO-8859-1", null);
+		assertEquals("caf\u00E9", text);
+
+		byte[] utf16 = xml.getBytes("UTF-16BE");
+		parser.parse(utf16, 0, utf16.length, "UTF-16BE", null);
+		assertEquals(TEXT, text);
+
+		// The cached decoder must start over for every document
+		parser.parse(utf16, 0, utf16.length, "UTF-16BE", null);
+		assertEquals(TEXT, text);
+
+		try {
+			parser.parse(utf8, 0, utf8.length, "NOT-AN-ENCODING", null);
+			assertTrue(false);
+		} catch (java.io.UnsupportedEncodingException e) {
+			assertTrue(true);
+		}
+	}
+
+	@Test
+	public void testReader() throws Exception {
+		byte[] utf8 = TEXT.getBytes("UTF-8");
+		ByteSourceReader reader = new ByteSourceReader();
+		reader.setInput(utf8, 0, utf8.length);
+
+		// One char at a time splits the surrogate pair between reads
+		StringBuilder result = new StringBuilder();
+		char[] buffer = new char[1];
+
+		while (reader.read(buffer, 0, 1) != -1)
+			result.append(buffer[0]);
+
+		assertEquals(TEXT, result.toString());
+
+		// Truncated sequence at the end of the input
+		reader.setInput(new byte[] { 'a', (byte) 0xE2, (byte) 0x82 }, 0, 3);
+		buffer = new char[8];
+		assertEquals(2, reader.read(buffer, 0, 8));
+		assertEquals('\uFFFD', buffer[1]);
+		assertEquals(-1, reader.read(buffer, 0, 8));
+	}
+
+	private byte[] load(String name) throws Exception {
+		InputStream in = this.getClass().getResourceAsStream(name);
+		ByteArrayOutputStream out = new ByteArrayOutputStream();
+		byte[] buffer = new byte[1024];
+		int bytesRead;
+
+		while ((bytesRead = in.read(buffer)) > 0)
+			out.write(buffer, 0, bytesRead);
+
+		in.close();
+		return out.toByteArray();
+	}
+
+	class NameRule extends DefaultRule {
+		public NameRule() {
+			super(Type.CHARACTER, "/imdb/category/movie/name");
+		}
+
+		@Override
+		public void handleParsedCharacters(XMLParser parser, String text,
+				Object userObject) {
+			assertEquals(SimpleTest.NAMES[nameCount++ % 2], text);
+		}
+	}
+
+	class TextRule extends DefaultRule {
+		public TextRule() {
+			super(Type.CHARACTER, "/a/b");
+		}
+
+		@Override
+		public void handleParsedCharacters(XMLParser parser, String text,
+				Object userObject) {
+			ByteSourceTest.this.text = text;
+		}
+	}
+}
@@ -0,0 +1,239 @@
+/**   
+ * Copyright 2011 The Buzz Media, LLC
+ * 
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *   http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.thebuzzmedia.sjxp;
+
+import java.io.ByteArrayInputStream;
+import java.nio.ByteBuffer;
+import java.nio.channels.Channels;
+import java.nio.channels.Pipe;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
+
+import org.junit.Test;
+
+import com.thebuzzmedia.sjxp.rule.DefaultRule;
+
+import static junit.framework.Assert.*;
+
+@SuppressWarnings({ "rawtypes", "unchecked" })
+public class CancelTest extends AbstractTest {
+	private int count;
+
+	@Test
+	public void testCancelBeforeParse() throws Exception {
+		CancelToken token = new CancelToken();
+		token.cancel();
+
+		XMLParser parser = new XMLParser(new ItemRule());
+		parser.setCancelToken(token);
+
+		try {
+			parser.parse(new ByteArrayInputStream(createDocument(10)));
+			assertTrue(false);
+		} catch (XMLParserCancelledException e) {
+			assertFalse(e.isTimedOut());
+		}
+
+		// Nothing was parsed at all
+		assertEquals(0, count);
+
+		parser.setCancelToken(null);
+		parser.parse(new ByteArrayInputStream(createDocument(10)));
+		assertEquals(10, count);
+	}
+
+	@Test
+	public void testCancelWhileParsing() throws Exception {
+		final CancelToken token = new CancelToken();
+
+		XMLParser parser = new XMLParser(new ItemRule() {
+			@Override
+			public void handleTag(XMLParser parser, boolean isStartTag,
+					Object userObject) {
+				super.handleTag(parser, isStartTag, userObject);
+
+				if (count == 10)
+					token.cancel();
+			}
+		});
+		parser.setCancelToken(token);
+
+		try {
+			parser.parse(new ByteArrayInputStream(createDocument(10000)));
+			assertTrue(false);
+		} catch (XMLParserCancelledException e) {
+			assertTrue(token.isCancelled());
+		}
+
+		// Cancelling is noticed within a few events
+		assertTrue(count < 100);
+	}
+
+	@Test
+	public void testTimeout() throws Exception {
+		XMLParser parser = new XMLParser(new ItemRule() {
+			@Override
+			public void handleTag(XMLParser parser, boolean isStartTag,
+					Object userObject) {
+				super.handleTag(parser, isStartTag, userObject);
+
+				try {
+					Thread.sleep(1);
+				} catch (InterruptedException e) {
+					// no-op
+				}
+			}
+		});
+		parser.setTimeout(20);
+
+		try {
+			parser.parse(new ByteArrayInputStream(createDocument(10000)));
+			assertTrue(false);
+		} catch (XMLParserCancelledException e) {
+			assertTrue(e.isTimedOut());
+		}
+
+		assertTrue(count < 10000);
+
+		try {
+			parser.setTimeout(-1);
+			assertTrue(false);
+		} catch (IllegalArgumentException e) {
+			assertTrue(true);
+		}
+	}
+
+	@Test
+	public void testTimeoutDocuments() throws Exception {
+		XMLParser parser = new XMLParser(new ItemRule());
+		parser.setTimeout(60000);
+
+		// The deadline is set before the first document starts
+		assertEquals(3, parser.parseDocuments(new ByteArrayInputStream(
+				"<list><item>1</item></list><list><item>2</item></list><list/>"
+						.getBytes("UTF-8")), null, null));
+		assertEquals(2, count);
+
+		parser = new XMLParser(new ItemRule() {
+			@Override
+			public void handleTag(XMLParser parser, boolean isStartTag,
+					Object userObject) {
+				super.handleTag(parser, isStartTag, userObject);
+
+				try {
+					Thread.sleep(1);
+				} catch (InterruptedException e) {
+					// no-op
+				}
+			}
+		});
+		parser.setTimeout(20);
+
+		try {
+			parser.parseDocuments(
+					new ByteArrayInputStream(createDocument(10000)), null, null);
+			assertTrue(false);
+		} catch (XMLParserCancelledException e) {
+			assertTrue(e.isTimedOut());
+		}
+	}
+
+	@Test
+	public void testInterrupt() throws Exception {
+		XMLParser parser = new XMLParser(new ItemRule() {
+			@Override
+			public void handleTag(XMLParser parser, boolean isStartTag,
+					Object userObject) {
+				super.handleTag(parser, isStartTag, userObject);
+				Thread.currentThread().interrupt();
+			}
+		});
+
+		try {
+			parser.parse(new ByteArrayInputStream(createDocument(10000)));
+			assertTrue(false);
+		} catch (XMLParserCancelledException e) {
+			assertFalse(e.isTimedOut());
+		}
+
+		// The interrupted status is left for the caller to handle
+		assertTrue(Thread.interrupted());
+		assertTrue(count < 100);
+	}
+
+	@Test
+	public void testInterruptBlockedRead() throws Exception {
+		final Pipe pipe = Pipe.open();
+		final CancelToken token = new CancelToken();
+		final CountDownLatch started = new CountDownLatch(1);
+		final Exception[] failure = new Exception[1];
+
+		final XMLParser parser = new XMLParser(new ItemRule() {
+			@Override
+			public void handleTag(XMLParser parser, boolean isStartTag,
+					Object userObject) {
+				started.countDown();
+			}
+		});
+		parser.setCancelToken(token);
+
+		// Only the start of the document ever arrives
+		pipe.sink().write(
+				ByteBuffer.wrap("<list><item>0</item><item>".getBytes("UTF-8")));
+
+		Thread thread = new Thread() {
+			@Override
+			public void run() {
+				try {
+					parser.parse(Channels.newInputStream(pipe.source()));
+				} catch (Exception e) {
+					failure[0] = e;
+				}
+			}
+		};
+		thread.start();
+
+		assertTrue(started.await(5, TimeUnit.SECONDS));
+		token.cancel(true);
+		thread.join(5000);
+
+		assertFalse(thread.isAlive());
+		assertTrue(failure[0] instanceof XMLParserCancelledException);
+		pipe.sink().close();
+	}
+
+	private static byte[] createDocument(int items) throws Exception {
+		StringBuilder xml = new StringBuilder("<list>");
+
+		for (int i = 0; i < items; i++)
+			xml.append("<item>").append(i).append("</item>");
+
+		return xml.append("</list>").toString().getBytes("UTF-8");
+	}
+
+	class ItemRule extends DefaultRule {
+		public ItemRule() {
+			super(Type.TAG, "/list/item");
+		}
+
+		@Override
+		public void handleTag(XMLParser parser, boolean isStartTag,
+				Object userObject) {
+			if (isStartTag)
+				count++;
+		}
+	}
+}
@@ -0,0 +1,193 @@
+/**   
+ * Copyright 2011 The Buzz Media, LLC
+ * 
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *   http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.thebuzzmedia.sjxp;
+
+import java.io.ByteArrayInputStream;
+import java.util.ArrayList;
+import java.util.List;
+
+import org.junit.Test;
+
+import com.thebuzzmedia.sjxp.rule.AnnotatedRule;
+import com.thebuzzmedia.sjxp.rule.DefaultRule;
+import com.thebuzzmedia.sjxp.rule.IRule;
+import com.thebuzzmedia.sjxp.rule.RuleMethod;
+import com.thebuzzmedia.sjxp.rule.IRule.Type;
+
+import static junit.framework.Assert.*;
+
+@SuppressWarnings({ "rawtypes", "unchecked" })
+public class CaptureTest extends AbstractTest {
+	public static final String ITEM_1 = "<item id='1'  type=\"a&amp;b\">\r\n"
+			+ "\t<title>First</title><!-- a <comment> -->\n"
+			+ "\t<link href=\"x\"/><link>y &lt; z&#65;</link>\n"
+			+ "\t<body><![CDATA[<p>raw</p>]]><?pi data?></body>\n"
+			+ "</item >";
+	public static final String ITEM_2 = "<item/>";
+	public static final String DOCUMENT = "<?xml version=\"1.0\"?>\n"
+			+ "<feed><title>Feed</title>" + ITEM_1 + ITEM_2
+			+ "<other><item>not captured</item></other></feed>";
+
+	private List<String> values = new ArrayList<String>();
+
+	@Test
+	public void testCapture() throws Exception {
+		XMLParser parser = new XMLParser(new CaptureRule("/feed/item"),
+				new CaptureRule("/feed/item/link"), new TextRule(
+						"/feed/item/title"), new TextRule("/feed/title"));
+		parser.parse(new ByteArrayInputStream(DOCUMENT.getBytes("UTF-8")));
+
+		String expected = "[text:Feed, text:First, <link href=\"x\"/>, "
+				+ "<link>y &lt; z&#65;</link>, " + ITEM_1 + ", " + ITEM_2 + "]";
+		assertEquals(expected, values.toString());
+
+		// Skipping leaves everything inside of a captured element alone
+		values.clear();
+		byte[] document = DOCUMENT.getBytes("UTF-8");
+		parser.setSkipUnmatched(true);
+		parser.parse(document, 0, document.length, null);
+
+		assertEquals(expected, values.toString());
+	}
+
+	@Test
+	public void testCaptureLostMarkup() throws Exception {
+		XMLParser parser = new XMLParser(new CaptureRule("/r/a"));
+
+		// The pull parser loses these start tags, they are built again
+		parser.parse(new ByteArrayInputStream(
+				"<r><a><c k='a&#65;b' x:j='&quot;&#9;' xmlns:x='u'>z</c><c k='&lt;'/></a></r>"
+						.getBytes("UTF-8")));
+		assertEquals("[<a><c xmlns:x=\"u\" k=\"aAb\" x:j=\"&quot;&#9;\">z</c>"
+				+ "<c k=\"&lt;\"/></a>]", values.toString());
+	}
+
+	@Test
+	public void testCaptureText() throws Exception {
+		String document = "<r><a><t>x &amp; y\r\nz<!-- c --><![CDATA[w]]><?p?></t></a></r>";
+
+		// The text is the same with or without a capture around it
+		XMLParser parser = new XMLParser(new TextRule("/r/a/t"));
+		parser.parse(new ByteArrayInputStream(document.getBytes("UTF-8")));
+		assertEquals("[text:x & y\nzw]", values.toString());
+
+		values.clear();
+		parser = new XMLParser(new TextRule("/r/a/t"), new CaptureRule("/r/a"));
+		parser.parse(new ByteArrayInputStream(document.getBytes("UTF-8")));
+		assertEquals("[text:x & y\nzw, <a><t>x &amp; y\r\nz<!-- c --><![CDATA[w]]><?p?></t></a>]",
+				values.toString());
+	}
+
+	@Test
+	public void testCaptureLimit() throws Exception {
+		XMLParser parser = new XMLParser(new CaptureRule("/feed/item"));
+		parser.setCaptureLimit(ITEM_1.length());
+		parser.parse(new ByteArrayInputStream(DOCUMENT.getBytes("UTF-8")));
+		assertEquals(2, values.size());
+
+		parser.setCaptureLimit(ITEM_1.length() - 1);
+
+		try {
+			parser.parse(new ByteArrayInputStream(DOCUMENT.getBytes("UTF-8")));
+			assertTrue(false);
+		} catch (XMLParserException e) {
+			assertTrue(true);
+		}
+
+		try {
+			parser.setCaptureLimit(0);
+			assertTrue(false);
+		} catch (IllegalArgumentException e) {
+			assertTrue(true);
+		}
+	}
+
+	@Test
+	public void testCaptureRuleRequired() throws Exception {
+		// A plain IRule has nothing to hand the markup to
+		IRule rule = new IRule() {
+			public Type getType() {
+				return Type.CAPTURE;
+			}
+
+			public String getLocationPath() {
+				return "/feed/item";
+			}
+
+			public String[] getAttributeNames() {
+				return null;
+			}
+
+			public void handleTag(XMLParser parser, boolean isStartTag,
+					Object userObject) {
+			}
+
+			public void handleParsedAttribute(XMLParser parser, int index,
+					String value, Object userObject) {
+			}
+
+			public void handleParsedCharacters(XMLParser parser, String text,
+					Object userObject) {
+			}
+		};
+
+		try {
+			new XMLParser(rule);
+			assertTrue(false);
+		} catch (XMLParserException e) {
+			assertTrue(true);
+		}
+	}
+
+	@Test
+	public void testAnnotated() throws Exception {
+		XMLParser parser = new XMLParser(AnnotatedRule.createRules(this));
+		parser.parseDocuments(new ByteArrayInputStream((DOCUMENT + DOCUMENT)
+				.getBytes("UTF-8")), null, null);
+
+		assertEquals("[" + ITEM_2 + ", " + ITEM_2 + "]", values.toString());
+	}
+
+	@RuleMethod(type = Type.CAPTURE, locationPath = "/feed/item")
+	void handleItem(String markup) {
+		if (markup.length() == ITEM_2.length())
+			values.add(markup);
+	}
+
+	class CaptureRule extends DefaultRule {
+		public CaptureRule(String locationPath) {
+			super(Type.CAPTURE, locationPath);
+		}
+
+		@Override
+		public void handleCapturedMarkup(XMLParser parser, char[] markup,
+				int offset, int length, Object userObject) {
+			values.add(new String(markup, offset, length));
+		}
+	}
+
+	class TextRule extends DefaultRule {
+		public TextRule(String locationPath) {
+			super(Type.CHARACTER, locationPath);
+		}
+
+		@Override
+		public void handleParsedCharacters(XMLParser parser, String text,
+				Object userObject) {
+			values.add("text:" + text);
+		}
+	}
+}
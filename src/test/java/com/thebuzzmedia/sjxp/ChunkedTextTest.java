@@ -0,0 +1,148 @@
+/**   
+ * Copyright 2011 The Buzz Media, LLC
+ * 
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *   http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.thebuzzmedia.sjxp;
+
+import java.io.ByteArrayInputStream;
+import java.util.ArrayList;
+import java.util.List;
+
+import org.junit.Test;
+
+import com.thebuzzmedia.sjxp.rule.DefaultRule;
+import com.thebuzzmedia.sjxp.rule.IChunkedCharactersRule;
+import com.thebuzzmedia.sjxp.rule.IRule.Type;
+
+import static junit.framework.Assert.*;
+
+@SuppressWarnings({ "rawtypes", "unchecked" })
+public class ChunkedTextTest extends AbstractTest {
+	@Test
+	public void testChunks() throws Exception {
+		StringBuilder payload = new StringBuilder();
+
+		for (int i = 0; payload.length() < 100000; i++)
+			payload.append(i).append(' ');
+
+		String xml = "<doc><log><![CDATA[" + payload + "]]></log>"
+				+ "<log>a &amp; b</log></doc>";
+
+		ChunkRule rule = new ChunkRule("/doc/log", 1000);
+		XMLParser parser = new XMLParser(rule);
+		parser.parse(new ByteArrayInputStream(xml.getBytes("UTF-8")));
+
+		assertEquals(2, rule.texts.size());
+		assertEquals(payload.toString(), rule.texts.get(0));
+		assertEquals("a & b", rule.texts.get(1));
+		assertEquals((payload.length() + 999) / 1000 + 1, rule.chunkCount);
+		assertEquals(1000, rule.maxChunk);
+	}
+
+	@Test
+	public void testSurrogatePairs() throws Exception {
+		ChunkRule rule = new ChunkRule("/doc", 2);
+		XMLParser parser = new XMLParser(rule);
+		parser.parse(new ByteArrayInputStream("<doc>a\uD83D\uDE00b</doc>"
+				.getBytes("UTF-8")));
+
+		assertEquals("[a, \uD83D\uDE00, b]", rule.chunks.toString());
+	}
+
+	@Test
+	public void testMixedRules() throws Exception {
+		final List<String> values = new ArrayList<String>();
+		ChunkRule chunkRule = new ChunkRule("/doc", 3);
+
+		XMLParser parser = new XMLParser(chunkRule, new DefaultRule(
+				Type.CHARACTER, "/doc") {
+			@Override
+			public void handleParsedCharacters(XMLParser parser, String text,
+					Object userObject) {
+				values.add(text);
+			}
+		});
+		parser.parse(new ByteArrayInputStream("<doc>chunked</doc>"
+				.getBytes("UTF-8")));
+
+		assertEquals("[chunked]", values.toString());
+		assertEquals("[chu, nke, d]", chunkRule.chunks.toString());
+
+		// Subscribers of a MultiplexParser get chunks just the same
+		ChunkRule subscribed = new ChunkRule("/doc", 4);
+		new MultiplexParser(new Subscriber(null, subscribed))
+				.parse(new ByteArrayInputStream("<doc>chunked</doc>"
+						.getBytes("UTF-8")));
+
+		assertEquals("[chun, ked]", subscribed.chunks.toString());
+	}
+
+	@Test
+	public void testInvalidChunkSize() throws Exception {
+		XMLParser parser = new XMLParser(new ChunkRule("/doc", 0));
+
+		try {
+			parser.parse(new ByteArrayInputStream("<doc>text</doc>"
+					.getBytes("UTF-8")));
+			assertTrue(false);
+		} catch (XMLParserException e) {
+			assertTrue(true);
+		}
+	}
+
+	class ChunkRule extends DefaultRule implements IChunkedCharactersRule {
+		private int chunkSize;
+		private StringBuilder text;
+
+		private List<String> texts = new ArrayList<String>();
+		private List<String> chunks = new ArrayList<String>();
+		private int chunkCount;
+		private int maxChunk;
+
+		public ChunkRule(String locationPath, int chunkSize) {
+			super(Type.CHARACTER, locationPath);
+			this.chunkSize = chunkSize;
+		}
+
+		public int getChunkSize() {
+			return chunkSize;
+		}
+
+		public void handleCharactersStart(XMLParser parser, Object userObject) {
+			assertNull(text);
+			text = new StringBuilder();
+		}
+
+		public void handleCharacters(XMLParser parser, char[] chunk,
+				int offset, int length, Object userObject) {
+			text.append(chunk, offset, length);
+			chunkCount++;
+			maxChunk = Math.max(maxChunk, length);
+
+			if (length < 10)
+				chunks.add(new String(chunk, offset, length));
+		}
+
+		public void handleCharactersEnd(XMLParser parser, Object userObject) {
+			texts.add(text.toString());
+			text = null;
+		}
+
+		@Override
+		public void handleParsedCharacters(XMLParser parser, String text,
+				Object userObject) {
+			fail("handleParsedCharacters must not be called");
+		}
+	}
+}
@@ -0,0 +1,166 @@
+/**   
+ * Copyright 2011 The Buzz Media, LLC
+ * 
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *   http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.thebuzzmedia.sjxp;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.DataOutputStream;
+import java.io.InputStream;
+import java.util.ArrayList;
+import java.util.List;
+
+import org.junit.Test;
+
+import com.thebuzzmedia.sjxp.rule.DefaultRule;
+
+import static junit.framework.Assert.*;
+
+@SuppressWarnings({ "rawtypes", "unchecked" })
+public class DocumentStreamTest extends AbstractTest {
+	public static final String[] DOCUMENTS = new String[] {
+			"<?xml version=\"1.0\" encoding=\"UTF-8\"?>\n<a><b>1</b></a>",
+			"\uFEFF<?xml version=\"1.0\"?><c><b>2</b><a><b>x</b></a></c>",
+			"<!-- <?xml version=\"1.0\"?> --><a><![CDATA[<?xml ?>]]><b>3</b></a>",
+			"<?xml-stylesheet href=\"a.xsl\"?><a><b>4</b></a>" };
+
+	private List<String> values = new ArrayList<String>();
+	private List<String> events = new ArrayList<String>();
+
+	@Test
+	public void testDocuments() throws Exception {
+		StringBuilder stream = new StringBuilder();
+
+		for (int i = 0; i < DOCUMENTS.length; i++)
+			stream.append(DOCUMENTS[i]).append("\n\n");
+
+		XMLParser parser = new XMLParser(new TextRule("/a/b"), new TextRule(
+				"/" + DocumentStreamReader.ROOT + "/a/b"));
+		Listener listener = new Listener();
+
+		assertEquals(4, parser.parseDocuments(
+				new ByteArrayInputStream(stream.toString().getBytes("UTF-8")),
+				listener, null));
+
+		// The location is reset for every document, /c/a/b never matches
+		assertEquals("[1, 3, 4]", values.toString());
+		assertEquals("[start 0, end 0, start 1, end 1, start 2, end 2, "
+				+ "start 3, end 3]", events.toString());
+
+		// The parser can be re-used like normal afterwards
+		values.clear();
+		parser.parse(new ByteArrayInputStream("<a><b>5</b></a>"
+				.getBytes("UTF-8")));
+		assertEquals("[5]", values.toString());
+	}
+
+	@Test
+	public void testDocumentsStop() throws Exception {
+		StringBuilder stream = new StringBuilder();
+
+		for (int i = 0; i < 5; i++)
+			stream.append("<a><b>").append(i).append("</b></a>");
+
+		XMLParser parser = new XMLParser(new TextRule("/a/b"));
+		Listener listener = new Listener();
+		listener.stopAfter = 1;
+
+		assertEquals(2, parser.parseDocuments(new ByteArrayInputStream(stream
+				.toString().getBytes("UTF-8")), listener, null));
+		assertEquals("[0, 1]", values.toString());
+
+		try {
+			parser.parseDocuments(
+					new ByteArrayInputStream("<a></a><!DOCTYPE a><a/>"
+							.getBytes("UTF-8")), null, null);
+			assertTrue(false);
+		} catch (XMLParserException e) {
+			assertTrue(true);
+		}
+	}
+
+	@Test
+	public void testFrames() throws Exception {
+		ByteArrayOutputStream out = new ByteArrayOutputStream();
+		DataOutputStream frames = new DataOutputStream(out);
+
+		// The last frame is larger than the initial frame buffer
+		StringBuilder large = new StringBuilder("<a><b>3</b>");
+
+		while (large.length() < 4096)
+			large.append("<c>padding</c>");
+
+		String[] documents = new String[] { DOCUMENTS[0], DOCUMENTS[1],
+				DOCUMENTS[2], large.append("</a>").toString() };
+
+		for (int i = 0; i < documents.length; i++) {
+			byte[] document = documents[i].getBytes("UTF-8");
+			frames.writeInt(document.length);
+			frames.write(document);
+		}
+
+		XMLParser parser = new XMLParser(new TextRule("/a/b"));
+		Listener listener = new Listener();
+		byte[] stream = out.toByteArray();
+
+		assertEquals(4, parser.parseFrames(new ByteArrayInputStream(stream),
+				listener, null));
+		assertEquals("[1, 3, 3]", values.toString());
+		assertEquals(8, events.size());
+
+		// Stopping leaves the stream right after the current frame
+		values.clear();
+		listener.stopAfter = 0;
+		InputStream in = new ByteArrayInputStream(stream);
+
+		assertEquals(1, parser.parseFrames(in, listener, null));
+		assertEquals("[1]", values.toString());
+		assertEquals(stream.length - 4 - DOCUMENTS[0].getBytes("UTF-8").length,
+				in.available());
+
+		// Truncated frame
+		try {
+			parser.parseFrames(new ByteArrayInputStream(stream, 0, 10), null,
+					null);
+			assertTrue(false);
+		} catch (XMLParserException e) {
+			assertTrue(true);
+		}
+	}
+
+	class Listener implements IDocumentListener {
+		private int stopAfter = -1;
+
+		public void handleDocument(XMLParser parser, boolean isStartDocument,
+				int index, Object userObject) {
+			events.add((isStartDocument ? "start " : "end ") + index);
+
+			if (!isStartDocument && index == stopAfter)
+				parser.stop();
+		}
+	}
+
+	class TextRule extends DefaultRule {
+		public TextRule(String locationPath) {
+			super(Type.CHARACTER, locationPath);
+		}
+
+		@Override
+		public void handleParsedCharacters(XMLParser parser, String text,
+				Object userObject) {
+			values.add(text);
+		}
+	}
+}
@@ -0,0 +1,182 @@
+/**   
+ * Copyright 2011 The Buzz Media, LLC
+ * 
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *   http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.thebuzzmedia.sjxp;
+
+import java.io.ByteArrayInputStream;
+import java.util.ArrayList;
+import java.util.List;
+
+import org.junit.Test;
+
+import com.thebuzzmedia.sjxp.rule.DefaultRule;
+import com.thebuzzmedia.sjxp.rule.IRule;
+import com.thebuzzmedia.sjxp.rule.IRule.Type;
+
+import static junit.framework.Assert.*;
+
+@SuppressWarnings({ "rawtypes", "unchecked" })
+public class DynamicRuleTest extends AbstractTest {
+	public static final String RSS = "<rss><channel>"
+			+ "<item><title>One</title></item>"
+			+ "<item><title>Two</title></item></channel></rss>";
+	public static final String ATOM = "<feed>"
+			+ "<entry><title>One</title></entry>"
+			+ "<entry><title>Two</title></entry></feed>";
+
+	private List<String> values = new ArrayList<String>();
+
+	@Test
+	public void testDisable() throws Exception {
+		final IRule rssRule = new TextRule("/rss/channel/item/title");
+		final IRule atomRule = new TextRule("/feed/entry/title");
+
+		// Once the root element tells which format it is, drop the other rules
+		XMLParser parser = new XMLParser(rssRule, atomRule, new DefaultRule(
+				Type.TAG, "/rss") {
+			@Override
+			public void handleTag(XMLParser parser, boolean isStartTag,
+					Object userObject) {
+				if (isStartTag)
+					parser.setRuleEnabled(atomRule, false);
+			}
+		});
+		parser.parse(new ByteArrayInputStream(RSS.getBytes("UTF-8")));
+
+		assertEquals("[One, Two]", values.toString());
+		assertTrue(parser.isRuleEnabled(rssRule));
+		assertFalse(parser.isRuleEnabled(atomRule));
+
+		// Disabled rules stay disabled for the following documents
+		values.clear();
+		parser.parse(new ByteArrayInputStream(ATOM.getBytes("UTF-8")));
+		assertEquals("[]", values.toString());
+
+		parser.setRuleEnabled(atomRule, true);
+		parser.parse(new ByteArrayInputStream(ATOM.getBytes("UTF-8")));
+		assertEquals("[One, Two]", values.toString());
+	}
+
+	@Test
+	public void testDisableItself() throws Exception {
+		XMLParser parser = new XMLParser(new TextRule(
+				"/rss/channel/item/title") {
+			@Override
+			public void handleParsedCharacters(XMLParser parser, String text,
+					Object userObject) {
+				super.handleParsedCharacters(parser, text, userObject);
+				parser.setRuleEnabled(this, false);
+			}
+		});
+		parser.parse(new ByteArrayInputStream(RSS.getBytes("UTF-8")));
+
+		assertEquals("[One]", values.toString());
+	}
+
+	@Test
+	public void testAdd() throws Exception {
+		// The rule added from inside the first item matches right away
+		XMLParser parser = new XMLParser(new DefaultRule(Type.TAG,
+				"/rss/channel/item") {
+			@Override
+			public void handleTag(XMLParser parser, boolean isStartTag,
+					Object userObject) {
+				if (isStartTag && values.isEmpty()) {
+					parser.setRuleEnabled(this, false);
+					parser.addRule(new TextRule("/rss/channel/item/title"));
+					parser.addRule(new DefaultRule(Type.FRAGMENT,
+							"/rss/channel/item") {
+						@Override
+						public void handleFragment(XMLParser parser,
+								Fragment fragment, Object userObject) {
+							values.add(fragment.getChildText(
+									fragment.getRoot(), "title"));
+						}
+					});
+				}
+			}
+		});
+		parser.parse(new ByteArrayInputStream(RSS.getBytes("UTF-8")));
+
+		assertEquals("[One, Two, Two]", values.toString());
+	}
+
+	@Test
+	public void testAddWhileSkipping() throws Exception {
+		StringBuilder xml = new StringBuilder("<doc><marker/>");
+
+		// Enough unmatched content to make sure it is not all read ahead
+		for (int i = 0; i < 5000; i++)
+			xml.append("<filler><a>").append(i).append("</a></filler>");
+
+		xml.append("<later><x>found</x></later></doc>");
+
+		XMLParser parser = new XMLParser(new DefaultRule(Type.TAG,
+				"/doc/marker") {
+			@Override
+			public void handleTag(XMLParser parser, boolean isStartTag,
+					Object userObject) {
+				if (isStartTag)
+					parser.addRule(new TextRule("/doc/later/x"));
+			}
+		});
+		parser.setSkipUnmatched(true);
+
+		byte[] document = xml.toString().getBytes("UTF-8");
+		parser.parse(document, 0, document.length, null);
+
+		assertEquals("[found]", values.toString());
+	}
+
+	@Test
+	public void testInvalid() throws Exception {
+		XMLParser parser = new XMLParser(new TextRule("/rss"));
+
+		try {
+			parser.setRuleEnabled(null, false);
+			assertTrue(false);
+		} catch (IllegalArgumentException e) {
+			assertTrue(true);
+		}
+
+		try {
+			parser.setRuleEnabled(new TextRule("/rss"), false);
+			assertTrue(false);
+		} catch (IllegalArgumentException e) {
+			assertTrue(true);
+		}
+
+		try {
+			parser.addRule(null);
+			assertTrue(false);
+		} catch (IllegalArgumentException e) {
+			assertTrue(true);
+		}
+
+		assertFalse(parser.isRuleEnabled(new TextRule("/rss")));
+	}
+
+	class TextRule extends DefaultRule {
+		public TextRule(String locationPath) {
+			super(Type.CHARACTER, locationPath);
+		}
+
+		@Override
+		public void handleParsedCharacters(XMLParser parser, String text,
+				Object userObject) {
+			values.add(text);
+		}
+	}
+}
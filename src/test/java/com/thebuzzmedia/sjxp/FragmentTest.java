@@ -0,0 +1,211 @@
+/**   
+ * Copyright 2011 The Buzz Media, LLC
+ * 
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *   http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.thebuzzmedia.sjxp;
+
+import java.io.ByteArrayInputStream;
+import java.util.ArrayList;
+import java.util.List;
+
+import org.junit.Test;
+
+import com.thebuzzmedia.sjxp.rule.AnnotatedRule;
+import com.thebuzzmedia.sjxp.rule.DefaultRule;
+import com.thebuzzmedia.sjxp.rule.RuleMethod;
+import com.thebuzzmedia.sjxp.rule.IRule.Type;
+
+import static junit.framework.Assert.*;
+
+@SuppressWarnings({ "rawtypes", "unchecked" })
+public class FragmentTest extends AbstractTest {
+	public static final String DOCUMENT = "<?xml version=\"1.0\"?>\n"
+			+ "<library><name>Main</name>\n"
+			+ "<book isbn=\"1\" lang=\"en\"><title>First</title>"
+			+ "<author>A</author><!-- c --><author>B &amp; C</author>"
+			+ "<note>mixed <b>bold</b> and<![CDATA[ <raw>]]></note></book>\n"
+			+ "<book isbn=\"2\"><title>Second</title><author>D</author></book>\n"
+			+ "<shelf><book isbn=\"3\"/></shelf></library>";
+
+	private List<String> values = new ArrayList<String>();
+
+	@Test
+	public void testFragment() throws Exception {
+		XMLParser parser = new XMLParser(new BookRule("/library/book"));
+		parser.parse(new ByteArrayInputStream(DOCUMENT.getBytes("UTF-8")));
+
+		assertEquals("[1:en:First:[A, B & C]:mixed  and <raw>:bold, "
+				+ "2:null:Second:[D]:null:null]", values.toString());
+
+		// Skipping leaves everything inside of a fragment alone
+		values.clear();
+		byte[] document = DOCUMENT.getBytes("UTF-8");
+		parser.setSkipUnmatched(true);
+		parser.parse(document, 0, document.length, null);
+
+		assertEquals("[1:en:First:[A, B & C]:mixed  and <raw>:bold, "
+				+ "2:null:Second:[D]:null:null]", values.toString());
+	}
+
+	@Test
+	public void testNavigation() throws Exception {
+		final Fragment[] last = new Fragment[1];
+
+		XMLParser parser = new XMLParser(new DefaultRule(Type.FRAGMENT,
+				"/library/book") {
+			@Override
+			public void handleFragment(XMLParser parser, Fragment fragment,
+					Object userObject) {
+				int book = fragment.getRoot();
+
+				assertTrue(fragment.isElement(book));
+				assertEquals(Fragment.NONE, fragment.getParent(book));
+				assertEquals(Fragment.NONE, fragment.getNextSibling(book));
+
+				int title = fragment.getFirstChild(book);
+				assertEquals("title", fragment.getLocalName(title));
+				assertNull(fragment.getNamespaceURI(title));
+				assertEquals(book, fragment.getParent(title));
+				assertEquals(0, fragment.getAttributeCount(title));
+
+				int text = fragment.getFirstChild(title);
+				assertFalse(fragment.isElement(text));
+				assertEquals(new String(fragment.getTextBuffer(), fragment
+						.getTextOffset(text), fragment.getTextLength(text)),
+						fragment.getText(title));
+
+				assertEquals("author", fragment.getLocalName(fragment
+						.getNextSibling(title)));
+				assertEquals("isbn", fragment.getAttributeLocalName(book, 0));
+				assertEquals(fragment.getAttributeValue(book, 0),
+						fragment.getAttributeValue(book, "isbn"));
+
+				try {
+					fragment.getAttributeValue(book, 2);
+					assertTrue(false);
+				} catch (IndexOutOfBoundsException e) {
+					assertTrue(true);
+				}
+
+				last[0] = fragment;
+			}
+		});
+		parser.parse(new ByteArrayInputStream(DOCUMENT.getBytes("UTF-8")));
+
+		// The arena is emptied once every fragment has been handled
+		assertEquals(0, last[0].getNodeCount());
+	}
+
+	@Test
+	public void testNested() throws Exception {
+		XMLParser parser = new XMLParser(new BookRule("/library/shelf/book"),
+				new CountRule("/library/shelf"), new CountRule("/library"));
+		parser.parse(new ByteArrayInputStream(DOCUMENT.getBytes("UTF-8")));
+
+		assertEquals("[3:null:null:[]:null:null, shelf:1, library:3]",
+				values.toString());
+	}
+
+	@Test
+	public void testNamespaces() throws Exception {
+		String xml = "<r xmlns:a=\"urn:a\"><a:item a:k=\"v\" k=\"w\">"
+				+ "<a:x>1</a:x><x>2</x></a:item></r>";
+
+		XMLParser parser = new XMLParser(new DefaultRule(Type.FRAGMENT,
+				"/r/[urn:a]item") {
+			@Override
+			public void handleFragment(XMLParser parser, Fragment fragment,
+					Object userObject) {
+				int item = fragment.getRoot();
+
+				values.add(fragment.getNamespaceURI(item));
+				values.add(fragment.getAttributeValue(item, "urn:a", "k"));
+				values.add(fragment.getAttributeValue(item, "k"));
+				values.add(fragment.getText(fragment.getFirstChild(item,
+						"urn:a", "x")));
+				values.add(fragment.getChildText(item, "x"));
+			}
+		});
+		parser.parse(new ByteArrayInputStream(xml.getBytes("UTF-8")));
+
+		assertEquals("[urn:a, v, w, 1, 2]", values.toString());
+	}
+
+	@Test
+	public void testAnnotated() throws Exception {
+		XMLParser parser = new XMLParser(AnnotatedRule.createRules(this));
+		parser.parse(new ByteArrayInputStream(DOCUMENT.getBytes("UTF-8")));
+
+		assertEquals("[First, Second]", values.toString());
+
+		try {
+			new DefaultRule(Type.FRAGMENT, "/library/book", "isbn");
+			assertTrue(false);
+		} catch (IllegalArgumentException e) {
+			assertTrue(true);
+		}
+	}
+
+	@RuleMethod(type = Type.FRAGMENT, locationPath = "/library/book")
+	void handleBook(Fragment fragment) {
+		values.add(fragment.getChildText(fragment.getRoot(), "title"));
+	}
+
+	class BookRule extends DefaultRule {
+		public BookRule(String locationPath) {
+			super(Type.FRAGMENT, locationPath);
+		}
+
+		@Override
+		public void handleFragment(XMLParser parser, Fragment fragment,
+				Object userObject) {
+			int book = fragment.getRoot();
+			List<String> authors = new ArrayList<String>();
+
+			for (int author = fragment.getFirstChild(book, "author"); author != Fragment.NONE; author = fragment
+					.getNextSibling(author, "author"))
+				authors.add(fragment.getText(author));
+
+			int note = fragment.getFirstChild(book, "note");
+
+			values.add(fragment.getAttributeValue(book, "isbn") + ":"
+					+ fragment.getAttributeValue(book, "lang") + ":"
+					+ fragment.getChildText(book, "title") + ":" + authors
+					+ ":" + (note == Fragment.NONE ? null : fragment
+							.getText(note)) + ":"
+					+ (note == Fragment.NONE ? null : fragment.getChildText(
+							note, "b")));
+		}
+	}
+
+	class CountRule extends DefaultRule {
+		public CountRule(String locationPath) {
+			super(Type.FRAGMENT, locationPath);
+		}
+
+		@Override
+		public void handleFragment(XMLParser parser, Fragment fragment,
+				Object userObject) {
+			int root = fragment.getRoot();
+			int books = 0;
+
+			for (int node = root, end = root + fragment.getNodeCount(); node < end; node++) {
+				if ("book".equals(fragment.getLocalName(node)))
+					books++;
+			}
+
+			values.add(fragment.getLocalName(root) + ":" + books);
+		}
+	}
+}
@@ -0,0 +1,174 @@
+/**   
+ * Copyright 2011 The Buzz Media, LLC
+ * 
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *   http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.thebuzzmedia.sjxp;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.DataOutputStream;
+import java.util.ArrayList;
+import java.util.List;
+
+import org.junit.Test;
+
+import com.thebuzzmedia.sjxp.XMLParser.Limit;
+import com.thebuzzmedia.sjxp.rule.DefaultRule;
+
+import static junit.framework.Assert.*;
+
+@SuppressWarnings({ "rawtypes", "unchecked" })
+public class LimitTest extends AbstractTest {
+	public static final String DOCUMENT = "<feed><item id=\"1\" lang=\"en\">"
+			+ "<title>One</title></item><item id=\"22\"><title>Two</title>"
+			+ "</item></feed>";
+
+	private List<String> values = new ArrayList<String>();
+
+	@Test
+	public void testDepth() throws Exception {
+		XMLParser parser = new XMLParser(new TitleRule());
+		parser.setLimit(Limit.DEPTH, 3);
+		parser.parse(new ByteArrayInputStream(DOCUMENT.getBytes("UTF-8")));
+
+		assertEquals("[One, Two]", values.toString());
+
+		parser.setLimit(Limit.DEPTH, 2);
+		assertLimit(parser, DOCUMENT, Limit.DEPTH);
+
+		// The offending element is refused before any rule sees it
+		assertEquals("[One, Two]", values.toString());
+	}
+
+	@Test
+	public void testAttributes() throws Exception {
+		XMLParser parser = new XMLParser(new TitleRule());
+		parser.setLimit(Limit.ATTRIBUTE_COUNT, 2);
+		parser.setLimit(Limit.ATTRIBUTE_LENGTH, 2);
+		parser.parse(new ByteArrayInputStream(DOCUMENT.getBytes("UTF-8")));
+
+		parser.setLimit(Limit.ATTRIBUTE_COUNT, 1);
+		assertLimit(parser, DOCUMENT, Limit.ATTRIBUTE_COUNT);
+
+		parser.setLimit(Limit.ATTRIBUTE_COUNT, XMLParser.NO_LIMIT);
+		parser.setLimit(Limit.ATTRIBUTE_LENGTH, 1);
+		assertLimit(parser, DOCUMENT, Limit.ATTRIBUTE_LENGTH);
+	}
+
+	@Test
+	public void testTextLength() throws Exception {
+		XMLParser parser = new XMLParser(new TitleRule());
+		parser.setLimit(Limit.TEXT_LENGTH, 3);
+		parser.parse(new ByteArrayInputStream(DOCUMENT.getBytes("UTF-8")));
+
+		assertLimit(parser, "<feed><item><title>Three</title></item></feed>",
+				Limit.TEXT_LENGTH);
+		assertEquals("[One, Two]", values.toString());
+	}
+
+	@Test
+	public void testEvents() throws Exception {
+		XMLParser parser = new XMLParser(new TitleRule());
+
+		// 5 start tags, 2 text, 5 end tags and the end of the document
+		parser.setLimit(Limit.EVENTS, 13);
+		parser.parse(new ByteArrayInputStream(DOCUMENT.getBytes("UTF-8")));
+
+		parser.setLimit(Limit.EVENTS, 12);
+		assertLimit(parser, DOCUMENT, Limit.EVENTS);
+
+		// Counts start over with every document in a stream
+		parser.setLimit(Limit.EVENTS, 16);
+		values.clear();
+		assertEquals(3, parser.parseDocuments(new ByteArrayInputStream(
+				(DOCUMENT + DOCUMENT + DOCUMENT).getBytes("UTF-8")), null, null));
+		assertEquals(6, values.size());
+	}
+
+	@Test
+	public void testBytes() throws Exception {
+		XMLParser parser = new XMLParser(new TitleRule());
+		byte[] document = DOCUMENT.getBytes("UTF-8");
+
+		parser.setLimit(Limit.BYTES, document.length);
+		parser.parse(document, 0, document.length, null);
+		parser.parse(new ByteArrayInputStream(document));
+
+		parser.setLimit(Limit.BYTES, document.length - 1);
+		assertLimit(parser, DOCUMENT, Limit.BYTES);
+
+		try {
+			parser.parse(document, 0, document.length, null);
+			assertTrue(false);
+		} catch (XMLParserLimitException e) {
+			assertEquals(document.length - 1, e.getMaximum());
+		}
+
+		// A frame claiming to be huge is refused before it is read
+		ByteArrayOutputStream stream = new ByteArrayOutputStream();
+		new DataOutputStream(stream).writeInt(Integer.MAX_VALUE);
+
+		try {
+			parser.parseFrames(new ByteArrayInputStream(stream.toByteArray()),
+					null, null);
+			assertTrue(false);
+		} catch (XMLParserLimitException e) {
+			assertEquals(Limit.BYTES, e.getLimit());
+		}
+	}
+
+	@Test
+	public void testInvalid() throws Exception {
+		XMLParser parser = new XMLParser(new TitleRule());
+
+		try {
+			parser.setLimit(null, 1);
+			assertTrue(false);
+		} catch (IllegalArgumentException e) {
+			assertTrue(true);
+		}
+
+		try {
+			parser.setLimit(Limit.DEPTH, -1);
+			assertTrue(false);
+		} catch (IllegalArgumentException e) {
+			assertTrue(true);
+		}
+
+		assertEquals(XMLParser.NO_LIMIT, parser.getLimit(Limit.EVENTS));
+	}
+
+	private void assertLimit(XMLParser parser, String xml, Limit limit)
+			throws Exception {
+		try {
+			parser.parse(new ByteArrayInputStream(xml.getBytes("UTF-8")));
+			assertTrue(false);
+		} catch (XMLParserLimitException e) {
+			assertEquals(limit, e.getLimit());
+			assertEquals(parser.getLimit(limit), e.getMaximum());
+		}
+	}
+
+	class TitleRule extends DefaultRule {
+		public TitleRule() {
+			super(Type.CHARACTER, "/feed/item/title");
+		}
+
+		@Override
+		public void handleParsedCharacters(XMLParser parser, String text,
+				Object userObject) {
+			values.add(text);
+		}
+	}
+}
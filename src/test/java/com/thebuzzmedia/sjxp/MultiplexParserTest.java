@@ -0,0 +1,231 @@
+/**   
+ * Copyright 2011 The Buzz Media, LLC
+ * 
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *   http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.thebuzzmedia.sjxp;
+
+import java.io.ByteArrayInputStream;
+import java.util.ArrayList;
+import java.util.List;
+
+import org.junit.Test;
+
+import com.thebuzzmedia.sjxp.rule.DefaultRule;
+import com.thebuzzmedia.sjxp.rule.IAttributesRule;
+import com.thebuzzmedia.sjxp.rule.IRule;
+
+import static junit.framework.Assert.*;
+
+@SuppressWarnings({ "rawtypes", "unchecked" })
+public class MultiplexParserTest extends AbstractTest {
+	public static final String DOCUMENT = "<feed>"
+			+ "<item id=\"1\"><title>One</title></item>"
+			+ "<item id=\"2\"><title>Two</title></item>"
+			+ "<item id=\"3\"><title>Three</title></item></feed>";
+
+	@Test
+	public void testSubscribers() throws Exception {
+		List<String> titles = new ArrayList<String>();
+		List<String> ids = new ArrayList<String>();
+		StringBuilder all = new StringBuilder();
+
+		MultiplexParser parser = new MultiplexParser(new Subscriber(titles,
+				new TextRule("/feed/item/title", 0)), new Subscriber(ids,
+				new IdRule()), new Subscriber(all, new LogRule(),
+				new AllRule()));
+		parser.parse(new ByteArrayInputStream(DOCUMENT.getBytes("UTF-8")));
+
+		assertEquals("[One, Two, Three]", titles.toString());
+		assertEquals("[1, 2, 3]", ids.toString());
+		assertEquals("[id=1]One[id=2]Two[id=3]Three", all.toString());
+	}
+
+	@Test
+	public void testStopSubscriber() throws Exception {
+		List<String> first = new ArrayList<String>();
+		List<String> second = new ArrayList<String>();
+		Subscriber stopped = new Subscriber(first, new TextRule(
+				"/feed/item/title", 1));
+
+		CountingParser parser = new CountingParser(stopped, new Subscriber(
+				second, new TextRule("/feed/item/title", 0)));
+		parser.parse(new ByteArrayInputStream(DOCUMENT.getBytes("UTF-8")));
+
+		// Only the subscriber calling stop() is stopped
+		assertEquals("[One]", first.toString());
+		assertEquals("[One, Two, Three]", second.toString());
+		assertTrue(stopped.isStopped());
+		assertEquals(7, parser.startTags);
+
+		// Subscribers start over with every document
+		first.clear();
+		parser.parse(new ByteArrayInputStream(DOCUMENT.getBytes("UTF-8")));
+		assertEquals("[One]", first.toString());
+	}
+
+	@Test
+	public void testStopAll() throws Exception {
+		List<String> first = new ArrayList<String>();
+		List<String> second = new ArrayList<String>();
+
+		CountingParser parser = new CountingParser(new Subscriber(first,
+				new TextRule("/feed/item/title", 1)), new Subscriber(second,
+				new TextRule("/feed/item/title", 2)));
+		parser.parse(new ByteArrayInputStream(DOCUMENT.getBytes("UTF-8")));
+
+		// Parsing ends once the last subscriber stops
+		assertEquals("[One]", first.toString());
+		assertEquals("[One, Two]", second.toString());
+		assertEquals(5, parser.startTags);
+	}
+
+	@Test
+	public void testStopFromOtherThread() throws Exception {
+		List<String> first = new ArrayList<String>();
+		List<String> second = new ArrayList<String>();
+
+		CountingParser parser = new CountingParser(new Subscriber(first,
+				new WatchdogRule()), new Subscriber(second, new TextRule(
+				"/feed/item/title", 0)));
+		parser.parse(new ByteArrayInputStream(DOCUMENT.getBytes("UTF-8")));
+
+		// Another thread stops all subscribers, even while a rule is running
+		assertEquals("[One]", first.toString());
+		assertEquals("[One]", second.toString());
+		assertEquals(3, parser.startTags);
+	}
+
+	@Test
+	public void testInvalid() throws Exception {
+		try {
+			new MultiplexParser();
+			assertTrue(false);
+		} catch (IllegalArgumentException e) {
+			assertTrue(true);
+		}
+
+		try {
+			new Subscriber(null);
+			assertTrue(false);
+		} catch (IllegalArgumentException e) {
+			assertTrue(true);
+		}
+
+		Subscriber subscriber = new Subscriber(null, new IdRule());
+		new MultiplexParser(subscriber);
+
+		try {
+			new MultiplexParser(subscriber);
+			assertTrue(false);
+		} catch (IllegalArgumentException e) {
+			assertTrue(true);
+		}
+	}
+
+	class TextRule extends DefaultRule<List<String>> {
+		private int stopAfter;
+
+		public TextRule(String locationPath, int stopAfter) {
+			super(Type.CHARACTER, locationPath);
+			this.stopAfter = stopAfter;
+		}
+
+		@Override
+		public void handleParsedCharacters(XMLParser<List<String>> parser,
+				String text, List<String> values) {
+			values.add(text);
+
+			if (values.size() == stopAfter)
+				parser.stop();
+		}
+	}
+
+	class WatchdogRule extends DefaultRule<List<String>> {
+		public WatchdogRule() {
+			super(Type.CHARACTER, "/feed/item/title");
+		}
+
+		@Override
+		public void handleParsedCharacters(final XMLParser<List<String>> parser,
+				String text, List<String> values) {
+			values.add(text);
+
+			Thread watchdog = new Thread() {
+				@Override
+				public void run() {
+					parser.stop();
+				}
+			};
+
+			watchdog.start();
+
+			try {
+				watchdog.join();
+			} catch (InterruptedException e) {
+				throw new RuntimeException(e);
+			}
+		}
+	}
+
+	class IdRule extends DefaultRule<List<String>> {
+		public IdRule() {
+			super(Type.ATTRIBUTE, "/feed/item", "id");
+		}
+
+		@Override
+		public void handleParsedAttribute(XMLParser<List<String>> parser,
+				int index, String value, List<String> values) {
+			values.add(value);
+		}
+	}
+
+	class LogRule extends DefaultRule<StringBuilder> {
+		public LogRule() {
+			super(Type.CHARACTER, "/feed/item/title");
+		}
+
+		@Override
+		public void handleParsedCharacters(XMLParser<StringBuilder> parser,
+				String text, StringBuilder log) {
+			log.append(text);
+		}
+	}
+
+	class AllRule extends DefaultRule<StringBuilder> implements
+			IAttributesRule<StringBuilder> {
+		public AllRule() {
+			super(Type.ATTRIBUTE, "/feed/item", IRule.ALL_ATTRIBUTES);
+		}
+
+		public void handleAttributes(XMLParser<StringBuilder> parser,
+				AttributeView attributes, StringBuilder log) {
+			log.append('[').append(attributes.getLocalName(0)).append('=')
+					.append(attributes.getValue(0)).append(']');
+		}
+	}
+
+	class CountingParser extends MultiplexParser {
+		private int startTags;
+
+		public CountingParser(Subscriber... subscribers) {
+			super(subscribers);
+		}
+
+		@Override
+		protected void doStartTag(Object userObject) {
+			startTags++;
+			super.doStartTag(userObject);
+		}
+	}
+}
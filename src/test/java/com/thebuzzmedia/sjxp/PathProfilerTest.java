@@ -0,0 +1,149 @@
+/**   
+ * Copyright 2011 The Buzz Media, LLC
+ * 
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *   http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.thebuzzmedia.sjxp;
+
+import java.io.ByteArrayInputStream;
+import java.io.InputStream;
+import java.io.StringWriter;
+import java.util.Arrays;
+import java.util.List;
+
+import org.junit.Test;
+
+import com.thebuzzmedia.sjxp.PathProfiler.PathStats;
+
+import static junit.framework.Assert.*;
+
+public class PathProfilerTest extends AbstractTest {
+	private static final String FEED = "<rss version=\"2.0\" xmlns:dc=\"http://purl.org/dc/elements/1.1/\">"
+			+ "<channel><title>Feed</title>"
+			+ "<item><title>Caf\u00E9 \u20AC\uD83D\uDE00</title><dc:creator>Ann</dc:creator>"
+			+ "<guid isPermaLink=\"false\">1</guid></item>"
+			+ "<item><title>Two</title><guid dc:type=\"x\" isPermaLink=\"true\">2</guid>"
+			+ "<description><p><b>deep</b></p></description></item>"
+			+ "</channel></rss>";
+
+	@Test
+	public void testProfile() throws Exception {
+		PathProfiler profiler = new PathProfiler();
+		profiler.profile(stream(FEED));
+
+		assertEquals(1, profiler.getDocumentCount());
+		assertEquals(10, profiler.getPathCount());
+
+		List<PathStats> paths = profiler.getPaths();
+
+		// Every path is followed by the paths beneath it
+		String[] expected = new String[] { "/rss", "/rss/channel",
+				"/rss/channel/title", "/rss/channel/item",
+				"/rss/channel/item/title",
+				"/rss/channel/item/[http://purl.org/dc/elements/1.1/]creator",
+				"/rss/channel/item/guid", "/rss/channel/item/description",
+				"/rss/channel/item/description/p",
+				"/rss/channel/item/description/p/b" };
+
+		for (int i = 0; i < expected.length; i++)
+			assertEquals(expected[i], paths.get(i).getPath());
+
+		PathStats rss = paths.get(0);
+		assertEquals(1, rss.getCount());
+		assertEquals(0, rss.getTextBytes());
+		assertEquals(4 + 16 + 3 + 1 + 1 + 4, rss.getTotalTextBytes());
+		assertEquals(6, rss.getMaxDepth());
+		assertEquals("[version]", Arrays.toString(rss.getAttributeNames()));
+
+		// Text sizes are UTF-8 encoded sizes
+		PathStats title = paths.get(4);
+		assertEquals(2, title.getCount());
+		assertEquals(3 + 2 + 1 + 3 + 4 + 3, title.getTextBytes());
+		assertEquals(title.getTextBytes(), title.getTotalTextBytes());
+		assertEquals(4, title.getMaxDepth());
+
+		PathStats guid = paths.get(6);
+		assertEquals(2, guid.getCount());
+		assertEquals("[isPermaLink, [http://purl.org/dc/elements/1.1/]type]",
+				Arrays.toString(guid.getAttributeNames()));
+
+		// Profiling more documents adds to the same paths
+		profiler.profile(stream("<rss><channel><item><title>Three</title></item></channel></rss>"));
+		assertEquals(2, profiler.getDocumentCount());
+		assertEquals(10, profiler.getPathCount());
+		assertEquals(3, profiler.getPaths().get(4).getCount());
+
+		profiler.reset();
+		assertEquals(0, profiler.getDocumentCount());
+		assertEquals(0, profiler.getPaths().size());
+	}
+
+	@Test
+	public void testMerge() throws Exception {
+		PathProfiler profiler = new PathProfiler();
+		profiler.profile(stream("<a><b x='1'>12</b><c/></a>"));
+
+		PathProfiler other = new PathProfiler();
+		other.profile(stream("<a><d/><b y='2'>3</b></a>"));
+		other.profile(stream("<e/>"));
+
+		profiler.merge(other);
+		assertEquals(3, profiler.getDocumentCount());
+
+		StringWriter writer = new StringWriter();
+		profiler.writeReport(writer);
+
+		assertEquals(
+				"path\tcount\ttextBytes\ttotalTextBytes\tmaxDepth\tattributes\n"
+						+ "/a\t2\t0\t3\t2\t\n" + "/a/b\t2\t3\t3\t2\tx,y\n"
+						+ "/a/c\t1\t0\t0\t2\t\n" + "/a/d\t1\t0\t0\t2\t\n"
+						+ "/e\t1\t0\t0\t1\t\n", writer.toString());
+
+		try {
+			profiler.merge(profiler);
+			assertTrue(false);
+		} catch (IllegalArgumentException e) {
+			assertTrue(true);
+		}
+	}
+
+	@Test
+	public void testManyPaths() throws Exception {
+		StringBuilder document = new StringBuilder("<root>");
+
+		// Enough distinct paths to grow the table a few times
+		for (int i = 0; i < 1000; i++)
+			document.append("<e").append(i).append(" a").append(i % 7)
+					.append("='v'><x>t</x></e").append(i).append('>');
+
+		PathProfiler profiler = new PathProfiler();
+		profiler.profile(stream(document.append("</root>").toString()));
+		profiler.profile(stream(document.toString()));
+
+		List<PathStats> paths = profiler.getPaths();
+		assertEquals(2001, paths.size());
+		assertEquals(2000, paths.get(0).getTotalTextBytes());
+
+		for (int i = 0; i < 1000; i++) {
+			PathStats element = paths.get(1 + i * 2);
+			assertEquals("/root/e" + i, element.getPath());
+			assertEquals(2, element.getCount());
+			assertEquals("a" + (i % 7), element.getAttributeNames()[0]);
+			assertEquals("/root/e" + i + "/x", paths.get(2 + i * 2).getPath());
+		}
+	}
+
+	private static InputStream stream(String document) throws Exception {
+		return new ByteArrayInputStream(document.getBytes("UTF-8"));
+	}
+}
@@ -0,0 +1,86 @@
+/**   
+ * Copyright 2011 The Buzz Media, LLC
+ * 
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *   http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.thebuzzmedia.sjxp;
+
+import java.io.FilterInputStream;
+import java.io.IOException;
+import java.io.InputStream;
+
+import org.junit.Test;
+
+import com.thebuzzmedia.sjxp.rule.DefaultRule;
+
+import static junit.framework.Assert.*;
+
+@SuppressWarnings({ "rawtypes", "unchecked" })
+public class ReadChunkSizeTest extends AbstractTest {
+	private int maxRead = 0;
+	private int nameCount = 0;
+
+	@Test
+	public void testReadChunkSize() {
+		XMLParser parser = new XMLParser(new NameRule());
+
+		try {
+			parser.setReadChunkSize(-1);
+			assertTrue(false);
+		} catch (IllegalArgumentException e) {
+			assertTrue(true);
+		}
+
+		assertEquals(0, parser.getReadChunkSize());
+		parser.setReadChunkSize(16);
+		assertEquals(16, parser.getReadChunkSize());
+
+		parser.parse(new RecordingInputStream(this.getClass()
+				.getResourceAsStream("resources/simple.xml")));
+
+		assertEquals(2, nameCount);
+		assertTrue(maxRead > 0 && maxRead <= 16);
+
+		// Back to letting the pull parser decide
+		parser.setReadChunkSize(0);
+		parser.parse(new RecordingInputStream(this.getClass()
+				.getResourceAsStream("resources/simple.xml")));
+
+		assertEquals(4, nameCount);
+		assertTrue(maxRead > 16);
+	}
+
+	class RecordingInputStream extends FilterInputStream {
+		public RecordingInputStream(InputStream in) {
+			super(in);
+		}
+
+		@Override
+		public int read(byte[] b, int off, int len) throws IOException {
+			maxRead = Math.max(maxRead, len);
+			return super.read(b, off, len);
+		}
+	}
+
+	class NameRule extends DefaultRule {
+		public NameRule() {
+			super(Type.CHARACTER, "/imdb/category/movie/name");
+		}
+
+		@Override
+		public void handleParsedCharacters(XMLParser parser, String text,
+				Object userObject) {
+			nameCount++;
+		}
+	}
+}
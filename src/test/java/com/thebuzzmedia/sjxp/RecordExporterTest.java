@@ -0,0 +1,170 @@
+/**   
+ * Copyright 2011 The Buzz Media, LLC
+ * 
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *   http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.thebuzzmedia.sjxp;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.util.ArrayList;
+import java.util.List;
+
+import org.junit.Test;
+
+import com.thebuzzmedia.sjxp.RecordExporter.Column;
+import com.thebuzzmedia.sjxp.RecordExporter.Format;
+
+import static junit.framework.Assert.*;
+
+public class RecordExporterTest extends AbstractTest {
+	private static final String FEED = "<feed><title>Feed</title>"
+			+ "<entry id=\"1\"><title>Fish &amp; \"Chips\"</title>"
+			+ "<author><name>Ann, <![CDATA[Bob]]></name></author></entry>"
+			+ "<entry id=\"2\"><title>Line\none\ttab\\</title><author/></entry>"
+			+ "<entry><title/><title>ignored</title><author><name>Caf\u00E9 \u2028</name></author></entry>"
+			+ "</feed>";
+
+	private static final Column[] COLUMNS = new Column[] {
+			new Column("id", null, "id"), new Column("title", "title"),
+			new Column("author", "author/name") };
+
+	@Test
+	public void testNDJSON() throws Exception {
+		RecordExporter exporter = new RecordExporter(Format.NDJSON,
+				"/feed/entry", COLUMNS);
+
+		assertEquals(
+				"{\"id\":\"1\",\"title\":\"Fish & \\\"Chips\\\"\",\"author\":\"Ann, Bob\"}\n"
+						+ "{\"id\":\"2\",\"title\":\"Line\\none\\ttab\\\\\",\"author\":null}\n"
+						+ "{\"id\":null,\"title\":\"\",\"author\":\"Caf\u00E9 \\u2028\"}\n",
+				export(exporter, 3));
+
+		// Exporters can be re-used
+		assertEquals(3, exporter.export(
+				new ByteArrayInputStream(FEED.getBytes("UTF-8")),
+				new ByteArrayOutputStream()));
+	}
+
+	@Test
+	public void testCSV() throws Exception {
+		RecordExporter exporter = new RecordExporter(Format.CSV,
+				"/feed/entry", COLUMNS);
+
+		assertEquals("id,title,author\r\n"
+				+ "1,\"Fish & \"\"Chips\"\"\",\"Ann, Bob\"\r\n"
+				+ "2,\"Line\none\ttab\\\",\r\n" + ",,Caf\u00E9 \u2028\r\n",
+				export(exporter, 3));
+	}
+
+	@Test
+	public void testTSV() throws Exception {
+		RecordExporter exporter = new RecordExporter(Format.TSV,
+				"/feed/entry", new Column("id", "", "id"), new Column(
+						"title", "title"));
+
+		assertEquals("id\ttitle\n" + "1\tFish & \"Chips\"\n"
+				+ "2\tLine\\none\\ttab\\\\\n" + "\t\n", export(exporter, 3));
+	}
+
+	@Test
+	public void testRotation() throws Exception {
+		final List<ByteArrayOutputStream> outputs = new ArrayList<ByteArrayOutputStream>();
+		final List<Integer> closed = new ArrayList<Integer>();
+
+		IExportTarget target = new IExportTarget() {
+			public OutputStream openOutput(final int index) throws IOException {
+				ByteArrayOutputStream out = new ByteArrayOutputStream() {
+					@Override
+					public void close() throws IOException {
+						closed.add(index);
+					}
+				};
+
+				outputs.add(out);
+				return out;
+			}
+		};
+
+		RecordExporter exporter = new RecordExporter(Format.CSV,
+				"/feed/entry", new Column("id", "", "id"));
+
+		// Exactly full outputs don't leave an empty one behind
+		assertEquals(3, exporter.export(
+				new ByteArrayInputStream(FEED.getBytes("UTF-8")), target, 1));
+		assertEquals(3, outputs.size());
+		assertEquals("[0, 1, 2]", closed.toString());
+		assertEquals("id\r\n1\r\n", outputs.get(0).toString("UTF-8"));
+		assertEquals("id\r\n2\r\n", outputs.get(1).toString("UTF-8"));
+		assertEquals("id\r\n\r\n", outputs.get(2).toString("UTF-8"));
+
+		outputs.clear();
+		closed.clear();
+
+		assertEquals(3, exporter.export(
+				new ByteArrayInputStream(FEED.getBytes("UTF-8")), target, 2));
+		assertEquals(2, outputs.size());
+		assertEquals("[0, 1]", closed.toString());
+		assertEquals("id\r\n1\r\n2\r\n", outputs.get(0).toString("UTF-8"));
+
+		// Failed exports still close their output
+		outputs.clear();
+		closed.clear();
+
+		try {
+			exporter.export(new ByteArrayInputStream("<feed><entry>"
+					.getBytes("UTF-8")), target, 2);
+			assertTrue(false);
+		} catch (XMLParserException e) {
+			assertEquals("[0]", closed.toString());
+		}
+	}
+
+	@Test
+	public void testInvalidArguments() throws Exception {
+		try {
+			new Column("id", "/feed/entry");
+			assertTrue(false);
+		} catch (IllegalArgumentException e) {
+			assertTrue(true);
+		}
+
+		try {
+			new RecordExporter(Format.CSV, "/feed/entry");
+			assertTrue(false);
+		} catch (IllegalArgumentException e) {
+			assertTrue(true);
+		}
+
+		try {
+			new RecordExporter(Format.CSV, "/feed/entry", COLUMNS).export(
+					new ByteArrayInputStream(new byte[0]), (IExportTarget) null,
+					1);
+			assertTrue(false);
+		} catch (IllegalArgumentException e) {
+			assertTrue(true);
+		}
+	}
+
+	private static String export(RecordExporter exporter, int records)
+			throws Exception {
+		ByteArrayOutputStream out = new ByteArrayOutputStream();
+
+		assertEquals(records, exporter.export(new ByteArrayInputStream(FEED
+				.getBytes("UTF-8")), out));
+
+		return out.toString("UTF-8");
+	}
+}
@@ -0,0 +1,209 @@
+/**   
+ * Copyright 2011 The Buzz Media, LLC
+ * 
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *   http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.thebuzzmedia.sjxp;
+
+import org.junit.Test;
+
+import com.thebuzzmedia.sjxp.rule.DefaultRule;
+import com.thebuzzmedia.sjxp.rule.IRule;
+import com.thebuzzmedia.sjxp.rule.IRule.Type;
+
+import static junit.framework.Assert.*;
+
+@SuppressWarnings({ "rawtypes", "unchecked" })
+public class RuleIndexTest extends AbstractTest {
+	private int nameCount = 0;
+	private int yearCount = 0;
+
+	@Test
+	public void testIndex() {
+		RuleIndex index = new RuleIndex(new DefaultRule(Type.TAG,
+				"/imdb/category"), new DefaultRule(Type.CHARACTER,
+				"/imdb/category/movie/name"), new DefaultRule(Type.ATTRIBUTE,
+				"/imdb/category", "name"));
+
+		// root, imdb, category, movie, name
+		assertEquals(5, index.getNodeCount());
+		assertEquals(1, index.getTagRuleCount());
+		assertEquals(1, index.getAttributeRuleCount());
+		assertEquals(1, index.getCharacterRuleCount());
+
+		int imdb = index.getChild(RuleIndex.ROOT, "imdb", null);
+		int category = index.getChild(imdb, "category", "");
+
+		assertEquals(1, index.getTagRules(category).length);
+		assertEquals(1, index.getAttributeRules(category).length);
+		assertNull(index.getCharacterRules(category));
+		assertNull(index.getTagRules(imdb));
+
+		assertEquals(RuleIndex.NONE, index.getChild(imdb, "movie", null));
+		assertEquals(RuleIndex.NONE, index.getChild(imdb, "category", "urn:x"));
+		assertEquals(RuleIndex.NONE,
+				index.getChild(RuleIndex.NONE, "category", null));
+		assertNull(index.getTagRules(RuleIndex.NONE));
+	}
+
+	@Test
+	public void testNamespaceWithSlashes() {
+		RuleIndex index = new RuleIndex(new DefaultRule(Type.CHARACTER,
+				"/[http://purl.org/rss/1.0/]item/[http://purl.org/rss/1.0/]title"));
+
+		int item = index.getChild(RuleIndex.ROOT, "item",
+				"http://purl.org/rss/1.0/");
+		int title = index.getChild(item, "title", "http://purl.org/rss/1.0/");
+
+		assertEquals(3, index.getNodeCount());
+		assertEquals(1, index.getCharacterRules(title).length);
+	}
+
+	@Test
+	public void testByteLookup() throws Exception {
+		RuleIndex index = new RuleIndex(new DefaultRule(Type.TAG,
+				"/[urn:a]doc/[urn:a]item"), new DefaultRule(Type.TAG,
+				"/[urn:a]doc/[urn:b]item"), new DefaultRule(Type.TAG,
+				"/[urn:a]doc/head"));
+		byte[] names = "doc item head body h\u00E9ad".getBytes("UTF-8");
+
+		int doc = index.getChild(RuleIndex.ROOT, names, 0, 3);
+		assertEquals(index.getChild(RuleIndex.ROOT, "doc", "urn:a"), doc);
+		assertEquals(index.getChild(doc, "head", null),
+				index.getChild(doc, names, 9, 13));
+
+		// Same local name in two namespaces, can't tell which one it is
+		assertEquals(RuleIndex.AMBIGUOUS, index.getChild(doc, names, 4, 8));
+		assertEquals(RuleIndex.AMBIGUOUS,
+				index.getChild(RuleIndex.AMBIGUOUS, names, 9, 13));
+		assertEquals(RuleIndex.AMBIGUOUS,
+				index.getChild(doc, names, 19, names.length));
+
+		assertEquals(RuleIndex.NONE, index.getChild(doc, names, 14, 18));
+		assertEquals(RuleIndex.NONE, index.getChild(doc, names, 0, 3));
+		assertEquals(RuleIndex.NONE,
+				index.getChild(RuleIndex.NONE, names, 0, 3));
+	}
+
+	@Test
+	public void testEnabled() {
+		IRule first = new DefaultRule(Type.TAG, "/imdb/category");
+		IRule second = new DefaultRule(Type.TAG, "/imdb/category");
+		RuleIndex index = new RuleIndex(first, second);
+
+		int imdb = index.getChild(RuleIndex.ROOT, "imdb", null);
+		int category = index.getChild(imdb, "category", null);
+		IRule[] before = index.getTagRules(category);
+
+		// Disabling replaces the node's array instead of changing it
+		assertTrue(index.setEnabled(first, false));
+		assertFalse(index.isEnabled(first));
+		assertEquals(2, before.length);
+		assertEquals(1, index.getTagRules(category).length);
+		assertSame(second, index.getTagRules(category)[0]);
+
+		// Re-enabled rules keep their original order
+		index.setEnabled(first, true);
+		assertSame(first, index.getTagRules(category)[0]);
+		assertSame(second, index.getTagRules(category)[1]);
+
+		IRule added = new DefaultRule(Type.CHARACTER, "/imdb/category/movie");
+		assertEquals(2, index.add(added));
+		assertEquals(4, index.getNodeCount());
+		assertEquals(1, index.getCharacterRuleCount());
+		assertFalse(index.setEnabled(new DefaultRule(Type.TAG, "/imdb"), false));
+	}
+
+	@Test
+	public void testEnabledRepeatedRule() {
+		IRule repeated = new DefaultRule(Type.ATTRIBUTE, "/imdb/category",
+				"[http://imdb.com/]id", "name");
+		IRule other = new DefaultRule(Type.ATTRIBUTE, "/imdb/category", "year");
+		RuleIndex index = new RuleIndex(repeated, other, repeated);
+
+		int imdb = index.getChild(RuleIndex.ROOT, "imdb", null);
+		int category = index.getChild(imdb, "category", null);
+
+		// Every occurrence of the rule is disabled at once
+		index.setEnabled(repeated, false);
+		assertEquals(1, index.getAttributeRules(category).length);
+		assertEquals(1, index.getAttributeRuleIds(category)[0]);
+
+		// Ids and parsed attribute names stay lined up with the rules
+		index.setEnabled(repeated, true);
+		assertEquals(3, index.getAttributeRules(category).length);
+		assertEquals(0, index.getAttributeRuleIds(category)[0]);
+		assertEquals(2, index.getAttributeRuleIds(category)[2]);
+		assertEquals("id", index.getAttributeLocalNames(category)[2][0]);
+		assertEquals("http://imdb.com/",
+				index.getAttributeNamespaceURIs(category)[2][0]);
+		assertEquals("year", index.getAttributeLocalNames(category)[1][0]);
+	}
+
+	@Test
+	public void testRulesSharingPath() {
+		XMLParser parser = new XMLParser(new NameRule(), new NameRule(),
+				new YearRule(), new YearRule());
+		parser.parse(this.getClass()
+				.getResourceAsStream("resources/simple.xml"));
+
+		// Both rules on each path must be called for both movies
+		assertEquals(4, nameCount);
+		assertEquals(4, yearCount);
+	}
+
+	@Test
+	public void testManyRules() {
+		IRule[] rules = new IRule[10002];
+
+		for (int i = 0; i < 10000; i++)
+			rules[i] = new DefaultRule(Type.CHARACTER, "/imdb/category/movie"
+					+ i + "/name");
+
+		rules[10000] = new NameRule();
+		rules[10001] = new YearRule();
+
+		XMLParser parser = new XMLParser(rules);
+		parser.parse(this.getClass()
+				.getResourceAsStream("resources/simple.xml"));
+
+		assertEquals(2, nameCount);
+		assertEquals(2, yearCount);
+	}
+
+	class NameRule extends DefaultRule {
+		public NameRule() {
+			super(Type.CHARACTER, "/imdb/category/movie/name");
+		}
+
+		@Override
+		public void handleParsedCharacters(XMLParser parser, String text,
+				Object userObject) {
+			assertTrue(SimpleTest.NAMES[0].equals(text)
+					|| SimpleTest.NAMES[1].equals(text));
+			nameCount++;
+		}
+	}
+
+	class YearRule extends DefaultRule {
+		public YearRule() {
+			super(Type.CHARACTER, "/imdb/category/movie/year");
+		}
+
+		@Override
+		public void handleParsedCharacters(XMLParser parser, String text,
+				Object userObject) {
+			yearCount++;
+		}
+	}
+}
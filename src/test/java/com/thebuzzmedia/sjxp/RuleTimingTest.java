@@ -0,0 +1,159 @@
+/**   
+ * Copyright 2011 The Buzz Media, LLC
+ * 
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *   http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.thebuzzmedia.sjxp;
+
+import org.junit.Test;
+
+import com.thebuzzmedia.sjxp.IRuleBudgetPolicy.Action;
+import com.thebuzzmedia.sjxp.rule.DefaultRule;
+import com.thebuzzmedia.sjxp.rule.IRule;
+
+import static junit.framework.Assert.*;
+
+@SuppressWarnings({ "rawtypes", "unchecked" })
+public class RuleTimingTest extends AbstractTest {
+	private int nameCount = 0;
+	private int actorCount = 0;
+
+	@Test
+	public void testHistogram() {
+		LatencyHistogram histogram = new LatencyHistogram();
+
+		for (int i = 1; i <= 1000; i++)
+			histogram.record(i * 1000L);
+
+		assertEquals(1000, histogram.getCount());
+		assertEquals(1000, histogram.getMin());
+		assertEquals(1000000, histogram.getMax());
+
+		// Percentiles are only accurate to the width of their bucket (~6%)
+		long p50 = histogram.getValueAtPercentile(50);
+		assertTrue(p50 >= 500000 && p50 <= 500000 * 1.07);
+
+		long p99 = histogram.getValueAtPercentile(99);
+		assertTrue(p99 >= 990000 && p99 <= 1000000);
+
+		assertEquals(1000000, histogram.getValueAtPercentile(100));
+
+		histogram.reset();
+		assertEquals(0, histogram.getCount());
+		assertEquals(0, histogram.getValueAtPercentile(50));
+	}
+
+	@Test
+	public void testHistogramBuckets() {
+		long[] values = new long[] { 0, 1, 31, 32, 33, 1023, 1024,
+				123456789L, Long.MAX_VALUE };
+
+		for (int i = 0; i < values.length; i++) {
+			int index = LatencyHistogram.indexOf(values[i]);
+
+			assertTrue(index >= 0 && index < LatencyHistogram.BUCKET_COUNT);
+			assertTrue(LatencyHistogram.upperBoundOf(index) >= values[i]);
+		}
+	}
+
+	@Test
+	public void testTiming() {
+		IRule name = new NameRule();
+		XMLParser parser = new XMLParser(name, new ActorRule());
+
+		assertNull(parser.getRuleHistogram(name));
+
+		parser.setRuleTimingEnabled(true);
+		parser.parse(this.getClass()
+				.getResourceAsStream("resources/simple.xml"));
+
+		assertEquals(2, parser.getRuleHistogram(name).getCount());
+
+		parser.setRuleTimingEnabled(false);
+		assertNull(parser.getRuleHistogram(name));
+	}
+
+	@Test
+	public void testBudgetStop() {
+		IRule name = new NameRule();
+		XMLParser parser = new XMLParser(name, new SlowRule());
+		parser.setRuleBudget(1000000, new DefaultRuleBudgetPolicy(Action.STOP));
+
+		parser.parse(this.getClass()
+				.getResourceAsStream("resources/simple.xml"));
+
+		// Stopped after the first (slow) actor, so the 2nd movie never parsed
+		assertEquals(1, nameCount);
+		assertEquals(1, actorCount);
+	}
+
+	@Test
+	public void testBudgetSkip() {
+		XMLParser parser = new XMLParser(new NameRule(), new SlowRule());
+		parser.setRuleBudget(1000000, new DefaultRuleBudgetPolicy(
+				Action.SKIP_RULE));
+
+		parser.parse(this.getClass()
+				.getResourceAsStream("resources/simple.xml"));
+
+		// Only the slow rule is skipped, the rest of the doc is still parsed
+		assertEquals(2, nameCount);
+		assertEquals(1, actorCount);
+
+		// Skipping only lasts for the rest of the document
+		parser.parse(this.getClass()
+				.getResourceAsStream("resources/simple.xml"));
+		assertEquals(4, nameCount);
+		assertEquals(2, actorCount);
+	}
+
+	class NameRule extends DefaultRule {
+		public NameRule() {
+			super(Type.CHARACTER, "/imdb/category/movie/name");
+		}
+
+		@Override
+		public void handleParsedCharacters(XMLParser parser, String text,
+				Object userObject) {
+			nameCount++;
+		}
+	}
+
+	class ActorRule extends DefaultRule {
+		public ActorRule() {
+			super(Type.ATTRIBUTE, "/imdb/category/movie/cast/actor",
+					"realName");
+		}
+	}
+
+	class SlowRule extends DefaultRule {
+		public SlowRule() {
+			super(Type.TAG, "/imdb/category/movie/cast/actor");
+		}
+
+		@Override
+		public void handleTag(XMLParser parser, boolean isStartTag,
+				Object userObject) {
+			if (!isStartTag)
+				return;
+
+			actorCount++;
+
+			try {
+				Thread.sleep(5);
+			} catch (InterruptedException e) {
+				// no-op
+			}
+		}
+	}
+}
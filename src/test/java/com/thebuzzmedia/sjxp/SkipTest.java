@@ -0,0 +1,168 @@
+/**   
+ * Copyright 2011 The Buzz Media, LLC
+ * 
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *   http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.thebuzzmedia.sjxp;
+
+import java.nio.ByteBuffer;
+
+import org.junit.Test;
+
+import com.thebuzzmedia.sjxp.rule.DefaultRule;
+import com.thebuzzmedia.sjxp.rule.IRule;
+
+import static junit.framework.Assert.*;
+
+@SuppressWarnings({ "rawtypes", "unchecked" })
+public class SkipTest extends AbstractTest {
+	public static final String DOCUMENT = "<?xml version=\"1.0\" encoding=\"UTF-8\"?>\n"
+			+ "<!DOCTYPE doc>\n"
+			+ "<doc>\n"
+			+ "<!-- <head>a comment</head> -->\n"
+			+ "<body a=\"x>y\" b='/body>'>\n"
+			+ "<p>text <b>bold</b> &amp; more<![CDATA[ </body><head> ]]></p>\n"
+			+ "<body><body/><body>nested</body></body>\n"
+			+ "<?pi <head>?>\n"
+			+ "<x:skip xmlns:x=\"urn:x\"><x:in x:a=\"1\"/></x:skip>\n"
+			+ "caf\u00E9 \uD83D\uDE00 <tail>not me</tail>\n"
+			+ "</body>\n"
+			+ "<head id=\"1\"><meta name=\"k\" content=\"v\"/>"
+			+ "<title>T\u00EDtulo \uD83D\uDE00</title>"
+			+ "<junk><title>no</title></junk></head>\n"
+			+ "<empty/><empty></empty>\n"
+			+ "<tail>end</tail>\n" + "</doc>";
+
+	@Test
+	public void testSameMatches() throws Exception {
+		byte[] utf8 = DOCUMENT.getBytes("UTF-8");
+		String expected = parse(utf8, "UTF-8", false);
+
+		assertEquals("<head>[1][k][T\u00EDtulo \uD83D\uDE00]</head>[end]",
+				expected);
+		assertEquals(expected, parse(utf8, "UTF-8", true));
+
+		byte[] latin1 = DOCUMENT.replace("\uD83D\uDE00", "").getBytes(
+				"ISO-8859-1");
+		assertEquals(parse(latin1, "ISO-8859-1", false),
+				parse(latin1, "ISO-8859-1", true));
+
+		// Other encodings are parsed without skipping
+		byte[] utf16 = DOCUMENT.getBytes("UTF-16BE");
+		assertEquals(expected, parse(utf16, "UTF-16BE", true));
+	}
+
+	@Test
+	public void testFewerEvents() throws Exception {
+		byte[] utf8 = DOCUMENT.getBytes("UTF-8");
+
+		CountingParser parser = new CountingParser();
+		parser.parse(utf8, 0, utf8.length, new StringBuilder());
+		int all = parser.startTags;
+
+		parser.setSkipUnmatched(true);
+		parser.startTags = 0;
+		parser.parse(ByteBuffer.wrap(utf8), new StringBuilder());
+
+		// doc, body, head, meta, title, junk, empty x2, tail
+		assertEquals(9, parser.startTags);
+		assertTrue(parser.startTags < all);
+	}
+
+	@Test
+	public void testNamespaces() throws Exception {
+		String xml = "<a:root xmlns:a=\"urn:a\" xmlns:b=\"urn:b\">"
+				+ "<b:keep>no</b:keep><a:keep>yes</a:keep>"
+				+ "<keep xmlns=\"urn:a\">default</keep>"
+				+ "<a:other><a:keep>deep</a:keep></a:other></a:root>";
+		byte[] utf8 = xml.getBytes("UTF-8");
+
+		XMLParser parser = new XMLParser(new LogRule(IRule.Type.CHARACTER,
+				"/[urn:a]root/[urn:a]keep"));
+		parser.setSkipUnmatched(true);
+
+		StringBuilder log = new StringBuilder();
+		parser.parse(utf8, 0, utf8.length, log);
+		assertEquals("[yes][default]", log.toString());
+	}
+
+	@Test
+	public void testTruncated() throws Exception {
+		byte[] utf8 = "<doc><body><p>never closed".getBytes("UTF-8");
+
+		XMLParser parser = new XMLParser(new LogRule(IRule.Type.CHARACTER,
+				"/doc/tail"));
+		parser.setSkipUnmatched(true);
+
+		try {
+			parser.parse(utf8, 0, utf8.length, new StringBuilder());
+			assertTrue(false);
+		} catch (XMLParserException e) {
+			assertTrue(true);
+		}
+	}
+
+	private String parse(byte[] document, String encoding, boolean skip)
+			throws Exception {
+		XMLParser parser = new XMLParser(new LogRule(IRule.Type.TAG,
+				"/doc/head"), new LogRule(IRule.Type.ATTRIBUTE, "/doc/head",
+				"id"), new LogRule(IRule.Type.ATTRIBUTE, "/doc/head/meta",
+				"name"), new LogRule(IRule.Type.CHARACTER, "/doc/head/title"),
+				new LogRule(IRule.Type.CHARACTER, "/doc/tail"));
+		parser.setSkipUnmatched(skip);
+
+		StringBuilder log = new StringBuilder();
+		parser.parse(document, 0, document.length, encoding, log);
+
+		return log.toString();
+	}
+
+	class LogRule extends DefaultRule<StringBuilder> {
+		public LogRule(Type type, String locationPath, String... attributeNames) {
+			super(type, locationPath, attributeNames);
+		}
+
+		@Override
+		public void handleTag(XMLParser<StringBuilder> parser,
+				boolean isStartTag, StringBuilder log) {
+			log.append(isStartTag ? "<head>" : "</head>");
+		}
+
+		@Override
+		public void handleParsedAttribute(XMLParser<StringBuilder> parser,
+				int index, String value, StringBuilder log) {
+			log.append('[').append(value).append(']');
+		}
+
+		@Override
+		public void handleParsedCharacters(XMLParser<StringBuilder> parser,
+				String text, StringBuilder log) {
+			log.append('[').append(text).append(']');
+		}
+	}
+
+	class CountingParser extends XMLParser<StringBuilder> {
+		private int startTags;
+
+		public CountingParser() {
+			super(new LogRule(IRule.Type.CHARACTER, "/doc/head/title"),
+					new LogRule(IRule.Type.CHARACTER, "/doc/tail"));
+		}
+
+		@Override
+		protected void doStartTag(StringBuilder userObject) {
+			startTags++;
+			super.doStartTag(userObject);
+		}
+	}
+}
@@ -0,0 +1,205 @@
+/**   
+ * Copyright 2011 The Buzz Media, LLC
+ * 
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *   http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.thebuzzmedia.sjxp;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.io.PrintStream;
+import java.util.Arrays;
+import java.util.zip.GZIPOutputStream;
+import java.util.zip.ZipEntry;
+import java.util.zip.ZipOutputStream;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+import static junit.framework.Assert.*;
+
+public class XMLGrepTest extends AbstractTest {
+	private static final String FEED = "<rss>\n<channel>\n"
+			+ "\t<item><title>First\tItem</title><guid isPermaLink=\"true\">1</guid></item>\n"
+			+ "\t<item><title>Caf\u00E9 <![CDATA[&]]> \\ <b>bold</b>\nend</title><guid>2</guid></item>\n"
+			+ "\t<item><title>  </title></item>\n" + "</channel>\n</rss>";
+
+	private File directory;
+	private String out;
+	private String err;
+
+	@Before
+	public void setUp() throws Exception {
+		directory = File.createTempFile("xmlgrep", "");
+		directory.delete();
+		directory.mkdir();
+	}
+
+	@After
+	public void tearDown() {
+		delete(directory);
+	}
+
+	@Test
+	public void testStandardInput() throws Exception {
+		assertEquals(0, grep(FEED, "-c", "/rss/channel/item/title"));
+		assertEquals("First\\tItem\nCaf\u00E9 & \\\\ \\nend\n", out);
+
+		// Positions are where the start tags end
+		assertEquals(0, grep(FEED, "-n", "-H", "-c",
+				"/rss/channel/item/title", "-a",
+				"/rss/channel/item/guid@isPermaLink", "-"));
+		assertEquals("(standard input):3:15:First\\tItem\n"
+				+ "(standard input):3:58:true\n"
+				+ "(standard input):4:15:Caf\u00E9 & \\\\ \\nend\n", out);
+
+		assertEquals(1, grep(FEED, "-a", "/rss/channel/item/guid@id"));
+		assertEquals("", out);
+	}
+
+	@Test
+	public void testDirectory() throws Exception {
+		write("a.xml", FEED.getBytes("UTF-8"));
+		write("nested/b.xml.gz", gzip("<rss><channel><item><title>Gzip</title></item></channel></rss>"));
+		write("nested/c.zip", zip("d.xml", "e.txt"));
+		write("f.txt", FEED.getBytes("UTF-8"));
+
+		// One thread keeps the files in order
+		assertEquals(0, grep("", "-j", "1", "-c", "/rss/channel/item/title",
+				directory.getPath()));
+
+		String prefix = directory.getPath() + File.separator;
+		assertEquals(prefix + "a.xml:First\\tItem\n" + prefix
+				+ "a.xml:Caf\u00E9 & \\\\ \\nend\n" + prefix + "nested"
+				+ File.separator + "b.xml.gz:Gzip\n" + prefix + "nested"
+				+ File.separator + "c.zip!dir/d.xml:Zip\n", out);
+
+		// Files named on the command line are always parsed
+		assertEquals(0, grep("", "-j", "4", "--include", "*.txt", "-c",
+				"/rss/channel/item/title", directory.getPath(), new File(
+						directory, "a.xml").getPath()));
+		assertEquals(5, out.split("\n").length);
+		assertTrue(out.contains("c.zip!dir/e.txt:Zip\n"));
+		assertTrue(out.contains("f.txt:First\\tItem\n"));
+	}
+
+	@Test
+	public void testProfile() throws Exception {
+		write("a.xml", FEED.getBytes("UTF-8"));
+		write("b.xml.gz", gzip("<rss><channel><item><guid>3</guid></item></channel></rss>"));
+
+		String profile = "path\tcount\ttextBytes\ttotalTextBytes\tmaxDepth\tattributes\n"
+				+ "/rss\t2\t2\t42\t5\t\n"
+				+ "/rss/channel\t2\t7\t40\t5\t\n"
+				+ "/rss/channel/item\t4\t0\t33\t5\t\n"
+				+ "/rss/channel/item/title\t3\t26\t30\t5\t\n"
+				+ "/rss/channel/item/title/b\t1\t4\t4\t5\t\n"
+				+ "/rss/channel/item/guid\t3\t3\t3\t4\tisPermaLink\n";
+
+		assertEquals(0, grep("", "-j", "1", "-p", directory.getPath()));
+		assertEquals(profile, out);
+
+		// The profiles of all threads are merged, siblings in any order
+		assertEquals(0, grep("", "-j", "2", "-p", directory.getPath()));
+		String[] expected = profile.split("\n");
+		String[] lines = out.split("\n");
+		Arrays.sort(expected);
+		Arrays.sort(lines);
+		assertEquals(Arrays.asList(expected), Arrays.asList(lines));
+
+		assertEquals(2, grep(FEED, "-p", "-c", "/rss"));
+	}
+
+	@Test
+	public void testErrors() throws Exception {
+		write("a.xml", FEED.getBytes("UTF-8"));
+		write("b.xml", "<rss><channel><item><title>Partial</title>"
+				.getBytes("UTF-8"));
+
+		// Matches before the error are printed, other files still parsed
+		assertEquals(2, grep("", "-h", "-j", "1", "-c",
+				"/rss/channel/item/title", directory.getPath(), new File(
+						directory, "missing.xml").getPath()));
+		assertEquals("First\\tItem\nCaf\u00E9 & \\\\ \\nend\nPartial\n", out);
+		assertTrue(err.contains("b.xml: "));
+		assertTrue(err.contains("missing.xml: "));
+
+		assertEquals(2, grep(FEED));
+		assertTrue(err.startsWith("xmlgrep: at least one"));
+		assertEquals(2, grep(FEED, "-a", "/rss@"));
+		assertEquals(2, grep(FEED, "-j", "0", "-c", "/rss"));
+		assertEquals(2, grep(FEED, "-x", "-c", "/rss"));
+		assertEquals(2, grep(FEED, "-c"));
+	}
+
+	private int grep(String input, String... args) throws Exception {
+		ByteArrayOutputStream outBytes = new ByteArrayOutputStream();
+		ByteArrayOutputStream errBytes = new ByteArrayOutputStream();
+
+		int status = XMLGrep.run(args,
+				new ByteArrayInputStream(input.getBytes("UTF-8")), outBytes,
+				new PrintStream(errBytes, true, "UTF-8"));
+
+		out = outBytes.toString("UTF-8");
+		err = errBytes.toString("UTF-8");
+		return status;
+	}
+
+	private void write(String name, byte[] content) throws IOException {
+		File file = new File(directory, name);
+		file.getParentFile().mkdirs();
+
+		OutputStream stream = new FileOutputStream(file);
+		stream.write(content);
+		stream.close();
+	}
+
+	private static byte[] gzip(String content) throws IOException {
+		ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+		OutputStream stream = new GZIPOutputStream(bytes);
+		stream.write(content.getBytes("UTF-8"));
+		stream.close();
+		return bytes.toByteArray();
+	}
+
+	private static byte[] zip(String... names) throws IOException {
+		ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+		ZipOutputStream stream = new ZipOutputStream(bytes);
+
+		for (String name : names) {
+			stream.putNextEntry(new ZipEntry("dir/" + name));
+			stream.write("<rss><channel><item><title>Zip</title></item></channel></rss>"
+					.getBytes("UTF-8"));
+			stream.closeEntry();
+		}
+
+		stream.close();
+		return bytes.toByteArray();
+	}
+
+	private static void delete(File file) {
+		File[] files = file.listFiles();
+
+		if (files != null) {
+			for (File child : files)
+				delete(child);
+		}
+
+		file.delete();
+	}
+}
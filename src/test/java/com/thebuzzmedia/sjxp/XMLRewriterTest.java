@@ -0,0 +1,214 @@
+/**   
+ * Copyright 2011 The Buzz Media, LLC
+ * 
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *   http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.thebuzzmedia.sjxp;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.util.ArrayList;
+import java.util.List;
+
+import org.junit.Test;
+
+import com.thebuzzmedia.sjxp.rule.DefaultRule;
+import com.thebuzzmedia.sjxp.rule.IRule;
+import com.thebuzzmedia.sjxp.rule.IRule.Type;
+
+import static junit.framework.Assert.*;
+
+@SuppressWarnings({ "rawtypes", "unchecked" })
+public class XMLRewriterTest extends AbstractTest {
+	private static final String DOCUMENT = "<?xml version=\"1.0\" encoding=\"UTF-8\"?>\n"
+			+ "<!DOCTYPE catalog>\n"
+			+ "<!-- catalog -->\n"
+			+ "<catalog xmlns='http://example.com/catalog' xmlns:x=\"http://example.com/x\">\n"
+			+ "\t<book  id = 'b1' x:rating=\"5\">\n"
+			+ "\t\t<title>Fish &amp; Chips &#169; <![CDATA[<2011>]]></title>\n"
+			+ "\t\t<?index title?>\n"
+			+ "\t\t<price currency=\"EUR\">10.00</price>\n"
+			+ "\t\t<x:empty/>\n"
+			+ "\t</book>\n"
+			+ "\t<book id='b2'><title>Caf\u00E9</title><price>12.50</price></book>\n"
+			+ "</catalog >\n";
+
+	@Test
+	public void testCopy() throws Exception {
+		XMLRewriter rewriter = new XMLRewriter(new DefaultRule(Type.CHARACTER,
+				"/[http://example.com/catalog]catalog/[http://example.com/catalog]book/[http://example.com/catalog]title") {
+			@Override
+			public void handleParsedCharacters(XMLParser parser, String text,
+					Object userObject) {
+				// Text is reported whole, like it is by XMLParser
+				assertTrue(text.equals("Fish & Chips \u00A9 <2011>")
+						|| text.equals("Caf\u00E9"));
+			}
+		});
+
+		assertEquals(DOCUMENT, rewrite(rewriter, DOCUMENT, "UTF-8"));
+
+		// Rewriters can be re-used
+		assertEquals(DOCUMENT, rewrite(rewriter, DOCUMENT, "UTF-8"));
+	}
+
+	@Test
+	public void testEdits() throws Exception {
+		final List<String> dropped = new ArrayList<String>();
+
+		IRule[] rules = new IRule[] {
+				new DefaultRule(Type.TAG, "/catalog/book") {
+					@Override
+					public void handleTag(XMLParser parser, boolean isStartTag,
+							Object userObject) {
+						if (isStartTag)
+							((XMLRewriter) parser).renameElement("item");
+					}
+				}, new DefaultRule(Type.ATTRIBUTE, "/catalog/book", "id") {
+					@Override
+					public void handleParsedAttribute(XMLParser parser,
+							int index, String value, Object userObject) {
+						XMLRewriter rewriter = (XMLRewriter) parser;
+
+						if (value.equals("b2"))
+							rewriter.dropElement();
+						else {
+							rewriter.setAttribute("id", value.toUpperCase());
+							rewriter.removeAttribute("x:rating");
+							rewriter.setAttribute("note", "\"new\" & <improved>");
+						}
+					}
+				}, new DefaultRule(Type.CHARACTER, "/catalog/book/price") {
+					@Override
+					public void handleParsedCharacters(XMLParser parser,
+							String text, Object userObject) {
+						((XMLRewriter) parser).replaceText("< "
+								+ (Double.parseDouble(text) * 2));
+					}
+				}, new DefaultRule(Type.TAG, "/catalog/book/title") {
+					@Override
+					public void handleTag(XMLParser parser, boolean isStartTag,
+							Object userObject) {
+						// Nothing inside of a dropped element is processed
+						if (isStartTag)
+							dropped.add("title");
+					}
+				} };
+
+		XMLRewriter rewriter = new XMLRewriter(rules);
+
+		// Leave out the default namespace to match without namespace URIs
+		String document = DOCUMENT.replace(" xmlns='http://example.com/catalog'", "");
+		assertEquals(
+				"<?xml version=\"1.0\" encoding=\"UTF-8\"?>\n"
+						+ "<!DOCTYPE catalog>\n"
+						+ "<!-- catalog -->\n"
+						+ "<catalog xmlns:x=\"http://example.com/x\">\n"
+						+ "\t<item id=\"B1\" note=\"&quot;new&quot; &amp; &lt;improved&gt;\">\n"
+						+ "\t\t<title>Fish &amp; Chips &#169; <![CDATA[<2011>]]></title>\n"
+						+ "\t\t<?index title?>\n"
+						+ "\t\t<price currency=\"EUR\">&lt; 20.0</price>\n"
+						+ "\t\t<x:empty/>\n" + "\t</item>\n" + "\t\n"
+						+ "</catalog >\n",
+				rewrite(rewriter, document, "UTF-8"));
+
+		assertEquals(1, dropped.size());
+	}
+
+	@Test
+	public void testRebuiltStartTags() throws Exception {
+		XMLRewriter rewriter = new XMLRewriter(new DefaultRule(Type.TAG,
+				"/doc/empty") {
+			@Override
+			public void handleTag(XMLParser parser, boolean isStartTag,
+					Object userObject) {
+				if (isStartTag)
+					((XMLRewriter) parser).renameElement("void");
+			}
+		});
+
+		// Markup of tags with entities in their attributes is not kept
+		assertEquals("<doc a=\"x&amp;y\" b=\"&lt;\">"
+				+ "<void/><void c=\"d\"></void></doc>", rewrite(rewriter,
+				"<doc a='x&amp;y' b=\"&#60;\"><empty/><empty c='d'></empty></doc>",
+				"UTF-8"));
+	}
+
+	@Test
+	public void testEncoding() throws Exception {
+		XMLRewriter rewriter = new XMLRewriter(new DefaultRule(Type.CHARACTER,
+				"/doc") {
+			@Override
+			public void handleParsedCharacters(XMLParser parser, String text,
+					Object userObject) {
+				((XMLRewriter) parser).replaceText(text + " \u20AC\uD83D\uDE00");
+			}
+		});
+
+		String document = "<?xml version=\"1.0\" encoding=\"ISO-8859-1\" standalone=\"yes\"?><doc>Caf\u00E9</doc>";
+		ByteArrayOutputStream out = new ByteArrayOutputStream();
+
+		rewriter.rewrite(
+				new ByteArrayInputStream(document.getBytes("ISO-8859-1")),
+				"ISO-8859-1", out, null);
+
+		// Characters the encoding cannot hold are written as references
+		assertEquals(
+				"<?xml version=\"1.0\" encoding=\"ISO-8859-1\" standalone=\"yes\"?>"
+						+ "<doc>Caf\u00E9 &#8364;&#128512;</doc>",
+				out.toString("ISO-8859-1"));
+	}
+
+	@Test
+	public void testInvalidCalls() throws Exception {
+		XMLRewriter rewriter = new XMLRewriter(new DefaultRule(Type.TAG,
+				"/doc") {
+			@Override
+			public void handleTag(XMLParser parser, boolean isStartTag,
+					Object userObject) {
+				// Only the start tag can be changed
+				if (!isStartTag)
+					((XMLRewriter) parser).setAttribute("a", "b");
+			}
+		});
+
+		try {
+			rewrite(rewriter, "<doc/>", "UTF-8");
+			assertTrue(false);
+		} catch (XMLParserException e) {
+			assertTrue(true);
+		}
+
+		try {
+			rewriter.replaceText("text");
+			assertTrue(false);
+		} catch (XMLParserException e) {
+			assertTrue(true);
+		}
+
+		try {
+			rewriter.rewrite(new ByteArrayInputStream(new byte[0]), null);
+			assertTrue(false);
+		} catch (IllegalArgumentException e) {
+			assertTrue(true);
+		}
+	}
+
+	private static String rewrite(XMLRewriter rewriter, String document,
+			String encoding) throws Exception {
+		ByteArrayOutputStream out = new ByteArrayOutputStream();
+		rewriter.rewrite(new ByteArrayInputStream(document.getBytes(encoding)),
+				out);
+		return out.toString(encoding);
+	}
+}
@@ -0,0 +1,178 @@
+/**   
+ * Copyright 2011 The Buzz Media, LLC
+ * 
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *   http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.thebuzzmedia.sjxp.rule;
+
+import java.util.ArrayList;
+import java.util.List;
+
+import org.junit.Test;
+
+import com.thebuzzmedia.sjxp.XMLParser;
+import com.thebuzzmedia.sjxp.rule.IRule.Type;
+
+import static junit.framework.Assert.*;
+
+@SuppressWarnings({ "rawtypes", "unchecked" })
+public class AnnotatedRuleTest {
+	@Test
+	public void test() {
+		MovieHandler handler = new MovieHandler();
+		List<String> userObject = new ArrayList<String>();
+
+		IRule[] rules = AnnotatedRule.createRules(handler);
+		assertEquals(5, rules.length);
+
+		// Ordered by method name: actor, cast, category, movie, name
+		assertEquals("/imdb/category/movie/cast/actor",
+				rules[0].getLocationPath());
+		assertEquals("/imdb/category/movie/cast", rules[1].getLocationPath());
+		assertEquals("/imdb/category", rules[2].getLocationPath());
+		assertEquals("/imdb/category/movie", rules[3].getLocationPath());
+		assertEquals("/imdb/category/movie/name", rules[4].getLocationPath());
+
+		XMLParser parser = new XMLParser(rules);
+		parser.parse(
+				this.getClass().getResourceAsStream(
+						"../resources/simple.xml"), userObject);
+
+		assertEquals("[name:Terminator 2, name:Tommy Boy]",
+				userObject.toString());
+		assertEquals("[Action, Comedy]", handler.categories.toString());
+		assertEquals("[0=Arnold Schwarzenegger, 1=The Terminator]",
+				handler.actors.subList(0, 2).toString());
+		assertEquals(12, handler.actors.size());
+		assertEquals("[true, false, true, false]", handler.movies.toString());
+		assertEquals(2, handler.casts);
+	}
+
+	@Test
+	public void testInvalid() {
+		try {
+			AnnotatedRule.createRules(new Object());
+			assertTrue(false);
+		} catch (IllegalArgumentException e) {
+			assertTrue(true);
+		}
+
+		try {
+			AnnotatedRule.createRules(new InvalidHandler());
+			assertTrue(false);
+		} catch (IllegalArgumentException e) {
+			assertTrue(true);
+		}
+
+		try {
+			AnnotatedRule.createRules(new AmbiguousHandler());
+			assertTrue(false);
+		} catch (IllegalArgumentException e) {
+			assertTrue(true);
+		}
+
+		// A long can never be the user object
+		try {
+			AnnotatedRule.createRules(new PrimitiveHandler());
+			assertTrue(false);
+		} catch (IllegalArgumentException e) {
+			assertTrue(e.getMessage().contains("[long]"));
+		}
+	}
+
+	@Test
+	public void testException() {
+		XMLParser parser = new XMLParser(
+				AnnotatedRule.createRules(new ThrowingHandler()));
+
+		try {
+			parser.parse(this.getClass().getResourceAsStream(
+					"../resources/simple.xml"));
+			assertTrue(false);
+		} catch (IllegalStateException e) {
+			assertEquals("thrown", e.getMessage());
+		}
+	}
+
+	static class BaseHandler {
+		List<String> categories = new ArrayList<String>();
+
+		@RuleMethod(type = Type.ATTRIBUTE, locationPath = "/imdb/category", attributeNames = { "name" })
+		void category(String value) {
+			categories.add(value);
+		}
+
+		// Overridden, so only the subclass' rule is created
+		@RuleMethod(type = Type.TAG, locationPath = "/imdb/category/movie/cast")
+		void cast() {
+			fail();
+		}
+	}
+
+	static class MovieHandler extends BaseHandler {
+		List<Boolean> movies = new ArrayList<Boolean>();
+		List<String> actors = new ArrayList<String>();
+		int casts = 0;
+
+		@RuleMethod(type = Type.CHARACTER, locationPath = "/imdb/category/movie/name")
+		public void name(XMLParser parser, List<String> names, String text) {
+			assertNotNull(parser);
+			names.add("name:" + text);
+		}
+
+		@RuleMethod(type = Type.TAG, locationPath = "/imdb/category/movie")
+		private void movie(boolean isOpeningTag) {
+			movies.add(isOpeningTag);
+		}
+
+		@RuleMethod(type = Type.TAG, locationPath = "/imdb/category/movie/cast")
+		void cast() {
+			casts++;
+		}
+
+		@RuleMethod(type = Type.ATTRIBUTE, locationPath = "/imdb/category/movie/cast/actor", attributeNames = {
+				"realName", "charName" })
+		void actor(int index, String value) {
+			actors.add(index + "=" + value);
+		}
+
+		void notARule(String value) {
+			fail();
+		}
+	}
+
+	static class InvalidHandler {
+		@RuleMethod(type = Type.CHARACTER, locationPath = "/imdb/category/movie/name")
+		void name(int index) {
+		}
+	}
+
+	static class AmbiguousHandler {
+		@RuleMethod(type = Type.CHARACTER, locationPath = "/imdb/category/movie/name")
+		void name(String text, Object userObject, List<?> other) {
+		}
+	}
+
+	static class PrimitiveHandler {
+		@RuleMethod(type = Type.CHARACTER, locationPath = "/imdb/category/movie/name")
+		void name(String text, long userObject) {
+		}
+	}
+
+	static class ThrowingHandler {
+		@RuleMethod(type = Type.CHARACTER, locationPath = "/imdb/category/movie/name")
+		void name(String text) {
+			throw new IllegalStateException("thrown");
+		}
+	}
+}
@@ -0,0 +1,168 @@
+/**   
+ * Copyright 2011 The Buzz Media, LLC
+ * 
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *   http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.thebuzzmedia.sjxp.rule;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.Random;
+
+import org.junit.Test;
+
+import com.thebuzzmedia.sjxp.XMLParser;
+import com.thebuzzmedia.sjxp.XMLParserException;
+
+import static junit.framework.Assert.*;
+
+@SuppressWarnings({ "rawtypes", "unchecked" })
+public class Base64RuleTest {
+	private static final String ALPHABET = "ABCDEFGHIJKLMNOPQRSTUVWXYZabcdefghijklmnopqrstuvwxyz0123456789+/";
+
+	@Test
+	public void testAttachment() throws Exception {
+		byte[] data = new byte[100000];
+		new Random(42).nextBytes(data);
+
+		String xml = "<message><attachment>\n" + encode(data, 76)
+				+ "\n</attachment><attachment>\n</attachment></message>";
+
+		StreamRule rule = new StreamRule(1000);
+		XMLParser parser = new XMLParser(rule);
+		parser.parse(new ByteArrayInputStream(xml.getBytes("UTF-8")));
+
+		assertEquals(2, rule.streams.size());
+		assertTrue(Arrays.equals(data, rule.streams.get(0).toByteArray()));
+		assertEquals(0, rule.streams.get(1).size());
+		assertEquals("[100000, 0]", rule.lengths.toString());
+
+		// Nothing is written in more than one buffer at a time
+		assertEquals(1000, rule.maxWrite);
+	}
+
+	@Test
+	public void testPadding() throws Exception {
+		StreamRule rule = new StreamRule(3);
+		XMLParser parser = new XMLParser(rule);
+		parser.parse(new ByteArrayInputStream(("<message>"
+				+ "<attachment>QQ==</attachment><attachment>QUI=</attachment>"
+				+ "<attachment>QUJD</attachment><attachment>QUJDRA</attachment>"
+				+ "<attachment>QUJDRA== </attachment></message>")
+				.getBytes("UTF-8")));
+
+		List<String> values = new ArrayList<String>();
+
+		for (int i = 0; i < rule.streams.size(); i++)
+			values.add(rule.streams.get(i).toString("UTF-8"));
+
+		assertEquals("[A, AB, ABC, ABCD, ABCD]", values.toString());
+	}
+
+	@Test
+	public void testInvalid() throws Exception {
+		String[] invalid = new String[] { "QU!D", "QUJDR", "QQ==QQ==" };
+
+		for (int i = 0; i < invalid.length; i++) {
+			StreamRule rule = new StreamRule(3);
+			XMLParser parser = new XMLParser(rule);
+
+			try {
+				parser.parse(new ByteArrayInputStream(("<message><attachment>"
+						+ invalid[i] + "</attachment></message>")
+						.getBytes("UTF-8")));
+				fail(invalid[i]);
+			} catch (XMLParserException e) {
+				assertTrue(true);
+			}
+
+			// The stream is closed, but not as a finished attachment
+			assertEquals(invalid[i], 1, rule.closed);
+			assertEquals(0, rule.lengths.size());
+		}
+
+		try {
+			new StreamRule(2);
+			assertTrue(false);
+		} catch (IllegalArgumentException e) {
+			assertTrue(true);
+		}
+	}
+
+	private static String encode(byte[] data, int lineLength) {
+		StringBuilder text = new StringBuilder();
+
+		for (int i = 0; i < data.length; i += 3) {
+			int bits = (data[i] & 0xFF) << 16;
+			int count = Math.min(3, data.length - i);
+
+			if (count > 1)
+				bits |= (data[i + 1] & 0xFF) << 8;
+			if (count > 2)
+				bits |= data[i + 2] & 0xFF;
+
+			for (int j = 0; j < 4; j++)
+				text.append(j <= count ? ALPHABET
+						.charAt((bits >> (18 - j * 6)) & 0x3F) : '=');
+
+			if (lineLength > 0 && (i / 3 + 1) % (lineLength / 4) == 0)
+				text.append('\n');
+		}
+
+		return text.toString();
+	}
+
+	class StreamRule extends Base64Rule {
+		private List<ByteArrayOutputStream> streams = new ArrayList<ByteArrayOutputStream>();
+		private List<Long> lengths = new ArrayList<Long>();
+		private int maxWrite;
+		private int closed;
+
+		public StreamRule(int bufferSize) {
+			super("/message/attachment", bufferSize);
+		}
+
+		@Override
+		protected OutputStream openOutputStream(XMLParser parser,
+				Object userObject) throws IOException {
+			ByteArrayOutputStream stream = new ByteArrayOutputStream() {
+				@Override
+				public synchronized void write(byte[] b, int off, int len) {
+					maxWrite = Math.max(maxWrite, len);
+					super.write(b, off, len);
+				}
+
+				@Override
+				public void close() throws IOException {
+					closed++;
+					super.close();
+				}
+			};
+
+			streams.add(stream);
+			return stream;
+		}
+
+		@Override
+		protected void closeOutputStream(XMLParser parser, OutputStream out,
+				long length, Object userObject) throws IOException {
+			lengths.add(length);
+			super.closeOutputStream(parser, out, length, userObject);
+		}
+	}
+}